@@ -0,0 +1,178 @@
+package comp207p.bench;
+
+import comp207p.main.ConstantFolder;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many classes per second ConstantFolder can optimise, and how much it allocates doing so.
+ *
+ * Each workload is one class file: the compiled comp207p.target classes, and SyntheticClasses of every kind at
+ * every size in -sizes. A workload is optimised repeatedly for -warmup ms, then timed for -iterations rounds of
+ * -time ms each; the best round is reported, as the other rounds only add JIT and GC noise.
+ *
+ * Allocation comes from the per-thread allocation counter of the HotSpot ThreadMXBean and GC activity from the
+ * GarbageCollectorMXBeans, the same sources the JMH GC profiler reads.
+ *
+ * For the synthetic classes the report also shows the scaling exponent k between consecutive sizes, where the
+ * time per class grows like size^k: about 1 for linear passes, 2 for quadratic ones. With -maxExponent the run
+ * fails when the exponent between the two largest sizes of any kind is above the limit, so a release build can
+ * be gated on it.
+ */
+public class OptimiserBenchmark {
+
+    @Option(name="-classes", usage="Directory of compiled classes; the classes in comp207p/target are benchmarked too")
+    private String classesDirectory = null;
+
+    @Option(name="-sizes", usage="Comma separated sizes of the synthetic methods (default: 16,64,256)")
+    private String sizes = "16,64,256";
+
+    @Option(name="-warmup", usage="Warm-up time per workload in ms (default: 1000)")
+    private long warmupMillis = 1000;
+
+    @Option(name="-time", usage="Length of one measured round in ms (default: 1000)")
+    private long roundMillis = 1000;
+
+    @Option(name="-iterations", usage="Measured rounds per workload (default: 3)")
+    private int iterations = 3;
+
+    @Option(name="-maxExponent", usage="Fail if any synthetic kind scales worse than size^k between its two largest sizes")
+    private double maxExponent = 0;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps the optimiser output reachable so the JIT cannot drop the work.
+    private long sink = 0;
+
+    public static void main(String[] args) throws IOException {
+        OptimiserBenchmark benchmark = new OptimiserBenchmark();
+        CmdLineParser parser = new CmdLineParser(benchmark);
+        try {
+            parser.parseArgument(args);
+            if (benchmark.iterations < 1) {
+                throw new CmdLineException(parser, "-iterations must be at least 1");
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        if (!benchmark.run()) {
+            System.exit(1);
+        }
+    }
+
+    private boolean run() throws IOException {
+        System.out.format("%-45s %12s %12s %14s %10s %6s%n", "workload", "classes/s", "us/class", "alloc KB/class", "alloc MB/s", "GCs");
+
+        if (classesDirectory != null) {
+            Path targets = Paths.get(classesDirectory, "comp207p", "target");
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(targets, "*.class")) {
+                List<Path> files = new ArrayList<>();
+                stream.forEach(files::add);
+                files.sort(null);
+                for (Path file : files) {
+                    measure("target/" + file.getFileName(), Files.readAllBytes(file));
+                }
+            }
+        }
+
+        boolean passed = true;
+        for (SyntheticClasses.Kind kind : SyntheticClasses.Kind.values()) {
+            int previousSize = 0;
+            double previousNanos = 0;
+            double exponent = 0;
+            for (String sizeText : sizes.split(",")) {
+                int size = Integer.parseInt(sizeText.trim());
+                Result result = measure(kind + " size=" + size, SyntheticClasses.generate(kind, size));
+                if (previousSize > 0) {
+                    exponent = Math.log(result.nanosPerClass / previousNanos) / Math.log((double) size / previousSize);
+                    System.out.format("%-45s scaling exponent %.2f%n", "", exponent);
+                }
+                previousSize = size;
+                previousNanos = result.nanosPerClass;
+            }
+            if (maxExponent > 0 && exponent > maxExponent) {
+                System.err.format("FAILED: %s scales as size^%.2f, above the limit of %.2f.%n", kind, exponent, maxExponent);
+                passed = false;
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+        return passed;
+    }
+
+    private Result measure(String name, byte[] classBytes) throws IOException {
+        long warmupEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        while (System.nanoTime() < warmupEnd) {
+            optimise(classBytes);
+        }
+
+        Result best = null;
+        for (int i = 0; i < iterations; i++) {
+            Result round = round(classBytes);
+            if (best == null || round.nanosPerClass < best.nanosPerClass) {
+                best = round;
+            }
+        }
+
+        System.out.format("%-45s %12.1f %12.1f %14.1f %10.1f %6d%n", name,
+                1e9 / best.nanosPerClass, best.nanosPerClass / 1e3, best.bytesPerClass / 1024,
+                best.bytesPerClass / best.nanosPerClass * 1e9 / (1024 * 1024), best.gcCount);
+        return best;
+    }
+
+    private Result round(byte[] classBytes) throws IOException {
+        long thread = Thread.currentThread().getId();
+        long gcBefore = gcCount();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(roundMillis);
+
+        long count = 0;
+        long now;
+        do {
+            optimise(classBytes);
+            count++;
+            now = System.nanoTime();
+        } while (now < end);
+
+        Result result = new Result();
+        result.nanosPerClass = (double) (now - start) / count;
+        result.bytesPerClass = (double) (THREADS.getThreadAllocatedBytes(thread) - allocatedBefore) / count;
+        result.gcCount = gcCount() - gcBefore;
+        return result;
+    }
+
+    private void optimise(byte[] classBytes) throws IOException {
+        ConstantFolder cf = new ConstantFolder(new ByteArrayInputStream(classBytes), "<benchmark>");
+        sink += cf.toByteArray().length;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static class Result {
+        double nanosPerClass;
+        double bytesPerClass;
+        long gcCount;
+    }
+}
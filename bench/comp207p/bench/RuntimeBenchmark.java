@@ -0,0 +1,189 @@
+package comp207p.bench;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.InstructionList;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the speed of the original and the optimised versions of the target classes, method by method.
+ *
+ * Each version is loaded through its own class loader, so both can be run in the same JVM. Every public
+ * no-argument method is timed for both versions in alternating rounds, which spreads any drift in machine load
+ * evenly over the two. The report gives the time per call, the speedup (original time / optimised time) and the
+ * change in the number of bytecode instructions of the method.
+ *
+ * Run it once with -Xint to see the effect on the interpreter, and once without for the JIT; "ant bench.runtime"
+ * does both. Output the methods print is discarded while they are being timed.
+ */
+public class RuntimeBenchmark {
+
+    @Option(name="-original", required=true, usage="Directory of the original classes")
+    private String originalDirectory;
+
+    @Option(name="-optimised", required=true, usage="Directory of the optimised classes")
+    private String optimisedDirectory;
+
+    @Option(name="-targets", usage="Comma separated classes to compare (default: the three comp207p.target classes)")
+    private String targets = "comp207p.target.SimpleFolding,comp207p.target.ConstantVariableFolding,comp207p.target.DynamicVariableFolding";
+
+    @Option(name="-warmup", usage="Warm-up time per method and version in ms (default: 500)")
+    private long warmupMillis = 500;
+
+    @Option(name="-time", usage="Length of one measured round in ms (default: 200)")
+    private long roundMillis = 200;
+
+    @Option(name="-iterations", usage="Measured rounds per method and version (default: 5)")
+    private int iterations = 5;
+
+    // Keeps the results reachable so the JIT cannot drop the calls.
+    private int sink = 0;
+
+    public static void main(String[] args) throws Throwable {
+        RuntimeBenchmark benchmark = new RuntimeBenchmark();
+        CmdLineParser parser = new CmdLineParser(benchmark);
+        try {
+            parser.parseArgument(args);
+            if (benchmark.iterations < 1) {
+                throw new CmdLineException(parser, "-iterations must be at least 1");
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            System.exit(-1);
+        }
+        benchmark.run();
+    }
+
+    private void run() throws Throwable {
+        boolean interpreted = ManagementFactory.getRuntimeMXBean().getInputArguments().contains("-Xint");
+        System.out.println("Mode: " + (interpreted ? "interpreted (-Xint)" : "JIT"));
+        System.out.format("%-55s %12s %12s %8s %14s%n", "method", "original ns", "optimised ns", "speedup", "instructions");
+
+        ClassLoader originalLoader = loader(originalDirectory);
+        ClassLoader optimisedLoader = loader(optimisedDirectory);
+        PrintStream out = System.out;
+
+        for (String className : targets.split(",")) {
+            className = className.trim();
+            Class<?> originalClass = originalLoader.loadClass(className);
+            Class<?> optimisedClass = optimisedLoader.loadClass(className);
+            Object originalInstance = originalClass.getConstructor().newInstance();
+            Object optimisedInstance = optimisedClass.getConstructor().newInstance();
+
+            List<java.lang.reflect.Method> methods = new ArrayList<>();
+            for (java.lang.reflect.Method method : originalClass.getDeclaredMethods()) {
+                if (Modifier.isPublic(method.getModifiers()) && method.getParameterCount() == 0) {
+                    methods.add(method);
+                }
+            }
+            methods.sort(Comparator.comparing(java.lang.reflect.Method::getName));
+
+            for (java.lang.reflect.Method method : methods) {
+                MethodHandle original = handle(originalClass, method, originalInstance);
+                MethodHandle optimised = handle(optimisedClass, method, optimisedInstance);
+
+                double originalNanos;
+                double optimisedNanos;
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                try {
+                    double[] times = compare(original, optimised);
+                    originalNanos = times[0];
+                    optimisedNanos = times[1];
+                } finally {
+                    System.setOut(out);
+                }
+
+                String signature = MethodType.methodType(method.getReturnType()).toMethodDescriptorString();
+                int originalCount = instructionCount(originalDirectory, className, method.getName(), signature);
+                int optimisedCount = instructionCount(optimisedDirectory, className, method.getName(), signature);
+                System.out.format("%-55s %12.1f %12.1f %7.2fx %6d -> %-5d%n",
+                        className + "." + method.getName() + signature, originalNanos, optimisedNanos,
+                        originalNanos / optimisedNanos, originalCount, optimisedCount);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Returns the best time per call of each version, in ns.
+     */
+    private double[] compare(MethodHandle original, MethodHandle optimised) throws Throwable {
+        callFor(original, warmupMillis);
+        callFor(optimised, warmupMillis);
+
+        double[] best = { Double.MAX_VALUE, Double.MAX_VALUE };
+        for (int i = 0; i < iterations; i++) {
+            best[0] = Math.min(best[0], callFor(original, roundMillis));
+            best[1] = Math.min(best[1], callFor(optimised, roundMillis));
+        }
+        return best;
+    }
+
+    /**
+     * Calls the method repeatedly for the given time and returns the average time per call in ns.
+     */
+    private double callFor(MethodHandle method, long millis) throws Throwable {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        long calls = 0;
+        long now;
+        do {
+            // Batches keep the clock reads out of the measurement of fast methods.
+            for (int i = 0; i < 100; i++) {
+                Object result = (Object) method.invokeExact();
+                sink += result == null ? 0 : result.hashCode();
+            }
+            calls += 100;
+            now = System.nanoTime();
+        } while (now < end);
+        return (double) (now - start) / calls;
+    }
+
+    private static MethodHandle handle(Class<?> type, java.lang.reflect.Method method, Object instance) throws ReflectiveOperationException {
+        MethodHandle handle = MethodHandles.publicLookup()
+                .findVirtual(type, method.getName(), MethodType.methodType(method.getReturnType()))
+                .bindTo(instance);
+        return handle.asType(MethodType.methodType(Object.class));
+    }
+
+    private static ClassLoader loader(String directory) throws IOException {
+        URL url = Paths.get(directory).toUri().toURL();
+        return new URLClassLoader(new URL[] { url }, ClassLoader.getPlatformClassLoader());
+    }
+
+    private static int instructionCount(String directory, String className, String name, String signature) throws IOException {
+        Path file = Paths.get(directory, className.replace('.', '/') + ".class");
+        JavaClass javaClass = new ClassParser(file.toString()).parse();
+        return Arrays.stream(javaClass.getMethods())
+                .filter(m -> m.getName().equals(name) && m.getSignature().equals(signature))
+                .findFirst()
+                .map(RuntimeBenchmark::instructionCount)
+                .orElse(-1);
+    }
+
+    private static int instructionCount(Method method) {
+        return method.getCode() == null ? 0 : new InstructionList(method.getCode().getCode()).getLength();
+    }
+}
@@ -0,0 +1,122 @@
+package comp207p.bench;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+/**
+ * Generates class files whose methods grow with a size parameter, to show how the optimiser scales.
+ *
+ * The generated code is valid bytecode but is only ever optimised, never loaded.
+ */
+public final class SyntheticClasses {
+
+    /** The shapes of method that can be generated. */
+    public enum Kind {
+        /** size literal operands combined by alternating iadd/imul: a long chain for simple folding. */
+        ARITHMETIC_CHAIN,
+        /** size int locals, each stored from a literal and then summed: many stores and loads to fold. */
+        MANY_LOCALS,
+        /** size nested counting loops around one constant expression: many loop regions and back edges. */
+        DEEP_LOOPS
+    }
+
+    private SyntheticClasses() {
+    }
+
+    /**
+     * Returns the bytes of a class named comp207p.bench.generated.&lt;Kind&gt;&lt;size&gt; with one static
+     * method "run()I" of the given kind.
+     */
+    public static byte[] generate(Kind kind, int size) {
+        String className = "comp207p.bench.generated." + kind.name() + size;
+        ClassGen cgen = new ClassGen(className, "java.lang.Object", "<generated>",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+
+        InstructionList il = new InstructionList();
+        switch (kind) {
+            case ARITHMETIC_CHAIN:
+                arithmeticChain(il, cpgen, size);
+                break;
+            case MANY_LOCALS:
+                manyLocals(il, cpgen, size);
+                break;
+            case DEEP_LOOPS:
+                deepLoops(il, cpgen, size);
+                break;
+        }
+
+        MethodGen methodGen = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, Type.NO_ARGS,
+                null, "run", className, il, cpgen);
+        methodGen.setMaxStack();
+        methodGen.setMaxLocals();
+        cgen.addMethod(methodGen.getMethod());
+        il.dispose();
+
+        return cgen.getJavaClass().getBytes();
+    }
+
+    private static void arithmeticChain(InstructionList il, ConstantPoolGen cpgen, int size) {
+        il.append(new PUSH(cpgen, 1));
+        for (int i = 0; i < size; i++) {
+            il.append(new PUSH(cpgen, 1000 + i));
+            il.append(i % 2 == 0 ? new IADD() : new IMUL());
+        }
+        il.append(new IRETURN());
+    }
+
+    private static void manyLocals(InstructionList il, ConstantPoolGen cpgen, int size) {
+        for (int i = 0; i < size; i++) {
+            il.append(new PUSH(cpgen, 1000 + i));
+            il.append(new ISTORE(i));
+        }
+        il.append(new PUSH(cpgen, 0));
+        for (int i = 0; i < size; i++) {
+            il.append(new ILOAD(i));
+            il.append(new IADD());
+        }
+        il.append(new IRETURN());
+    }
+
+    /*
+     * Local 0 accumulates, locals 1..size are the loop counters:
+     *
+     *     acc = 0;
+     *     for (c1 = 0; c1 < 2; c1++)
+     *         for (c2 = 0; c2 < 2; c2++)
+     *             ...
+     *                 acc = acc + 3 * 4;
+     *     return acc;
+     */
+    private static void deepLoops(InstructionList il, ConstantPoolGen cpgen, int size) {
+        il.append(new PUSH(cpgen, 0));
+        il.append(new ISTORE(0));
+
+        InstructionHandle[] headers = new InstructionHandle[size];
+        BranchHandle[] exits = new BranchHandle[size];
+        for (int depth = 0; depth < size; depth++) {
+            int counter = depth + 1;
+            il.append(new PUSH(cpgen, 0));
+            il.append(new ISTORE(counter));
+            headers[depth] = il.append(new ILOAD(counter));
+            il.append(new PUSH(cpgen, 2));
+            exits[depth] = il.append(new IF_ICMPGE(null));
+        }
+
+        il.append(new ILOAD(0));
+        il.append(new PUSH(cpgen, 3));
+        il.append(new PUSH(cpgen, 4));
+        il.append(new IMUL());
+        il.append(new IADD());
+        il.append(new ISTORE(0));
+
+        for (int depth = size - 1; depth >= 0; depth--) {
+            il.append(new IINC(depth + 1, 1));
+            il.append(new GOTO(headers[depth]));
+            // The loop exits to whatever follows its back edge: the enclosing loop's increment, or the return.
+            exits[depth].setTarget(il.append(new NOP()));
+        }
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+    }
+}
@@ -0,0 +1,369 @@
+package comp207p.main;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Simplifies arithmetic with one literal operand, or with the same local as both operands:
+ *
+ *     x + 0, x - 0, x | 0, x ^ 0, x * 1, x / 1, x & -1, x << 0    ->  x
+ *     x * 0, x & 0, x % 1, x % -1                                  ->  pop x; 0
+ *     x * -1, x / -1                                               ->  -x
+ *     x * 2^k                                                      ->  x << k
+ *     x / 2^k, x % 2^k   (x known to be non-negative)              ->  x >> k, x & (2^k - 1)
+ *     x - x, x ^ x                                                 ->  0
+ *     x & x, x | x                                                 ->  x
+ *
+ * for int and long x, and for float and double x only the rules that hold for every IEEE value including NaN,
+ * the infinities and -0.0:
+ *
+ *     x * 1.0, x / 1.0, x + -0.0, x - 0.0                          ->  x
+ *     x * -1.0, x / -1.0                                           ->  -x
+ *     x / 2^k                                                      ->  x * 2^-k   (when 2^-k is a normal number)
+ *
+ * So x + 0.0 stays (it turns -0.0 into 0.0), as do x * 0.0 and x - x (NaN for infinite x).
+ *
+ * The literal must come right before the operator; for commutative operators it may also come right before a
+ * load of the other operand. x itself is never removed, so any side effects of computing it stay. Whether x is
+ * non-negative is only known when the instruction that computed it is right before the literal: an ARRAYLENGTH,
+ * a char load or conversion, an unsigned shift by a non-zero distance, or an AND with a non-negative literal.
+ */
+public class AlgebraicSimplification
+{
+	private static final InstructionPattern SAME_OPERANDS_PATTERN = InstructionPattern.compile("LoadInstruction LoadInstruction ArithmeticInstruction");
+	private static final InstructionPattern LEFT_LITERAL_PATTERN = InstructionPattern.compile("(LDC|LDC2_W|ConstantPushInstruction) LoadInstruction ArithmeticInstruction");
+	private static final InstructionPattern RIGHT_LITERAL_PATTERN = InstructionPattern.compile("(LDC|LDC2_W|ConstantPushInstruction) ArithmeticInstruction");
+
+	// New literal operands come from folding and from the loads the variable folding passes replace.
+	public static final OptimisationPass PASS = new OptimisationPass("algebraicSimplification",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			if (Log.verbose()) {
+				Log.println("* * Optimization 04: Algebraic Simplification --------------");
+			}
+			int rewrites = AlgebraicSimplification.run(methodGen);
+			if (Log.debug()) {
+				Log.println("Simplified " + rewrites + " operators.");
+			}
+			stats.folds += rewrites;
+			return rewrites > 0;
+		}
+	};
+
+	private final MethodGen methodGen;
+	private final InstructionList il;
+	private final ConstantPoolGen cpgen;
+	private int rewrites = 0;
+
+	private AlgebraicSimplification(MethodGen methodGen)
+	{
+		this.methodGen = methodGen;
+		this.il = methodGen.getInstructionList();
+		this.cpgen = methodGen.getConstantPool();
+	}
+
+	/**
+	 * Runs the simplification on the method and returns the number of operators rewritten.
+	 */
+	public static int run(MethodGen methodGen)
+	{
+		if (methodGen.getInstructionList() == null) {
+			return 0;
+		}
+		AlgebraicSimplification simplification = new AlgebraicSimplification(methodGen);
+		simplification.simplify();
+		return simplification.rewrites;
+	}
+
+	/**
+	 * One scan. After each rewrite, matching resumes just far enough back to catch a new match the rewritten
+	 * code is part of, so "x * 1 * 8" ends up as "x << 3".
+	 */
+	private void simplify()
+	{
+		InstructionHandle ih = il.getStart();
+		while (ih != null) {
+			InstructionHandle changed = simplifyAt(ih);
+			if (changed == null) {
+				ih = ih.getNext();
+			} else {
+				rewrites++;
+				ih = InstructionPattern.rewind(changed, SAME_OPERANDS_PATTERN.maxLength() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the first match starting at ih that simplifies. Returns an instruction at or before the change,
+	 * or null if nothing changed.
+	 */
+	private InstructionHandle simplifyAt(InstructionHandle ih)
+	{
+		InstructionHandle[] match = SAME_OPERANDS_PATTERN.match(ih);
+		if (match != null && !isEntered(match, 1)) {
+			InstructionList replacement = sameOperands((LoadInstruction) match[0].getInstruction(),
+					(LoadInstruction) match[1].getInstruction(), (ArithmeticInstruction) match[2].getInstruction());
+			if (replacement != null) {
+				return replace(match[0], match[2], replacement);
+			}
+		}
+
+		match = LEFT_LITERAL_PATTERN.match(ih);
+		if (match != null && !isEntered(match, 1) && isCommutative(match[2].getInstruction())) {
+			Number literal = ConstantEvaluator.literalValue(match[0].getInstruction(), cpgen);
+			InstructionList replacement = literal == null ? null
+					: withLiteral((ArithmeticInstruction) match[2].getInstruction(), literal, null);
+			if (replacement != null) {
+				// "c; load; op" becomes "load; replacement".
+				replacement.insert(match[1].getInstruction().copy());
+				return replace(match[0], match[2], replacement);
+			}
+		}
+
+		match = RIGHT_LITERAL_PATTERN.match(ih);
+		if (match != null && !isEntered(match, 1)) {
+			Number literal = ConstantEvaluator.literalValue(match[0].getInstruction(), cpgen);
+			// Control that jumps to the literal brings its own x, so then nothing is known about x.
+			InstructionHandle producer = CodeEditing.isJumpTarget(match[0]) ? null : match[0].getPrev();
+			InstructionList replacement = literal == null ? null
+					: withLiteral((ArithmeticInstruction) match[1].getInstruction(), literal, producer);
+			if (replacement != null) {
+				return replace(match[0], match[1], replacement);
+			}
+		}
+		return null;
+	}
+
+	// ===========================
+	// ========= RULES ===========
+	// ===========================
+
+	/**
+	 * Returns what "x; literal; operator" simplifies to after x, or null if it does not simplify. An empty list
+	 * means x is the result. producer, if not null, is the instruction that pushed x.
+	 */
+	private InstructionList withLiteral(ArithmeticInstruction operator, Number literal, InstructionHandle producer)
+	{
+		Type type = operator.getType(cpgen);
+		if (type == Type.FLOAT || type == Type.DOUBLE) {
+			return withFloatingLiteral(operator, literal.doubleValue(), type);
+		}
+
+		long value = literal.longValue();
+		switch (operator.getName().substring(1)) {
+			case "add": case "sub": case "or": case "xor":
+				return value == 0 ? new InstructionList() : null;
+			case "shl": case "shr": case "ushr":
+				// Only the low 5 (int) or 6 (long) bits of the distance count.
+				return (value & (type == Type.LONG ? 63 : 31)) == 0 ? new InstructionList() : null;
+			case "and":
+				if (value == -1) {
+					return new InstructionList();
+				}
+				return value == 0 ? zero(type) : null;
+			case "mul":
+				if (value == 1) {
+					return new InstructionList();
+				} else if (value == 0) {
+					return zero(type);
+				} else if (value == -1) {
+					return new InstructionList(negate(type));
+				} else if (isPowerOfTwo(value)) {
+					InstructionList shift = new InstructionList(ConstantEncoding.push(cpgen, Long.numberOfTrailingZeros(value)));
+					shift.append(type == Type.LONG ? new LSHL() : new ISHL());
+					return shift;
+				}
+				return null;
+			case "div":
+				if (value == 1) {
+					return new InstructionList();
+				} else if (value == -1) {
+					// Also right for the minimum value, which both leave unchanged.
+					return new InstructionList(negate(type));
+				} else if (isPowerOfTwo(value) && isNonNegative(producer)) {
+					InstructionList shift = new InstructionList(ConstantEncoding.push(cpgen, Long.numberOfTrailingZeros(value)));
+					shift.append(type == Type.LONG ? new LSHR() : new ISHR());
+					return shift;
+				}
+				return null;
+			case "rem":
+				if (value == 1 || value == -1) {
+					return zero(type);
+				} else if (isPowerOfTwo(value) && isNonNegative(producer)) {
+					InstructionList mask = new InstructionList(type == Type.LONG ? ConstantEncoding.push(cpgen, value - 1) : ConstantEncoding.push(cpgen, (int) value - 1));
+					mask.append(type == Type.LONG ? new LAND() : new IAND());
+					return mask;
+				}
+				return null;
+			default:
+				return null;
+		}
+	}
+
+	private InstructionList withFloatingLiteral(ArithmeticInstruction operator, double value, Type type)
+	{
+		switch (operator.getName().substring(1)) {
+			case "mul":
+				if (value == 1.0) {
+					return new InstructionList();
+				}
+				return value == -1.0 ? new InstructionList(negate(type)) : null;
+			case "div":
+				if (value == 1.0) {
+					return new InstructionList();
+				} else if (value == -1.0) {
+					return new InstructionList(negate(type));
+				} else if (hasExactReciprocal(value, type)) {
+					// Both round the same exact quotient.
+					InstructionList multiply = new InstructionList(type == Type.FLOAT ? ConstantEncoding.push(cpgen, (float) (1.0 / value)) : ConstantEncoding.push(cpgen, 1.0 / value));
+					multiply.append(type == Type.FLOAT ? new FMUL() : new DMUL());
+					return multiply;
+				}
+				return null;
+			case "add":
+				// -0.0 + -0.0 is -0.0, but -0.0 + 0.0 is 0.0.
+				return isZero(value, true) ? new InstructionList() : null;
+			case "sub":
+				return isZero(value, false) ? new InstructionList() : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Returns what "load a; load b; operator" simplifies to, or null.
+	 */
+	private InstructionList sameOperands(LoadInstruction a, LoadInstruction b, ArithmeticInstruction operator)
+	{
+		Type type = operator.getType(cpgen);
+		if (a.getOpcode() != b.getOpcode() || a.getIndex() != b.getIndex() || (type != Type.INT && type != Type.LONG)
+				|| !a.getType(cpgen).equals(type)) {
+			return null;
+		}
+		switch (operator.getName().substring(1)) {
+			case "sub": case "xor":
+				return new InstructionList(type == Type.LONG ? ConstantEncoding.push(cpgen, 0L) : ConstantEncoding.push(cpgen, 0));
+			case "and": case "or":
+				return new InstructionList(a.copy());
+			default:
+				return null;
+		}
+	}
+
+	// ===========================
+	// ======== UTILITIES ========
+	// ===========================
+
+	/**
+	 * Replaces from..to, returning the first new instruction, or the one before the range if replacement is empty.
+	 */
+	private InstructionHandle replace(InstructionHandle from, InstructionHandle to, InstructionList replacement)
+	{
+		if (!replacement.isEmpty()) {
+			return CodeEditing.replace(methodGen, from, to, replacement);
+		}
+		InstructionHandle before = from.getPrev();
+		CodeEditing.delete(methodGen, from, to);
+		return before != null ? before : il.getStart();
+	}
+
+	/**
+	 * True if control can enter the match other than at match[0], from instruction index first onwards.
+	 */
+	private static boolean isEntered(InstructionHandle[] match, int first)
+	{
+		for (int i = first; i < match.length; i++) {
+			if (CodeEditing.isJumpTarget(match[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * True if producer is known to push a non-negative int or long.
+	 */
+	private boolean isNonNegative(InstructionHandle producer)
+	{
+		if (producer == null) {
+			return false;
+		}
+		Instruction instruction = producer.getInstruction();
+		if (instruction instanceof ARRAYLENGTH || instruction instanceof I2C || instruction instanceof CALOAD) {
+			return true;
+		}
+
+		// "y; literal; op" where the literal decides the sign of the result.
+		InstructionHandle operand = producer.getPrev();
+		if (operand == null || CodeEditing.isJumpTarget(producer)) {
+			return false;
+		}
+		Number literal = ConstantEvaluator.literalValue(operand.getInstruction(), cpgen);
+		if (literal == null) {
+			return false;
+		}
+		if (instruction instanceof IUSHR) {
+			return (literal.intValue() & 31) != 0;
+		} else if (instruction instanceof LUSHR) {
+			return (literal.intValue() & 63) != 0;
+		} else if (instruction instanceof IAND || instruction instanceof LAND) {
+			return literal.longValue() >= 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Pops x and pushes a zero of its type.
+	 */
+	private InstructionList zero(Type type)
+	{
+		InstructionList zero = new InstructionList(type.getSize() == 2 ? new POP2() : new POP());
+		zero.append(type == Type.LONG ? ConstantEncoding.push(cpgen, 0L) : ConstantEncoding.push(cpgen, 0));
+		return zero;
+	}
+
+	private static Instruction negate(Type type)
+	{
+		if (type == Type.LONG) {
+			return new LNEG();
+		} else if (type == Type.FLOAT) {
+			return new FNEG();
+		} else if (type == Type.DOUBLE) {
+			return new DNEG();
+		}
+		return new INEG();
+	}
+
+	private static boolean isCommutative(Instruction instruction)
+	{
+		return instruction instanceof IADD || instruction instanceof LADD || instruction instanceof FADD || instruction instanceof DADD
+				|| instruction instanceof IMUL || instruction instanceof LMUL || instruction instanceof FMUL || instruction instanceof DMUL
+				|| instruction instanceof IAND || instruction instanceof LAND || instruction instanceof IOR || instruction instanceof LOR
+				|| instruction instanceof IXOR || instruction instanceof LXOR;
+	}
+
+	private static boolean isPowerOfTwo(long value)
+	{
+		return value > 1 && (value & (value - 1)) == 0;
+	}
+
+	private static boolean isZero(double value, boolean negative)
+	{
+		return value == 0.0 && (Double.doubleToRawLongBits(value) < 0) == negative;
+	}
+
+	/**
+	 * True if value is plus or minus a power of two whose reciprocal is a normal number of the type.
+	 */
+	private static boolean hasExactReciprocal(double value, Type type)
+	{
+		double magnitude = Math.abs(value);
+		int exponent = Math.getExponent(magnitude);
+		int minExponent = type == Type.FLOAT ? Float.MIN_EXPONENT : Double.MIN_EXPONENT;
+		int maxExponent = type == Type.FLOAT ? Float.MAX_EXPONENT : Double.MAX_EXPONENT;
+		return magnitude == Math.scalb(1.0, exponent) && -exponent >= minExponent && -exponent <= maxExponent
+				&& exponent >= minExponent && exponent <= maxExponent;
+	}
+}
@@ -0,0 +1,122 @@
+package comp207p.main;
+
+import java.util.LinkedHashMap;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Evaluates comparisons and conditional jumps whose operands are known constants.
+ * LCMP/FCMPx/DCMPx become a pop of their operands and an ICONST of the result; IFxx, IF_ICMPxx and switches
+ * become a pop of their operands, followed by a GOTO when the jump is taken. Constant propagation supplies the
+ * operands, so they need not be literals right before the instruction. The pops and the arm that can no longer
+ * be reached are left to dead code elimination.
+ * Iterations count the block visits until the constant propagation fixpoint.
+ */
+public class BranchFolding
+{
+	// Anything that makes more values constant can decide more branches.
+	public static final OptimisationPass PASS = new OptimisationPass("branchFolding",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification", "deadCodeElimination")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			return BranchFolding.run(methodGen, stats);
+		}
+	};
+
+	private BranchFolding()
+	{
+	}
+
+	/**
+	 * Folds every comparison and jump with known operands and returns true if there was any.
+	 */
+	public static boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Optimization 05: Branch Folding --------------");
+		}
+
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		ConstantPropagation constants = ConstantPropagation.analyze(methodGen, new ControlFlowGraph(methodGen));
+		if (constants == null) {
+			if (Log.verbose()) {
+				Log.println("Method uses subroutines - branch folding skipped.");
+			}
+			return false;
+		}
+		stats.iterations += constants.getIterations();
+
+		// Decide everything first: the analysis describes the code as it was.
+		LinkedHashMap<InstructionHandle, InstructionList> replacements = new LinkedHashMap<>();
+		InstructionList il = methodGen.getInstructionList();
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			Instruction instruction = ih.getInstruction();
+			int consumed = instruction.consumeStack(cpgen);
+			InstructionList replacement = null;
+
+			if (ConstantEvaluator.isComparison(instruction)) {
+				int size = consumed / 2;
+				Number right = constants.getStack(ih, size - 1);
+				Number left = constants.getStack(ih, 2 * size - 1);
+				if (left != null && right != null) {
+					replacement = pops(consumed);
+					replacement.append(ConstantEncoding.push(cpgen, ConstantEvaluator.compare(instruction, left, right)));
+				}
+			} else if (instruction instanceof IfInstruction) {
+				Number right = consumed == 2 ? constants.getStack(ih, 0) : null;
+				Number left = constants.getStack(ih, consumed - 1);
+				Boolean taken = ConstantEvaluator.branchTaken((IfInstruction) instruction, left, right);
+				if (taken != null) {
+					replacement = pops(consumed);
+					if (taken) {
+						replacement.append(new GOTO(((IfInstruction) instruction).getTarget()));
+					}
+				}
+			} else if (instruction instanceof Select) {
+				Select select = (Select) instruction;
+				Number key = constants.getStack(ih, 0);
+				if (key != null) {
+					InstructionHandle target = select.getTarget();
+					for (int i = 0; i < select.getMatchs().length; i++) {
+						if (select.getMatchs()[i] == key.intValue()) {
+							target = select.getTargets()[i];
+						}
+					}
+					replacement = pops(consumed);
+					replacement.append(new GOTO(target));
+				}
+			}
+
+			if (replacement != null) {
+				replacements.put(ih, replacement);
+			}
+		}
+
+		for (InstructionHandle ih : replacements.keySet()) {
+			if (Log.debug()) {
+				Log.println("Folded " + ih.getInstruction().getName() + " at " + ih.getPosition() + ".");
+			}
+			CodeEditing.replace(methodGen, ih, replacements.get(ih));
+			stats.folds++;
+		}
+		return !replacements.isEmpty();
+	}
+
+	/**
+	 * Returns instructions that pop the given number of stack slots, which must hold category 1 values or whole
+	 * category 2 values.
+	 */
+	private static InstructionList pops(int words)
+	{
+		InstructionList pops = new InstructionList();
+		for (; words >= 2; words -= 2) {
+			pops.append(new POP2());
+		}
+		if (words == 1) {
+			pops.append(new POP());
+		}
+		return pops;
+	}
+}
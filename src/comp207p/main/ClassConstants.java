@@ -0,0 +1,374 @@
+package comp207p.main;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.*;
+import org.apache.bcel.generic.*;
+
+/**
+ * The static final fields and the methods of one class whose value is the same every time they are read or
+ * called, for interprocedural constant propagation: substitute() replaces their uses in a method with literals,
+ * which the passes can then fold like any other.
+ *
+ * A static final field of a primitive type is known when it has a ConstantValue attribute, or when <clinit>
+ * assigns it a literal exactly once, before it runs any other code. Until that assignment the field reads as 0,
+ * and code run before it (a method of the class, or the initialiser of another class) could see that.
+ *
+ * A method is known when it returns a primitive, cannot be overridden, is small, and every return in it returns
+ * the same literal. The call stays, as it may have side effects or throw; its result is dropped and the literal
+ * pushed instead. A static method of the class itself that does nothing but return the literal is removed.
+ *
+ * Both are decided on a copy of <clinit> and of each candidate method, optimised by the same passes, so that
+ * e.g. "static final int N = 4 * 1024;" in a static block or "return WIDTH * 2;" is found too. Fields and
+ * methods of other classes are known through otherClasses, for a whole-program analysis; reading them keeps the
+ * field read or the call, so the other class is still initialised as before.
+ */
+public class ClassConstants
+{
+	/** The name that substitute() is reported under. */
+	public static final String PASS_NAME = "interproceduralConstants";
+
+	// Only methods with at most this many bytes of code are analysed, as each one is optimised twice.
+	private static final int MAX_METHOD_SIZE = 64;
+
+	private final String className;
+
+	// Field name + signature to value.
+	private final Map<String, Number> fields = new HashMap<>();
+
+	// Method name + signature to result.
+	private final Map<String, Result> methods = new HashMap<>();
+
+	// Constants of other classes by class name, or null.
+	private final Function<String, ClassConstants> otherClasses;
+
+	// The value a method always returns, and whether a static call of it can be replaced by the value.
+	private static final class Result
+	{
+		final Number value;
+		final boolean removable;
+
+		Result(Number value, boolean removable)
+		{
+			this.value = value;
+			this.removable = removable;
+		}
+	}
+
+	private ClassConstants(String className, Function<String, ClassConstants> otherClasses)
+	{
+		this.className = className;
+		this.otherClasses = otherClasses;
+	}
+
+	/**
+	 * Analyses clazz, running passManager on copies of its initialiser and its candidate methods.
+	 * otherClasses, which may be null, returns the constants of another class, or null if it is not known.
+	 */
+	public static ClassConstants analyse(JavaClass clazz, PassManager passManager, Function<String, ClassConstants> otherClasses)
+	{
+		ClassConstants constants = new ClassConstants(clazz.getClassName(), otherClasses);
+		for (Field field : clazz.getFields()) {
+			if (isCandidate(field) && field.getConstantValue() != null) {
+				Constant value = clazz.getConstantPool().getConstant(field.getConstantValue().getConstantValueIndex());
+				constants.fields.put(field.getName() + field.getSignature(), literal(value));
+			}
+		}
+
+		constants.analyseMethods(clazz, passManager);
+		// Methods may return the fields the initialiser assigns.
+		if (constants.analyseInitialiser(clazz, passManager)) {
+			constants.analyseMethods(clazz, passManager);
+		}
+		return constants;
+	}
+
+	/**
+	 * Replaces the reads of known fields and the results of calls to known methods in the method with literals.
+	 * Returns true if there was any.
+	 */
+	public boolean substitute(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Interprocedural constants ------------------------------");
+		}
+
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionList il = methodGen.getInstructionList();
+		// Until <clinit> has assigned them, the fields of the class read as 0 in it.
+		boolean inInitialiser = methodGen.getName().equals(Constants.STATIC_INITIALIZER_NAME);
+		boolean changed = false;
+
+		for (InstructionHandle ih : il.getInstructionHandles()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof GETSTATIC) {
+				GETSTATIC read = (GETSTATIC) instruction;
+				String owner = owner(read, cpgen);
+				Number value = owner == null ? null : constantsOf(owner) == null ? null
+						: constantsOf(owner).fields.get(read.getFieldName(cpgen) + read.getSignature(cpgen));
+				if (value == null || (inInitialiser && owner.equals(className))) {
+					continue;
+				}
+
+				Instruction push = ConstantEncoding.push(cpgen, value, read.getType(cpgen));
+				if (owner.equals(className)) {
+					ih.setInstruction(push);
+				} else {
+					// Reading the field initialises its class.
+					il.append(ih, replaceResult(read.getType(cpgen), push));
+				}
+				changed = true;
+				stats.loadsReplaced++;
+				if (Log.debug()) {
+					Log.printf("[INTERPROCEDURAL] Replaced %s.%s with %s.\n", owner, read.getFieldName(cpgen), value);
+				}
+			} else if (instruction instanceof INVOKESTATIC || instruction instanceof INVOKESPECIAL || instruction instanceof INVOKEVIRTUAL) {
+				InvokeInstruction call = (InvokeInstruction) instruction;
+				String owner = owner(call, cpgen);
+				ClassConstants constants = owner == null ? null : constantsOf(owner);
+				Result result = constants == null ? null : constants.methods.get(call.getMethodName(cpgen) + call.getSignature(cpgen));
+				if (result == null) {
+					continue;
+				}
+
+				Instruction push = ConstantEncoding.push(cpgen, result.value, call.getReturnType(cpgen));
+				if (result.removable && owner.equals(className)) {
+					InstructionList replacement = new InstructionList();
+					Type[] arguments = call.getArgumentTypes(cpgen);
+					for (int i = arguments.length - 1; i >= 0; i--) {
+						replacement.append(arguments[i].getSize() == 2 ? new POP2() : new POP());
+					}
+					replacement.append(push);
+					CodeEditing.replace(methodGen, ih, replacement);
+				} else {
+					il.append(ih, replaceResult(call.getReturnType(cpgen), push));
+				}
+				changed = true;
+				stats.folds++;
+				if (Log.debug()) {
+					Log.printf("[INTERPROCEDURAL] Replaced the result of %s.%s with %s.\n", owner, call.getMethodName(cpgen), result.value);
+				}
+			}
+		}
+		return changed;
+	}
+
+	private ClassConstants constantsOf(String owner)
+	{
+		if (owner.equals(className)) {
+			return this;
+		}
+		return otherClasses == null ? null : otherClasses.apply(owner);
+	}
+
+	/**
+	 * Finds the methods that always return the same literal, replacing what was found before.
+	 */
+	private void analyseMethods(JavaClass clazz, PassManager passManager)
+	{
+		Map<String, Result> found = new HashMap<>();
+		for (Method method : clazz.getMethods()) {
+			if (!isCandidate(clazz, method)) {
+				continue;
+			}
+			MethodGen methodGen = optimisedCopy(clazz, method, passManager);
+			Result result = result(methodGen, method);
+			if (result != null) {
+				found.put(method.getName() + method.getSignature(), result);
+			}
+			methodGen.getInstructionList().dispose();
+		}
+		methods.clear();
+		methods.putAll(found);
+	}
+
+	/**
+	 * Finds the fields that <clinit> assigns a literal before it runs any other code. Returns true if there was any.
+	 */
+	private boolean analyseInitialiser(JavaClass clazz, PassManager passManager)
+	{
+		Map<String, Integer> assignments = new HashMap<>();
+		for (Field field : clazz.getFields()) {
+			if (isCandidate(field) && field.getConstantValue() == null) {
+				assignments.put(field.getName() + field.getSignature(), 0);
+			}
+		}
+		Method initialiser = null;
+		for (Method method : clazz.getMethods()) {
+			if (method.getName().equals(Constants.STATIC_INITIALIZER_NAME)) {
+				initialiser = method;
+			}
+		}
+		if (assignments.isEmpty() || initialiser == null || initialiser.getCode() == null) {
+			return false;
+		}
+
+		// A final field can only be assigned by its own class; more than one assignment cannot be relied on.
+		ConstantPoolGen cpgen = new ConstantPoolGen(clazz.getConstantPool());
+		for (Method method : clazz.getMethods()) {
+			if (method.getCode() == null) {
+				continue;
+			}
+			InstructionList il = new InstructionList(method.getCode().getCode());
+			for (InstructionHandle ih : il.getInstructionHandles()) {
+				if (ih.getInstruction() instanceof PUTSTATIC && className.equals(owner((PUTSTATIC) ih.getInstruction(), cpgen))) {
+					PUTSTATIC write = (PUTSTATIC) ih.getInstruction();
+					assignments.computeIfPresent(write.getFieldName(cpgen) + write.getSignature(cpgen), (field, count) -> count + 1);
+				}
+			}
+			il.dispose();
+		}
+
+		MethodGen methodGen = optimisedCopy(clazz, initialiser, passManager);
+		// If an exception can be caught, the code after it may not run before the rest of the initialiser.
+		Set<InstructionHandle> protectedCode = new HashSet<>();
+		for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+			for (InstructionHandle ih = handler.getStartPC(); ih != handler.getEndPC().getNext(); ih = ih.getNext()) {
+				protectedCode.add(ih);
+			}
+		}
+		boolean found = false;
+		for (InstructionHandle ih = methodGen.getInstructionList().getStart();
+				ih != null && !CodeEditing.isJumpTarget(ih) && !protectedCode.contains(ih); ih = ih.getNext()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof PUTSTATIC && className.equals(owner((PUTSTATIC) instruction, methodGen.getConstantPool()))) {
+				PUTSTATIC write = (PUTSTATIC) instruction;
+				String field = write.getFieldName(methodGen.getConstantPool()) + write.getSignature(methodGen.getConstantPool());
+				Number value = ih.getPrev() == null ? null : literal(ih.getPrev().getInstruction(), methodGen.getConstantPool());
+				if (value != null && Integer.valueOf(1).equals(assignments.get(field))) {
+					fields.put(field, value);
+					found = true;
+				}
+			} else if (runsOtherCode(instruction, methodGen.getConstantPool())) {
+				break;
+			}
+		}
+		methodGen.getInstructionList().dispose();
+		return found;
+	}
+
+	/**
+	 * True if the instruction can run code other than the instructions that follow it: a call, a jump, or the
+	 * initialisation of another class.
+	 */
+	private boolean runsOtherCode(Instruction instruction, ConstantPoolGen cpgen)
+	{
+		if (instruction instanceof InvokeInstruction || instruction instanceof BranchInstruction || instruction instanceof NEW
+				|| ControlFlowGraph.endsFlow(instruction)) {
+			return true;
+		}
+		return (instruction instanceof GETSTATIC || instruction instanceof PUTSTATIC)
+				&& !className.equals(owner((FieldInstruction) instruction, cpgen));
+	}
+
+	private MethodGen optimisedCopy(JavaClass clazz, Method method, PassManager passManager)
+	{
+		if (Log.verbose()) {
+			Log.println("* Analysing method " + method.getName() + " for interprocedural constants...");
+		}
+		MethodGen methodGen = new MethodGen(method, clazz.getClassName(), new ConstantPoolGen(clazz.getConstantPool()));
+		CodeEditing.repairInvokeDynamic(methodGen.getInstructionList());
+		OptimisationStats.MethodStats methodStats = new OptimisationStats.MethodStats(method.getName() + method.getSignature(), 0);
+		OptimisationStats.PassStats stats = methodStats.startPass(PASS_NAME, methodGen.getConstantPool());
+		substitute(methodGen, stats);
+		stats.stop(methodGen.getConstantPool());
+		passManager.run(methodGen, methodStats);
+		return methodGen;
+	}
+
+	/**
+	 * Returns what the method always returns, or null if it can return different values.
+	 */
+	private static Result result(MethodGen methodGen, Method method)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		Number value = null;
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (!(ih.getInstruction() instanceof ReturnInstruction)) {
+				continue;
+			}
+			Number returned = CodeEditing.isJumpTarget(ih) || ih.getPrev() == null ? null
+					: literal(ih.getPrev().getInstruction(), methodGen.getConstantPool());
+			if (returned == null || (value != null && !value.equals(returned))) {
+				return null;
+			}
+			value = returned;
+		}
+		if (value == null) {
+			return null;
+		}
+		boolean removable = method.isStatic() && !method.isSynchronized() && il.getLength() == 2
+				&& methodGen.getExceptionHandlers().length == 0;
+		return new Result(value, removable);
+	}
+
+	/**
+	 * True for a method whose result could be known: it returns a primitive, has code that is not too long, and
+	 * every call to it runs this very code.
+	 */
+	private static boolean isCandidate(JavaClass clazz, Method method)
+	{
+		Code code = method.getCode();
+		return code != null && code.getCode().length <= MAX_METHOD_SIZE
+				&& method.getReturnType() instanceof BasicType && method.getReturnType() != Type.VOID
+				&& (method.isStatic() || method.isPrivate() || method.isFinal() || clazz.isFinal())
+				&& !method.getName().equals(Constants.CONSTRUCTOR_NAME);
+	}
+
+	private static boolean isCandidate(Field field)
+	{
+		return field.isStatic() && field.isFinal() && field.getType() instanceof BasicType;
+	}
+
+	/**
+	 * Returns the class named by a field or method reference, or null for an array type.
+	 */
+	private static String owner(org.apache.bcel.generic.FieldOrMethod instruction, ConstantPoolGen cpgen)
+	{
+		ReferenceType type = instruction.getReferenceType(cpgen);
+		return type instanceof ObjectType ? ((ObjectType) type).getClassName() : null;
+	}
+
+	/**
+	 * Returns the number pushed by a literal push, or null for any other instruction.
+	 */
+	private static Number literal(Instruction instruction, ConstantPoolGen cpgen)
+	{
+		if (instruction instanceof ConstantPushInstruction) {
+			return ((ConstantPushInstruction) instruction).getValue();
+		} else if (instruction instanceof LDC && ((LDC) instruction).getValue(cpgen) instanceof Number) {
+			return (Number) ((LDC) instruction).getValue(cpgen);
+		} else if (instruction instanceof LDC2_W) {
+			return ((LDC2_W) instruction).getValue(cpgen);
+		}
+		return null;
+	}
+
+	private static Number literal(Constant constant)
+	{
+		if (constant instanceof ConstantInteger) {
+			return ((ConstantInteger) constant).getBytes();
+		} else if (constant instanceof ConstantLong) {
+			return ((ConstantLong) constant).getBytes();
+		} else if (constant instanceof ConstantFloat) {
+			return ((ConstantFloat) constant).getBytes();
+		}
+		return ((ConstantDouble) constant).getBytes();
+	}
+
+	/**
+	 * Instructions that drop a result of the given type and push the literal instead.
+	 */
+	private static InstructionList replaceResult(Type type, Instruction push)
+	{
+		InstructionList list = new InstructionList();
+		list.append(type.getSize() == 2 ? new POP2() : new POP());
+		list.append(push);
+		return list;
+	}
+}
@@ -0,0 +1,280 @@
+package comp207p.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Answers the questions about other classes that StackMapGenerator needs to merge two reference types: the
+ * superclass of a class, and whether it is an interface.
+ *
+ * Classes are looked up by internal name ("java/lang/String") in a list of directories and JAR files, then in
+ * the JDK and on the class path of the optimiser itself. Only the header of each class file is read, and the
+ * answer is remembered. Nothing is ever loaded or initialised.
+ *
+ * The optimised output depends on these classes when two different classes meet where control flow joins, so
+ * the optimisation cache keys each entry by describeReferences() of its class as well.
+ */
+final class ClassHierarchy {
+
+    /** Looks in the JDK and on the class path of the optimiser only. */
+    static final ClassHierarchy SYSTEM = new ClassHierarchy(new ArrayList<>());
+
+    private static final String OBJECT = "java/lang/Object";
+
+    // Superclass (null for java/lang/Object) and interface flag of a class.
+    private static final class Header {
+        final String superName;
+        final boolean isInterface;
+
+        Header(String superName, boolean isInterface) {
+            this.superName = superName;
+            this.isInterface = isInterface;
+        }
+    }
+
+    private static final Header MISSING = new Header(null, false);
+
+    // A class named in a descriptor, a generic signature or the name of an array class.
+    private static final Pattern CLASS_IN_DESCRIPTOR = Pattern.compile("L([^;<>()\\[\\]]+)[;<]");
+
+    private final List<Path> directories = new ArrayList<>();
+    private final List<ZipFile> jars = new ArrayList<>();
+    private final Map<String, Header> headers = new ConcurrentHashMap<>();
+
+    /**
+     * roots are directories and JAR files; a root that does not exist is skipped.
+     */
+    ClassHierarchy(List<Path> roots) {
+        for (Path root : roots) {
+            try {
+                if (Files.isDirectory(root)) {
+                    directories.add(root);
+                } else if (Files.isRegularFile(root)) {
+                    jars.add(new ZipFile(root.toFile()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Parses a list of roots separated by File.pathSeparator, as in a class path.
+     */
+    static ClassHierarchy of(String classPath) {
+        List<Path> roots = new ArrayList<>();
+        for (String root : classPath.split(File.pathSeparator)) {
+            if (!root.isEmpty()) {
+                roots.add(Paths.get(root));
+            }
+        }
+        return new ClassHierarchy(roots);
+    }
+
+    /**
+     * Returns the most specific class both a and b extend, as the verifier sees it: interfaces count as
+     * java/lang/Object. a and b are internal class names, not array descriptors. Returns null when a class on
+     * either chain cannot be found.
+     */
+    String commonSuperclass(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        Set<String> ancestors = new HashSet<>();
+        for (String name = a; name != null; name = superclassOf(name)) {
+            Header header = header(name);
+            if (header == MISSING) {
+                return null;
+            }
+            if (header.isInterface) {
+                return OBJECT;
+            }
+            ancestors.add(name);
+        }
+        for (String name = b; name != null; name = superclassOf(name)) {
+            Header header = header(name);
+            if (header == MISSING) {
+                return null;
+            }
+            if (header.isInterface) {
+                return OBJECT;
+            }
+            if (ancestors.contains(name)) {
+                return name;
+            }
+        }
+        return OBJECT;
+    }
+
+    /**
+     * Describes the superclass chain of every class that classBytes refers to by name, in its constant pool or in
+     * its descriptors and signatures. commonSuperclass() gives the same answers for the types in the methods of
+     * that class while the description stays the same, whatever else changes in the roots.
+     */
+    String describeReferences(byte[] classBytes) {
+        StringBuilder sb = new StringBuilder();
+        Set<String> described = new HashSet<>();
+        for (String name : referencedClasses(classBytes)) {
+            while (name != null && described.add(name)) {
+                Header header = header(name);
+                if (header == MISSING) {
+                    sb.append(name).append(" missing\n");
+                    break;
+                }
+                sb.append(name).append(' ').append(header.superName).append(header.isInterface ? " interface\n" : "\n");
+                name = header.isInterface ? null : header.superName;
+            }
+        }
+        return sb.toString();
+    }
+
+    private String superclassOf(String name) {
+        return header(name).superName;
+    }
+
+    private Header header(String name) {
+        return headers.computeIfAbsent(name, this::readHeader);
+    }
+
+    private Header readHeader(String name) {
+        String file = name + ".class";
+        try {
+            for (Path directory : directories) {
+                Path path = directory.resolve(file);
+                if (Files.isRegularFile(path)) {
+                    try (InputStream in = Files.newInputStream(path)) {
+                        return parseHeader(in);
+                    }
+                }
+            }
+            for (ZipFile jar : jars) {
+                ZipEntry entry = jar.getEntry(file);
+                if (entry != null) {
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        return parseHeader(in);
+                    }
+                }
+            }
+            try (InputStream in = ClassLoader.getSystemResourceAsStream(file)) {
+                return in != null ? parseHeader(in) : MISSING;
+            }
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+
+    /**
+     * Reads the access flags and the superclass name, skipping over the constant pool to reach them.
+     */
+    private static Header parseHeader(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != 0xCAFEBABE) {
+            return MISSING;
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        if (!readConstantPool(in, utf8, classNames)) {
+            return MISSING;
+        }
+
+        int access = in.readUnsignedShort();
+        in.readUnsignedShort();
+        int superClass = in.readUnsignedShort();
+        String superName = superClass == 0 ? null : utf8[classNames[superClass]];
+        return new Header(superName, (access & 0x0200) != 0);
+    }
+
+    /**
+     * Returns the names of the classes in the constant pool, and of the classes named in every descriptor or
+     * signature there, sorted; none if classBytes is not a class file.
+     */
+    private static Set<String> referencedClasses(byte[] classBytes) {
+        Set<String> names = new TreeSet<>();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(classBytes));
+            if (in.readInt() != 0xCAFEBABE) {
+                return names;
+            }
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNames = new int[count];
+            if (!readConstantPool(in, utf8, classNames)) {
+                return names;
+            }
+            for (int i = 1; i < count; i++) {
+                String className = classNames[i] != 0 ? utf8[classNames[i]] : null;
+                if (className != null && !className.startsWith("[")) {
+                    names.add(className);
+                }
+                if (utf8[i] != null) {
+                    Matcher matcher = CLASS_IN_DESCRIPTOR.matcher(utf8[i]);
+                    while (matcher.find()) {
+                        names.add(matcher.group(1));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Truncated; the optimiser will fail on it anyway.
+        }
+        return names;
+    }
+
+    /**
+     * Reads the constants into utf8 (the Utf8 strings) and classNames (the Utf8 index of the name of each Class),
+     * which are both indexed by constant. Returns false on a constant it does not know.
+     */
+    private static boolean readConstantPool(DataInputStream in, String[] utf8, int[] classNames) throws IOException {
+        for (int i = 1; i < utf8.length; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8: case 16: case 19: case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5: case 6:
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+}
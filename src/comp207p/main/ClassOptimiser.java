@@ -0,0 +1,162 @@
+package comp207p.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Optimises a single class file held in memory, then compacts its constant pool.
+ * When no pass changes the class (and it is not being shrunk), the input array itself is returned, so callers
+ * can tell untouched classes apart with an identity check and copy them through as they were.
+ *
+ * Only JDK types cross this interface, so Main can load one instance per worker thread through its own
+ * class loader. BCEL recycles instruction handles through a static free list that is not thread safe,
+ * and a private copy of BCEL per worker keeps those lists apart.
+ *
+ * For the same reason, the methods of a large class are optimised in parallel by handing batches of them to the
+ * copies on the other workers, through methodOptimiser().
+ */
+public class ClassOptimiser implements Function<byte[], byte[]> {
+
+    /** Option key: the Log level for this copy of the optimiser, as a decimal string. */
+    public static final String LOG_LEVEL = "logLevel";
+
+    /** Option key: "true" to also drop debug attributes from every class, see ConstantPoolCompactor. */
+    public static final String SHRINK = "shrink";
+
+    /**
+     * Option key: directories and JAR files, separated by File.pathSeparator, where the classes that optimised
+     * classes refer to are looked up to compute stack map frames, see ClassHierarchy.
+     */
+    public static final String CLASS_PATH = "classPath";
+
+    /** Option key: the passes to run, as accepted by PassManager.parse(); "default" if absent. */
+    public static final String PASSES = "passes";
+
+    /** Option key: how many times a pass may run on one method, as a decimal string. */
+    public static final String MAX_PASS_RUNS = "maxPassRuns";
+
+    /**
+     * Option key: the number of methods from which a class has its methods optimised in parallel, as a decimal
+     * string. Only used with a pool.
+     */
+    public static final String PARALLEL_METHODS = "parallelMethods";
+
+    /**
+     * Option key: where the constant fields and methods that are substituted at their uses are found: "none",
+     * "class" for the class being optimised, or "program" for every class on PROGRAM_PATH too; "class" if absent.
+     */
+    public static final String INTERPROCEDURAL = "interprocedural";
+
+    /** Option key: the directories and JAR files of the program, as for CLASS_PATH, see ProgramConstants. */
+    public static final String PROGRAM_PATH = "programPath";
+
+    // Receives the OptimisationStats of every class as JSON, or null when no report was asked for.
+    private final Consumer<String> reportSink;
+
+    // Receives "name: reason" for every class whose constant pool could not be compacted, or null.
+    private final Consumer<String> uncompactedSink;
+
+    private final boolean shrink;
+
+    private final ClassHierarchy hierarchy;
+
+    private final PassManager passManager;
+
+    // Where batches of methods are optimised, and the optimiser for the current worker; null for none.
+    private final ForkJoinPool pool;
+    private final BiFunction<byte[], int[], byte[]> batchOptimiser;
+    private final int parallelMethods;
+
+    // Whether to substitute constants of the class itself, and the constants of other classes, or null.
+    private final boolean interprocedural;
+    private final ProgramConstants programConstants;
+
+    public ClassOptimiser(Map<String, String> options) {
+        this(options, null);
+    }
+
+    public ClassOptimiser(Map<String, String> options, Consumer<String> reportSink) {
+        this(options, reportSink, null, null, null);
+    }
+
+    /**
+     * Options are passed as strings so that they can be handed across class loaders, and for the same reason
+     * statistics are handed to reportSink as JSON. Classes that keep their constant pool as it was, see
+     * ConstantPoolCompactor, are named to uncompactedSink. When pool is not null, batches of the methods of large
+     * classes are handed to batchOptimiser on it, which must pass them to the optimiser of the worker it is
+     * called on.
+     */
+    public ClassOptimiser(Map<String, String> options, Consumer<String> reportSink, Consumer<String> uncompactedSink,
+                          ForkJoinPool pool, BiFunction<byte[], int[], byte[]> batchOptimiser) {
+        Log.setLevel(Integer.parseInt(options.getOrDefault(LOG_LEVEL, "0")));
+        this.reportSink = reportSink;
+        this.uncompactedSink = uncompactedSink;
+        this.shrink = Boolean.parseBoolean(options.get(SHRINK));
+        this.hierarchy = ClassHierarchy.of(options.getOrDefault(CLASS_PATH, ""));
+        this.passManager = PassManager.parse(options.getOrDefault(PASSES, "default"),
+                Integer.parseInt(options.getOrDefault(MAX_PASS_RUNS, Integer.toString(PassManager.DEFAULT_MAX_RUNS))));
+        this.pool = pool;
+        this.batchOptimiser = batchOptimiser;
+        this.parallelMethods = Integer.parseInt(options.getOrDefault(PARALLEL_METHODS, Integer.toString(Integer.MAX_VALUE)));
+        String interprocedural = options.getOrDefault(INTERPROCEDURAL, "class");
+        this.interprocedural = !interprocedural.equals("none");
+        this.programConstants = interprocedural.equals("program")
+                ? new ProgramConstants(options.getOrDefault(PROGRAM_PATH, ""), passManager) : null;
+    }
+
+    @Override
+    public byte[] apply(byte[] classBytes) {
+        try {
+            long start = System.nanoTime();
+            ConstantFolder cf = new ConstantFolder(new ByteArrayInputStream(classBytes), "<memory>");
+            cf.setClassHierarchy(hierarchy);
+            cf.setPassManager(passManager);
+            cf.setInterproceduralConstants(interprocedural, programConstants);
+            if (pool != null) {
+                cf.setMethodParallelism(pool, parallelMethods, methods -> batchOptimiser.apply(classBytes, methods));
+            }
+            byte[] optimised = cf.toByteArray();
+            byte[] result = cf.isModified() ? optimised : classBytes;
+            if (cf.isModified() || shrink) {
+                // Drops the constants that folding left unused. Unchanged classes have none, unless shrinking.
+                result = ConstantPoolCompactor.compact(result, shrink, reason -> {
+                    if (uncompactedSink != null) {
+                        uncompactedSink.accept(cf.getClassName() + ": " + reason);
+                    }
+                });
+            }
+            if (reportSink != null) {
+                cf.getStats().setClassFile(classBytes.length, result.length, System.nanoTime() - start);
+                reportSink.accept(cf.getStats().toJson());
+            }
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns a function that optimises the methods {from, to} of a class and returns them as
+     * ConstantFolder.optimizeMethods() does, for the copy of the optimiser that is optimising the class.
+     */
+    public BiFunction<byte[], int[], byte[]> methodOptimiser() {
+        return this::optimiseMethods;
+    }
+
+    private byte[] optimiseMethods(byte[] classBytes, int[] methods) {
+        try {
+            ConstantFolder cf = new ConstantFolder(new ByteArrayInputStream(classBytes), "<memory>");
+            cf.setPassManager(passManager);
+            cf.setInterproceduralConstants(interprocedural, programConstants);
+            return cf.optimizeMethods(methods[0], methods[1]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
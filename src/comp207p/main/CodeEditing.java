@@ -0,0 +1,263 @@
+package comp207p.main;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.LocalVariable;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+/**
+ * Edits of an instruction list that keep everything pointing into it consistent: jumps, exception handler ranges,
+ * line numbers and local variable ranges.
+ */
+public final class CodeEditing
+{
+	private CodeEditing()
+	{
+	}
+
+	/**
+	 * Replaces ih with the instructions of replacement, which must not be empty, and returns the first of them.
+	 * Jumps to ih and the starts of ranges at ih move to the first new instruction; ends of ranges at ih move to
+	 * the last one. ih may be a branch.
+	 */
+	public static InstructionHandle replace(MethodGen methodGen, InstructionHandle ih, InstructionList replacement)
+	{
+		return replace(methodGen, ih, ih, replacement);
+	}
+
+	/**
+	 * Replaces the instructions from..to with those of replacement, which must not be empty, and returns the first
+	 * of them. Whatever pointed into the range is moved as by replace() of a single instruction, so this is only
+	 * right when control cannot enter the range other than at from (see isJumpTarget()).
+	 */
+	public static InstructionHandle replace(MethodGen methodGen, InstructionHandle from, InstructionHandle to, InstructionList replacement)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		InstructionHandle first = il.insert(from, replacement);
+		InstructionHandle last = from.getPrev();
+
+		for (InstructionHandle ih = from; ih != to.getNext(); ih = ih.getNext()) {
+			for (InstructionTargeter targeter : ih.getTargeters()) {
+				if (targeter instanceof CodeExceptionGen) {
+					CodeExceptionGen handler = (CodeExceptionGen) targeter;
+					if (handler.getStartPC() == ih) {
+						handler.setStartPC(first);
+					}
+					if (handler.getEndPC() == ih) {
+						handler.setEndPC(last);
+					}
+					if (handler.getHandlerPC() == ih) {
+						handler.setHandlerPC(first);
+					}
+				} else if (targeter instanceof LocalVariableGen) {
+					LocalVariableGen variable = (LocalVariableGen) targeter;
+					if (variable.getStart() == ih) {
+						variable.setStart(first);
+					}
+					if (variable.getEnd() == ih) {
+						variable.setEnd(last);
+					}
+				} else {
+					targeter.updateTarget(ih, first);
+				}
+			}
+		}
+
+		try {
+			il.delete(from, to);
+		} catch (TargetLostException e) {
+			// Cannot happen: every targeter was moved above.
+			throw new IllegalStateException(e);
+		}
+		return first;
+	}
+
+	/**
+	 * Deletes the instructions from..to. Jumps into the range and the starts of exception, line number and
+	 * local variable ranges move to the instruction after it; range ends move to the instruction before it.
+	 * Exception handlers and local variables whose range becomes empty are removed.
+	 */
+	public static void delete(MethodGen methodGen, InstructionHandle from, InstructionHandle to)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		InstructionHandle before = from.getPrev();
+		InstructionHandle after = to.getNext();
+		try {
+			il.delete(from, to);
+		} catch (TargetLostException e) {
+			for (InstructionHandle target : e.getTargets()) {
+				for (InstructionTargeter targeter : target.getTargeters()) {
+					if (targeter instanceof CodeExceptionGen) {
+						CodeExceptionGen handler = (CodeExceptionGen) targeter;
+						if (handler.getStartPC() == target) {
+							handler.setStartPC(after);
+						}
+						if (handler.getEndPC() == target) {
+							handler.setEndPC(before);
+						}
+						if (handler.getHandlerPC() == target) {
+							handler.setHandlerPC(after);
+						}
+					} else if (targeter instanceof LocalVariableGen) {
+						LocalVariableGen variable = (LocalVariableGen) targeter;
+						if (variable.getStart() == target) {
+							variable.setStart(after);
+						}
+						if (variable.getEnd() == target) {
+							variable.setEnd(before);
+						}
+					} else if (targeter instanceof LineNumberGen && after == null) {
+						methodGen.removeLineNumber((LineNumberGen) targeter);
+					} else {
+						targeter.updateTarget(target, after);
+					}
+				}
+			}
+		}
+
+		il.setPositions();
+		for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+			if (isEmptyRange(handler.getStartPC(), handler.getEndPC()) || handler.getHandlerPC() == null) {
+				methodGen.removeExceptionHandler(handler);
+			}
+		}
+		for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+			if (isEmptyRange(variable.getStart(), variable.getEnd())) {
+				methodGen.removeLocalVariable(variable);
+			}
+		}
+	}
+
+	/**
+	 * True if control can arrive at ih other than by falling through from the instruction before it.
+	 */
+	public static boolean isJumpTarget(InstructionHandle ih)
+	{
+		for (InstructionTargeter targeter : ih.getTargeters()) {
+			if (targeter instanceof BranchInstruction) {
+				return true;
+			}
+			if (targeter instanceof CodeExceptionGen && ((CodeExceptionGen) targeter).getHandlerPC() == ih) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the local variable table entries of slots that no load, store or IINC uses any more, other than
+	 * those of the receiver and the parameters, and of slots beyond the method's max locals. The JVM rejects a
+	 * class with an entry outside max_locals, which shrinks when stores are removed, and an entry for a slot the
+	 * code no longer uses describes nothing. Of two entries for one slot over the same range, such as locals that
+	 * now share a slot, only the later is kept, as BCEL does when it reads the table back.
+	 */
+	public static void removeUnusedLocalVariables(MethodGen methodGen)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		if (il == null) {
+			return;
+		}
+		int parameterSlots = methodGen.isStatic() ? 0 : 1;
+		for (Type argument : methodGen.getArgumentTypes()) {
+			parameterSlots += argument.getSize();
+		}
+		BitSet used = new BitSet();
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (ih.getInstruction() instanceof LocalVariableInstruction) {
+				used.set(((LocalVariableInstruction) ih.getInstruction()).getIndex());
+			}
+		}
+		LocalVariableGen[] variables = methodGen.getLocalVariables();
+		for (int i = 0; i < variables.length; i++) {
+			LocalVariableGen variable = variables[i];
+			if (variable.getIndex() >= parameterSlots && !used.get(variable.getIndex())
+					|| variable.getIndex() + variable.getType().getSize() > methodGen.getMaxLocals()
+					|| hasSameRangeAfter(variables, i)) {
+				methodGen.removeLocalVariable(variable);
+			}
+		}
+	}
+
+	/**
+	 * Describes the locals of methodGen, made from m, by the local variable table of m again. When m also has a
+	 * local variable type table, BCEL's MethodGen replaces the locals with its entries, which carry generic
+	 * signatures that are not valid descriptors and leave out every local without one.
+	 */
+	public static void readLocalVariableTable(MethodGen methodGen, Method m)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		if (il == null || m.getLocalVariableTable() == null) {
+			return;
+		}
+		boolean hasTypeTable = false;
+		for (Attribute attribute : m.getCode().getAttributes()) {
+			hasTypeTable |= attribute instanceof LocalVariableTypeTable;
+		}
+		if (!hasTypeTable) {
+			return;
+		}
+		methodGen.removeLocalVariables();
+		for (LocalVariable variable : m.getLocalVariableTable().getLocalVariableTable()) {
+			InstructionHandle start = il.findHandle(variable.getStartPC());
+			InstructionHandle after = il.findHandle(variable.getStartPC() + variable.getLength());
+			InstructionHandle end = after == null ? il.getEnd() : after.getPrev();
+			if (start != null && end != null) {
+				methodGen.addLocalVariable(variable.getName(), Type.getType(variable.getSignature()), variable.getIndex(), start, end);
+			}
+		}
+	}
+
+	/**
+	 * Replaces every INVOKEDYNAMIC in il with one that writes itself correctly. BCEL reads the two zero bytes after
+	 * the constant pool index and counts them in the length of the instruction, but does not write them, so the
+	 * code after an invokedynamic would be shifted by two bytes.
+	 */
+	public static void repairInvokeDynamic(InstructionList il)
+	{
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof INVOKEDYNAMIC && !(instruction instanceof RepairedInvokeDynamic)) {
+				ih.setInstruction(new RepairedInvokeDynamic(((INVOKEDYNAMIC) instruction).getIndex()));
+			}
+		}
+	}
+
+	private static class RepairedInvokeDynamic extends INVOKEDYNAMIC
+	{
+		private static final long serialVersionUID = 1L;
+
+		RepairedInvokeDynamic(int index)
+		{
+			super(org.apache.bcel.Constants.INVOKEDYNAMIC, index);
+			length = 5;
+		}
+
+		@Override
+		public void dump(DataOutputStream out) throws IOException
+		{
+			super.dump(out);
+			out.writeShort(0);
+		}
+	}
+
+	private static boolean hasSameRangeAfter(LocalVariableGen[] variables, int i)
+	{
+		for (int j = i + 1; j < variables.length; j++) {
+			if (variables[j].getIndex() == variables[i].getIndex() && variables[j].getStart() == variables[i].getStart()
+					&& variables[j].getEnd() == variables[i].getEnd()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isEmptyRange(InstructionHandle start, InstructionHandle end)
+	{
+		return start == null || end == null || start.getPosition() > end.getPosition();
+	}
+}
@@ -0,0 +1,86 @@
+package comp207p.main;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Picks the shortest instruction that pushes a constant:
+ *
+ *     int     ICONST_M1..ICONST_5, BIPUSH, SIPUSH, then LDC or LDC_W
+ *     long    LCONST_0, LCONST_1, then LDC2_W
+ *     float   FCONST_0, FCONST_1, FCONST_2, then LDC or LDC_W
+ *     double  DCONST_0, DCONST_1, then LDC2_W
+ *
+ * Only constants that need it are added to the constant pool. LDC_W is used once the pool index no longer fits
+ * in the one byte operand of LDC.
+ *
+ * Unlike BCEL's PUSH, FCONST_0 and DCONST_0 are only used for 0.0 itself: -0.0 == 0.0 in Java, but the two are
+ * different values, so -0.0 is loaded from the pool.
+ */
+public final class ConstantEncoding
+{
+	private ConstantEncoding()
+	{
+	}
+
+	/**
+	 * Returns an instruction that pushes value, which must be an Integer, Long, Float or Double.
+	 */
+	public static Instruction push(ConstantPoolGen cpgen, Number value)
+	{
+		if (value instanceof Integer) {
+			return pushInt(cpgen, value.intValue());
+		} else if (value instanceof Long) {
+			long l = value.longValue();
+			if (l == 0 || l == 1) {
+				return new LCONST(l);
+			}
+			return new LDC2_W(cpgen.addLong(l));
+		} else if (value instanceof Float) {
+			float f = value.floatValue();
+			if (Float.floatToRawIntBits(f) == 0 || f == 1.0f || f == 2.0f) {
+				return new FCONST(f);
+			}
+			return ldc(cpgen.addFloat(f));
+		} else if (value instanceof Double) {
+			double d = value.doubleValue();
+			if (Double.doubleToRawLongBits(d) == 0 || d == 1.0) {
+				return new DCONST(d);
+			}
+			return new LDC2_W(cpgen.addDouble(d));
+		}
+		throw new IllegalArgumentException("Not a JVM constant: " + value);
+	}
+
+	/**
+	 * Returns an instruction that pushes value converted to type, which must be int (or a narrower int type),
+	 * long, float or double.
+	 */
+	public static Instruction push(ConstantPoolGen cpgen, Number value, Type type)
+	{
+		if (type == Type.LONG) {
+			return push(cpgen, value.longValue());
+		} else if (type == Type.FLOAT) {
+			return push(cpgen, value.floatValue());
+		} else if (type == Type.DOUBLE) {
+			return push(cpgen, value.doubleValue());
+		}
+		return push(cpgen, value.intValue());
+	}
+
+	private static Instruction pushInt(ConstantPoolGen cpgen, int i)
+	{
+		if (i >= -1 && i <= 5) {
+			return new ICONST(i);
+		} else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+			return new BIPUSH((byte) i);
+		} else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+			return new SIPUSH((short) i);
+		}
+		return ldc(cpgen.addInteger(i));
+	}
+
+	private static Instruction ldc(int index)
+	{
+		return index > 255 ? new LDC_W(index) : new LDC(index);
+	}
+}
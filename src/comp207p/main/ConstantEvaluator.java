@@ -0,0 +1,219 @@
+package comp207p.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+/**
+ * Computes what arithmetic, bitwise, shift, conversion and comparison instructions produce for known operands,
+ * exactly as the JVM would.
+ *
+ * Java's own operators already follow the JVM rules for each of these (int overflow wraps, shift distances are
+ * masked to 5 or 6 bits, float remainders are fmod-like, float to int conversions saturate and turn NaN into 0),
+ * as long as every operation is done in the operand type of the instruction, so each opcode is mapped to the
+ * matching Java expression on values of that type. Results are boxed in their JVM type: Integer, Long, Float or
+ * Double.
+ *
+ * Whenever the instruction would throw at run time (integral division or remainder by zero) the result is null,
+ * and the instruction must be left in place.
+ */
+public final class ConstantEvaluator
+{
+	private ConstantEvaluator()
+	{
+	}
+
+	/**
+	 * Returns the number a literal instruction (ICONST, BIPUSH, LDC, ...) pushes, or null if the instruction is not
+	 * a literal or pushes something else (a string or a class).
+	 */
+	public static Number literalValue(Instruction instruction, ConstantPoolGen cpgen)
+	{
+		if (instruction instanceof ConstantPushInstruction) {
+			return ((ConstantPushInstruction) instruction).getValue();
+		}
+		Object value = null;
+		if (instruction instanceof LDC) {
+			value = ((LDC) instruction).getValue(cpgen);
+		} else if (instruction instanceof LDC2_W) {
+			value = ((LDC2_W) instruction).getValue(cpgen);
+		}
+		return value instanceof Number ? (Number) value : null;
+	}
+
+	/**
+	 * Evaluates a binary arithmetic, bitwise or shift instruction. The shift distance of LSHL, LSHR and LUSHR is
+	 * an int. Returns null if the instruction would throw.
+	 */
+	public static Number evaluate(ArithmeticInstruction operator, Number left, Number right)
+	{
+		switch (operator.getOpcode()) {
+			case Constants.IADD:  return left.intValue() + right.intValue();
+			case Constants.ISUB:  return left.intValue() - right.intValue();
+			case Constants.IMUL:  return left.intValue() * right.intValue();
+			case Constants.IDIV:  return right.intValue() == 0 ? null : (Number) (left.intValue() / right.intValue());
+			case Constants.IREM:  return right.intValue() == 0 ? null : (Number) (left.intValue() % right.intValue());
+			case Constants.ISHL:  return left.intValue() << right.intValue();
+			case Constants.ISHR:  return left.intValue() >> right.intValue();
+			case Constants.IUSHR: return left.intValue() >>> right.intValue();
+			case Constants.IAND:  return left.intValue() & right.intValue();
+			case Constants.IOR:   return left.intValue() | right.intValue();
+			case Constants.IXOR:  return left.intValue() ^ right.intValue();
+
+			case Constants.LADD:  return left.longValue() + right.longValue();
+			case Constants.LSUB:  return left.longValue() - right.longValue();
+			case Constants.LMUL:  return left.longValue() * right.longValue();
+			case Constants.LDIV:  return right.longValue() == 0 ? null : (Number) (left.longValue() / right.longValue());
+			case Constants.LREM:  return right.longValue() == 0 ? null : (Number) (left.longValue() % right.longValue());
+			case Constants.LSHL:  return left.longValue() << right.intValue();
+			case Constants.LSHR:  return left.longValue() >> right.intValue();
+			case Constants.LUSHR: return left.longValue() >>> right.intValue();
+			case Constants.LAND:  return left.longValue() & right.longValue();
+			case Constants.LOR:   return left.longValue() | right.longValue();
+			case Constants.LXOR:  return left.longValue() ^ right.longValue();
+
+			case Constants.FADD:  return left.floatValue() + right.floatValue();
+			case Constants.FSUB:  return left.floatValue() - right.floatValue();
+			case Constants.FMUL:  return left.floatValue() * right.floatValue();
+			case Constants.FDIV:  return left.floatValue() / right.floatValue();
+			case Constants.FREM:  return left.floatValue() % right.floatValue();
+
+			case Constants.DADD:  return left.doubleValue() + right.doubleValue();
+			case Constants.DSUB:  return left.doubleValue() - right.doubleValue();
+			case Constants.DMUL:  return left.doubleValue() * right.doubleValue();
+			case Constants.DDIV:  return left.doubleValue() / right.doubleValue();
+			case Constants.DREM:  return left.doubleValue() % right.doubleValue();
+
+			default:
+				throw new IllegalArgumentException("Not a binary operator: " + operator);
+		}
+	}
+
+	/**
+	 * Evaluates INEG, LNEG, FNEG or DNEG.
+	 */
+	public static Number negate(ArithmeticInstruction operator, Number value)
+	{
+		switch (operator.getOpcode()) {
+			case Constants.INEG: return -value.intValue();
+			case Constants.LNEG: return -value.longValue();
+			case Constants.FNEG: return -value.floatValue();
+			case Constants.DNEG: return -value.doubleValue();
+			default:
+				throw new IllegalArgumentException("Not a negation: " + operator);
+		}
+	}
+
+	/**
+	 * True for the negations, which take one operand; every other ArithmeticInstruction takes two.
+	 */
+	public static boolean isUnary(ArithmeticInstruction operator)
+	{
+		switch (operator.getOpcode()) {
+			case Constants.INEG: case Constants.LNEG: case Constants.FNEG: case Constants.DNEG:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Evaluates an x2y conversion, including the narrowing I2B, I2C and I2S.
+	 */
+	public static Number convert(ConversionInstruction conversion, Number value)
+	{
+		switch (conversion.getOpcode()) {
+			case Constants.I2B: return (int) (byte) value.intValue();
+			case Constants.I2C: return (int) (char) value.intValue();
+			case Constants.I2S: return (int) (short) value.intValue();
+			case Constants.I2L: return (long) value.intValue();
+			case Constants.I2F: return (float) value.intValue();
+			case Constants.I2D: return (double) value.intValue();
+			case Constants.L2I: return (int) value.longValue();
+			case Constants.L2F: return (float) value.longValue();
+			case Constants.L2D: return (double) value.longValue();
+			case Constants.F2I: return (int) value.floatValue();
+			case Constants.F2L: return (long) value.floatValue();
+			case Constants.F2D: return (double) value.floatValue();
+			case Constants.D2I: return (int) value.doubleValue();
+			case Constants.D2L: return (long) value.doubleValue();
+			case Constants.D2F: return (float) value.doubleValue();
+			default:
+				throw new IllegalArgumentException("Not a conversion: " + conversion);
+		}
+	}
+
+	/**
+	 * Returns the type of the operand of a conversion.
+	 */
+	public static Type operandType(ConversionInstruction conversion)
+	{
+		switch (conversion.getOpcode()) {
+			case Constants.L2I: case Constants.L2F: case Constants.L2D:
+				return Type.LONG;
+			case Constants.F2I: case Constants.F2L: case Constants.F2D:
+				return Type.FLOAT;
+			case Constants.D2I: case Constants.D2L: case Constants.D2F:
+				return Type.DOUBLE;
+			default:
+				return Type.INT;
+		}
+	}
+
+	/**
+	 * Evaluates LCMP, FCMPL, FCMPG, DCMPL or DCMPG. A NaN operand gives -1 for the L forms and 1 for the G forms.
+	 */
+	public static Integer compare(Instruction comparison, Number left, Number right)
+	{
+		if (comparison instanceof LCMP) {
+			return Long.compare(left.longValue(), right.longValue());
+		}
+		double l = left.doubleValue();
+		double r = right.doubleValue();
+		if (Double.isNaN(l) || Double.isNaN(r)) {
+			return comparison instanceof FCMPG || comparison instanceof DCMPG ? 1 : -1;
+		}
+		// Not Double.compare(): -0.0 and 0.0 are equal here.
+		return l < r ? -1 : (l > r ? 1 : 0);
+	}
+
+	/**
+	 * True for LCMP, FCMPL, FCMPG, DCMPL and DCMPG.
+	 */
+	public static boolean isComparison(Instruction instruction)
+	{
+		return instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG;
+	}
+
+	/**
+	 * Returns whether a conditional jump is taken for known operands, or null if that is not known.
+	 * right is only used by the two-operand IF_ICMPxx forms.
+	 */
+	public static Boolean branchTaken(IfInstruction branch, Number left, Number right)
+	{
+		int cmp;
+		if (branch instanceof IFEQ || branch instanceof IFNE || branch instanceof IFLT
+				|| branch instanceof IFGE || branch instanceof IFGT || branch instanceof IFLE) {
+			if (!(left instanceof Integer)) {
+				return null;
+			}
+			cmp = Integer.compare(left.intValue(), 0);
+		} else if (branch instanceof IF_ICMPEQ || branch instanceof IF_ICMPNE || branch instanceof IF_ICMPLT
+				|| branch instanceof IF_ICMPGE || branch instanceof IF_ICMPGT || branch instanceof IF_ICMPLE) {
+			if (!(left instanceof Integer) || !(right instanceof Integer)) {
+				return null;
+			}
+			cmp = Integer.compare(left.intValue(), right.intValue());
+		} else {
+			// Reference comparisons are never known.
+			return null;
+		}
+
+		if (branch instanceof IFEQ || branch instanceof IF_ICMPEQ) return cmp == 0;
+		if (branch instanceof IFNE || branch instanceof IF_ICMPNE) return cmp != 0;
+		if (branch instanceof IFLT || branch instanceof IF_ICMPLT) return cmp < 0;
+		if (branch instanceof IFGE || branch instanceof IF_ICMPGE) return cmp >= 0;
+		if (branch instanceof IFGT || branch instanceof IF_ICMPGT) return cmp > 0;
+		return cmp <= 0;
+	}
+}
@@ -1,15 +1,23 @@
 package comp207p.main;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 import org.apache.bcel.classfile.*;
 import org.apache.bcel.generic.*;
-import org.apache.bcel.util.InstructionFinder;
 
 
 public class ConstantFolder
@@ -20,702 +28,427 @@ public class ConstantFolder
 	JavaClass original = null;
 	JavaClass optimized = null;
 
-	// Constants for arithmetic operations
-	// Note: negation and modulo not supported.
-	public static final String OP_ADD = "add";
-	public static final String OP_SUB = "sub";
-	public static final String OP_MUL = "mul";
-	public static final String OP_DIV = "div";
+	// Identifies the optimizer output in cache keys; bump it whenever a pass changes what it emits.
+	public static final String VERSION = "22";
 
-	public ConstantFolder(String classFilePath)
-	{
-		try{
-			this.parser = new ClassParser(classFilePath);
-			this.original = this.parser.parse();
-			this.gen = new ClassGen(this.original);
-		} catch(IOException e){
-			e.printStackTrace();
-		}
-	}
-	
-	public void optimize()
-	{
-		ClassGen cgen = new ClassGen(original);
-		ConstantPoolGen cpgen = cgen.getConstantPool();
-
-		// Implement your optimization here
-		System.out.println("Starting optimisation on class " + cgen.getClassName());
-
-		// Set major version to allow for a non-updated StackMapTable that BCEL cannot generate.
-		cgen.setMajor(50);
+	// Fewest methods in a batch optimised on another thread; each batch parses the whole class again.
+	private static final int MIN_BATCH_SIZE = 16;
 
-		// Get the methods in the class.
-		Method[] methods = cgen.getMethods();
-		for (Method m : methods) {
-			// Loop through each method, optimizing each.
-			System.out.println("* Optimizing method " + m.getName() + "...");
-			optimizeMethod(cgen, cpgen, m);
-		}
-        
-		this.optimized = cgen.getJavaClass();
+	static {
+		compareInstructionsByIdentity();
 	}
 
+	// Set once any pass changes the code of a method.
+	private boolean modified = false;
 
-	private void optimizeMethod(ClassGen cgen, ConstantPoolGen cpgen, Method m) {
-		// 1. Instantiate a MethodGen from the existing method.
-		MethodGen methodGen = new MethodGen(m, cgen.getClassName(), cpgen);
-		InstructionList il = methodGen.getInstructionList();
+	// Timings and counters for the report.
+	private OptimisationStats stats = null;
 
-		// 2. Perform optimizations.
-		doSimpleFolding(cgen, cpgen, il);
-		doConstantVariableFolding(cgen, cpgen, il, null, null);
-		doDynamicVariableFolding(cgen, cpgen, il);
+	// The passes to run on every method.
+	private PassManager passManager = PassManager.parse("default", PassManager.DEFAULT_MAX_RUNS);
 
-		// 3. Replace method.
-		// setPositions(true) checks whether jump handles
-		// are all within the current method
-		il.setPositions(true);
+	// Finds the superclasses that StackMapGenerator needs to merge reference types.
+	private ClassHierarchy hierarchy = ClassHierarchy.SYSTEM;
 
-		// Recompute max stack/locals.
-		methodGen.setMaxStack();
-		methodGen.setMaxLocals();
+	// Optimises batches of methods on other threads, see setMethodParallelism(); null for none.
+	private ForkJoinPool methodPool = null;
+	private int parallelMethods = Integer.MAX_VALUE;
+	private Function<int[], byte[]> batchOptimiser = null;
 
-		// Generate the new method.
-		Method newMethod = methodGen.getMethod();
+	// Substitutes constant fields and methods before the passes run, see setInterproceduralConstants().
+	private boolean interprocedural = true;
+	private Function<String, ClassConstants> otherClasses = null;
+	private ClassConstants classConstants = null;
 
-		// Replace the method in the original class.
-		cgen.replaceMethod(m, newMethod);
+	// Inlines small methods of the class before the passes run; one per batch, as it keeps code on the batch's pool.
+	private MethodInlining inlining = null;
 
-		// Dispose so that instruction handles can be reused. (Just good practice.)
-		il.dispose();
+	public ConstantFolder(String classFilePath) throws IOException
+	{
+		this(new ClassParser(classFilePath));
 	}
 
-	private void doSimpleFolding(ClassGen cgen, ConstantPoolGen cpgen, InstructionList il) {
-		System.out.println("* * Optimization 01: Simple Folding --------------");
-
-		boolean optimizationPerformed;
-		do {
-			InstructionFinder f = new InstructionFinder(il);
-			// ConstantPushInstruction: BIPUSH, SIPUSH, ICONST, etc.
-			// ConversionInstruction: I2D, D2F, etc.
-			String pattern = "(LDC|LDC2_W|ConstantPushInstruction) ConversionInstruction? (LDC|LDC2_W|ConstantPushInstruction) ConversionInstruction? ArithmeticInstruction";
-
-			// Info: InstructionHandle is a wrapper for actual Instructions
-
-			optimizationPerformed = false;
-			for (Iterator it = f.search(pattern); it.hasNext(); /* empty increment */) {
-				InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-				System.out.println("Instruction len: " + match.length);
-				for (InstructionHandle ih : match) {
-					System.out.println("Instruction: " + ih.getInstruction().getClass().getSimpleName());
-				}
+	/**
+	 * Parses the class from an in-memory stream instead of a file on disk.
+	 * fileName is only used by BCEL to label parse errors.
+	 */
+	public ConstantFolder(InputStream classStream, String fileName) throws IOException
+	{
+		this(new ClassParser(classStream, fileName));
+	}
 
-				Number leftNum = null;
-				Number rightNum = null;
-				ArithmeticInstruction operator = null;
-				ConversionInstruction conversionInstruction1 = null;	// May be null
-				ConversionInstruction conversionInstruction2 = null;	// May be null
-
-				int idx = 0;
-
-				// Check type of left operand.
-				if (match[idx].getInstruction() instanceof ConstantPushInstruction) {
-					leftNum = ((ConstantPushInstruction) match[idx].getInstruction()).getValue();
-				} else if (match[idx].getInstruction() instanceof LDC) {
-					leftNum = (Number) ((LDC) match[idx].getInstruction()).getValue(cpgen);
-				} else if (match[idx].getInstruction() instanceof LDC2_W) {
-					leftNum = (Number) ((LDC2_W) match[idx].getInstruction()).getValue(cpgen);
-				}
+	private ConstantFolder(ClassParser parser) throws IOException
+	{
+		this.parser = parser;
+		this.original = this.parser.parse();
+		this.gen = new ClassGen(this.original);
+		this.stats = new OptimisationStats(this.original.getClassName());
+	}
+	
+	public void optimize()
+	{
+		ClassGen cgen = new ClassGen(original);
+		ConstantPoolGen cpgen = cgen.getConstantPool();
 
-				idx++;
+		// Implement your optimization here
+		if (Log.verbose()) {
+			Log.println("Starting optimisation on class " + cgen.getClassName());
+		}
 
-				// [OPTIONAL] Check if optional ConversionInstruction is present.
-				if (match[idx].getInstruction() instanceof ConversionInstruction) {
-					conversionInstruction1 = (ConversionInstruction) match[idx].getInstruction();
-					idx++;
-				}
+		// Get the methods in the class.
+		Method[] methods = cgen.getMethods();
+		List<MethodBatch> batches = new ArrayList<>();
+		if (methodPool != null && methods.length >= parallelMethods) {
+			batches.addAll(optimizeInParallel(methods.length));
+		} else {
+			batches.add(optimizeBatch(0, methods.length));
+		}
 
-				// Check type of right operand.
-				if (match[idx].getInstruction() instanceof ConstantPushInstruction) {
-					rightNum = ((ConstantPushInstruction) match[idx].getInstruction()).getValue();
-				} else if (match[idx].getInstruction() instanceof LDC) {
-					rightNum = (Number) ((LDC) match[idx].getInstruction()).getValue(cpgen);
-				} else if (match[idx].getInstruction() instanceof LDC2_W) {
-					rightNum = (Number) ((LDC2_W) match[idx].getInstruction()).getValue(cpgen);
-				}
+		// Merge the batches in method order, so the constant pool comes out the same however the methods were split.
+		for (MethodBatch batch : batches) {
+			for (OptimisationStats.MethodStats methodStats : batch.stats) {
+				stats.addMethod(methodStats);
+			}
+			for (int i = 0; i < batch.methodGens.size(); i++) {
+				Method m = methods[batch.indexes.get(i)];
+				finishMethod(cgen, cpgen, m, batch.methodGens.get(i), batch.pool, batch.changedStats.get(i));
+			}
+		}
 
-				idx++;
+		// Nothing was folded, so keep the original class (and its class file version) untouched.
+		if (!modified) {
+			this.optimized = this.original;
+			return;
+		}
 
-				// [OPTIONAL] Check if optional ConversionInstruction is present.
-				if (match[idx].getInstruction() instanceof ConversionInstruction) {
-					conversionInstruction2 = (ConversionInstruction) match[idx].getInstruction();
-					idx++;
-				}
+		this.optimized = cgen.getJavaClass();
+	}
 
-				// Check operator type
-				if (match[idx].getInstruction() instanceof ArithmeticInstruction) {
-					operator = (ArithmeticInstruction) match[idx].getInstruction();
-				}
+	/**
+	 * Sets where the classes the optimised class refers to are looked up; by default only the JDK and the class
+	 * path are searched.
+	 */
+	void setClassHierarchy(ClassHierarchy hierarchy)
+	{
+		this.hierarchy = hierarchy;
+	}
 
-				// Assert that we have the right types.
-				if (leftNum == null || rightNum == null || operator == null) {
-					System.err.println("FATAL: Operands or operator of unexpected type!");
-				};
-
-				// Fold the constant by type.
-				Type operatorType = operator.getType(cpgen);
-				String operationStr = operator.getName().substring(1);    // 'iadd', 'fmul', etc. -> 'add', 'mul', 'sub', 'div'
-
-				System.out.println("leftNum: " + leftNum + " rightNum: " + rightNum + " type: " + operatorType + " operation: " + operationStr);
-
-				Number foldedValue = doArithmeticOperation(leftNum, rightNum, operatorType, operationStr);
-
-				if (foldedValue != null) {
-					System.out.println("Folded value: " + foldedValue + " type: " + foldedValue.getClass().getName());
-
-					// The index of the new value
-					int cpIndex = -1;
-
-					// Add result to constant pool.
-					if (operatorType == Type.INT) {
-						cpIndex = cpgen.addInteger(foldedValue.intValue());
-					} else if (operatorType == Type.FLOAT) {
-						cpIndex = cpgen.addFloat(foldedValue.floatValue());
-					} else if (operatorType == Type.LONG) {
-						cpIndex = cpgen.addLong(foldedValue.longValue());
-					} else if (operatorType == Type.DOUBLE) {
-						cpIndex = cpgen.addDouble(foldedValue.doubleValue());
-					}
-
-					System.out.println("New constant pool entry with index " + cpIndex + " and value " + foldedValue);
-
-					if (cpIndex > -1) {
-						// Insert new LDC instruction to load from our new constant pool entry.
-
-						InstructionHandle instructionAddedHandle = null;
-						if (operatorType == Type.INT || operatorType == Type.FLOAT) {
-							instructionAddedHandle = il.insert(match[0], new LDC(cpIndex));
-						} else if (operatorType == Type.LONG || operatorType == Type.DOUBLE) {
-							instructionAddedHandle = il.insert(match[0], new LDC2_W(cpIndex));
-						}
-
-						// Use reflection to dynamically instantiate the right class.
-						/*Constructor<?> ldcConstructor;
-						CPInstruction cpInstruction = null;
-						try {
-							ldcConstructor = match[0].getInstruction().getClass().getConstructor(Integer.TYPE);
-							cpInstruction = (CPInstruction) ldcConstructor.newInstance(cpIndex);
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-						il.insert(match[0], cpInstruction);*/
-
-						try {
-							// Delete old instructions (LDC ConversionInstruction? LDC ConversionInstruction? OP)
-							il.delete(match[0], match[idx]);
-						} catch (TargetLostException e) {
-							for (InstructionHandle target : e.getTargets()) {
-								for (InstructionTargeter targeter : target.getTargeters()) {
-									if (instructionAddedHandle != null) {
-										targeter.updateTarget(target, instructionAddedHandle);
-									} else {
-										System.err.println("Failed to fix targets to this instruction");
-										e.printStackTrace();
-									}
-								}
-							}
-							//e.printStackTrace();
-						}
-
-						optimizationPerformed = true;
-						System.out.println("Optimization performed.");
-					}
-
-				} else {
-					System.out.format("WARNING: Folding fallthrough. Unsupported type %s - no optimization performed.\n", operatorType);
-				}
-			}
-		} while (optimizationPerformed);
+	/**
+	 * Lets classes with at least parallelMethods methods have their methods optimised in batches on pool.
+	 * batchOptimiser is called on the pool with a range of method indexes, {from, to}, and must return
+	 * optimizeMethods(from, to) of a ConstantFolder for the same class. That one is usually loaded by another
+	 * class loader, as BCEL cannot run on two threads within one; only JDK types cross, as in ClassOptimiser.
+	 * The batches are merged in method order, so the class comes out the same as without a pool.
+	 */
+	void setMethodParallelism(ForkJoinPool pool, int parallelMethods, Function<int[], byte[]> batchOptimiser)
+	{
+		this.methodPool = pool;
+		this.parallelMethods = parallelMethods;
+		this.batchOptimiser = batchOptimiser;
 	}
 
 	/**
-	 * Performs constant variable folding optimization.
-	 * Pass NULL to startHandle and endHandle to have them automatically generated from the instruction list.
-	 * If specified, search starts at startHandle (inclusive), and ends at endHandle (inclusive).
-     */
-	private void doConstantVariableFolding(ClassGen cgen, ConstantPoolGen cpgen, InstructionList il, InstructionHandle startHandle, InstructionHandle endHandle) {
-		System.out.println("* * Optimization 02: Constant Variable Folding --------------");
-
-		// Fill defaults
-		if (startHandle == null) {
-			startHandle = il.getStart();
-		}
-		if (endHandle == null) {
-			endHandle = il.getEnd();
-		}
+	 * Sets the passes to run; by default every registered pass runs.
+	 */
+	public void setPassManager(PassManager passManager)
+	{
+		this.passManager = passManager;
+	}
 
-		// This hashmap stores all literal values that we know about.
-		HashMap<Integer,Number> literalValues = new HashMap<>();
+	/**
+	 * Sets whether the constant fields and methods of the class are substituted at their uses, see
+	 * ClassConstants, and where those of other classes are found; otherClasses may be null for none. By
+	 * default only the class itself is analysed.
+	 */
+	void setInterproceduralConstants(boolean enabled, Function<String, ClassConstants> otherClasses)
+	{
+		this.interprocedural = enabled;
+		this.otherClasses = otherClasses;
+		this.classConstants = null;
+	}
 
-		// This hashmap stores a list of local variables that are *constant* for this method.
-		// constantVariables.get(index) is TRUE if the variable is constant.
-		HashMap<Integer, Boolean> constantVariables = new HashMap<>();
+	/**
+	 * A handle keeps the jumps to it in a HashSet, and BCEL's default equality makes two jumps with the same opcode
+	 * and target equal: the set holds only one of them, and deleting either loses the other, which is then left
+	 * pointing at a disposed handle. Dead code elimination, branch folding and the peephole stage all delete
+	 * jumps. Instructions are only ever compared as targeters, so compare them by identity. This applies to the
+	 * copy of BCEL this class was loaded with, which only the optimiser uses.
+	 *
+	 * BCEL deprecates setComparator() without offering another way to change the equality of the targeter sets,
+	 * and they cannot be avoided, hence the suppression.
+	 */
+	@SuppressWarnings("deprecation")
+	private static void compareInstructionsByIdentity()
+	{
+		Instruction.setComparator((a, b) -> a == b);
+	}
 
-		// Locate constant local variables that do not change for this method.
-		InstructionFinder f = new InstructionFinder(il);
-		String pattern = "StoreInstruction | IINC";
-		for (Iterator it = f.search(pattern, startHandle); it.hasNext(); /* empty increment */) {
-			InstructionHandle[] match = (InstructionHandle[]) it.next();
+	/**
+	 * Returns true if optimize() changed the code of at least one method.
+	 */
+	public boolean isModified()
+	{
+		return modified;
+	}
 
-			if (match[0].getPosition() > endHandle.getPosition()) {
-				continue;
-			}
+	/**
+	 * Returns the per-method and per-pass statistics gathered by optimize().
+	 */
+	public OptimisationStats getStats()
+	{
+		return stats;
+	}
 
-			int localVariableIndex = -1;
+	public String getClassName()
+	{
+		return original.getClassName();
+	}
 
-			// match[0] expected to be StoreInstruction or IINC, as specified in the pattern.
-			if (match[0].getInstruction() instanceof StoreInstruction) {
-				localVariableIndex = ((StoreInstruction) match[0].getInstruction()).getIndex();
-			} else if (match[0].getInstruction() instanceof IINC) {
-				localVariableIndex = ((IINC) match[0].getInstruction()).getIndex();
-			}
 
-			// Assert we've assigned a value to localVariableIndex.
-			if (localVariableIndex == -1) {
-				System.err.println("FATAL: doConstantVariableFolding: localVariableIndex not assigned.");
+	/**
+	 * Optimises methods from (inclusive) to to (exclusive) against a private copy of the constant pool, so that
+	 * batches can run at the same time. Only the methods whose code changed are kept, to be finished by
+	 * finishMethod().
+	 */
+	private MethodBatch optimizeBatch(int from, int to)
+	{
+		MethodBatch batch = new MethodBatch(new ConstantPoolGen(original.getConstantPool()));
+		inlining = new MethodInlining(original);
+		Method[] methods = original.getMethods();
+		for (int i = from; i < to; i++) {
+			// Loop through each method, optimizing each.
+			if (Log.verbose()) {
+				Log.println("* Optimizing method " + methods[i].getName() + "...");
 			}
+			optimizeMethod(batch, i, methods[i]);
+		}
+		return batch;
+	}
 
-			System.out.format("storeInstruction: %s index: %s\n", match[0].getInstruction().getClass().getSimpleName(), localVariableIndex);
-
-			// See if we've already tracked this local variable.
-			if (!constantVariables.containsKey(localVariableIndex)) {
-				constantVariables.put(localVariableIndex, true);
-			} else {
-				// We've seen this index before.. mark it as NOT constant.
-				constantVariables.put(localVariableIndex, false);
+	private void optimizeMethod(MethodBatch batch, int index, Method m) {
+		// 1. Instantiate a MethodGen from the existing method.
+		MethodGen methodGen = new MethodGen(m, original.getClassName(), batch.pool);
+		InstructionList il = methodGen.getInstructionList();
+		if (il == null) {
+			// Abstract and native methods have no code to optimize.
+			return;
+		}
+		CodeEditing.readLocalVariableTable(methodGen, m);
+		CodeEditing.repairInvokeDynamic(il);
+		byte[] originalCode = il.getByteCode();
+		OptimisationStats.MethodStats methodStats = new OptimisationStats.MethodStats(m.getName() + m.getSignature(), originalCode.length);
+		batch.stats.add(methodStats);
+
+		// 2. Perform optimizations, starting from the code and constants that other methods provide.
+		OptimisationStats.PassStats inliningStats = methodStats.startPass(MethodInlining.PASS_NAME, batch.pool);
+		inlining.inline(methodGen, inliningStats);
+		inliningStats.stop(batch.pool);
+		if (interprocedural) {
+			if (classConstants == null) {
+				classConstants = ClassConstants.analyse(original, passManager, otherClasses);
 			}
+			OptimisationStats.PassStats passStats = methodStats.startPass(ClassConstants.PASS_NAME, batch.pool);
+			classConstants.substitute(methodGen, passStats);
+			passStats.stop(batch.pool);
 		}
+		passManager.run(methodGen, methodStats);
 
-		// The loop will end when there are no longer any LoadInstructions whose index exists in the literalValues hashmap.
-		boolean foldedLoadInstruction;
-		do {
-			// Run simple folding to get as many literals as possible.
-			doSimpleFolding(cgen, cpgen, il);
-
-			// Store all literals in the hashmap.
-			// e.g. LDC #2, ISTORE_1
-			// e.g. SIPUSH 1234, ISTORE_2
-			f = new InstructionFinder(il);
-			String pattern2 = "(LDC | LDC2_W | LDC_W | ConstantPushInstruction) (DSTORE | FSTORE | ISTORE | LSTORE)";
-			for (Iterator it = f.search(pattern2); it.hasNext(); /* empty increment */) {
-				InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-				// match[0] expected to be PushInstruction, as specified in the pattern (it's the superclass of the specified pattern).
-				PushInstruction pushInstruction = (PushInstruction) match[0].getInstruction();
-
-				// match[1] expected to be StoreInstruction, as specified in the pattern.
-				StoreInstruction storeInstruction = (StoreInstruction) match[1].getInstruction();
-
-				// Check if this store instruction is for a constant variable.
-				if (!constantVariables.containsKey(storeInstruction.getIndex()) || !constantVariables.get(storeInstruction.getIndex())) {
-					// If the variable isn't constant, skip this iteration.
-					continue;
-				}
-
-				Number literalValue = null;
-
-				// Get the constant value pushed.
-				if (pushInstruction instanceof ConstantPushInstruction) {
-					literalValue = ((ConstantPushInstruction) pushInstruction).getValue();
-				} else if (pushInstruction instanceof LDC) {
-					// LDC must be Number since we only accept ILOAD, FLOAD, etc.
-					literalValue = (Number) ((LDC) pushInstruction).getValue(cpgen);
-				} else if (pushInstruction instanceof LDC2_W) {
-					literalValue = ((LDC2_W) pushInstruction).getValue(cpgen);
-				}
+		// 3. Clean up what the passes left behind.
+		OptimisationStats.PassStats peepholeStats = methodStats.startPass(PeepholeOptimisation.PASS_NAME, batch.pool);
+		PeepholeOptimisation.optimise(methodGen, peepholeStats);
+		peepholeStats.stop(batch.pool);
 
-				// Assert that we've assigned a value to literalValue.
-				if (literalValue == null) {
-					System.err.format("FATAL: Could not obtain literal value for unknown type %s.\n", pushInstruction.getClass().getSimpleName());
-				}
+		// setPositions(true) checks whether jump handles
+		// are all within the current method
+		il.setPositions(true);
 
-				System.out.format("pushInstruction: %s storeInstruction: %s index: %d value: %f\n", pushInstruction.getClass().getSimpleName(), storeInstruction.getClass().getSimpleName(), storeInstruction.getIndex(), literalValue.doubleValue());
+		if (Arrays.equals(originalCode, il.getByteCode())) {
+			// Keep the method as it was, with its own StackMapTable.
+			il.dispose();
+			return;
+		}
+		batch.indexes.add(index);
+		batch.methodGens.add(methodGen);
+		batch.changedStats.add(methodStats);
+	}
 
-				// Store the literal value in the literalValues hashmap.
-				literalValues.put(storeInstruction.getIndex(), literalValue);
-			}
+	/**
+	 * Moves an optimised method onto the constant pool of the class and replaces the original with it.
+	 */
+	private void finishMethod(ClassGen cgen, ConstantPoolGen cpgen, Method m, MethodGen methodGen, ConstantPoolGen pool,
+			OptimisationStats.MethodStats methodStats) {
+		InstructionList il = methodGen.getInstructionList();
 
-			// Look for LoadInstruction and check if the index exists in the hashmap.
-			// If it does, replace the LoadInstruction with the literal value.
-			foldedLoadInstruction = false;
-			f = new InstructionFinder(il);
-			String pattern3 = "(DLOAD | FLOAD | ILOAD | LLOAD)";
-			for (Iterator it = f.search(pattern3); it.hasNext(); /* empty increment */) {
-				InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-				// match[0] expected to be LoadInstruction, as specified in the pattern (it's the superclass of the specified pattern).
-				LoadInstruction loadInstruction = (LoadInstruction) match[0].getInstruction();
-
-				System.out.format("loadInstruction: %s index: %s\n", loadInstruction.getClass().getSimpleName(), loadInstruction.getIndex());
-
-				// Check if the index exists in the hashmap.
-				if (literalValues.containsKey(loadInstruction.getIndex())) {
-					// Yes, it does!
-					// Replace the LoadInstruction with the literal value.
-
-					Number literalValue = literalValues.get(loadInstruction.getIndex());
-
-					Instruction instructionAdded = null;
-
-					if (loadInstruction.getType(cpgen) == Type.INT) {
-						if (false && Math.abs(literalValue.intValue()) < Byte.MAX_VALUE) {
-							instructionAdded = new BIPUSH(literalValue.byteValue());
-						} else if (false && Math.abs(literalValue.intValue()) < Short.MAX_VALUE) {
-							instructionAdded = new SIPUSH(literalValue.shortValue());
-						} else {
-							// We need to add to the constant pool.
-							instructionAdded = new LDC(cpgen.addInteger(literalValue.intValue()));
-						}
-					} else if (loadInstruction.getType(cpgen) == Type.FLOAT) {
-						// Need to add to the constant pool.
-						instructionAdded = new LDC(cpgen.addFloat(literalValue.floatValue()));
-					} else if (loadInstruction.getType(cpgen) == Type.DOUBLE) {
-						// Need to add to the constant pool.
-						instructionAdded = new LDC2_W(cpgen.addDouble(literalValue.doubleValue()));
-					} else if (loadInstruction.getType(cpgen) == Type.LONG) {
-						// Need to add to the constant pool.
-						instructionAdded = new LDC2_W(cpgen.addLong(literalValue.longValue()));
-					}
-
-					// Assert that there's an instruction to add.
-					assert instructionAdded != null;
-
-					InstructionHandle instructionAddedHandle = il.insert(match[0], instructionAdded);
-
-					try {
-						// Delete old instructions (loadInstruction)
-						il.delete(match[0]);
-					} catch (TargetLostException e) {
-						for (InstructionHandle target : e.getTargets()) {
-							for (InstructionTargeter targeter : target.getTargeters()) {
-								targeter.updateTarget(target, instructionAddedHandle);
-							}
-						}
-						//e.printStackTrace();
-					}
-
-					foldedLoadInstruction = true;
-
-					System.out.format("Replaced %s %d with %s %f.\n", loadInstruction.getClass().getSimpleName(), loadInstruction.getIndex(), instructionAdded.getClass().getSimpleName(), literalValue.doubleValue());
+		// Both pools start as copies of the original, so only the constants the passes added have to be moved.
+		int originalSize = original.getConstantPool().getLength();
+		for (InstructionHandle ih : il.getInstructionHandles()) {
+			if (ih.getInstruction() instanceof CPInstruction) {
+				CPInstruction instruction = (CPInstruction) ih.getInstruction();
+				if (instruction.getIndex() >= originalSize) {
+					// Sets LDC or LDC_W to suit the new index.
+					instruction.setIndex(cpgen.addConstant(pool.getConstant(instruction.getIndex()), pool));
 				}
 			}
-		} while (foldedLoadInstruction);
-
-//		// setPositions(true) checks whether jump handles
-//		// are all within the current method
-//		il.setPositions(true);
-//
-//		// Recompute max stack/locals.
-//		methodGen.setMaxStack();
-//		methodGen.setMaxLocals();
-//
-//		// Generate the new method.
-//		Method newMethod = methodGen.getMethod();
-//
-//		// Replace the method in the original class.
-//		cgen.replaceMethod(m, newMethod);
-//
-//		// Dispose so that instruction handles can be reused. (Just good practice.)
-//		il.dispose();
-	}
-
-	private void doDynamicVariableFolding(ClassGen cgen, ConstantPoolGen cpgen, InstructionList il) {
-		System.out.println("* * Optimization 03: Dynamic Variable Folding --------------");
-
-		HashMap<Integer, Number> literalValues = new HashMap<>();
-
-		InstructionHandle currentInstructionHandle = il.getStart();
-
-		boolean hasStoreInstructions = true;
+		}
+		methodGen.setConstantPool(cpgen);
 
-		ArrayList<HandlePair> loopRegions = new ArrayList<>();
+		// Frames cannot describe unreachable code, which remains when dead code elimination did not run.
+		DeadCodeElimination.removeUnreachableCode(methodGen);
 
-		// Look for loops in the code.
-		// Any local variable that is MODIFIED within a loop should no longer be optimized until it is re-assigned OUTSIDE a loop.
-		// If any re-assignment occurs within a loop, delete the associated literalValue in literalValues.
+		// 4. Replace method.
 		il.setPositions(true);
-		InstructionFinder loopFinder = new InstructionFinder(il);
-		String loopPattern = "GotoInstruction";
-		for (Iterator it = loopFinder.search(loopPattern); it.hasNext(); /* empty increment */) {
-			InstructionHandle[] match = (InstructionHandle[]) it.next();
+		byte[] optimizedCode = il.getByteCode();
 
-			InstructionHandle gotoTarget = ((GotoInstruction) match[0].getInstruction()).getTarget();
+		// Recompute max stack/locals.
+		methodGen.setMaxStack();
+		methodGen.setMaxLocals();
+		CodeEditing.removeUnusedLocalVariables(methodGen);
 
-			loopRegions.add(new HandlePair(gotoTarget, match[0]));
+		// BCEL describes "this" and the arguments even without debug information; do not add a table the input did not have.
+		if (m.getLocalVariableTable() == null) {
+			methodGen.removeLocalVariables();
 		}
 
-		do {
-			// Look for the first PushInstruction StoreInstruction instance that we can store in literalValues.
-			InstructionFinder f = new InstructionFinder(il);
-			String pattern = "(LDC | LDC2_W | LDC_W | ConstantPushInstruction) (DSTORE | FSTORE | ISTORE | LSTORE)"; // NOTE: May want to add IINC
-
-			Iterator it = f.search(pattern, currentInstructionHandle);
-			if (it.hasNext()) {
-				InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-				System.out.println("[DYNAMIC] currentInstructionHandle: " + currentInstructionHandle + " match[1] next: " + match[1].getNext());
-
-				// Update currentInstructionHandle to the handle of the StoreInstruction.
-				currentInstructionHandle = match[1];
+		// The class keeps its version, so the frames have to describe the new code.
+		try {
+			StackMapGenerator.regenerate(methodGen, cgen.getMajor(), hierarchy);
+		} catch (StackMapGenerator.UnsupportedCodeException e) {
+			if (Log.verbose()) {
+				Log.println("* * Keeping the original code of " + m.getName() + ", no stack map frames: " + e.getMessage());
+			}
+			il.dispose();
+			return;
+		}
+		methodStats.setCodeBytesAfter(optimizedCode.length);
+		modified = true;
 
-				/*InstructionHandle nextInstructionHandle2 = match[1].getNext();
-				if (nextInstructionHandle2 != null) {
-					currentInstructionHandle = nextInstructionHandle2;
-				} else {
-					break;
-				}*/
+		// Generate the new method.
+		Method newMethod = methodGen.getMethod();
 
-				// match[0] expected to be PushInstruction, as specified in the pattern (it's the superclass of the specified pattern).
-				PushInstruction pushInstruction = (PushInstruction) match[0].getInstruction();
+		// Replace the method in the original class.
+		cgen.replaceMethod(m, newMethod);
 
-				// match[1] expected to be StoreInstruction, as specified in the pattern.
-				StoreInstruction storeInstruction = (StoreInstruction) match[1].getInstruction();
+		// Dispose so that instruction handles can be reused. (Just good practice.)
+		il.dispose();
+	}
 
-				int localVariableIndex = storeInstruction.getIndex();
-				Number literalValue = null;
+	// ===========================
+	// ==== PARALLEL METHODS =====
+	// ===========================
 
-				// Get the constant value pushed.
-				if (pushInstruction instanceof ConstantPushInstruction) {
-					literalValue = ((ConstantPushInstruction) pushInstruction).getValue();
-				} else if (pushInstruction instanceof LDC) {
-					// LDC must be Number since we only accept ILOAD, FLOAD, etc.
-					literalValue = (Number) ((LDC) pushInstruction).getValue(cpgen);
-				} else if (pushInstruction instanceof LDC2_W) {
-					literalValue = ((LDC2_W) pushInstruction).getValue(cpgen);
-				}
+	/**
+	 * Splits the methods into a batch per thread of methodPool and optimises them there, through batchOptimiser.
+	 */
+	private List<MethodBatch> optimizeInParallel(int methodCount)
+	{
+		int threads = methodPool.getParallelism();
+		int batchSize = Math.max(MIN_BATCH_SIZE, (methodCount + threads - 1) / threads);
+		List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+		for (int from = 0; from < methodCount; from += batchSize) {
+			int[] range = { from, Math.min(from + batchSize, methodCount) };
+			tasks.add(methodPool.submit(() -> batchOptimiser.apply(range)));
+		}
+		List<MethodBatch> batches = new ArrayList<>();
+		for (ForkJoinTask<byte[]> task : tasks) {
+			batches.add(readBatch(task.join()));
+		}
+		return batches;
+	}
 
-				// Assert that we've assigned a value to literalValue.
-				if (literalValue == null) {
-					System.err.format("FATAL: [DYNAMIC] Could not obtain literal value for unknown type %s.\n", pushInstruction.getClass().getSimpleName());
-				}
+	/**
+	 * Optimises methods from (inclusive) to to (exclusive) and returns them as bytes for readBatch(), see
+	 * setMethodParallelism(). The optimised methods travel in a class file built on the private constant pool
+	 * of the batch; their statistics are serialised alongside.
+	 */
+	public byte[] optimizeMethods(int from, int to) throws IOException
+	{
+		MethodBatch batch = optimizeBatch(from, to);
+		ClassGen batchGen = new ClassGen(original.getClassName(), original.getSuperclassName(), "<batch>",
+				original.getAccessFlags(), new String[0], batch.pool);
+		for (MethodGen methodGen : batch.methodGens) {
+			batchGen.addMethod(methodGen.getMethod());
+			methodGen.getInstructionList().dispose();
+		}
 
-				System.out.format("[DYNAMIC] pushInstruction: %s storeInstruction: %s index: %d value: %f\n", pushInstruction.getClass().getSimpleName(), storeInstruction.getClass().getSimpleName(), storeInstruction.getIndex(), literalValue.doubleValue());
-
-				// Store the literal value in the literalValues hashmap.
-				literalValues.put(localVariableIndex, literalValue);
-
-				InstructionHandle reassignmentInstructionHandle = null;
-
-				// Look for subsequent StoreInstruction with the SAME index (reassignment)
-				if (currentInstructionHandle.getNext() != null) {
-					String pattern2 = "StoreInstruction | IINC";
-					for (Iterator it2 = f.search(pattern2, currentInstructionHandle.getNext()); it2.hasNext(); /* empty increment */) {
-						InstructionHandle[] match2 = (InstructionHandle[]) it2.next();
-
-						if (match2[0].getInstruction() instanceof StoreInstruction) {
-							if (((StoreInstruction) match2[0].getInstruction()).getIndex() == localVariableIndex) {
-								reassignmentInstructionHandle = match2[0];
-								// If any re-assignment occurs within a loop, delete the associated literalValue in literalValues.
-								for (HandlePair loop : loopRegions) {
-									if (match2[0].getPosition() >= loop.startHandle().getPosition() && match2[0].getPosition() <= loop.endHandle().getPosition()) {
-										literalValues.remove(localVariableIndex);
-									}
-								}
-							}
-						} else if (match2[0].getInstruction() instanceof IINC) {
-							if (((IINC) match2[0].getInstruction()).getIndex() == localVariableIndex) {
-								reassignmentInstructionHandle = match2[0];
-								// If any re-assignment occurs within a loop, delete the associated literalValue in literalValues.
-								for (HandlePair loop : loopRegions) {
-									if (match2[0].getPosition() >= loop.startHandle().getPosition() && match2[0].getPosition() <= loop.endHandle().getPosition()) {
-										literalValues.remove(localVariableIndex);
-									}
-								}
-							}
-						} else {
-							System.err.println("[DYNAMIC] FATAL: Unknown reassignment instruction.");
-						}
-					}
-				}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(batchGen.getJavaClass().getBytes());
+			out.writeObject(batch.indexes);
+			out.writeObject(batch.stats);
+			out.writeObject(batch.changedStats);
+		}
+		return bytes.toByteArray();
+	}
 
-				// Look for all LoadInstructions BEFORE reassignmentInstructionHandle with the same index and replace with values from literalValues.
-				// If no reassignment, replace until the end.
-				String pattern3 = "LoadInstruction";
-				for (Iterator it3 = f.search(pattern3, currentInstructionHandle); it3.hasNext(); /* empty increment */) {
-					InstructionHandle[] match2 = (InstructionHandle[]) it3.next();
-
-					if (reassignmentInstructionHandle != null && match2[0].getPosition() > reassignmentInstructionHandle.getPosition()) {
-						break;
-					}
-
-					// match2[0] expected to be LoadInstruction, as specified in the pattern.
-					LoadInstruction loadInstruction = (LoadInstruction) match2[0].getInstruction();
-
-					if (loadInstruction.getIndex() != localVariableIndex) {
-						continue;
-					}
-
-					// Check if the index exists in the hashmap.
-					if (literalValues.containsKey(loadInstruction.getIndex())) {
-						// Yes, it does!
-						// Replace the LoadInstruction with the literal value.
-
-						Number literalValueToReplace = literalValues.get(loadInstruction.getIndex());
-
-						Instruction instructionAdded = null;
-
-						if (loadInstruction.getType(cpgen) == Type.INT) {
-							// Always add to the constant pool for now.
-							if (false && Math.abs(literalValueToReplace.intValue()) < Byte.MAX_VALUE) {
-								instructionAdded = new BIPUSH(literalValueToReplace.byteValue());
-							} else if (false && Math.abs(literalValueToReplace.intValue()) < Short.MAX_VALUE) {
-								instructionAdded = new SIPUSH(literalValueToReplace.shortValue());
-							} else {
-								// We need to add to the constant pool.
-								instructionAdded = new LDC(cpgen.addInteger(literalValueToReplace.intValue()));
-							}
-						} else if (loadInstruction.getType(cpgen) == Type.FLOAT) {
-							// Need to add to the constant pool.
-							instructionAdded = new LDC(cpgen.addFloat(literalValueToReplace.floatValue()));
-						} else if (loadInstruction.getType(cpgen) == Type.DOUBLE) {
-							// Need to add to the constant pool.
-							instructionAdded = new LDC2_W(cpgen.addDouble(literalValueToReplace.doubleValue()));
-						} else if (loadInstruction.getType(cpgen) == Type.LONG) {
-							// Need to add to the constant pool.
-							instructionAdded = new LDC2_W(cpgen.addLong(literalValueToReplace.longValue()));
-						}
-
-						// Assert that there's an instruction to add.
-						assert instructionAdded != null;
-
-						InstructionHandle instructionAddedHandle = il.insert(match2[0], instructionAdded);
-
-						try {
-							// Delete old instructions (loadInstruction)
-							il.delete(match2[0]);
-						} catch (TargetLostException e) {
-							for (InstructionHandle target : e.getTargets()) {
-								for (InstructionTargeter targeter : target.getTargeters()) {
-									targeter.updateTarget(target, instructionAddedHandle);
-								}
-							}
-							//e.printStackTrace();
-						}
-
-						il.setPositions(true);
-
-						System.out.format("[DYNAMIC] Replaced %s %d with %s %f.\n", loadInstruction.getClass().getSimpleName(), loadInstruction.getIndex(), instructionAdded.getClass().getSimpleName(), literalValue.doubleValue());
-					}
+	@SuppressWarnings("unchecked")
+	private MethodBatch readBatch(byte[] bytes)
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+				// The statistics were written by another copy of this class, loaded by another class loader.
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+				{
+					return Class.forName(desc.getName(), false, ConstantFolder.class.getClassLoader());
 				}
-
-				// Do simple folding to collapse all arithmetic operations on literals.
-				doSimpleFolding(cgen, cpgen, il);
-
-				il.setPositions(true);
-
-				InstructionHandle nextInstructionHandle = currentInstructionHandle.getNext();
-				if (nextInstructionHandle != null && nextInstructionHandle.getInstruction() != null) {
-					currentInstructionHandle = nextInstructionHandle;
-				} else {
-					// No more instructions.
-					hasStoreInstructions = false;
-					System.out.println("[DYNAMIC] No more instructions - optimization finished.");
-					break;
+			}) {
+			JavaClass batchClass = new ClassParser(new ByteArrayInputStream((byte[]) in.readObject()), "<batch>").parse();
+			MethodBatch batch = new MethodBatch(new ConstantPoolGen(batchClass.getConstantPool()));
+			batch.indexes.addAll((List<Integer>) in.readObject());
+			batch.stats.addAll((List<OptimisationStats.MethodStats>) in.readObject());
+			batch.changedStats.addAll((List<OptimisationStats.MethodStats>) in.readObject());
+			for (Method m : batchClass.getMethods()) {
+				MethodGen methodGen = new MethodGen(m, original.getClassName(), batch.pool);
+				if (m.getLocalVariableTable() == null) {
+					// Every variable went, or there were none; drop the ones BCEL makes up, as in finishMethod().
+					methodGen.removeLocalVariables();
 				}
-			} else {
-				// No more PushInstruction StoreInstruction sequences.
-				hasStoreInstructions = false;
-				break;
+				CodeEditing.repairInvokeDynamic(methodGen.getInstructionList());
+				batch.methodGens.add(methodGen);
 			}
-
-		} while (hasStoreInstructions);
+			return batch;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
-	// ===========================
-	// ======== UTILITIES ========
-	// ===========================
-	private Number doArithmeticOperation(Number lhs, Number rhs, Type operatorType, String operationStr) {
-		Number result = null;
-		switch (operationStr) {
-			case OP_ADD:
-				if (operatorType == Type.INT) {
-					result = lhs.intValue() + rhs.intValue();
-				} else if (operatorType == Type.LONG) {
-					result = lhs.longValue() + rhs.longValue();
-				} else if (operatorType == Type.FLOAT) {
-					result = lhs.floatValue() + rhs.floatValue();
-				} else if (operatorType == Type.DOUBLE) {
-					result = lhs.doubleValue() + rhs.doubleValue();
-				}
-				break;
-			case OP_SUB:
-				if (operatorType == Type.INT) {
-					result = lhs.intValue() - rhs.intValue();
-				} else if (operatorType == Type.LONG) {
-					result = lhs.longValue() - rhs.longValue();
-				} else if (operatorType == Type.FLOAT) {
-					result = lhs.floatValue() - rhs.floatValue();
-				} else if (operatorType == Type.DOUBLE) {
-					result = lhs.doubleValue() - rhs.doubleValue();
-				}
-				break;
-			case OP_MUL:
-				if (operatorType == Type.INT) {
-					result = lhs.intValue() * rhs.intValue();
-				} else if (operatorType == Type.LONG) {
-					result = lhs.longValue() * rhs.longValue();
-				} else if (operatorType == Type.FLOAT) {
-					result = lhs.floatValue() * rhs.floatValue();
-				} else if (operatorType == Type.DOUBLE) {
-					result = lhs.doubleValue() * rhs.doubleValue();
-				}
-				break;
-			case OP_DIV:
-				if (operatorType == Type.INT) {
-					result = lhs.intValue() / rhs.intValue();
-				} else if (operatorType == Type.LONG) {
-					result = lhs.longValue() / rhs.longValue();
-				} else if (operatorType == Type.FLOAT) {
-					result = lhs.floatValue() / rhs.floatValue();
-				} else if (operatorType == Type.DOUBLE) {
-					result = lhs.doubleValue() / rhs.doubleValue();
-				}
-				break;
+	/**
+	 * The methods of one batch whose code changed, with their statistics, against the private constant pool
+	 * of the batch. stats covers every method of the batch that has code.
+	 */
+	private static final class MethodBatch
+	{
+		final ConstantPoolGen pool;
+		final ArrayList<Integer> indexes = new ArrayList<>();
+		final List<MethodGen> methodGens = new ArrayList<>();
+		final ArrayList<OptimisationStats.MethodStats> stats = new ArrayList<>();
+		final ArrayList<OptimisationStats.MethodStats> changedStats = new ArrayList<>();
+
+		MethodBatch(ConstantPoolGen pool)
+		{
+			this.pool = pool;
 		}
-		return result;
 	}
 
-
-	public void write(String optimisedFilePath)
+	public void write(String optimisedFilePath) throws IOException
 	{
 		this.optimize();
 
-		try {
-			FileOutputStream out = new FileOutputStream(new File(optimisedFilePath));
+		try (FileOutputStream out = new FileOutputStream(new File(optimisedFilePath))) {
 			this.optimized.dump(out);
-		} catch (FileNotFoundException e) {
-			// Auto-generated catch block
-			e.printStackTrace();
-		} catch (IOException e) {
-			// Auto-generated catch block
-			e.printStackTrace();
 		}
 	}
 
-	class HandlePair
+	/**
+	 * Optimizes the class and returns the resulting class file bytes.
+	 */
+	public byte[] toByteArray() throws IOException
 	{
-		private final InstructionHandle startHandle;
-		private final InstructionHandle endHandle;
-
-		public HandlePair(InstructionHandle start, InstructionHandle end)
-		{
-			startHandle = start;
-			endHandle   = end;
-		}
+		this.optimize();
 
-		public InstructionHandle startHandle()   { return startHandle; }
-		public InstructionHandle endHandle()     { return endHandle; }
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.optimized.dump(out);
+		return out.toByteArray();
 	}
 }
-
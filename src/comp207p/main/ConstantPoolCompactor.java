@@ -0,0 +1,767 @@
+package comp207p.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Rebuilds the constant pool of a class file with only the entries something still refers to.
+ *
+ * Folding adds constants to the pool but never removes the ones it made unused, and BCEL writes every entry it
+ * ever had, so without this an optimised class can come out larger than it went in. The class is walked twice
+ * at the byte level: the first walk collects every pool index the class refers to, the second writes the class
+ * with the indexes of the new pool. Entries with the same contents are merged. Entries loaded by LDC come first,
+ * as their index has to fit in one byte; the rest follow in the order the class first refers to them, each
+ * followed by the entries it refers to itself, so that what is used together is stored together.
+ *
+ * With stripDebug, SourceFile, SourceDebugExtension, LineNumberTable, LocalVariableTable and
+ * LocalVariableTypeTable attributes are dropped as well.
+ *
+ * Every attribute that can refer to the pool has to be understood to renumber it. A class with any other
+ * attribute (anything non-standard), or that is malformed, keeps its pool as it is: it is returned unchanged, or
+ * with only the debug attributes dropped when stripDebug is set, and the caller is told why.
+ */
+final class ConstantPoolCompactor {
+
+    private static final Set<String> DEBUG_ATTRIBUTES = new HashSet<>(Arrays.asList(
+            "SourceFile", "SourceDebugExtension", "LineNumberTable", "LocalVariableTable", "LocalVariableTypeTable"));
+
+    private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+            FIELDREF = 9, METHODREF = 10, INTERFACE_METHODREF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15,
+            METHOD_TYPE = 16, DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+
+    private final byte[] in;
+    private final boolean stripDebug;
+    // False to keep the pool and every index as they are, and copy unknown attributes, only to strip debug attributes.
+    private final boolean renumber;
+
+    // The original pool: tag, and the bytes after it, of every entry; null in the unused slot after a long or double.
+    private int[] tags;
+    private byte[][] bodies;
+    private int bodyStart;
+
+    private int pos;
+    private DataOutputStream out;
+    private boolean writing = false;
+
+    // Collected by the first walk, in order of first reference.
+    private final Set<Integer> ldcReferences = new LinkedHashSet<>();
+    private final Set<Integer> references = new LinkedHashSet<>();
+
+    private final Map<Integer, String> keys = new HashMap<>();
+    private final Map<String, Integer> newIndexes = new HashMap<>();
+    private final List<Integer> newOrder = new ArrayList<>();
+    private int newCount = 1;
+
+    private ConstantPoolCompactor(byte[] classBytes, boolean stripDebug, boolean renumber) {
+        this.in = classBytes;
+        this.stripDebug = stripDebug;
+        this.renumber = renumber;
+    }
+
+    /**
+     * Returns the class with a compacted constant pool. When the class uses an attribute this does not know or is
+     * malformed, unsupported is told why, and the class is returned with its own pool: classBytes itself, or a copy
+     * without debug attributes when stripDebug is set and the class can be walked that far.
+     */
+    static byte[] compact(byte[] classBytes, boolean stripDebug, Consumer<String> unsupported) {
+        try {
+            return compact(classBytes, stripDebug, true);
+        } catch (UnsupportedClassException e) {
+            unsupported.accept(e.getMessage());
+        }
+        if (stripDebug) {
+            try {
+                return compact(classBytes, true, false);
+            } catch (UnsupportedClassException e) {
+                // Already reported.
+            }
+        }
+        return classBytes;
+    }
+
+    private static byte[] compact(byte[] classBytes, boolean stripDebug, boolean renumber) throws UnsupportedClassException {
+        try {
+            return new ConstantPoolCompactor(classBytes, stripDebug, renumber).compact();
+        } catch (IndexOutOfBoundsException e) {
+            throw new UnsupportedClassException("malformed class file");
+        } catch (IOException e) {
+            // Only written to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] compact() throws IOException, UnsupportedClassException {
+        readPool();
+
+        if (renumber) {
+            out = new DataOutputStream(OutputStream.nullOutputStream());
+            pos = bodyStart;
+            walkBody();
+            assignIndexes();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(in.length);
+        out = new DataOutputStream(bytes);
+        writing = true;
+        if (renumber) {
+            out.write(in, 0, 8);
+            writePool();
+        } else {
+            out.write(in, 0, bodyStart);
+        }
+        pos = bodyStart;
+        walkBody();
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // ===========================
+    // ========== POOL ===========
+    // ===========================
+
+    private void readPool() throws UnsupportedClassException {
+        pos = 8;
+        int count = u2();
+        tags = new int[count];
+        bodies = new byte[count][];
+        for (int i = 1; i < count; i++) {
+            int tag = u1();
+            int length;
+            switch (tag) {
+                case UTF8: length = 2 + ((in[pos] & 0xFF) << 8 | (in[pos + 1] & 0xFF)); break;
+                case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE: length = 2; break;
+                case METHOD_HANDLE: length = 3; break;
+                case INTEGER: case FLOAT: case FIELDREF: case METHODREF: case INTERFACE_METHODREF:
+                case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC: length = 4; break;
+                case LONG: case DOUBLE: length = 8; break;
+                default: throw new UnsupportedClassException("unknown constant pool tag " + tag);
+            }
+            tags[i] = tag;
+            bodies[i] = Arrays.copyOfRange(in, pos, pos + length);
+            pos += length;
+            if (tag == LONG || tag == DOUBLE) {
+                i++;
+            }
+        }
+        bodyStart = pos;
+    }
+
+    /**
+     * Offsets of the pool indexes in the body of an entry.
+     */
+    private static int[] referenceOffsets(int tag) {
+        switch (tag) {
+            case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE: return new int[] { 0 };
+            case METHOD_HANDLE: return new int[] { 1 };
+            case FIELDREF: case METHODREF: case INTERFACE_METHODREF: case NAME_AND_TYPE: return new int[] { 0, 2 };
+            // The first two bytes index the BootstrapMethods attribute, not the pool.
+            case DYNAMIC: case INVOKE_DYNAMIC: return new int[] { 2 };
+            default: return new int[0];
+        }
+    }
+
+    /**
+     * Identifies an entry by its contents, including those of the entries it refers to.
+     */
+    private String key(int index) {
+        String key = keys.get(index);
+        if (key != null) {
+            return key;
+        }
+        byte[] body = bodies[index];
+        StringBuilder sb = new StringBuilder().append(tags[index]).append(':');
+        int from = 0;
+        for (int offset : referenceOffsets(tags[index])) {
+            sb.append(new String(body, from, offset - from, StandardCharsets.ISO_8859_1));
+            sb.append('[').append(key(u2(body, offset))).append(']');
+            from = offset + 2;
+        }
+        sb.append(new String(body, from, body.length - from, StandardCharsets.ISO_8859_1));
+        key = sb.toString();
+        keys.put(index, key);
+        return key;
+    }
+
+    private void assignIndexes() throws UnsupportedClassException {
+        for (int index : ldcReferences) {
+            checkIndex(index);
+        }
+        for (int index : references) {
+            checkIndex(index);
+        }
+        for (int index : ldcReferences) {
+            assign(index);
+        }
+        for (int index : ldcReferences) {
+            if (newIndex(index) > 0xFF) {
+                throw new UnsupportedClassException("more than 256 constants loaded by ldc");
+            }
+        }
+        Set<Integer> visited = new HashSet<>();
+        for (int index : ldcReferences) {
+            assignWithReferences(index, visited);
+        }
+        for (int index : references) {
+            assignWithReferences(index, visited);
+        }
+        if (newCount > 0xFFFF) {
+            throw new UnsupportedClassException("too many constants");
+        }
+    }
+
+    private void checkIndex(int index) throws UnsupportedClassException {
+        if (index <= 0 || index >= tags.length || tags[index] == 0) {
+            throw new UnsupportedClassException("invalid constant pool index " + index);
+        }
+        for (int offset : referenceOffsets(tags[index])) {
+            checkIndex(u2(bodies[index], offset));
+        }
+    }
+
+    private void assign(int index) {
+        if (!newIndexes.containsKey(key(index))) {
+            newIndexes.put(key(index), newCount);
+            newOrder.add(index);
+            newCount += tags[index] == LONG || tags[index] == DOUBLE ? 2 : 1;
+        }
+    }
+
+    private void assignWithReferences(int index, Set<Integer> visited) {
+        if (!visited.add(index)) {
+            return;
+        }
+        assign(index);
+        for (int offset : referenceOffsets(tags[index])) {
+            assignWithReferences(u2(bodies[index], offset), visited);
+        }
+    }
+
+    private int newIndex(int index) {
+        return renumber ? newIndexes.get(key(index)) : index;
+    }
+
+    private void writePool() throws IOException {
+        out.writeShort(newCount);
+        for (int index : newOrder) {
+            byte[] body = bodies[index].clone();
+            for (int offset : referenceOffsets(tags[index])) {
+                int reference = newIndex(u2(body, offset));
+                body[offset] = (byte) (reference >> 8);
+                body[offset + 1] = (byte) reference;
+            }
+            out.writeByte(tags[index]);
+            out.write(body);
+        }
+    }
+
+    // ===========================
+    // ========== BODY ===========
+    // ===========================
+
+    private void walkBody() throws IOException, UnsupportedClassException {
+        copy(2);                    // access_flags
+        reference();                // this_class
+        optionalReference();        // super_class
+        int interfaces = copyU2();
+        for (int i = 0; i < interfaces; i++) {
+            reference();
+        }
+        for (int members = 0; members < 2; members++) {      // fields, then methods
+            int count = copyU2();
+            for (int i = 0; i < count; i++) {
+                copy(2);            // access_flags
+                reference();        // name
+                reference();        // descriptor
+                attributes();
+            }
+        }
+        attributes();
+    }
+
+    private void attributes() throws IOException, UnsupportedClassException {
+        int count = u2();
+        DataOutputStream outer = out;
+        ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        out = new DataOutputStream(kept);
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            int nameIndex = u2();
+            int length = u4();
+            String name = utf8(nameIndex);
+            if (stripDebug && DEBUG_ATTRIBUTES.contains(name)) {
+                pos += length;
+                continue;
+            }
+            keptCount++;
+            use(nameIndex);
+
+            int end = pos + length;
+            DataOutputStream attributeOuter = out;
+            ByteArrayOutputStream attribute = new ByteArrayOutputStream(length);
+            out = new DataOutputStream(attribute);
+            attribute(name, length);
+            if (pos != end) {
+                throw new UnsupportedClassException("malformed " + name + " attribute");
+            }
+            out = attributeOuter;
+            out.writeShort(writing ? newIndex(nameIndex) : 0);
+            out.writeInt(attribute.size());
+            attribute.writeTo(out);
+        }
+        out = outer;
+        out.writeShort(keptCount);
+        kept.writeTo(out);
+    }
+
+    private void attribute(String name, int length) throws IOException, UnsupportedClassException {
+        switch (name) {
+            case "SourceFile": case "Signature": case "NestHost": case "ConstantValue":
+                reference();
+                break;
+            case "Deprecated": case "Synthetic": case "SourceDebugExtension": case "LineNumberTable":
+                copy(length);
+                break;
+            case "NestMembers": case "PermittedSubclasses": case "Exceptions": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    reference();
+                }
+                break;
+            }
+            case "InnerClasses": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    reference();            // inner_class_info
+                    optionalReference();    // outer_class_info
+                    optionalReference();    // inner_name
+                    copy(2);                // inner_class_access_flags
+                }
+                break;
+            }
+            case "EnclosingMethod":
+                reference();
+                optionalReference();
+                break;
+            case "BootstrapMethods": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    reference();
+                    int arguments = copyU2();
+                    for (int j = 0; j < arguments; j++) {
+                        reference();
+                    }
+                }
+                break;
+            }
+            case "MethodParameters": {
+                int count = copyU1();
+                for (int i = 0; i < count; i++) {
+                    optionalReference();
+                    copy(2);
+                }
+                break;
+            }
+            case "RuntimeVisibleAnnotations": case "RuntimeInvisibleAnnotations":
+                annotations();
+                break;
+            case "RuntimeVisibleTypeAnnotations": case "RuntimeInvisibleTypeAnnotations": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    typeAnnotation();
+                }
+                break;
+            }
+            case "RuntimeVisibleParameterAnnotations": case "RuntimeInvisibleParameterAnnotations": {
+                int parameters = copyU1();
+                for (int i = 0; i < parameters; i++) {
+                    annotations();
+                }
+                break;
+            }
+            case "AnnotationDefault":
+                elementValue();
+                break;
+            case "Code":
+                code();
+                break;
+            case "LocalVariableTable": case "LocalVariableTypeTable": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    copy(4);                // start_pc, length
+                    reference();            // name
+                    reference();            // descriptor or signature
+                    copy(2);                // index
+                }
+                break;
+            }
+            case "StackMapTable":
+                stackMapTable();
+                break;
+            case "Record": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    reference();            // name
+                    reference();            // descriptor
+                    attributes();
+                }
+                break;
+            }
+            case "Module":
+                module();
+                break;
+            case "ModulePackages": {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    reference();
+                }
+                break;
+            }
+            case "ModuleMainClass":
+                reference();
+                break;
+            default:
+                if (renumber) {
+                    throw new UnsupportedClassException("unknown attribute " + name);
+                }
+                copy(length);
+        }
+    }
+
+    private void module() throws IOException {
+        reference();                        // module_name
+        copy(2);                            // module_flags
+        optionalReference();                // module_version
+        int requires = copyU2();
+        for (int i = 0; i < requires; i++) {
+            reference();                    // requires
+            copy(2);                        // requires_flags
+            optionalReference();            // requires_version
+        }
+        for (int directives = 0; directives < 2; directives++) {   // exports, then opens
+            int count = copyU2();
+            for (int i = 0; i < count; i++) {
+                reference();                // package
+                copy(2);                    // flags
+                int to = copyU2();
+                for (int j = 0; j < to; j++) {
+                    reference();            // module
+                }
+            }
+        }
+        int uses = copyU2();
+        for (int i = 0; i < uses; i++) {
+            reference();
+        }
+        int provides = copyU2();
+        for (int i = 0; i < provides; i++) {
+            reference();                    // service
+            int with = copyU2();
+            for (int j = 0; j < with; j++) {
+                reference();                // implementation
+            }
+        }
+    }
+
+    private void code() throws IOException, UnsupportedClassException {
+        copy(4);                            // max_stack, max_locals
+        int length = u4();
+        out.writeInt(length);
+        byte[] code = Arrays.copyOfRange(in, pos, pos + length);
+        if (renumber) {
+            instructions(code);
+        }
+        out.write(code);
+        pos += length;
+
+        int handlers = copyU2();
+        for (int i = 0; i < handlers; i++) {
+            copy(6);                        // start_pc, end_pc, handler_pc
+            optionalReference();            // catch_type
+        }
+        attributes();
+    }
+
+    /**
+     * Collects or renumbers the pool indexes in the operands of the instructions. Instruction lengths never change.
+     */
+    private void instructions(byte[] code) throws UnsupportedClassException {
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc] & 0xFF;
+            switch (opcode) {
+                case 0x12:                  // ldc
+                    if (writing) {
+                        code[pc + 1] = (byte) newIndex(code[pc + 1] & 0xFF);
+                    } else {
+                        ldcReferences.add(code[pc + 1] & 0xFF);
+                    }
+                    pc += 2;
+                    break;
+                case 0x13: case 0x14:       // ldc_w, ldc2_w
+                case 0xB2: case 0xB3: case 0xB4: case 0xB5:         // get/putstatic, get/putfield
+                case 0xB6: case 0xB7: case 0xB8:                    // invokevirtual, invokespecial, invokestatic
+                case 0xBB: case 0xBD: case 0xC0: case 0xC1:         // new, anewarray, checkcast, instanceof
+                    codeReference(code, pc + 1);
+                    pc += 3;
+                    break;
+                case 0xB9: case 0xBA:       // invokeinterface, invokedynamic
+                    codeReference(code, pc + 1);
+                    pc += 5;
+                    break;
+                case 0xC5:                  // multianewarray
+                    codeReference(code, pc + 1);
+                    pc += 4;
+                    break;
+                case 0xAA: {                // tableswitch
+                    int operands = (pc + 4) & ~3;
+                    int low = u4(code, operands + 4);
+                    int high = u4(code, operands + 8);
+                    pc = operands + 12 + 4 * (high - low + 1);
+                    break;
+                }
+                case 0xAB: {                // lookupswitch
+                    int operands = (pc + 4) & ~3;
+                    pc = operands + 8 + 8 * u4(code, operands + 4);
+                    break;
+                }
+                case 0xC4:                  // wide
+                    pc += (code[pc + 1] & 0xFF) == 0x84 ? 6 : 4;
+                    break;
+                default:
+                    int length = instructionLength(opcode);
+                    if (length == 0) {
+                        throw new UnsupportedClassException("unknown opcode " + opcode);
+                    }
+                    pc += length;
+            }
+        }
+    }
+
+    /**
+     * Length of an instruction without pool operands, or 0 for an unknown opcode.
+     */
+    private static int instructionLength(int opcode) {
+        if (opcode == 0x10 || opcode == 0xBC || (opcode >= 0x15 && opcode <= 0x19)
+                || (opcode >= 0x36 && opcode <= 0x3A) || opcode == 0xA9) {
+            return 2;               // bipush, newarray, loads, stores and ret with an index
+        } else if (opcode == 0x11 || opcode == 0x84 || (opcode >= 0x99 && opcode <= 0xA8) || opcode == 0xC6 || opcode == 0xC7) {
+            return 3;               // sipush, iinc, branches
+        } else if (opcode == 0xC8 || opcode == 0xC9) {
+            return 5;               // goto_w, jsr_w
+        } else if (opcode <= 0xC3 && !(opcode >= 0xB2 && opcode <= 0xBD) && opcode != 0xC0 && opcode != 0xC1) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private void codeReference(byte[] code, int offset) {
+        int index = u2(code, offset);
+        if (writing) {
+            int reference = newIndex(index);
+            code[offset] = (byte) (reference >> 8);
+            code[offset + 1] = (byte) reference;
+        } else {
+            references.add(index);
+        }
+    }
+
+    private void stackMapTable() throws IOException {
+        int frames = copyU2();
+        for (int i = 0; i < frames; i++) {
+            int type = copyU1();
+            if (type >= 64 && type <= 127) {
+                verificationTypes(1);
+            } else if (type == 247) {
+                copy(2);
+                verificationTypes(1);
+            } else if (type >= 248 && type <= 251) {
+                copy(2);
+            } else if (type >= 252 && type <= 254) {
+                copy(2);
+                verificationTypes(type - 251);
+            } else if (type == 255) {
+                copy(2);
+                verificationTypes(copyU2());
+                verificationTypes(copyU2());
+            }
+        }
+    }
+
+    private void verificationTypes(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int tag = copyU1();
+            if (tag == 7) {             // Object_variable_info
+                reference();
+            } else if (tag == 8) {      // Uninitialized_variable_info
+                copy(2);
+            }
+        }
+    }
+
+    private void typeAnnotation() throws IOException, UnsupportedClassException {
+        int targetType = copyU1();
+        switch (targetType) {
+            case 0x00: case 0x01: case 0x16:            // type_parameter_target, formal_parameter_target
+                copy(1);
+                break;
+            case 0x10: case 0x17: case 0x42:            // supertype_target, throws_target, catch_target
+            case 0x43: case 0x44: case 0x45: case 0x46: // offset_target
+                copy(2);
+                break;
+            case 0x11: case 0x12:                       // type_parameter_bound_target
+                copy(2);
+                break;
+            case 0x13: case 0x14: case 0x15:            // empty_target
+                break;
+            case 0x40: case 0x41:                       // localvar_target: start_pc, length, index per entry
+                copy(6 * copyU2());
+                break;
+            case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B:     // type_argument_target
+                copy(3);
+                break;
+            default:
+                throw new UnsupportedClassException("unknown type annotation target " + targetType);
+        }
+        copy(2 * copyU1());                             // type_path
+        annotation();
+    }
+
+    private void annotations() throws IOException {
+        int count = copyU2();
+        for (int i = 0; i < count; i++) {
+            annotation();
+        }
+    }
+
+    private void annotation() throws IOException {
+        reference();                    // type
+        int pairs = copyU2();
+        for (int i = 0; i < pairs; i++) {
+            reference();                // element_name
+            elementValue();
+        }
+    }
+
+    private void elementValue() throws IOException {
+        char tag = (char) copyU1();
+        switch (tag) {
+            case 'e':
+                reference();
+                reference();
+                break;
+            case '@':
+                annotation();
+                break;
+            case '[': {
+                int count = copyU2();
+                for (int i = 0; i < count; i++) {
+                    elementValue();
+                }
+                break;
+            }
+            default:                    // B C D F I J S Z s c: one constant
+                reference();
+        }
+    }
+
+    // ===========================
+    // ======== UTILITIES ========
+    // ===========================
+
+    /**
+     * Records (first walk) or renumbers (second walk) a pool index.
+     */
+    private void reference() throws IOException {
+        int index = u2();
+        use(index);
+        out.writeShort(writing ? newIndex(index) : 0);
+    }
+
+    /**
+     * Like reference(), but 0 stands for "none".
+     */
+    private void optionalReference() throws IOException {
+        int index = u2();
+        if (index != 0) {
+            use(index);
+        }
+        out.writeShort(index != 0 && writing ? newIndex(index) : 0);
+    }
+
+    private void use(int index) {
+        if (!writing) {
+            references.add(index);
+        }
+    }
+
+    private String utf8(int index) {
+        byte[] body = bodies[index];
+        // Attribute names are plain ASCII.
+        return new String(body, 2, body.length - 2, StandardCharsets.UTF_8);
+    }
+
+    private void copy(int length) throws IOException {
+        out.write(in, pos, length);
+        pos += length;
+    }
+
+    private int copyU1() throws IOException {
+        int value = u1();
+        out.writeByte(value);
+        return value;
+    }
+
+    private int copyU2() throws IOException {
+        int value = u2();
+        out.writeShort(value);
+        return value;
+    }
+
+    private int u1() {
+        return in[pos++] & 0xFF;
+    }
+
+    private int u2() {
+        int value = u2(in, pos);
+        pos += 2;
+        return value;
+    }
+
+    private int u4() {
+        int value = u4(in, pos);
+        pos += 4;
+        return value;
+    }
+
+    private static int u2(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static int u4(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * The class uses something that cannot be renumbered.
+     */
+    private static class UnsupportedClassException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedClassException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package comp207p.main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+/**
+ * Forward constant propagation over a ControlFlowGraph.
+ *
+ * The analysis interprets the method abstractly: every local slot and operand stack slot holds either a known
+ * int/long/float/double constant or "not a constant" (null). States are joined at block entries and iterated to a
+ * fixpoint, so a slot is only constant at a load if it holds the same value on every path that reaches it.
+ * Conditional jumps on known values only follow the edge that is actually taken, so stores on dead paths do
+ * not spoil the facts on live ones. Instructions on known operands are evaluated with ConstantEvaluator; one
+ * that would throw produces "not a constant".
+ *
+ * Long and double values take two stack and local slots like on the JVM: the value in the first slot and null
+ * in the second.
+ */
+public class ConstantPropagation
+{
+	private final ControlFlowGraph cfg;
+	private final ConstantPoolGen cpgen;
+	private final int maxLocals;
+
+	// Frame on entry to each reached block.
+	private final Map<ControlFlowGraph.BasicBlock, Frame> blockEntry = new HashMap<>();
+	// Frame before each reached instruction, filled in once the fixpoint is reached.
+	private final Map<InstructionHandle, Frame> frames = new HashMap<>();
+	// Blocks taken off the worklist before the fixpoint was reached.
+	private int iterations = 0;
+
+	private ConstantPropagation(MethodGen methodGen, ControlFlowGraph cfg)
+	{
+		this.cfg = cfg;
+		this.cpgen = methodGen.getConstantPool();
+
+		int locals = methodGen.getMaxLocals();
+		for (InstructionHandle ih : methodGen.getInstructionList().getInstructionHandles()) {
+			if (ih.getInstruction() instanceof LocalVariableInstruction) {
+				locals = Math.max(locals, ((LocalVariableInstruction) ih.getInstruction()).getIndex() + 2);
+			}
+		}
+		this.maxLocals = locals;
+	}
+
+	/**
+	 * Runs the analysis. Returns null for methods that use JSR/RET subroutines.
+	 */
+	public static ConstantPropagation analyze(MethodGen methodGen, ControlFlowGraph cfg)
+	{
+		if (cfg.hasSubroutines()) {
+			return null;
+		}
+		ConstantPropagation analysis = new ConstantPropagation(methodGen, cfg);
+		analysis.solve();
+		return analysis;
+	}
+
+	/**
+	 * Returns the constant held by a local slot just before ih, or null if it is not constant or ih is unreachable.
+	 */
+	public Number getLocal(InstructionHandle ih, int index)
+	{
+		Frame frame = frames.get(ih);
+		return frame == null ? null : frame.locals[index];
+	}
+
+	/**
+	 * Returns the constant depth slots below the top of the stack just before ih (0 is the top), or null.
+	 * For a long or double on top, its value is at depth 1.
+	 */
+	public Number getStack(InstructionHandle ih, int depth)
+	{
+		Frame frame = frames.get(ih);
+		if (frame == null || depth >= frame.stackSize) {
+			return null;
+		}
+		return frame.stack[frame.stackSize - 1 - depth];
+	}
+
+	/**
+	 * Returns true if some path reaches ih (taking known branch outcomes into account).
+	 */
+	public boolean isReachable(InstructionHandle ih)
+	{
+		return frames.containsKey(ih);
+	}
+
+	/**
+	 * Returns how many block visits the solver needed to reach the fixpoint.
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	// ===========================
+	// ========= SOLVER ==========
+	// ===========================
+
+	private void solve()
+	{
+		ArrayDeque<ControlFlowGraph.BasicBlock> worklist = new ArrayDeque<>();
+		blockEntry.put(cfg.getEntry(), new Frame(maxLocals));
+		worklist.add(cfg.getEntry());
+
+		while (!worklist.isEmpty()) {
+			ControlFlowGraph.BasicBlock block = worklist.remove();
+			Frame frame = blockEntry.get(block).copy();
+			iterations++;
+
+			for (InstructionHandle ih : block.getInstructions()) {
+				// Any instruction in a protected range may throw, so the handler sees the locals as they are here.
+				for (ControlFlowGraph.BasicBlock handler : block.getExceptionSuccessors()) {
+					Frame handlerFrame = new Frame(frame.locals.clone(), new Number[frame.stack.length], 0);
+					handlerFrame.push(null);
+					if (merge(handler, handlerFrame)) {
+						worklist.add(handler);
+					}
+				}
+				if (ih != block.getEnd()) {
+					execute(ih, frame);
+				}
+			}
+
+			for (ControlFlowGraph.BasicBlock successor : executeLast(block, frame)) {
+				if (merge(successor, frame)) {
+					worklist.add(successor);
+				}
+			}
+		}
+
+		// Record the frame before every reachable instruction.
+		for (Map.Entry<ControlFlowGraph.BasicBlock, Frame> entry : blockEntry.entrySet()) {
+			Frame frame = entry.getValue().copy();
+			for (InstructionHandle ih : entry.getKey().getInstructions()) {
+				frames.put(ih, frame.copy());
+				if (ih != entry.getKey().getEnd()) {
+					execute(ih, frame);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Joins frame into the entry frame of block. Returns true if the entry frame changed.
+	 */
+	private boolean merge(ControlFlowGraph.BasicBlock block, Frame frame)
+	{
+		Frame entry = blockEntry.get(block);
+		if (entry == null) {
+			blockEntry.put(block, frame.copy());
+			return true;
+		}
+		return entry.join(frame);
+	}
+
+	/**
+	 * Executes the last instruction of a block and returns the successors that can be reached.
+	 */
+	private List<ControlFlowGraph.BasicBlock> executeLast(ControlFlowGraph.BasicBlock block, Frame frame)
+	{
+		InstructionHandle ih = block.getEnd();
+		Instruction instruction = ih.getInstruction();
+
+		if (instruction instanceof IfInstruction) {
+			IfInstruction branch = (IfInstruction) instruction;
+			Number right = null;
+			Number left;
+			if (branch.consumeStack(cpgen) == 2) {
+				right = frame.pop();
+				left = frame.pop();
+			} else {
+				left = frame.pop();
+			}
+			Boolean taken = ConstantEvaluator.branchTaken(branch, left, right);
+			if (taken != null) {
+				InstructionHandle next = taken ? branch.getTarget() : ih.getNext();
+				return Collections.singletonList(cfg.blockOf(next));
+			}
+			return block.getSuccessors();
+		}
+
+		if (instruction instanceof Select) {
+			Select select = (Select) instruction;
+			Number key = frame.pop();
+			if (key != null) {
+				int[] matches = select.getMatchs();
+				for (int i = 0; i < matches.length; i++) {
+					if (matches[i] == key.intValue()) {
+						return Collections.singletonList(cfg.blockOf(select.getTargets()[i]));
+					}
+				}
+				return Collections.singletonList(cfg.blockOf(select.getTarget()));
+			}
+			return block.getSuccessors();
+		}
+
+		execute(ih, frame);
+		return block.getSuccessors();
+	}
+
+	// ===========================
+	// ======== TRANSFER =========
+	// ===========================
+
+	/**
+	 * Applies the effect of one instruction to the frame.
+	 */
+	private void execute(InstructionHandle ih, Frame frame)
+	{
+		Instruction instruction = ih.getInstruction();
+
+		if (instruction instanceof ConstantPushInstruction) {
+			frame.push(((ConstantPushInstruction) instruction).getValue(), size(((ConstantPushInstruction) instruction).getType(cpgen)));
+		} else if (instruction instanceof LDC) {
+			Object value = ((LDC) instruction).getValue(cpgen);
+			frame.push(value instanceof Number ? (Number) value : null);
+		} else if (instruction instanceof LDC2_W) {
+			frame.push(((LDC2_W) instruction).getValue(cpgen), 2);
+		} else if (instruction instanceof LoadInstruction) {
+			LoadInstruction load = (LoadInstruction) instruction;
+			Type type = load.getType(cpgen);
+			frame.push(type instanceof BasicType ? frame.locals[load.getIndex()] : null, type.getSize());
+		} else if (instruction instanceof StoreInstruction) {
+			StoreInstruction store = (StoreInstruction) instruction;
+			int size = store.getType(cpgen).getSize();
+			frame.store(store.getIndex(), frame.pop(size), size);
+		} else if (instruction instanceof IINC) {
+			IINC iinc = (IINC) instruction;
+			Number value = frame.locals[iinc.getIndex()];
+			frame.store(iinc.getIndex(), value instanceof Integer ? (Number) (value.intValue() + iinc.getIncrement()) : null, 1);
+		} else if (instruction instanceof ArithmeticInstruction) {
+			executeArithmetic((ArithmeticInstruction) instruction, frame);
+		} else if (instruction instanceof ConversionInstruction) {
+			ConversionInstruction conversion = (ConversionInstruction) instruction;
+			Number value = frame.pop(size(ConstantEvaluator.operandType(conversion)));
+			Type target = conversion.getType(cpgen);
+			frame.push(value == null ? null : ConstantEvaluator.convert(conversion, value), target.getSize());
+		} else if (ConstantEvaluator.isComparison(instruction)) {
+			int size = instruction.consumeStack(cpgen) / 2;
+			Number right = frame.pop(size);
+			Number left = frame.pop(size);
+			frame.push(left == null || right == null ? null : ConstantEvaluator.compare(instruction, left, right));
+		} else if (instruction instanceof StackInstruction) {
+			executeStackInstruction(instruction, frame);
+		} else {
+			// Everything else: pop the operands and push results that are not known.
+			frame.pop(instruction.consumeStack(cpgen));
+			for (int i = instruction.produceStack(cpgen); i > 0; i--) {
+				frame.push(null);
+			}
+		}
+	}
+
+	private void executeArithmetic(ArithmeticInstruction operator, Frame frame)
+	{
+		int size = operator.getType(cpgen).getSize();
+		Number result = null;
+		if (ConstantEvaluator.isUnary(operator)) {
+			Number value = frame.pop(size);
+			if (value != null) {
+				result = ConstantEvaluator.negate(operator, value);
+			}
+		} else {
+			// The right operand is smaller than the result for long shifts, whose distance is an int.
+			Number right = frame.pop(operator.consumeStack(cpgen) - size);
+			Number left = frame.pop(size);
+			if (left != null && right != null) {
+				// Null if the operation would throw.
+				result = ConstantEvaluator.evaluate(operator, left, right);
+			}
+		}
+		frame.push(result, size);
+	}
+
+	private void executeStackInstruction(Instruction instruction, Frame frame)
+	{
+		Number v1, v2, v3, v4;
+		switch (instruction.getOpcode()) {
+			case Constants.POP:
+				frame.pop();
+				break;
+			case Constants.POP2:
+				frame.pop(2);
+				break;
+			case Constants.DUP:
+				v1 = frame.pop();
+				frame.push(v1); frame.push(v1);
+				break;
+			case Constants.DUP_X1:
+				v1 = frame.pop(); v2 = frame.pop();
+				frame.push(v1); frame.push(v2); frame.push(v1);
+				break;
+			case Constants.DUP_X2:
+				v1 = frame.pop(); v2 = frame.pop(); v3 = frame.pop();
+				frame.push(v1); frame.push(v3); frame.push(v2); frame.push(v1);
+				break;
+			case Constants.DUP2:
+				v1 = frame.pop(); v2 = frame.pop();
+				frame.push(v2); frame.push(v1); frame.push(v2); frame.push(v1);
+				break;
+			case Constants.DUP2_X1:
+				v1 = frame.pop(); v2 = frame.pop(); v3 = frame.pop();
+				frame.push(v2); frame.push(v1); frame.push(v3); frame.push(v2); frame.push(v1);
+				break;
+			case Constants.DUP2_X2:
+				v1 = frame.pop(); v2 = frame.pop(); v3 = frame.pop(); v4 = frame.pop();
+				frame.push(v2); frame.push(v1); frame.push(v4); frame.push(v3); frame.push(v2); frame.push(v1);
+				break;
+			case Constants.SWAP:
+				v1 = frame.pop(); v2 = frame.pop();
+				frame.push(v1); frame.push(v2);
+				break;
+			default:
+				throw new IllegalStateException("Unknown stack instruction " + instruction);
+		}
+	}
+
+	private static int size(Type type)
+	{
+		return type.getSize();
+	}
+
+	/**
+	 * Locals and operand stack of the abstract interpreter. null means "not a constant".
+	 */
+	private static class Frame
+	{
+		final Number[] locals;
+		Number[] stack;
+		int stackSize;
+
+		Frame(int maxLocals)
+		{
+			this(new Number[maxLocals], new Number[8], 0);
+		}
+
+		Frame(Number[] locals, Number[] stack, int stackSize)
+		{
+			this.locals = locals;
+			this.stack = stack.length == 0 ? new Number[8] : stack;
+			this.stackSize = stackSize;
+		}
+
+		Frame copy()
+		{
+			return new Frame(locals.clone(), stack.clone(), stackSize);
+		}
+
+		void push(Number value)
+		{
+			if (stackSize == stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[stackSize++] = value;
+		}
+
+		/** Pushes a value of the given size in slots, followed by its empty second slot if it is wide. */
+		void push(Number value, int size)
+		{
+			push(value);
+			if (size == 2) {
+				push(null);
+			}
+		}
+
+		Number pop()
+		{
+			return stack[--stackSize];
+		}
+
+		/** Pops size slots and returns the value that started in the lowest of them. */
+		Number pop(int size)
+		{
+			Number value = null;
+			for (int i = 0; i < size; i++) {
+				value = pop();
+			}
+			return value;
+		}
+
+		void store(int index, Number value, int size)
+		{
+			// Overwriting the second half of a wide value destroys that value.
+			if (index > 0 && (locals[index - 1] instanceof Long || locals[index - 1] instanceof Double)) {
+				locals[index - 1] = null;
+			}
+			locals[index] = value;
+			if (size == 2) {
+				locals[index + 1] = null;
+			}
+		}
+
+		/**
+		 * Lowers this frame to what it has in common with other. Returns true if anything changed.
+		 */
+		boolean join(Frame other)
+		{
+			boolean changed = false;
+			for (int i = 0; i < locals.length; i++) {
+				if (locals[i] != null && !Objects.equals(locals[i], other.locals[i])) {
+					locals[i] = null;
+					changed = true;
+				}
+			}
+			for (int i = 0; i < stackSize && i < other.stackSize; i++) {
+				if (stack[i] != null && !Objects.equals(stack[i], other.stack[i])) {
+					stack[i] = null;
+					changed = true;
+				}
+			}
+			return changed;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package comp207p.main;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Replaces loads of locals that hold a known constant with a literal.
+ * A single constant propagation over the control-flow graph finds every load whose local holds the same constant
+ * on all paths that reach it; all of those loads are then replaced in one pass. Iterations count the block visits
+ * until the propagation fixpoint.
+ */
+public class ConstantVariableFolding
+{
+	// Rewrites to literals make more values constant, and so does removing the arms that brought other values.
+	public static final OptimisationPass PASS = new OptimisationPass("constantVariableFolding",
+			"algebraicSimplification", "deadCodeElimination")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			return ConstantVariableFolding.run(methodGen, stats);
+		}
+	};
+
+	private ConstantVariableFolding()
+	{
+	}
+
+	/**
+	 * Replaces every load of a constant local and returns true if there was any.
+	 */
+	public static boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Optimization 02: Constant Variable Folding --------------");
+		}
+
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionList il = methodGen.getInstructionList();
+		ConstantPropagation constants = ConstantPropagation.analyze(methodGen, new ControlFlowGraph(methodGen));
+		if (constants == null) {
+			if (Log.verbose()) {
+				Log.println("Method uses subroutines - constant variable folding skipped.");
+			}
+			return false;
+		}
+		stats.iterations += constants.getIterations();
+
+		boolean foldedLoadInstruction = false;
+		for (InstructionHandle ih : il.getInstructionHandles()) {
+			if (!(ih.getInstruction() instanceof LoadInstruction)) {
+				continue;
+			}
+			LoadInstruction loadInstruction = (LoadInstruction) ih.getInstruction();
+			Number literalValue = constants.getLocal(ih, loadInstruction.getIndex());
+			if (literalValue == null) {
+				continue;
+			}
+
+			Instruction instructionAdded = ConstantEncoding.push(cpgen, literalValue, loadInstruction.getType(cpgen));
+
+			// Swapping the instruction keeps the handle, so jumps to the load stay valid.
+			ih.setInstruction(instructionAdded);
+			foldedLoadInstruction = true;
+			stats.loadsReplaced++;
+
+			if (Log.debug()) {
+				Log.printf("Replaced %s %d with %s %f.\n", loadInstruction.getClass().getSimpleName(), loadInstruction.getIndex(), instructionAdded.getClass().getSimpleName(), literalValue.doubleValue());
+			}
+		}
+		return foldedLoadInstruction;
+	}
+}
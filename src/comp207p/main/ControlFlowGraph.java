@@ -0,0 +1,484 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Basic blocks and control-flow edges of a method, with its dominator tree and natural loops.
+ *
+ * Blocks are split at jump targets, after jumps, returns and throws, and at the boundaries of exception handler
+ * ranges, so every block lies either completely inside or completely outside each protected range.
+ * The graph is a snapshot: rebuild it after changing the instruction list. Replacing the instruction of a handle
+ * with another that does not jump, return or throw (ih.setInstruction()) keeps it valid.
+ *
+ * Dominators follow both normal and exception edges. A loop is found from its back edges (an edge to a block
+ * that dominates its source), so loops closed by conditional jumps are found as well as goto loops, and forward
+ * gotos are not mistaken for loops.
+ */
+public class ControlFlowGraph
+{
+	private final List<BasicBlock> blocks = new ArrayList<>();
+	private final Map<InstructionHandle, BasicBlock> blockOf = new HashMap<>();
+	private final CodeExceptionGen[] exceptionHandlers;
+	private boolean hasSubroutines = false;
+
+	// Immediate dominator of every block reachable from the entry; the entry maps to itself.
+	private final Map<BasicBlock, BasicBlock> immediateDominator = new HashMap<>();
+	// Reverse postorder number of every reachable block.
+	private final Map<BasicBlock, Integer> order = new HashMap<>();
+	private final List<Loop> loops = new ArrayList<>();
+
+	public ControlFlowGraph(MethodGen methodGen)
+	{
+		this(methodGen.getInstructionList(), methodGen.getExceptionHandlers());
+	}
+
+	public ControlFlowGraph(InstructionList il, CodeExceptionGen[] exceptionHandlers)
+	{
+		this.exceptionHandlers = exceptionHandlers;
+		il.setPositions();
+
+		// 1. Find the first instruction of every block.
+		Set<InstructionHandle> leaders = new HashSet<>();
+		leaders.add(il.getStart());
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof BranchInstruction) {
+				leaders.add(((BranchInstruction) instruction).getTarget());
+				if (instruction instanceof Select) {
+					Collections.addAll(leaders, ((Select) instruction).getTargets());
+				}
+			}
+			if (instruction instanceof JsrInstruction || instruction instanceof RET) {
+				hasSubroutines = true;
+			}
+			if (endsBlock(instruction) && ih.getNext() != null) {
+				leaders.add(ih.getNext());
+			}
+		}
+		for (CodeExceptionGen handler : exceptionHandlers) {
+			leaders.add(handler.getStartPC());
+			leaders.add(handler.getHandlerPC());
+			if (handler.getEndPC().getNext() != null) {
+				leaders.add(handler.getEndPC().getNext());
+			}
+		}
+
+		// 2. Group the instructions into blocks.
+		BasicBlock current = null;
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (current == null || leaders.contains(ih)) {
+				current = new BasicBlock(blocks.size());
+				blocks.add(current);
+			}
+			current.instructions.add(ih);
+			blockOf.put(ih, current);
+		}
+
+		// 3. Connect them.
+		for (BasicBlock block : blocks) {
+			Instruction last = block.getEnd().getInstruction();
+			if (last instanceof BranchInstruction) {
+				addEdge(block, blockOf.get(((BranchInstruction) last).getTarget()));
+				if (last instanceof Select) {
+					for (InstructionHandle target : ((Select) last).getTargets()) {
+						addEdge(block, blockOf.get(target));
+					}
+				}
+			}
+			if (!endsFlow(last) && block.getEnd().getNext() != null) {
+				addEdge(block, blockOf.get(block.getEnd().getNext()));
+			}
+		}
+		for (CodeExceptionGen handler : exceptionHandlers) {
+			BasicBlock handlerBlock = blockOf.get(handler.getHandlerPC());
+			for (BasicBlock block : blocks) {
+				if (covers(handler, block.getStart())) {
+					if (!block.exceptionSuccessors.contains(handlerBlock)) {
+						block.exceptionSuccessors.add(handlerBlock);
+						handlerBlock.predecessors.add(block);
+					}
+				}
+			}
+		}
+
+		computeDominators();
+		findLoops();
+	}
+
+	private static void addEdge(BasicBlock from, BasicBlock to)
+	{
+		if (!from.successors.contains(to)) {
+			from.successors.add(to);
+			to.predecessors.add(from);
+		}
+	}
+
+	/**
+	 * True if the instruction must be the last one of its block.
+	 */
+	private static boolean endsBlock(Instruction instruction)
+	{
+		return instruction instanceof BranchInstruction
+				|| instruction instanceof ReturnInstruction
+				|| instruction instanceof ATHROW
+				|| instruction instanceof RET;
+	}
+
+	/**
+	 * True if control never falls through to the next instruction.
+	 */
+	static boolean endsFlow(Instruction instruction)
+	{
+		return instruction instanceof GotoInstruction
+				|| instruction instanceof Select
+				|| instruction instanceof ReturnInstruction
+				|| instruction instanceof ATHROW
+				|| instruction instanceof RET
+				|| instruction instanceof JsrInstruction;
+	}
+
+	/**
+	 * True if the handler's protected range contains ih. Positions must be up to date.
+	 */
+	static boolean covers(CodeExceptionGen handler, InstructionHandle ih)
+	{
+		return ih.getPosition() >= handler.getStartPC().getPosition()
+				&& ih.getPosition() <= handler.getEndPC().getPosition();
+	}
+
+	public List<BasicBlock> getBlocks()
+	{
+		return blocks;
+	}
+
+	public BasicBlock getEntry()
+	{
+		return blocks.get(0);
+	}
+
+	public BasicBlock blockOf(InstructionHandle ih)
+	{
+		return blockOf.get(ih);
+	}
+
+	public CodeExceptionGen[] getExceptionHandlers()
+	{
+		return exceptionHandlers;
+	}
+
+	/**
+	 * Returns the immediate dominator of a block, the entry block for itself, or null if the block is unreachable.
+	 */
+	public BasicBlock getImmediateDominator(BasicBlock block)
+	{
+		return immediateDominator.get(block);
+	}
+
+	/**
+	 * True if every path from the entry to b passes through a. Every reachable block dominates itself.
+	 */
+	public boolean dominates(BasicBlock a, BasicBlock b)
+	{
+		if (!immediateDominator.containsKey(a) || !immediateDominator.containsKey(b)) {
+			return false;
+		}
+		BasicBlock block = b;
+		while (block != a) {
+			BasicBlock idom = immediateDominator.get(block);
+			if (idom == block) {
+				return false;
+			}
+			block = idom;
+		}
+		return true;
+	}
+
+	/**
+	 * True if every path from the method entry to b executes a first (or a == b).
+	 *
+	 * An exception can leave a block before a has run, so a does not dominate anything outside its block through
+	 * the handlers of that block unless a starts it; such cases are answered conservatively with false.
+	 */
+	public boolean dominates(InstructionHandle a, InstructionHandle b)
+	{
+		BasicBlock blockA = blockOf(a);
+		BasicBlock blockB = blockOf(b);
+		if (blockA == blockB) {
+			List<InstructionHandle> instructions = blockA.getInstructions();
+			return immediateDominator.containsKey(blockA) && instructions.indexOf(a) <= instructions.indexOf(b);
+		}
+		if (a != blockA.getStart() && !blockA.getExceptionSuccessors().isEmpty()) {
+			return false;
+		}
+		return dominates(blockA, blockB);
+	}
+
+	/**
+	 * True if control can get from just after from to to without executing avoid on the way.
+	 * A path through an exception handler counts from any instruction of a protected block, which may report a
+	 * path that does not exist but never misses one.
+	 */
+	public boolean reaches(InstructionHandle from, InstructionHandle to, InstructionHandle avoid)
+	{
+		BasicBlock start = blockOf(from);
+		List<InstructionHandle> instructions = start.getInstructions();
+
+		List<BasicBlock> worklist = new ArrayList<>(start.getExceptionSuccessors());
+		boolean fallsOut = true;
+		for (int i = instructions.indexOf(from) + 1; i < instructions.size(); i++) {
+			if (instructions.get(i) == to) {
+				return true;
+			}
+			if (instructions.get(i) == avoid) {
+				fallsOut = false;
+				break;
+			}
+		}
+		if (fallsOut) {
+			worklist.addAll(start.getSuccessors());
+		}
+
+		Set<BasicBlock> visited = new HashSet<>();
+		while (!worklist.isEmpty()) {
+			BasicBlock block = worklist.remove(worklist.size() - 1);
+			if (!visited.add(block)) {
+				continue;
+			}
+			worklist.addAll(block.getExceptionSuccessors());
+			boolean blocked = false;
+			for (InstructionHandle ih : block.getInstructions()) {
+				if (ih == to) {
+					return true;
+				}
+				if (ih == avoid) {
+					blocked = true;
+					break;
+				}
+			}
+			if (!blocked) {
+				worklist.addAll(block.getSuccessors());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the natural loops of the method, outer loops before the loops nested in them.
+	 */
+	public List<Loop> getLoops()
+	{
+		return loops;
+	}
+
+	/**
+	 * Returns the loops that contain ih, outermost first.
+	 */
+	public List<Loop> loopsContaining(InstructionHandle ih)
+	{
+		List<Loop> result = new ArrayList<>();
+		BasicBlock block = blockOf(ih);
+		for (Loop loop : loops) {
+			if (loop.contains(block)) {
+				result.add(loop);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * True if the method uses JSR/RET, which the analyses built on this graph do not model.
+	 */
+	public boolean hasSubroutines()
+	{
+		return hasSubroutines;
+	}
+
+	// ===========================
+	// ======== DOMINATORS =======
+	// ===========================
+
+	/**
+	 * Cooper, Harvey and Kennedy's iterative algorithm over the blocks in reverse postorder.
+	 */
+	private void computeDominators()
+	{
+		List<BasicBlock> reversePostorder = new ArrayList<>();
+		postorder(getEntry(), new HashSet<>(), reversePostorder);
+		Collections.reverse(reversePostorder);
+		for (int i = 0; i < reversePostorder.size(); i++) {
+			order.put(reversePostorder.get(i), i);
+		}
+
+		immediateDominator.put(getEntry(), getEntry());
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock block : reversePostorder) {
+				if (block == getEntry()) {
+					continue;
+				}
+				BasicBlock idom = null;
+				for (BasicBlock predecessor : block.predecessors) {
+					if (immediateDominator.containsKey(predecessor)) {
+						idom = idom == null ? predecessor : intersect(predecessor, idom);
+					}
+				}
+				if (idom != immediateDominator.get(block)) {
+					immediateDominator.put(block, idom);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	private BasicBlock intersect(BasicBlock a, BasicBlock b)
+	{
+		while (a != b) {
+			while (order.get(a) > order.get(b)) {
+				a = immediateDominator.get(a);
+			}
+			while (order.get(b) > order.get(a)) {
+				b = immediateDominator.get(b);
+			}
+		}
+		return a;
+	}
+
+	// Iterative, as methods with thousands of blocks would overflow the stack.
+	private static void postorder(BasicBlock entry, Set<BasicBlock> visited, List<BasicBlock> result)
+	{
+		List<BasicBlock> stack = new ArrayList<>();
+		List<Integer> nextChild = new ArrayList<>();
+		visited.add(entry);
+		stack.add(entry);
+		nextChild.add(0);
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			BasicBlock block = stack.get(top);
+			int child = nextChild.get(top);
+			List<BasicBlock> successors = block.successors;
+			List<BasicBlock> exceptionSuccessors = block.exceptionSuccessors;
+			if (child < successors.size() + exceptionSuccessors.size()) {
+				nextChild.set(top, child + 1);
+				BasicBlock next = child < successors.size() ? successors.get(child) : exceptionSuccessors.get(child - successors.size());
+				if (visited.add(next)) {
+					stack.add(next);
+					nextChild.add(0);
+				}
+			} else {
+				result.add(block);
+				stack.remove(top);
+				nextChild.remove(top);
+			}
+		}
+	}
+
+	/**
+	 * Finds the back edges and collects the body of each loop: the header, plus every block that reaches a back
+	 * edge without passing through the header. Back edges to the same header make up one loop.
+	 */
+	private void findLoops()
+	{
+		Map<BasicBlock, Loop> byHeader = new HashMap<>();
+		for (BasicBlock block : blocks) {
+			List<BasicBlock> targets = new ArrayList<>(block.successors);
+			targets.addAll(block.exceptionSuccessors);
+			for (BasicBlock header : targets) {
+				if (!dominates(header, block)) {
+					continue;
+				}
+				Loop loop = byHeader.get(header);
+				if (loop == null) {
+					loop = new Loop(header);
+					byHeader.put(header, loop);
+					loops.add(loop);
+				}
+				loop.latches.add(block);
+
+				List<BasicBlock> worklist = new ArrayList<>();
+				worklist.add(block);
+				while (!worklist.isEmpty()) {
+					BasicBlock member = worklist.remove(worklist.size() - 1);
+					if (immediateDominator.containsKey(member) && loop.blocks.add(member)) {
+						worklist.addAll(member.predecessors);
+					}
+				}
+			}
+		}
+		// A loop nested in another has fewer blocks, so this puts outer loops first.
+		loops.sort((a, b) -> a.blocks.size() != b.blocks.size() ? b.blocks.size() - a.blocks.size() : a.header.index - b.header.index);
+	}
+
+	/**
+	 * A natural loop: a header that dominates every block of the loop, and the back edges to it.
+	 */
+	public static class Loop
+	{
+		private final BasicBlock header;
+		private final Set<BasicBlock> blocks = new HashSet<>();
+		private final List<BasicBlock> latches = new ArrayList<>();
+
+		Loop(BasicBlock header)
+		{
+			this.header = header;
+			blocks.add(header);
+		}
+
+		public BasicBlock getHeader()          { return header; }
+		/** Every block of the loop, including the header. */
+		public Set<BasicBlock> getBlocks()     { return blocks; }
+		/** The sources of the back edges. */
+		public List<BasicBlock> getLatches()   { return latches; }
+
+		public boolean contains(BasicBlock block)
+		{
+			return blocks.contains(block);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Loop" + header + blocks;
+		}
+	}
+
+	public static class BasicBlock
+	{
+		private final int index;
+		private final List<InstructionHandle> instructions = new ArrayList<>();
+		private final List<BasicBlock> successors = new ArrayList<>();
+		private final List<BasicBlock> exceptionSuccessors = new ArrayList<>();
+		private final List<BasicBlock> predecessors = new ArrayList<>();
+
+		BasicBlock(int index)
+		{
+			this.index = index;
+		}
+
+		/** Position of the block in instruction order. */
+		public int getIndex()                          { return index; }
+		public List<InstructionHandle> getInstructions() { return instructions; }
+		public InstructionHandle getStart()            { return instructions.get(0); }
+		public InstructionHandle getEnd()              { return instructions.get(instructions.size() - 1); }
+		/** Blocks reached by jumps or by falling through. */
+		public List<BasicBlock> getSuccessors()        { return successors; }
+		/** Handlers of the exception ranges that cover this block. */
+		public List<BasicBlock> getExceptionSuccessors() { return exceptionSuccessors; }
+		/** Blocks with a normal or exceptional edge into this one. */
+		public List<BasicBlock> getPredecessors()      { return predecessors; }
+
+		@Override
+		public String toString()
+		{
+			return "B" + index + "@" + getStart().getPosition();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Replaces loads of a local that only holds a copy of another with loads of the original.
+ *
+ * A copy is "xLOAD a; xSTORE b" of the same type, where control cannot reach the store other than through the
+ * load. A later "xLOAD b" then reads a instead when:
+ *
+ *     the copy dominates it, so b was assigned by the copy on every path to it;
+ *     no other store to b (or IINC of it) reaches it without passing through the copy again; and
+ *     no store to a (or IINC of it) lies on a path from the copy to it that does not pass through the copy again.
+ *
+ * The store of the copy is then usually dead, and dead code elimination removes it with the load before it. Wide
+ * locals count as stored to when a store covers either of their two slots.
+ *
+ * Paths are found on the ControlFlowGraph. Large methods can ask for many of them, so a run stops asking after
+ * MAX_QUERIES and leaves the remaining copies to the next run. Methods that use JSR/RET subroutines are left alone.
+ * Iterations count the copies examined.
+ */
+public class CopyPropagation
+{
+	// Inlining leaves copies of arguments behind, and folding can turn other stores into copies.
+	public static final OptimisationPass PASS = new OptimisationPass("copyPropagation",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification",
+			"branchFolding", "localValueNumbering")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			if (Log.verbose()) {
+				Log.println("* * Optimization 09: Copy Propagation --------------");
+			}
+			int replaced = CopyPropagation.run(methodGen, stats);
+			if (Log.debug()) {
+				Log.println("Replaced " + replaced + " loads of copies.");
+			}
+			stats.loadsReplaced += replaced;
+			return replaced > 0;
+		}
+	};
+
+	// Most path queries per run.
+	private static final int MAX_QUERIES = 20000;
+
+	private final ControlFlowGraph cfg;
+	private final ConstantPoolGen cpgen;
+	private int queries = 0;
+
+	private CopyPropagation(ControlFlowGraph cfg, ConstantPoolGen cpgen)
+	{
+		this.cfg = cfg;
+		this.cpgen = cpgen;
+	}
+
+	/**
+	 * Replaces the loads of copies in the method and returns how many were replaced.
+	 */
+	public static int run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		if (il == null) {
+			return 0;
+		}
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		if (cfg.hasSubroutines()) {
+			return 0;
+		}
+
+		CopyPropagation propagation = new CopyPropagation(cfg, methodGen.getConstantPool());
+		int replaced = 0;
+		for (InstructionHandle ih = il.getStart(); ih != null && propagation.queries < MAX_QUERIES; ih = ih.getNext()) {
+			if (propagation.isCopy(ih)) {
+				stats.iterations++;
+				replaced += propagation.propagate(il, ih);
+			}
+		}
+		return replaced;
+	}
+
+	/**
+	 * True if ih is the store of "xLOAD a; xSTORE b" with a and b apart, entered only from the load.
+	 */
+	private boolean isCopy(InstructionHandle ih)
+	{
+		if (!(ih.getInstruction() instanceof StoreInstruction) || ih.getPrev() == null
+				|| !(ih.getPrev().getInstruction() instanceof LoadInstruction) || CodeEditing.isJumpTarget(ih)
+				|| cfg.getImmediateDominator(cfg.blockOf(ih)) == null) {
+			return false;
+		}
+		StoreInstruction store = (StoreInstruction) ih.getInstruction();
+		LoadInstruction load = (LoadInstruction) ih.getPrev().getInstruction();
+		// A wide store into the other half of a wide source would overwrite it.
+		return load.getType(cpgen).equals(store.getType(cpgen))
+				&& Math.abs(load.getIndex() - store.getIndex()) >= store.getType(cpgen).getSize();
+	}
+
+	/**
+	 * Replaces the loads that the copy at store reaches and returns how many were replaced.
+	 */
+	private int propagate(InstructionList il, InstructionHandle store)
+	{
+		StoreInstruction copy = (StoreInstruction) store.getInstruction();
+		int source = ((LoadInstruction) store.getPrev().getInstruction()).getIndex();
+		int target = copy.getIndex();
+		Type type = copy.getType(cpgen);
+
+		List<InstructionHandle> targetStores = new ArrayList<>();
+		List<InstructionHandle> sourceStores = new ArrayList<>();
+		List<InstructionHandle> loads = new ArrayList<>();
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+				if (ih != store && overlaps((LocalVariableInstruction) instruction, target, type.getSize())) {
+					targetStores.add(ih);
+				}
+				if (overlaps((LocalVariableInstruction) instruction, source, type.getSize())) {
+					sourceStores.add(ih);
+				}
+			} else if (instruction instanceof LoadInstruction && ((LoadInstruction) instruction).getIndex() == target
+					&& ((LoadInstruction) instruction).getType(cpgen).equals(type)) {
+				loads.add(ih);
+			}
+		}
+
+		int replaced = 0;
+		for (InstructionHandle load : loads) {
+			if (queries >= MAX_QUERIES || !readsCopy(store, load, targetStores, sourceStores)) {
+				continue;
+			}
+			// setInstruction() keeps the graph valid, and a new instruction leaves BCEL's shared ones alone.
+			load.setInstruction(InstructionFactory.createLoad(type, source));
+			replaced++;
+			if (Log.debug()) {
+				Log.printf("[COPY] Replaced a load of local %d with local %d.\n", target, source);
+			}
+		}
+		return replaced;
+	}
+
+	/**
+	 * True if the load of the copy's target always reads the value the copy stored, and its source still holds it.
+	 */
+	private boolean readsCopy(InstructionHandle store, InstructionHandle load, List<InstructionHandle> targetStores,
+			List<InstructionHandle> sourceStores)
+	{
+		if (!cfg.dominates(store, load)) {
+			return false;
+		}
+		for (InstructionHandle other : targetStores) {
+			queries++;
+			if (cfg.reaches(other, load, store)) {
+				return false;
+			}
+		}
+		for (InstructionHandle other : sourceStores) {
+			queries += 2;
+			if (cfg.reaches(store, other, null) && cfg.reaches(other, load, store)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * True if the store or IINC writes any of the size slots from index.
+	 */
+	private boolean overlaps(LocalVariableInstruction instruction, int index, int size)
+	{
+		int written = instruction instanceof IINC ? 1 : instruction.getType(cpgen).getSize();
+		return instruction.getIndex() < index + size && index < instruction.getIndex() + written;
+	}
+}
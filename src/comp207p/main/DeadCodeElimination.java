@@ -0,0 +1,339 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantFloat;
+import org.apache.bcel.classfile.ConstantInteger;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.generic.*;
+
+/**
+ * Removes code whose effects can never be observed:
+ *
+ *  1. Blocks that no path from the method entry reaches, and then gotos to the very next instruction, which
+ *     removing a dead arm often leaves behind ("iconst_1; goto L; L: ireturn").
+ *  2. Stores (and IINCs) to locals that are not live afterwards, i.e. never read again before being overwritten.
+ *     A store is first turned into a POP or POP2 of its value. An IINC does not by itself keep its local live.
+ *  3. Side-effect free computations whose only result is popped: "iconst_1; pop" goes away completely, and
+ *     "iadd; pop" becomes a pop of both operands, which in turn may go away with the instructions that pushed them.
+ *
+ * Removing a load can make an earlier store dead, so 2 and 3 repeat until nothing changes. Jumps, exception
+ * ranges, line numbers and local variable ranges that pointed at removed instructions are moved to the nearest
+ * remaining one.
+ *
+ * Liveness is computed on the ControlFlowGraph. A local that is live on entry to an exception handler is treated
+ * as live throughout the range the handler protects, as any instruction there may throw. Methods that use JSR/RET
+ * subroutines are left alone.
+ */
+public class DeadCodeElimination
+{
+	// Folding, simplification and folded branches all leave unused values and unreachable arms behind, and
+	// hoisting and reuse leave stores to locals that are no longer read.
+	public static final OptimisationPass PASS = new OptimisationPass("deadCodeElimination",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification", "branchFolding",
+			"localValueNumbering", "copyPropagation", "loopInvariantCodeMotion")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			return DeadCodeElimination.run(methodGen, stats);
+		}
+	};
+
+	private final MethodGen methodGen;
+	private final InstructionList il;
+	private final ConstantPoolGen cpgen;
+	private int removed = 0;
+
+	// A store turned into a pop changes the code without removing anything.
+	private boolean storesPopped = false;
+
+	private DeadCodeElimination(MethodGen methodGen)
+	{
+		this.methodGen = methodGen;
+		this.il = methodGen.getInstructionList();
+		this.cpgen = methodGen.getConstantPool();
+	}
+
+	/**
+	 * Runs the elimination on the method, counting the instructions it removes, and returns true if it changed
+	 * the code.
+	 */
+	public static boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Optimization 06: Dead Code Elimination --------------");
+		}
+		if (methodGen.getInstructionList() == null) {
+			return false;
+		}
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		if (cfg.hasSubroutines()) {
+			return false;
+		}
+
+		DeadCodeElimination elimination = new DeadCodeElimination(methodGen);
+		elimination.removeUnreachableBlocks(cfg);
+		elimination.removeJumpsToNext();
+		// Other passes leave values that are only popped too, e.g. "lload_1; pop2" from "x * 0".
+		elimination.removeUnusedValues();
+		while (elimination.removeDeadStores()) {
+			elimination.removeUnusedValues();
+		}
+		if (Log.debug()) {
+			Log.println("Removed " + elimination.removed + " instructions.");
+		}
+		stats.instructionsRemoved += elimination.removed;
+		return elimination.removed > 0 || elimination.storesPopped;
+	}
+
+	/**
+	 * Removes only the blocks that no path from the method entry reaches, and returns the number of instructions
+	 * removed. Stack map frames cannot describe such code, so this runs even when the pass itself is not selected.
+	 */
+	public static int removeUnreachableCode(MethodGen methodGen)
+	{
+		if (methodGen.getInstructionList() == null) {
+			return 0;
+		}
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		if (cfg.hasSubroutines()) {
+			return 0;
+		}
+
+		DeadCodeElimination elimination = new DeadCodeElimination(methodGen);
+		elimination.removeUnreachableBlocks(cfg);
+		return elimination.removed;
+	}
+
+	// ===========================
+	// ==== UNREACHABLE CODE =====
+	// ===========================
+
+	private void removeUnreachableBlocks(ControlFlowGraph cfg)
+	{
+		// A handler that is never entered goes first, so that deleting its code does not have to fix it up.
+		for (CodeExceptionGen handler : cfg.getExceptionHandlers()) {
+			if (cfg.getImmediateDominator(cfg.blockOf(handler.getHandlerPC())) == null) {
+				methodGen.removeExceptionHandler(handler);
+			}
+		}
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			if (cfg.getImmediateDominator(block) == null) {
+				removed += block.getInstructions().size();
+				CodeEditing.delete(methodGen, block.getStart(), block.getEnd());
+			}
+		}
+	}
+
+	private void removeJumpsToNext()
+	{
+		InstructionHandle ih = il.getStart();
+		while (ih != null) {
+			InstructionHandle next = ih.getNext();
+			if (ih.getInstruction() instanceof GotoInstruction && ((GotoInstruction) ih.getInstruction()).getTarget() == next) {
+				removed++;
+				CodeEditing.delete(methodGen, ih, ih);
+			}
+			ih = next;
+		}
+	}
+
+	// ===========================
+	// ======= DEAD STORES =======
+	// ===========================
+
+	/**
+	 * Replaces every store to a dead local with a pop of its value, and deletes every IINC of a dead local.
+	 * Returns true if anything changed.
+	 */
+	private boolean removeDeadStores()
+	{
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		Map<ControlFlowGraph.BasicBlock, BitSet> liveIn = liveness(cfg);
+
+		boolean changed = false;
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			BitSet handlerLive = handlerLive(block, liveIn);
+			BitSet live = liveOut(block, liveIn);
+			List<InstructionHandle> instructions = block.getInstructions();
+			for (int i = instructions.size() - 1; i >= 0; i--) {
+				InstructionHandle ih = instructions.get(i);
+				Instruction instruction = ih.getInstruction();
+
+				// live holds the locals live just after ih.
+				if (instruction instanceof StoreInstruction && !live.get(((StoreInstruction) instruction).getIndex())) {
+					int size = ((StoreInstruction) instruction).getType(cpgen).getSize();
+					ih.setInstruction(size == 2 ? new POP2() : new POP());
+					storesPopped = true;
+					changed = true;
+				} else if (instruction instanceof IINC && !live.get(((IINC) instruction).getIndex())) {
+					removed++;
+					CodeEditing.delete(methodGen, ih, ih);
+					changed = true;
+					continue;
+				}
+
+				transfer(instruction, live);
+				live.or(handlerLive);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Iterates backwards to a fixpoint and returns the locals live on entry to each block.
+	 */
+	private Map<ControlFlowGraph.BasicBlock, BitSet> liveness(ControlFlowGraph cfg)
+	{
+		Map<ControlFlowGraph.BasicBlock, BitSet> liveIn = new HashMap<>();
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			liveIn.put(block, new BitSet());
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			List<ControlFlowGraph.BasicBlock> blocks = cfg.getBlocks();
+			for (int b = blocks.size() - 1; b >= 0; b--) {
+				ControlFlowGraph.BasicBlock block = blocks.get(b);
+				BitSet handlerLive = handlerLive(block, liveIn);
+				BitSet live = liveOut(block, liveIn);
+				List<InstructionHandle> instructions = block.getInstructions();
+				for (int i = instructions.size() - 1; i >= 0; i--) {
+					transfer(instructions.get(i).getInstruction(), live);
+					live.or(handlerLive);
+				}
+				if (!live.equals(liveIn.get(block))) {
+					liveIn.put(block, live);
+					changed = true;
+				}
+			}
+		}
+		return liveIn;
+	}
+
+	private static BitSet liveOut(ControlFlowGraph.BasicBlock block, Map<ControlFlowGraph.BasicBlock, BitSet> liveIn)
+	{
+		BitSet live = handlerLive(block, liveIn);
+		for (ControlFlowGraph.BasicBlock successor : block.getSuccessors()) {
+			live.or(liveIn.get(successor));
+		}
+		return live;
+	}
+
+	private static BitSet handlerLive(ControlFlowGraph.BasicBlock block, Map<ControlFlowGraph.BasicBlock, BitSet> liveIn)
+	{
+		BitSet live = new BitSet();
+		for (ControlFlowGraph.BasicBlock handler : block.getExceptionSuccessors()) {
+			live.or(liveIn.get(handler));
+		}
+		return live;
+	}
+
+	/**
+	 * Turns the locals live after instruction into the locals live before it.
+	 */
+	private void transfer(Instruction instruction, BitSet live)
+	{
+		if (instruction instanceof StoreInstruction) {
+			StoreInstruction store = (StoreInstruction) instruction;
+			live.clear(store.getIndex(), store.getIndex() + store.getType(cpgen).getSize());
+		} else if (instruction instanceof LoadInstruction) {
+			LoadInstruction load = (LoadInstruction) instruction;
+			live.set(load.getIndex(), load.getIndex() + load.getType(cpgen).getSize());
+		}
+		// An IINC reads its local only to write it back, so it keeps the local live only if it already was.
+		// This lets a counter that nothing else reads die together with its increments.
+	}
+
+	// ===========================
+	// ====== UNUSED VALUES ======
+	// ===========================
+
+	/**
+	 * Folds "pure producer; pop" into pops of the producer's operands until no such pair is left.
+	 * A POP2 may pop an int pushed by the producer and another int below it; the one below then still needs a POP.
+	 */
+	private void removeUnusedValues()
+	{
+		InstructionHandle ih = il.getStart();
+		while (ih != null) {
+			Instruction instruction = ih.getInstruction();
+			InstructionHandle producer = ih.getPrev();
+			if (!(instruction instanceof POP || instruction instanceof POP2) || producer == null || CodeEditing.isJumpTarget(ih)
+					|| !isPure(producer.getInstruction())
+					|| producer.getInstruction().produceStack(cpgen) > instruction.consumeStack(cpgen)) {
+				ih = ih.getNext();
+				continue;
+			}
+
+			// Pop the operands instead: an odd word on top is a category 1 value (e.g. the int of a long shift).
+			// Then pop whatever the old pop took from below the producer's result.
+			int words = producer.getInstruction().consumeStack(cpgen);
+			ArrayList<Instruction> pops = new ArrayList<>();
+			if (words % 2 == 1) {
+				pops.add(new POP());
+			}
+			for (int i = 0; i < words / 2; i++) {
+				pops.add(new POP2());
+			}
+			if (instruction.consumeStack(cpgen) > producer.getInstruction().produceStack(cpgen)) {
+				pops.add(new POP());
+			}
+			if (pops.size() > 2) {
+				ih = ih.getNext();
+				continue;
+			}
+
+			if (pops.isEmpty()) {
+				// Both go. Whatever came before may now be a producer for a later pop, so look again from there.
+				InstructionHandle before = producer.getPrev();
+				removed += 2;
+				CodeEditing.delete(methodGen, producer, ih);
+				ih = before != null ? before : il.getStart();
+				continue;
+			}
+
+			if (pops.size() == 1) {
+				// Keep the handle that jumps may target.
+				producer.setInstruction(pops.get(0));
+				removed++;
+				CodeEditing.delete(methodGen, ih, ih);
+			} else {
+				producer.setInstruction(pops.get(0));
+				ih.setInstruction(pops.get(1));
+			}
+			ih = producer;
+		}
+	}
+
+	/**
+	 * True if the instruction cannot throw or have any other effect besides pushing its result.
+	 */
+	private boolean isPure(Instruction instruction)
+	{
+		if (instruction instanceof ConstantPushInstruction || instruction instanceof LoadInstruction
+				|| instruction instanceof ConversionInstruction || instruction instanceof LDC2_W
+				|| instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG) {
+			return true;
+		}
+		if (instruction instanceof LDC) {
+			// Loading a class (or method handle) constant can fail to resolve; numbers and strings cannot.
+			Constant constant = cpgen.getConstant(((LDC) instruction).getIndex());
+			return constant instanceof ConstantInteger || constant instanceof ConstantFloat || constant instanceof ConstantString;
+		}
+		if (instruction instanceof ArithmeticInstruction) {
+			// Integral division by zero throws.
+			return !(instruction instanceof IDIV || instruction instanceof IREM
+					|| instruction instanceof LDIV || instruction instanceof LREM);
+		}
+		return false;
+	}
+}
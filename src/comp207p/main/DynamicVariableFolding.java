@@ -0,0 +1,165 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Replaces loads of locals that were just given a literal.
+ * A literal stored to a local (e.g. "ldc 42; istore_1") replaces every load of that local that the store
+ * dominates, as long as no other store to the local lies on a path from the store to the load. Both are decided
+ * on the control-flow graph, so a value stored before a loop is propagated into it unless the loop body
+ * reassigns the local, whichever kind of jump closes the loop. Iterations count the literal stores examined.
+ *
+ * Folding the substituted literals can turn further stores into literal stores; PassManager runs this again
+ * after simple folding has done so.
+ */
+public class DynamicVariableFolding
+{
+	private static final InstructionPattern LITERAL_STORE_PATTERN = InstructionPattern.compile("(LDC | LDC2_W | LDC_W | ConstantPushInstruction) (DSTORE | FSTORE | ISTORE | LSTORE)"); // NOTE: May want to add IINC
+
+	// New literal stores come from folding and from replaced loads; removed stores no longer get in the way.
+	public static final OptimisationPass PASS = new OptimisationPass("dynamicVariableFolding",
+			"simpleFolding", "constantVariableFolding", "algebraicSimplification", "deadCodeElimination")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			return DynamicVariableFolding.run(methodGen, stats);
+		}
+	};
+
+	private DynamicVariableFolding()
+	{
+	}
+
+	/**
+	 * Replaces the loads of every literal store and returns true if there was any.
+	 */
+	public static boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Optimization 03: Dynamic Variable Folding --------------");
+		}
+
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionList il = methodGen.getInstructionList();
+		boolean replacedLoadInstruction = false;
+
+		// Replacing loads with literals keeps the graph valid.
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		if (cfg.hasSubroutines()) {
+			if (Log.verbose()) {
+				Log.println("Method uses subroutines - dynamic variable folding skipped.");
+			}
+			return false;
+		}
+
+		// Every instruction that writes a local.
+		ArrayList<InstructionHandle> definitions = new ArrayList<>();
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (ih.getInstruction() instanceof StoreInstruction || ih.getInstruction() instanceof IINC) {
+				definitions.add(ih);
+			}
+		}
+
+		for (Iterator<InstructionHandle[]> it = LITERAL_STORE_PATTERN.search(il); it.hasNext(); /* empty increment */) {
+			InstructionHandle[] match = it.next();
+			stats.iterations++;
+
+			// A store that is jumped to also stores whatever the other paths pushed, e.g. "flag ? 7 : 3".
+			if (CodeEditing.isJumpTarget(match[1])) {
+				continue;
+			}
+
+			// match[0] expected to be PushInstruction, as specified in the pattern (it's the superclass of the specified pattern).
+			PushInstruction pushInstruction = (PushInstruction) match[0].getInstruction();
+
+			// match[1] expected to be StoreInstruction, as specified in the pattern.
+			StoreInstruction storeInstruction = (StoreInstruction) match[1].getInstruction();
+
+			int localVariableIndex = storeInstruction.getIndex();
+			int size = storeInstruction.getType(cpgen).getSize();
+			Number literalValue = null;
+
+			// Get the constant value pushed.
+			if (pushInstruction instanceof ConstantPushInstruction) {
+				literalValue = ((ConstantPushInstruction) pushInstruction).getValue();
+			} else if (pushInstruction instanceof LDC) {
+				// LDC must be Number since we only accept ILOAD, FLOAD, etc.
+				literalValue = (Number) ((LDC) pushInstruction).getValue(cpgen);
+			} else if (pushInstruction instanceof LDC2_W) {
+				literalValue = ((LDC2_W) pushInstruction).getValue(cpgen);
+			}
+
+			// Assert that we've assigned a value to literalValue.
+			if (literalValue == null) {
+				System.err.format("FATAL: [DYNAMIC] Could not obtain literal value for unknown type %s.\n", pushInstruction.getClass().getSimpleName());
+				continue;
+			}
+
+			if (Log.debug()) {
+				Log.printf("[DYNAMIC] pushInstruction: %s storeInstruction: %s index: %d value: %f\n", pushInstruction.getClass().getSimpleName(), storeInstruction.getClass().getSimpleName(), storeInstruction.getIndex(), literalValue.doubleValue());
+			}
+
+			// The other instructions that overwrite this value, wholly or in part.
+			ArrayList<InstructionHandle> reassignments = new ArrayList<>();
+			for (InstructionHandle definition : definitions) {
+				if (definition != match[1] && (writesLocal(definition, localVariableIndex, cpgen) || (size == 2 && writesLocal(definition, localVariableIndex + 1, cpgen)))) {
+					reassignments.add(definition);
+				}
+			}
+
+			for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+				if (!(ih.getInstruction() instanceof LoadInstruction)) {
+					continue;
+				}
+				LoadInstruction loadInstruction = (LoadInstruction) ih.getInstruction();
+				if (loadInstruction.getIndex() != localVariableIndex || !cfg.dominates(match[1], ih)
+						|| isReassignedBetween(cfg, reassignments, match[1], ih)) {
+					continue;
+				}
+
+				Instruction instructionAdded = ConstantEncoding.push(cpgen, literalValue, loadInstruction.getType(cpgen));
+
+				// Swapping the instruction keeps the handle, so jumps to the load stay valid.
+				ih.setInstruction(instructionAdded);
+				replacedLoadInstruction = true;
+				stats.loadsReplaced++;
+
+				if (Log.debug()) {
+					Log.printf("[DYNAMIC] Replaced %s %d with %s %f.\n", loadInstruction.getClass().getSimpleName(), loadInstruction.getIndex(), instructionAdded.getClass().getSimpleName(), literalValue.doubleValue());
+				}
+			}
+		}
+		return replacedLoadInstruction;
+	}
+
+	/**
+	 * True if one of the reassignments can run after store and before load, so that load may not see the value
+	 * of store. Only paths that do not go through store again count: passing it again stores the same literal.
+	 */
+	private static boolean isReassignedBetween(ControlFlowGraph cfg, ArrayList<InstructionHandle> reassignments, InstructionHandle store, InstructionHandle load)
+	{
+		for (InstructionHandle reassignment : reassignments) {
+			if (cfg.reaches(store, reassignment, store) && cfg.reaches(reassignment, load, store)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * True if the instruction writes local slot index, including the second slot of a long or double.
+	 */
+	private static boolean writesLocal(InstructionHandle ih, int index, ConstantPoolGen cpgen)
+	{
+		Instruction instruction = ih.getInstruction();
+		if (instruction instanceof IINC) {
+			return ((IINC) instruction).getIndex() == index;
+		}
+		StoreInstruction store = (StoreInstruction) instruction;
+		return store.getIndex() == index || (store.getType(cpgen).getSize() == 2 && store.getIndex() + 1 == index);
+	}
+}
@@ -0,0 +1,331 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.util.ByteSequence;
+
+/**
+ * An instruction sequence pattern compiled into a DFA over opcodes.
+ *
+ * Patterns use the InstructionFinder syntax that the passes already used: whitespace separated elements, each an
+ * instruction class or opcode name (case insensitive, so "ArithmeticInstruction", "LDC" and "istore" all work) or a
+ * parenthesised group of alternatives such as "(LDC|LDC2_W)", optionally followed by "?". A pattern made only of
+ * single alternatives, such as "StoreInstruction | IINC", is also accepted.
+ *
+ * Matching walks the InstructionHandles directly instead of encoding the whole list into a string, so a list that
+ * a pass has just edited needs no re-indexing. After a rewrite, matching can resume maxLength() - 1 handles before
+ * the change (see rewind()) instead of rescanning the method from the start.
+ *
+ * Compiled patterns are immutable and can be shared between threads.
+ */
+public class InstructionPattern
+{
+	// Simple names of every instruction class and interface, lower case, by opcode.
+	private static final List<Set<String>> OPCODE_NAMES = buildOpcodeNames();
+
+	private final String source;
+	private final int maxLength;
+	// transitions[state][opcode] is the next DFA state, or -1 when the match fails.
+	private final int[][] transitions;
+	private final boolean[] accepting;
+
+	private InstructionPattern(String source, int maxLength, int[][] transitions, boolean[] accepting)
+	{
+		this.source = source;
+		this.maxLength = maxLength;
+		this.transitions = transitions;
+		this.accepting = accepting;
+	}
+
+	/**
+	 * Compiles a pattern. Throws IllegalArgumentException for unknown names or unsupported syntax.
+	 */
+	public static InstructionPattern compile(String pattern)
+	{
+		List<BitSet> elements = new ArrayList<>();
+		List<Boolean> optional = new ArrayList<>();
+		parse(pattern, elements, optional);
+
+		// Subset construction. NFA position i waits for element i; position n accepts.
+		int n = elements.size();
+		Map<BitSet, Integer> stateIds = new HashMap<>();
+		List<BitSet> states = new ArrayList<>();
+		List<int[]> transitions = new ArrayList<>();
+
+		BitSet initial = closure(single(0), optional, n);
+		stateIds.put(initial, 0);
+		states.add(initial);
+
+		for (int s = 0; s < states.size(); s++) {
+			int[] row = new int[256];
+			for (int opcode = 0; opcode < 256; opcode++) {
+				BitSet next = new BitSet();
+				BitSet current = states.get(s);
+				for (int pos = current.nextSetBit(0); pos >= 0 && pos < n; pos = current.nextSetBit(pos + 1)) {
+					if (elements.get(pos).get(opcode)) {
+						next.set(pos + 1);
+					}
+				}
+				if (next.isEmpty()) {
+					row[opcode] = -1;
+					continue;
+				}
+				next = closure(next, optional, n);
+				Integer id = stateIds.get(next);
+				if (id == null) {
+					id = states.size();
+					stateIds.put(next, id);
+					states.add(next);
+				}
+				row[opcode] = id;
+			}
+			transitions.add(row);
+		}
+
+		boolean[] accepting = new boolean[states.size()];
+		for (int s = 0; s < states.size(); s++) {
+			accepting[s] = states.get(s).get(n);
+		}
+		return new InstructionPattern(pattern, n, transitions.toArray(new int[0][]), accepting);
+	}
+
+	/**
+	 * Returns the longest match that starts exactly at start, or null.
+	 */
+	public InstructionHandle[] match(InstructionHandle start)
+	{
+		int state = 0;
+		int length = 0;
+		int acceptedLength = accepting[0] ? 0 : -1;
+		for (InstructionHandle ih = start; ih != null && length < maxLength; ih = ih.getNext()) {
+			state = transitions[state][ih.getInstruction().getOpcode() & 0xFF];
+			if (state < 0) {
+				break;
+			}
+			length++;
+			if (accepting[state]) {
+				acceptedLength = length;
+			}
+		}
+		if (acceptedLength <= 0) {
+			return null;
+		}
+
+		InstructionHandle[] match = new InstructionHandle[acceptedLength];
+		InstructionHandle ih = start;
+		for (int i = 0; i < acceptedLength; i++) {
+			match[i] = ih;
+			ih = ih.getNext();
+		}
+		return match;
+	}
+
+	/**
+	 * Iterates over the non-overlapping matches in the list, like InstructionFinder.search().
+	 */
+	public Iterator<InstructionHandle[]> search(InstructionList il)
+	{
+		return search(il.getStart());
+	}
+
+	/**
+	 * Iterates over the non-overlapping matches from the given handle onwards.
+	 * The iterator resumes after the end of the previous match, so a pass may replace the instructions of the
+	 * match it is currently looking at, but not the ones after it.
+	 */
+	public Iterator<InstructionHandle[]> search(final InstructionHandle from)
+	{
+		return new Iterator<InstructionHandle[]>() {
+			private InstructionHandle resume = from;
+			private InstructionHandle[] next = null;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (next == null && resume != null) {
+					next = match(resume);
+					resume = next == null ? resume.getNext() : next[next.length - 1].getNext();
+				}
+				return next != null;
+			}
+
+			@Override
+			public InstructionHandle[] next()
+			{
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				InstructionHandle[] result = next;
+				next = null;
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * The most instructions a single match can span.
+	 */
+	public int maxLength()
+	{
+		return maxLength;
+	}
+
+	/**
+	 * Steps back up to count handles from ih. Any match that overlaps a change at ih starts at or after
+	 * rewind(ih, maxLength() - 1).
+	 */
+	public static InstructionHandle rewind(InstructionHandle ih, int count)
+	{
+		for (int i = 0; i < count && ih.getPrev() != null; i++) {
+			ih = ih.getPrev();
+		}
+		return ih;
+	}
+
+	@Override
+	public String toString()
+	{
+		return source;
+	}
+
+	// ===========================
+	// ======== COMPILING ========
+	// ===========================
+
+	private static void parse(String pattern, List<BitSet> elements, List<Boolean> optional)
+	{
+		String[] tokens = pattern.replace("(", " ( ").replace(")", " ) ").replace("|", " | ").replace("?", " ? ").trim().split("\\s+");
+
+		boolean topLevelAlternatives = false;
+		for (int i = 0; i < tokens.length; i++) {
+			String token = tokens[i];
+			BitSet element;
+			if (token.equals("(")) {
+				element = new BitSet();
+				i++;
+				while (i < tokens.length && !tokens[i].equals(")")) {
+					if (!tokens[i].equals("|")) {
+						element.or(opcodes(tokens[i], pattern));
+					}
+					i++;
+				}
+				if (i == tokens.length) {
+					throw new IllegalArgumentException("Unbalanced parentheses in pattern: " + pattern);
+				}
+			} else if (token.equals("|")) {
+				topLevelAlternatives = true;
+				continue;
+			} else if (token.equals(")") || token.equals("?")) {
+				throw new IllegalArgumentException("Unexpected '" + token + "' in pattern: " + pattern);
+			} else {
+				element = opcodes(token, pattern);
+			}
+
+			boolean isOptional = i + 1 < tokens.length && tokens[i + 1].equals("?");
+			if (isOptional) {
+				i++;
+			}
+			elements.add(element);
+			optional.add(isOptional);
+		}
+
+		// "A | B" at the top level is a single element with two alternatives.
+		if (topLevelAlternatives) {
+			BitSet union = new BitSet();
+			for (int i = 0; i < elements.size(); i++) {
+				if (optional.get(i)) {
+					throw new IllegalArgumentException("Unsupported top-level alternative in pattern: " + pattern);
+				}
+				union.or(elements.get(i));
+			}
+			elements.clear();
+			optional.clear();
+			elements.add(union);
+			optional.add(false);
+		}
+		if (elements.isEmpty()) {
+			throw new IllegalArgumentException("Empty pattern");
+		}
+	}
+
+	private static BitSet opcodes(String name, String pattern)
+	{
+		String key = name.toLowerCase();
+		BitSet result = new BitSet();
+		for (int opcode = 0; opcode < OPCODE_NAMES.size(); opcode++) {
+			if (OPCODE_NAMES.get(opcode).contains(key)) {
+				result.set(opcode);
+			}
+		}
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException("Unknown instruction '" + name + "' in pattern: " + pattern);
+		}
+		return result;
+	}
+
+	private static BitSet single(int position)
+	{
+		BitSet set = new BitSet();
+		set.set(position);
+		return set;
+	}
+
+	private static BitSet closure(BitSet positions, List<Boolean> optional, int n)
+	{
+		BitSet result = (BitSet) positions.clone();
+		for (int pos = 0; pos < n; pos++) {
+			if (result.get(pos) && optional.get(pos)) {
+				result.set(pos + 1);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes a sample of every opcode to find the BCEL classes and interfaces it belongs to.
+	 */
+	private static List<Set<String>> buildOpcodeNames()
+	{
+		List<Set<String>> names = new ArrayList<>(256);
+		for (int opcode = 0; opcode < 256; opcode++) {
+			Set<String> set = new HashSet<>();
+			if (opcode < Constants.OPCODE_NAMES.length && opcode != Constants.WIDE) {
+				set.add(Constants.OPCODE_NAMES[opcode].toLowerCase());
+				try {
+					byte[] code = new byte[32];
+					code[0] = (byte) opcode;
+					Instruction sample = Instruction.readInstruction(new ByteSequence(code));
+					addTypeNames(sample.getClass(), set);
+				} catch (Exception e) {
+					// Not a valid instruction on its own (e.g. reserved opcodes).
+				}
+			}
+			names.add(set);
+		}
+		return names;
+	}
+
+	private static void addTypeNames(Class<?> type, Set<String> names)
+	{
+		if (type == null || type == Object.class) {
+			return;
+		}
+		names.add(type.getSimpleName().toLowerCase());
+		addTypeNames(type.getSuperclass(), names);
+		for (Class<?> implemented : type.getInterfaces()) {
+			addTypeNames(implemented, names);
+		}
+	}
+}
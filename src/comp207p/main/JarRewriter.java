@@ -0,0 +1,551 @@
+package comp207p.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Rewrites a JAR (or any ZIP) archive, passing every class entry through the optimiser.
+ *
+ * Entries are located through the central directory rather than by scanning local headers, because entries
+ * written with a data descriptor do not record their compressed size up front. Resources, and classes that the
+ * optimiser returns unchanged, are transferred into the new archive as their stored compressed bytes; only the
+ * classes that actually changed are inflated, optimised and deflated again. Entries keep their original order.
+ * A class entry that cannot be inflated counts as a class that failed to optimise, and is copied as it is.
+ *
+ * A signed archive is copied without optimising anything: its signature files hold a digest of every class,
+ * which a rewritten class would no longer match.
+ *
+ * ZIP64 archives (more than 65535 entries or more than 4GB) are not supported.
+ */
+class JarRewriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    // General purpose flag bit 3: sizes and CRC follow the data in a data descriptor.
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private final Path input;
+    private final Path output;
+    private final Supplier<Function<byte[], byte[]>> optimisers;
+    private final ExecutorService pool;     // May be null: optimise on the calling thread.
+    private final int window;
+
+    private byte[] archiveComment = new byte[0];
+    private boolean signed = false;
+    private int classCount = 0;
+    private final Map<String, Exception> failures = new LinkedHashMap<>();
+
+    /**
+     * optimisers supplies the optimiser for the calling thread; with a pool it is called on the worker threads.
+     * window bounds how many classes may be in flight at once, which bounds memory on large archives.
+     */
+    JarRewriter(Path input, Path output, Supplier<Function<byte[], byte[]>> optimisers, ExecutorService pool, int window) {
+        this.input = input;
+        this.output = output;
+        this.optimisers = optimisers;
+        this.pool = pool;
+        this.window = Math.max(1, window);
+    }
+
+    int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * True if the archive is signed, and so was copied without optimising its classes.
+     */
+    boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Classes that failed to optimise, in archive order. Each one was copied through unchanged.
+     */
+    Map<String, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * The new archive is written next to the output and moved over it once the input is closed, so the output
+     * may be the input itself, and is never left half written.
+     */
+    void rewrite() throws IOException {
+        Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+        try {
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                List<Entry> entries = readCentralDirectory(in);
+                for (Entry entry : entries) {
+                    signed |= entry.isSignature();
+                }
+                List<Entry> written = new ArrayList<>(entries.size());
+                ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+                for (Entry entry : entries) {
+                    pending.add(schedule(in, entry));
+                    while (pending.size() > window) {
+                        written.add(writeEntry(in, out, pending.remove()));
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    written.add(writeEntry(in, out, pending.remove()));
+                }
+
+                writeCentralDirectory(out, written);
+            }
+            Files.move(temporary, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // ===========================
+    // ====== OPTIMISATION =======
+    // ===========================
+
+    private Pending schedule(FileChannel in, Entry entry) throws IOException {
+        Pending p = new Pending(entry);
+        if (!entry.isClass() || signed) {
+            return p;
+        }
+        classCount++;
+
+        byte[] classBytes;
+        try {
+            classBytes = inflate(in, entry);
+        } catch (ZipException e) {
+            // Copied through as it is, like a class the optimiser failed on.
+            p.error = e;
+            return p;
+        }
+        p.classBytes = classBytes;
+        if (pool != null) {
+            p.result = pool.submit(() -> optimisers.get().apply(classBytes));
+        } else {
+            try {
+                p.optimised = optimisers.get().apply(classBytes);
+            } catch (RuntimeException e) {
+                p.error = e;
+            }
+        }
+        return p;
+    }
+
+    private Entry writeEntry(FileChannel in, FileChannel out, Pending p) throws IOException {
+        if (p.result != null) {
+            try {
+                p.optimised = p.result.get();
+            } catch (ExecutionException e) {
+                p.error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while optimising " + p.entry.name, e);
+            }
+        }
+        if (p.error != null) {
+            failures.put(p.entry.name, p.error);
+        }
+
+        // Unchanged (or failed) entries keep their compressed bytes as they are.
+        if (p.optimised == null || p.optimised == p.classBytes) {
+            return copyRaw(in, out, p.entry);
+        }
+        return writeCompressed(out, p.entry, p.optimised);
+    }
+
+    // ===========================
+    // ========= READING =========
+    // ===========================
+
+    private List<Entry> readCentralDirectory(FileChannel in) throws IOException {
+        long size = in.size();
+        int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = read(in, size - tailLength, tailLength);
+
+        // Scan backwards for the end of central directory record; it may be followed by an archive comment.
+        int eocd = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException(input + " is not a ZIP archive");
+        }
+
+        int entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new IOException(input + " is a ZIP64 archive, which is not supported");
+        }
+
+        int archiveCommentLength = Short.toUnsignedInt(tail.getShort(eocd + 20));
+        archiveComment = bytes(tail, eocd + END_OF_CENTRAL_DIRECTORY_SIZE, Math.min(archiveCommentLength, tailLength - eocd - END_OF_CENTRAL_DIRECTORY_SIZE));
+
+        ByteBuffer dir = read(in, directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (dir.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException(input + ": corrupt central directory");
+            }
+            Entry e = new Entry();
+            e.versionMadeBy = dir.getShort(pos + 4);
+            e.versionNeeded = dir.getShort(pos + 6);
+            e.flags = dir.getShort(pos + 8);
+            e.method = Short.toUnsignedInt(dir.getShort(pos + 10));
+            e.time = dir.getShort(pos + 12);
+            e.date = dir.getShort(pos + 14);
+            e.crc = dir.getInt(pos + 16);
+            e.compressedSize = Integer.toUnsignedLong(dir.getInt(pos + 20));
+            e.size = Integer.toUnsignedLong(dir.getInt(pos + 24));
+            int nameLength = Short.toUnsignedInt(dir.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(dir.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(dir.getShort(pos + 32));
+            e.internalAttributes = dir.getShort(pos + 36);
+            e.externalAttributes = dir.getInt(pos + 38);
+            e.localHeaderOffset = Integer.toUnsignedLong(dir.getInt(pos + 42));
+            e.rawName = bytes(dir, pos + CENTRAL_HEADER_SIZE, nameLength);
+            e.centralExtra = bytes(dir, pos + CENTRAL_HEADER_SIZE + nameLength, extraLength);
+            e.comment = bytes(dir, pos + CENTRAL_HEADER_SIZE + nameLength + extraLength, commentLength);
+            // Bit 11 marks UTF-8 names; otherwise only the ASCII ".class" suffix matters to us.
+            e.name = new String(e.rawName, (e.flags & 0x800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            if (e.compressedSize == 0xFFFFFFFFL || e.size == 0xFFFFFFFFL || e.localHeaderOffset == 0xFFFFFFFFL) {
+                throw new IOException(input + " is a ZIP64 archive, which is not supported");
+            }
+            readLocalHeader(in, e);
+            entries.add(e);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private void readLocalHeader(FileChannel in, Entry e) throws IOException {
+        ByteBuffer header = read(in, e.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException(input + ": corrupt local header for " + e.name);
+        }
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        e.localExtra = bytes(read(in, e.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength, extraLength), 0, extraLength);
+        e.dataOffset = e.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Returns the uncompressed bytes of a class entry, or throws ZipException if they are corrupt.
+     */
+    private byte[] inflate(FileChannel in, Entry e) throws IOException {
+        byte[] data = bytes(read(in, e.dataOffset, (int) e.compressedSize), 0, (int) e.compressedSize);
+        byte[] result = e.method == METHOD_STORED ? data : inflate(data, e);
+        CRC32 crc = new CRC32();
+        crc.update(result);
+        if ((int) crc.getValue() != e.crc) {
+            throw new ZipException(input + ": CRC mismatch in entry " + e.name);
+        }
+        return result;
+    }
+
+    private byte[] inflate(byte[] data, Entry e) throws ZipException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[(int) e.size];
+            int length = 0;
+            while (length < result.length && !inflater.finished()) {
+                int n = inflater.inflate(result, length, result.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != result.length) {
+                throw new ZipException(input + ": truncated entry " + e.name);
+            }
+            return result;
+        } catch (DataFormatException ex) {
+            ZipException corrupt = new ZipException(input + ": corrupt entry " + e.name);
+            corrupt.initCause(ex);
+            throw corrupt;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = buffer.get(offset + i);
+        }
+        return result;
+    }
+
+    // ===========================
+    // ========= WRITING =========
+    // ===========================
+
+    /**
+     * Copies an entry without touching its compressed data.
+     * The local header is rebuilt from the central directory, so a trailing data descriptor is no longer needed.
+     */
+    private Entry copyRaw(FileChannel in, FileChannel out, Entry e) throws IOException {
+        Entry copy = e.copy();
+        copy.flags &= ~FLAG_DATA_DESCRIPTOR;
+        copy.localHeaderOffset = out.position();
+        writeLocalHeader(out, copy);
+
+        long transferred = 0;
+        while (transferred < e.compressedSize) {
+            long n = in.transferTo(e.dataOffset + transferred, e.compressedSize - transferred, out);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of archive while copying " + e.name);
+            }
+            transferred += n;
+        }
+        return copy;
+    }
+
+    private Entry writeCompressed(FileChannel out, Entry e, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Entry copy = e.copy();
+        copy.flags &= ~FLAG_DATA_DESCRIPTOR;
+        copy.crc = (int) crc.getValue();
+        copy.size = data.length;
+
+        byte[] stored = data;
+        if (e.method == METHOD_DEFLATED) {
+            stored = deflate(data);
+        } else {
+            copy.method = METHOD_STORED;
+        }
+        copy.compressedSize = stored.length;
+        copy.localHeaderOffset = out.position();
+
+        writeLocalHeader(out, copy);
+        write(out, ByteBuffer.wrap(stored));
+        return copy;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(FileChannel out, Entry e) throws IOException {
+        checkOffset(e.localHeaderOffset);
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + e.rawName.length + e.localExtra.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(e.versionNeeded);
+        header.putShort(e.flags);
+        header.putShort((short) e.method);
+        header.putShort(e.time);
+        header.putShort(e.date);
+        header.putInt(e.crc);
+        header.putInt((int) e.compressedSize);
+        header.putInt((int) e.size);
+        header.putShort((short) e.rawName.length);
+        header.putShort((short) e.localExtra.length);
+        header.put(e.rawName);
+        header.put(e.localExtra);
+        header.flip();
+        write(out, header);
+    }
+
+    private void writeCentralDirectory(FileChannel out, List<Entry> entries) throws IOException {
+        if (entries.size() >= 0xFFFF) {
+            throw new IOException(output + " would need ZIP64, which is not supported");
+        }
+        long directoryOffset = out.position();
+        for (Entry e : entries) {
+            ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + e.rawName.length + e.centralExtra.length + e.comment.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort(e.versionMadeBy);
+            header.putShort(e.versionNeeded);
+            header.putShort(e.flags);
+            header.putShort((short) e.method);
+            header.putShort(e.time);
+            header.putShort(e.date);
+            header.putInt(e.crc);
+            header.putInt((int) e.compressedSize);
+            header.putInt((int) e.size);
+            header.putShort((short) e.rawName.length);
+            header.putShort((short) e.centralExtra.length);
+            header.putShort((short) e.comment.length);
+            header.putShort((short) 0);    // Disk number start
+            header.putShort(e.internalAttributes);
+            header.putInt(e.externalAttributes);
+            header.putInt((int) e.localHeaderOffset);
+            header.put(e.rawName);
+            header.put(e.centralExtra);
+            header.put(e.comment);
+            header.flip();
+            write(out, header);
+        }
+        long directorySize = out.position() - directoryOffset;
+        checkOffset(out.position());
+
+        ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE + archiveComment.length).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        end.putShort((short) 0);    // Number of this disk
+        end.putShort((short) 0);    // Disk where the central directory starts
+        end.putShort((short) entries.size());
+        end.putShort((short) entries.size());
+        end.putInt((int) directorySize);
+        end.putInt((int) directoryOffset);
+        end.putShort((short) archiveComment.length);
+        end.put(archiveComment);
+        end.flip();
+        write(out, end);
+    }
+
+    private void checkOffset(long offset) throws IOException {
+        if (offset >= 0xFFFFFFFFL) {
+            throw new IOException(output + " would need ZIP64, which is not supported");
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * One archive entry as described by its central directory record.
+     */
+    private static class Entry {
+        String name;
+        byte[] rawName;
+        short versionMadeBy;
+        short versionNeeded;
+        short flags;
+        int method;
+        short time;
+        short date;
+        int crc;
+        long compressedSize;
+        long size;
+        short internalAttributes;
+        int externalAttributes;
+        long localHeaderOffset;
+        long dataOffset;
+        byte[] localExtra;
+        byte[] centralExtra;
+        byte[] comment;
+
+        boolean isClass() {
+            // Only entries we can inflate ourselves are optimised; anything else is copied through.
+            return name.endsWith(".class") && (method == METHOD_STORED || method == METHOD_DEFLATED) && (flags & 0x01) == 0;
+        }
+
+        /**
+         * True for the signature files of a signed archive: META-INF/*.SF, the signature blocks that go with
+         * them, and META-INF/SIG-*.
+         */
+        boolean isSignature() {
+            String upper = name.toUpperCase(Locale.ROOT);
+            if (!upper.startsWith("META-INF/") || upper.indexOf('/', "META-INF/".length()) >= 0) {
+                return false;
+            }
+            return upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC")
+                    || upper.startsWith("META-INF/SIG-");
+        }
+
+        Entry copy() {
+            Entry e = new Entry();
+            e.name = name;
+            e.rawName = rawName;
+            e.versionMadeBy = versionMadeBy;
+            e.versionNeeded = versionNeeded;
+            e.flags = flags;
+            e.method = method;
+            e.time = time;
+            e.date = date;
+            e.crc = crc;
+            e.compressedSize = compressedSize;
+            e.size = size;
+            e.internalAttributes = internalAttributes;
+            e.externalAttributes = externalAttributes;
+            e.localHeaderOffset = localHeaderOffset;
+            e.dataOffset = dataOffset;
+            e.localExtra = localExtra;
+            e.centralExtra = centralExtra;
+            e.comment = comment;
+            return e;
+        }
+    }
+
+    /**
+     * An entry waiting to be written, together with its optimisation result if it is a class.
+     */
+    private static class Pending {
+        final Entry entry;
+        byte[] classBytes = null;
+        byte[] optimised = null;
+        Future<byte[]> result = null;
+        Exception error = null;
+
+        Pending(Entry entry) {
+            this.entry = entry;
+        }
+    }
+}
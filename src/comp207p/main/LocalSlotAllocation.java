@@ -0,0 +1,311 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Gives locals that are never live at the same time the same slot, so that the method needs fewer of them.
+ *
+ * A variable is a slot used with one size: an int and a long that javac put in the same slot in different
+ * scopes are two variables. Two variables interfere when one is stored to while the other is live, which is
+ * found by the same backward liveness that dead code elimination uses, except that an IINC reads its local. The
+ * variables are then given slots in the order the code first uses them, each the lowest one that no interfering
+ * variable covers, a wide variable taking two. The receiver and the parameters keep their slots.
+ *
+ * The loads, stores and IINCs are rewritten to the new slots, and so are the entries of the local variable
+ * table. A copy from one variable to another that now share a slot is deleted. No variable moves if the method
+ * would not need fewer locals than before, but entries for locals the code no longer uses are dropped either
+ * way. Methods that use JSR/RET subroutines are left alone.
+ *
+ * Iterations count the variables; each variable moved to another slot is a fold.
+ */
+public class LocalSlotAllocation
+{
+	// Every other pass can leave a local unused, or shorten how long one lives.
+	public static final OptimisationPass PASS = new OptimisationPass("localSlotAllocation",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification",
+			"branchFolding", "localValueNumbering", "copyPropagation", "loopInvariantCodeMotion", "deadCodeElimination")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			if (Log.verbose()) {
+				Log.println("* * Optimization 10: Local Slot Allocation --------------");
+			}
+			int moved = new LocalSlotAllocation(methodGen).allocate(stats);
+			if (Log.debug()) {
+				Log.println("Moved " + moved + " locals.");
+			}
+			stats.folds += moved;
+			return moved > 0;
+		}
+	};
+
+	private final MethodGen methodGen;
+	private final ConstantPoolGen cpgen;
+
+	private LocalSlotAllocation(MethodGen methodGen)
+	{
+		this.methodGen = methodGen;
+		this.cpgen = methodGen.getConstantPool();
+	}
+
+	/**
+	 * A variable is known by its slot * 2 + its size - 1.
+	 */
+	private static int variable(int slot, int size)
+	{
+		return slot * 2 + size - 1;
+	}
+
+	private static int slotOf(int variable)
+	{
+		return variable / 2;
+	}
+
+	private static int sizeOf(int variable)
+	{
+		return variable % 2 + 1;
+	}
+
+	/**
+	 * Returns the variable that a load, store or IINC uses.
+	 */
+	private int variableOf(LocalVariableInstruction instruction)
+	{
+		int size = instruction instanceof IINC ? 1 : ((TypedInstruction) instruction).getType(cpgen).getSize();
+		return variable(instruction.getIndex(), size);
+	}
+
+	/**
+	 * Moves the variables to their new slots and returns how many moved.
+	 */
+	private int allocate(OptimisationStats.PassStats stats)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		if (il == null) {
+			return 0;
+		}
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		if (cfg.hasSubroutines()) {
+			return 0;
+		}
+		// Other passes remove the last use of a local whether or not any variable moves here.
+		CodeEditing.removeUnusedLocalVariables(methodGen);
+
+		int parameterSlots = methodGen.isStatic() ? 0 : 1;
+		for (Type argument : methodGen.getArgumentTypes()) {
+			parameterSlots += argument.getSize();
+		}
+
+		// In the order the code first uses them, so that allocating again gives the same slots.
+		Map<Integer, BitSet> interference = new LinkedHashMap<>();
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (ih.getInstruction() instanceof LocalVariableInstruction) {
+				interference.computeIfAbsent(variableOf((LocalVariableInstruction) ih.getInstruction()), key -> new BitSet());
+			}
+		}
+		stats.iterations += interference.size();
+		addInterference(cfg, interference);
+
+		Map<Integer, Integer> slots = new HashMap<>();
+		int usedBefore = parameterSlots;
+		int usedAfter = parameterSlots;
+		List<Integer> others = new ArrayList<>();
+		for (int variable : interference.keySet()) {
+			usedBefore = Math.max(usedBefore, slotOf(variable) + sizeOf(variable));
+			if (slotOf(variable) < parameterSlots) {
+				slots.put(variable, slotOf(variable));
+				usedAfter = Math.max(usedAfter, slotOf(variable) + sizeOf(variable));
+			} else {
+				others.add(variable);
+			}
+		}
+		int moved = 0;
+		for (int variable : others) {
+			int slot = lowestFreeSlot(variable, interference.get(variable), slots, parameterSlots);
+			slots.put(variable, slot);
+			usedAfter = Math.max(usedAfter, slot + sizeOf(variable));
+			if (slot != slotOf(variable)) {
+				moved++;
+			}
+		}
+		if (usedAfter >= usedBefore || moved == 0) {
+			return 0;
+		}
+
+		rewrite(il, slots, parameterSlots);
+		if (Log.debug()) {
+			Log.printf("[SLOTS] %d locals now fit in %d slots instead of %d.\n", interference.size(), usedAfter, usedBefore);
+		}
+		return moved;
+	}
+
+	/**
+	 * Returns the lowest slot from first on where the variable overlaps no interfering variable already placed.
+	 */
+	private static int lowestFreeSlot(int variable, BitSet interfering, Map<Integer, Integer> slots, int first)
+	{
+		BitSet taken = new BitSet();
+		for (int other = interfering.nextSetBit(0); other >= 0; other = interfering.nextSetBit(other + 1)) {
+			Integer slot = slots.get(other);
+			if (slot != null) {
+				taken.set(slot, slot + sizeOf(other));
+			}
+		}
+		int slot = first;
+		while (taken.get(slot, slot + sizeOf(variable)).cardinality() > 0) {
+			slot++;
+		}
+		return slot;
+	}
+
+	/**
+	 * Records, for each variable, the variables live after any store to it.
+	 */
+	private void addInterference(ControlFlowGraph cfg, Map<Integer, BitSet> interference)
+	{
+		Map<ControlFlowGraph.BasicBlock, BitSet> liveIn = liveness(cfg);
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			BitSet handlerLive = handlerLive(block, liveIn);
+			BitSet live = liveOut(block, liveIn);
+			List<InstructionHandle> instructions = block.getInstructions();
+			for (int i = instructions.size() - 1; i >= 0; i--) {
+				Instruction instruction = instructions.get(i).getInstruction();
+
+				// live holds the variables live just after the instruction.
+				if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+					int stored = variableOf((LocalVariableInstruction) instruction);
+					for (int other = live.nextSetBit(0); other >= 0; other = live.nextSetBit(other + 1)) {
+						if (other != stored) {
+							interference.get(stored).set(other);
+							interference.get(other).set(stored);
+						}
+					}
+				}
+
+				transfer(instruction, live);
+				live.or(handlerLive);
+			}
+		}
+	}
+
+	/**
+	 * Iterates backwards to a fixpoint and returns the variables live on entry to each block.
+	 */
+	private Map<ControlFlowGraph.BasicBlock, BitSet> liveness(ControlFlowGraph cfg)
+	{
+		Map<ControlFlowGraph.BasicBlock, BitSet> liveIn = new HashMap<>();
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			liveIn.put(block, new BitSet());
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			List<ControlFlowGraph.BasicBlock> blocks = cfg.getBlocks();
+			for (int b = blocks.size() - 1; b >= 0; b--) {
+				ControlFlowGraph.BasicBlock block = blocks.get(b);
+				BitSet handlerLive = handlerLive(block, liveIn);
+				BitSet live = liveOut(block, liveIn);
+				List<InstructionHandle> instructions = block.getInstructions();
+				for (int i = instructions.size() - 1; i >= 0; i--) {
+					transfer(instructions.get(i).getInstruction(), live);
+					live.or(handlerLive);
+				}
+				if (!live.equals(liveIn.get(block))) {
+					liveIn.put(block, live);
+					changed = true;
+				}
+			}
+		}
+		return liveIn;
+	}
+
+	private static BitSet liveOut(ControlFlowGraph.BasicBlock block, Map<ControlFlowGraph.BasicBlock, BitSet> liveIn)
+	{
+		BitSet live = handlerLive(block, liveIn);
+		for (ControlFlowGraph.BasicBlock successor : block.getSuccessors()) {
+			live.or(liveIn.get(successor));
+		}
+		return live;
+	}
+
+	private static BitSet handlerLive(ControlFlowGraph.BasicBlock block, Map<ControlFlowGraph.BasicBlock, BitSet> liveIn)
+	{
+		BitSet live = new BitSet();
+		for (ControlFlowGraph.BasicBlock handler : block.getExceptionSuccessors()) {
+			live.or(liveIn.get(handler));
+		}
+		return live;
+	}
+
+	/**
+	 * Turns the variables live after instruction into the variables live before it.
+	 */
+	private void transfer(Instruction instruction, BitSet live)
+	{
+		if (instruction instanceof StoreInstruction) {
+			live.clear(variableOf((StoreInstruction) instruction));
+		} else if (instruction instanceof LoadInstruction || instruction instanceof IINC) {
+			// Unlike in dead code elimination, an IINC reads its local: another variable in the slot would be lost.
+			live.set(variableOf((LocalVariableInstruction) instruction));
+		}
+	}
+
+	/**
+	 * Moves every load, store, IINC and local variable table entry to the slot of its variable.
+	 */
+	private void rewrite(InstructionList il, Map<Integer, Integer> slots, int parameterSlots)
+	{
+		for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+			if (!(ih.getInstruction() instanceof LocalVariableInstruction)) {
+				continue;
+			}
+			LocalVariableInstruction instruction = (LocalVariableInstruction) ih.getInstruction();
+			int slot = slots.get(variableOf(instruction));
+			if (slot == instruction.getIndex()) {
+				continue;
+			}
+			// New instructions, as BCEL shares one instance of e.g. ILOAD_1 between all lists.
+			if (instruction instanceof IINC) {
+				ih.setInstruction(new IINC(slot, ((IINC) instruction).getIncrement()));
+			} else if (instruction instanceof LoadInstruction) {
+				ih.setInstruction(InstructionFactory.createLoad(instruction.getType(cpgen), slot));
+			} else {
+				ih.setInstruction(InstructionFactory.createStore(instruction.getType(cpgen), slot));
+			}
+		}
+
+		// A copy between two variables that now share a slot does nothing.
+		for (InstructionHandle ih = il.getStart(); ih != null; ) {
+			InstructionHandle next = ih.getNext();
+			if (ih.getInstruction() instanceof StoreInstruction && ih.getPrev() != null
+					&& ih.getPrev().getInstruction() instanceof LoadInstruction
+					&& !CodeEditing.isJumpTarget(ih)) {
+				StoreInstruction store = (StoreInstruction) ih.getInstruction();
+				LoadInstruction load = (LoadInstruction) ih.getPrev().getInstruction();
+				if (load.getIndex() == store.getIndex() && load.getType(cpgen).equals(store.getType(cpgen))) {
+					CodeEditing.delete(methodGen, ih.getPrev(), ih);
+				}
+			}
+			ih = next;
+		}
+
+		for (LocalVariableGen local : methodGen.getLocalVariables()) {
+			Integer slot = slots.get(variable(local.getIndex(), local.getType().getSize()));
+			if (slot != null) {
+				local.setIndex(slot);
+			} else if (local.getIndex() >= parameterSlots) {
+				// The code no longer uses it, and its slot may now belong to another variable.
+				methodGen.removeLocalVariable(local);
+			}
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Finds arithmetic that a basic block computes more than once from the same operands, and computes it once.
+ *
+ * Every value an instruction of the block pushes gets a number: literals by their value, loads by the local and
+ * the store to it that they read, and arithmetic, conversions and comparisons of primitives by the operation and
+ * the numbers of their operands. A store or IINC starts a new version of its local, so that "a * b" before and
+ * after "a++" are different values. Values already on the stack when the block starts, and anything pushed by
+ * other instructions, are not numbered.
+ *
+ * When a numbered value with at least one operation is computed again, the later computations are replaced:
+ *
+ *     right after the first one, by a DUP (or DUP2) of it, e.g. "(a + b) * (a + b)";
+ *     otherwise by a load of a new local that a DUP and a store right after the first one fill.
+ *
+ * The second form is used only when it runs fewer instructions: a value of n instructions computed k times has
+ * to save more than the DUP and the store, (k - 1) * (n - 1) > 2. Larger values go first, and a repeated value
+ * inside one that has been replaced goes with it. Computations that can throw, i.e. integer division and
+ * remainder, are reused as well: the first one would have thrown already.
+ *
+ * Blocks come from the ControlFlowGraph, so a value is never reused across a jump or handler boundary.
+ * Iterations count the blocks visited.
+ */
+public class LocalValueNumbering
+{
+	// Folding and simplification leave operands that are equal where they were not before.
+	public static final OptimisationPass PASS = new OptimisationPass("localValueNumbering",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			if (Log.verbose()) {
+				Log.println("* * Optimization 08: Local Value Numbering --------------");
+			}
+			int reused = LocalValueNumbering.run(methodGen, stats);
+			if (Log.debug()) {
+				Log.println("Reused " + reused + " values.");
+			}
+			stats.folds += reused;
+			return reused > 0;
+		}
+	};
+
+	private final MethodGen methodGen;
+	private final ConstantPoolGen cpgen;
+
+	// Instructions deleted so far, so that values inside them are not reused again.
+	private final Set<InstructionHandle> removed = new HashSet<>();
+
+	private LocalValueNumbering(MethodGen methodGen)
+	{
+		this.methodGen = methodGen;
+		this.cpgen = methodGen.getConstantPool();
+	}
+
+	/**
+	 * Reuses the values computed more than once in every block of the method and returns how many computations
+	 * were replaced.
+	 */
+	public static int run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (methodGen.getInstructionList() == null) {
+			return 0;
+		}
+		ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+		LocalValueNumbering numbering = new LocalValueNumbering(methodGen);
+		int reused = 0;
+		for (ControlFlowGraph.BasicBlock block : cfg.getBlocks()) {
+			stats.iterations++;
+			reused += numbering.reuse(numbering.number(block));
+		}
+		return reused;
+	}
+
+	/**
+	 * A value pushed by the instructions start..end, which do nothing else.
+	 */
+	private static final class Value
+	{
+		final InstructionHandle start;
+		final InstructionHandle end;
+		final Type type;
+		// Equal for equal values; null if not numbered.
+		final String number;
+		final int length;
+
+		Value(InstructionHandle start, InstructionHandle end, Type type, String number, int length)
+		{
+			this.start = start;
+			this.end = end;
+			this.type = type;
+			this.number = number;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Simulates the operand stack through the block and returns every computation with an operation in it,
+	 * grouped by value number in the order they were first seen.
+	 */
+	private Map<String, List<Value>> number(ControlFlowGraph.BasicBlock block)
+	{
+		Map<String, List<Value>> values = new LinkedHashMap<>();
+		Map<Integer, Integer> versions = new HashMap<>();
+		int stores = 0;
+		List<Value> stack = new ArrayList<>();
+
+		for (InstructionHandle ih : block.getInstructions()) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+				LocalVariableInstruction store = (LocalVariableInstruction) instruction;
+				versions.put(store.getIndex(), ++stores);
+				if (store.getType(cpgen).getSize() == 2) {
+					versions.put(store.getIndex() + 1, stores);
+				}
+			}
+
+			Type type = primitiveResult(instruction);
+			String leaf = type == null ? null : leafNumber(instruction, versions);
+			if (leaf != null) {
+				stack.add(new Value(ih, ih, type, leaf, 1));
+				continue;
+			}
+
+			List<Value> operands = pop(stack, instruction.consumeStack(cpgen));
+			if (type != null && operands != null && isOperation(instruction) && isContiguous(operands, ih)) {
+				StringBuilder number = new StringBuilder(instruction.getName()).append('(');
+				int length = 1;
+				for (Value operand : operands) {
+					number.append(operand.number).append(',');
+					length += operand.length;
+				}
+				Value value = new Value(operands.get(0).start, ih, type, number.append(')').toString(), length);
+				values.computeIfAbsent(value.number, key -> new ArrayList<>()).add(value);
+				stack.add(value);
+				continue;
+			}
+
+			if (operands == null) {
+				stack.clear();
+			}
+			int produced = instruction.produceStack(cpgen);
+			if (produced > 0) {
+				stack.add(new Value(ih, ih, produced == 2 ? Type.LONG : Type.INT, null, 1));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Replaces the repeated computations and returns how many were replaced.
+	 */
+	private int reuse(Map<String, List<Value>> values)
+	{
+		List<List<Value>> repeated = new ArrayList<>();
+		for (List<Value> computations : values.values()) {
+			if (computations.size() > 1) {
+				repeated.add(computations);
+			}
+		}
+		// Larger values first; the sort is stable, so equal lengths stay in instruction order.
+		Collections.sort(repeated, (a, b) -> b.get(0).length - a.get(0).length);
+
+		int reused = 0;
+		for (List<Value> computations : repeated) {
+			List<Value> remaining = new ArrayList<>();
+			for (Value value : computations) {
+				if (!removed.contains(value.start)) {
+					remaining.add(value);
+				}
+			}
+			if (remaining.size() < 2) {
+				continue;
+			}
+			Value first = remaining.get(0);
+			int length = first.length;
+			InstructionList il = methodGen.getInstructionList();
+
+			if (remaining.size() == 2 && first.end.getNext() == remaining.get(1).start) {
+				replace(remaining.get(1), first.type.getSize() == 2 ? new DUP2() : new DUP());
+				reused++;
+			} else if ((remaining.size() - 1) * (length - 1) > 2) {
+				methodGen.setMaxLocals();
+				int local = methodGen.getMaxLocals();
+				InstructionList save = new InstructionList();
+				save.append(first.type.getSize() == 2 ? new DUP2() : new DUP());
+				save.append(InstructionFactory.createStore(first.type, local));
+				il.append(first.end, save);
+				for (Value value : remaining.subList(1, remaining.size())) {
+					replace(value, InstructionFactory.createLoad(first.type, local));
+					reused++;
+				}
+				methodGen.setMaxLocals();
+			} else {
+				continue;
+			}
+			if (Log.debug()) {
+				Log.printf("[LVN] Reused %s, %d instructions, %d times.\n", first.number, length, remaining.size() - 1);
+			}
+		}
+		return reused;
+	}
+
+	private void replace(Value value, Instruction replacement)
+	{
+		for (InstructionHandle ih = value.start; ih != value.end.getNext(); ih = ih.getNext()) {
+			removed.add(ih);
+		}
+		CodeEditing.replace(methodGen, value.start, value.end, new InstructionList(replacement));
+	}
+
+	/**
+	 * Returns the number of a literal or of a load of a primitive local, or null for any other instruction.
+	 */
+	private String leafNumber(Instruction instruction, Map<Integer, Integer> versions)
+	{
+		if (instruction instanceof ConstantPushInstruction) {
+			// The same number whether it is pushed by ICONST, BIPUSH or SIPUSH.
+			ConstantPushInstruction push = (ConstantPushInstruction) instruction;
+			return push.getType(cpgen).getSignature() + "(" + push.getValue() + ")";
+		}
+		if (instruction instanceof LDC || instruction instanceof LDC2_W) {
+			// Equal indexes hold equal constants; -0.0 and 0.0 are different entries.
+			return "ldc(" + ((CPInstruction) instruction).getIndex() + ")";
+		}
+		if (instruction instanceof LoadInstruction) {
+			LoadInstruction load = (LoadInstruction) instruction;
+			int index = load.getIndex();
+			String number = load.getType(cpgen).getSignature() + index + "@" + versions.getOrDefault(index, 0);
+			if (load.getType(cpgen).getSize() == 2) {
+				number += "/" + versions.getOrDefault(index + 1, 0);
+			}
+			return number;
+		}
+		return null;
+	}
+
+	/**
+	 * True for arithmetic, conversions and comparisons of primitives, which do nothing but compute their result.
+	 */
+	private static boolean isOperation(Instruction instruction)
+	{
+		return instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction
+				|| instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG;
+	}
+
+	/**
+	 * Returns the primitive type pushed by a literal, a load or an operation, or null for anything else.
+	 */
+	private Type primitiveResult(Instruction instruction)
+	{
+		if (instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG) {
+			return Type.INT;
+		}
+		if (instruction instanceof ConstantPushInstruction || instruction instanceof LDC || instruction instanceof LDC2_W
+				|| instruction instanceof LoadInstruction || instruction instanceof ArithmeticInstruction
+				|| instruction instanceof ConversionInstruction) {
+			Type type = ((TypedInstruction) instruction).getType(cpgen);
+			return type instanceof BasicType ? type : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Pops the values that make up the given number of stack words, or returns null if the simulated stack does not
+	 * hold exactly that.
+	 */
+	private static List<Value> pop(List<Value> stack, int words)
+	{
+		List<Value> operands = new ArrayList<>();
+		int index = stack.size();
+		while (words > 0 && index > 0) {
+			index--;
+			operands.add(0, stack.get(index));
+			words -= stack.get(index).type.getSize();
+		}
+		if (words != 0) {
+			return null;
+		}
+		stack.subList(index, stack.size()).clear();
+		return operands;
+	}
+
+	/**
+	 * True if the operands are all numbered and, with the operation after them, a run of instructions that does
+	 * nothing else.
+	 */
+	private static boolean isContiguous(List<Value> operands, InstructionHandle operation)
+	{
+		for (int i = 0; i < operands.size(); i++) {
+			InstructionHandle next = i + 1 < operands.size() ? operands.get(i + 1).start : operation;
+			if (operands.get(i).number == null || operands.get(i).end.getNext() != next) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
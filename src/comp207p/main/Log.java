@@ -0,0 +1,58 @@
+package comp207p.main;
+
+/**
+ * Level-gated console logging for the optimizer.
+ *
+ * Call sites test the level before building a message, so a disabled level costs one field read and
+ * allocates nothing:
+ *
+ *     if (Log.debug()) {
+ *         Log.printf("Replaced %s %d.%n", name, index);
+ *     }
+ *
+ * The level is global to the class loader that loaded this class; see ClassOptimiser.
+ */
+public final class Log
+{
+	public static final int QUIET = 0;
+	/** Classes, methods and passes (-v). */
+	public static final int VERBOSE = 1;
+	/** Every match, load and fold (-vv). */
+	public static final int DEBUG = 2;
+
+	private static volatile int level = QUIET;
+
+	private Log()
+	{
+	}
+
+	public static void setLevel(int newLevel)
+	{
+		level = newLevel;
+	}
+
+	public static int getLevel()
+	{
+		return level;
+	}
+
+	public static boolean verbose()
+	{
+		return level >= VERBOSE;
+	}
+
+	public static boolean debug()
+	{
+		return level >= DEBUG;
+	}
+
+	public static void println(String message)
+	{
+		System.out.println(message);
+	}
+
+	public static void printf(String format, Object... args)
+	{
+		System.out.format(format, args);
+	}
+}
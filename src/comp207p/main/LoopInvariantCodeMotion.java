@@ -0,0 +1,374 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Moves computations whose value is the same on every iteration of a loop out of it, into a preheader: code
+ * inserted right before the loop header that only the edges entering the loop run.
+ *
+ * An invariant expression is a run of instructions within one block of the loop that pushes one value and is
+ * built only from literals, loads of locals that no instruction of the loop stores to, and arithmetic,
+ * conversions and comparisons of them. Integer division and remainder are left alone, as they throw on zero and
+ * the preheader runs even when the loop body does not. Everything else that is moved cannot throw or have a side
+ * effect, so it is safe to compute the value before the loop whether or not the loop uses it.
+ *
+ * Each largest such expression that contains at least one operation is computed once in the preheader into a new
+ * local, and the expression in the loop becomes a load of that local. Inner loops go first; a value hoisted out
+ * of an inner loop can then be hoisted again out of the loop around it.
+ *
+ * Jumps into the header from outside the loop are moved to the preheader, and the back edges still go to the
+ * header. Loops whose header is an exception handler, or is reached by falling through from inside the loop, are
+ * left alone, as are methods that use JSR/RET subroutines.
+ * Iterations count the loops examined.
+ */
+public class LoopInvariantCodeMotion
+{
+	// Folding leaves loops simpler, and removing dead stores can leave locals unchanged by a loop.
+	public static final OptimisationPass PASS = new OptimisationPass("loopInvariantCodeMotion",
+			"simpleFolding", "constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification", "branchFolding", "deadCodeElimination")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			if (Log.verbose()) {
+				Log.println("* * Optimization 07: Loop-Invariant Code Motion --------------");
+			}
+			int hoisted = LoopInvariantCodeMotion.run(methodGen, stats);
+			if (Log.debug()) {
+				Log.println("Hoisted " + hoisted + " expressions.");
+			}
+			stats.folds += hoisted;
+			return hoisted > 0;
+		}
+	};
+
+	// Most loops hoisted from per run, as every hoist rebuilds the graph.
+	private static final int MAX_ROUNDS = 256;
+
+	private LoopInvariantCodeMotion()
+	{
+	}
+
+	/**
+	 * Hoists the invariant expressions of every loop of the method and returns how many were hoisted.
+	 */
+	public static int run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (methodGen.getInstructionList() == null) {
+			return 0;
+		}
+		int hoisted = 0;
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			ControlFlowGraph cfg = new ControlFlowGraph(methodGen);
+			if (cfg.hasSubroutines()) {
+				return hoisted;
+			}
+			boolean changed = false;
+			List<ControlFlowGraph.Loop> loops = cfg.getLoops();
+			// Inner loops come after the loops around them.
+			for (int i = loops.size() - 1; i >= 0 && !changed; i--) {
+				stats.iterations++;
+				int count = hoist(methodGen, loops.get(i));
+				hoisted += count;
+				changed = count > 0;
+			}
+			if (!changed) {
+				break;
+			}
+		}
+		return hoisted;
+	}
+
+	/**
+	 * Hoists the invariant expressions of one loop and returns how many there were.
+	 */
+	private static int hoist(MethodGen methodGen, ControlFlowGraph.Loop loop)
+	{
+		InstructionList il = methodGen.getInstructionList();
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionHandle header = loop.getHeader().getStart();
+		if (!canInsertBefore(methodGen, loop, header)) {
+			return 0;
+		}
+
+		Set<Integer> stored = new HashSet<>();
+		Set<Instruction> jumps = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (ControlFlowGraph.BasicBlock block : loop.getBlocks()) {
+			for (InstructionHandle ih : block.getInstructions()) {
+				if (ih.getInstruction() instanceof BranchInstruction) {
+					jumps.add(ih.getInstruction());
+				}
+				if (ih.getInstruction() instanceof StoreInstruction || ih.getInstruction() instanceof IINC) {
+					LocalVariableInstruction store = (LocalVariableInstruction) ih.getInstruction();
+					stored.add(store.getIndex());
+					if (store.getType(cpgen).getSize() == 2) {
+						stored.add(store.getIndex() + 1);
+					}
+				}
+			}
+		}
+
+		// In instruction order, so that the locals are numbered the same on every run.
+		List<ControlFlowGraph.BasicBlock> blocks = new ArrayList<>(loop.getBlocks());
+		blocks.sort(Comparator.comparingInt(ControlFlowGraph.BasicBlock::getIndex));
+		List<Expression> expressions = new ArrayList<>();
+		for (ControlFlowGraph.BasicBlock block : blocks) {
+			findInvariants(block, stored, cpgen, expressions);
+		}
+		if (expressions.isEmpty()) {
+			return 0;
+		}
+
+		// Computes every expression into its own local before the loop, in the order they were found.
+		InstructionList preheader = new InstructionList();
+		for (Expression expression : expressions) {
+			methodGen.setMaxLocals();
+			int local = Math.max(methodGen.getMaxLocals(), nextFreeLocal(preheader));
+			for (InstructionHandle ih = expression.start; ih != expression.end.getNext(); ih = ih.getNext()) {
+				preheader.append(ih.getInstruction().copy());
+			}
+			preheader.append(InstructionFactory.createStore(expression.type, local));
+
+			InstructionList load = new InstructionList(InstructionFactory.createLoad(expression.type, local));
+			InstructionHandle replaced = CodeEditing.replace(methodGen, expression.start, expression.end, load);
+			if (expression.start == header) {
+				header = replaced;
+			}
+			if (Log.debug()) {
+				Log.printf("[LICM] Hoisted an expression of %d instructions into local %d.\n", expression.length, local);
+			}
+		}
+		methodGen.setMaxLocals();
+
+		// The back edges are the jumps to the header from within the loop.
+		InstructionHandle first = il.insert(header, preheader);
+		for (InstructionTargeter targeter : header.getTargeters()) {
+			if (targeter instanceof BranchInstruction && !jumps.contains(targeter)) {
+				targeter.updateTarget(header, first);
+			}
+		}
+		return expressions.size();
+	}
+
+	/**
+	 * True if code inserted right before the header runs only when the loop is entered from outside: the header is
+	 * not an exception handler, and the instruction before it is not part of the loop falling through into it.
+	 */
+	private static boolean canInsertBefore(MethodGen methodGen, ControlFlowGraph.Loop loop, InstructionHandle header)
+	{
+		for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+			if (handler.getHandlerPC() == header) {
+				return false;
+			}
+		}
+		InstructionHandle previous = header.getPrev();
+		if (previous == null || ControlFlowGraph.endsFlow(previous.getInstruction())) {
+			return true;
+		}
+		for (ControlFlowGraph.BasicBlock block : loop.getBlocks()) {
+			if (block.getEnd() == previous) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The lowest local above those the preheader built so far stores to.
+	 */
+	private static int nextFreeLocal(InstructionList preheader)
+	{
+		int next = 0;
+		for (InstructionHandle ih = preheader.getStart(); ih != null; ih = ih.getNext()) {
+			if (ih.getInstruction() instanceof StoreInstruction) {
+				StoreInstruction store = (StoreInstruction) ih.getInstruction();
+				next = Math.max(next, store.getIndex() + store.getType(null).getSize());
+			}
+		}
+		return next;
+	}
+
+	// ===========================
+	// ======== INVARIANTS =======
+	// ===========================
+
+	/**
+	 * A value on the simulated operand stack: where the instructions that pushed it start and end, and whether
+	 * they make up an invariant expression.
+	 */
+	private static final class Expression
+	{
+		final InstructionHandle start;
+		final InstructionHandle end;
+		final Type type;
+		final boolean invariant;
+		// Operations in the expression; a lone literal or load is not worth hoisting.
+		final int operations;
+		final int length;
+
+		Expression(InstructionHandle start, InstructionHandle end, Type type, boolean invariant, int operations, int length)
+		{
+			this.start = start;
+			this.end = end;
+			this.type = type;
+			this.invariant = invariant;
+			this.operations = operations;
+			this.length = length;
+		}
+
+		int size()
+		{
+			return type.getSize();
+		}
+	}
+
+	/**
+	 * Simulates the operand stack through the block and adds to found every largest invariant expression with an
+	 * operation in it. Values already on the stack when the block starts are not known, so count as variant.
+	 */
+	private static void findInvariants(ControlFlowGraph.BasicBlock block, Set<Integer> stored, ConstantPoolGen cpgen, List<Expression> found)
+	{
+		List<Expression> stack = new ArrayList<>();
+		for (InstructionHandle ih : block.getInstructions()) {
+			Instruction instruction = ih.getInstruction();
+			Type type = pushedType(instruction, cpgen);
+
+			if (type != null && isLeaf(instruction, stored, cpgen)) {
+				stack.add(new Expression(ih, ih, type, true, 0, 1));
+				continue;
+			}
+
+			List<Expression> operands = pop(stack, instruction.consumeStack(cpgen));
+			if (type != null && isPureOperation(instruction) && operands != null && isContiguous(operands, ih)) {
+				int operations = 1;
+				int length = 1;
+				for (Expression operand : operands) {
+					operations += operand.operations;
+					length += operand.length;
+				}
+				stack.add(new Expression(operands.get(0).start, ih, type, true, operations, length));
+				continue;
+			}
+
+			// The operands end up in something that is not invariant; keep the largest invariant ones.
+			if (operands != null) {
+				for (Expression operand : operands) {
+					addIfWorthHoisting(operand, found);
+				}
+			} else {
+				for (Expression value : stack) {
+					addIfWorthHoisting(value, found);
+				}
+				stack.clear();
+			}
+			int produced = instruction.produceStack(cpgen);
+			if (produced > 0) {
+				Type result = type != null ? type : produced == 2 ? Type.LONG : Type.INT;
+				stack.add(new Expression(ih, ih, result, false, 0, 1));
+			}
+		}
+		for (Expression value : stack) {
+			addIfWorthHoisting(value, found);
+		}
+	}
+
+	private static void addIfWorthHoisting(Expression expression, List<Expression> found)
+	{
+		if (expression.invariant && expression.operations > 0) {
+			found.add(expression);
+		}
+	}
+
+	/**
+	 * Pops the values that make up the given number of stack words, or returns null (and leaves the stack as it
+	 * was) if the simulated stack does not hold exactly that, e.g. because some values were pushed before the block.
+	 */
+	private static List<Expression> pop(List<Expression> stack, int words)
+	{
+		List<Expression> operands = new ArrayList<>();
+		int index = stack.size();
+		while (words > 0 && index > 0) {
+			index--;
+			operands.add(0, stack.get(index));
+			words -= stack.get(index).size();
+		}
+		if (words != 0) {
+			return null;
+		}
+		stack.subList(index, stack.size()).clear();
+		return operands;
+	}
+
+	/**
+	 * True if the operands are all invariant and, together with the operation after them, a run of instructions
+	 * that does nothing else.
+	 */
+	private static boolean isContiguous(List<Expression> operands, InstructionHandle operation)
+	{
+		for (int i = 0; i < operands.size(); i++) {
+			InstructionHandle next = i + 1 < operands.size() ? operands.get(i + 1).start : operation;
+			if (!operands.get(i).invariant || operands.get(i).end.getNext() != next) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * True for a literal, or a load of a local that the loop never stores to.
+	 */
+	private static boolean isLeaf(Instruction instruction, Set<Integer> stored, ConstantPoolGen cpgen)
+	{
+		if (instruction instanceof ConstantPushInstruction || instruction instanceof LDC2_W) {
+			return true;
+		}
+		if (instruction instanceof LDC) {
+			return ((LDC) instruction).getValue(cpgen) instanceof Number;
+		}
+		if (instruction instanceof LoadInstruction && !(instruction instanceof ALOAD)) {
+			LoadInstruction load = (LoadInstruction) instruction;
+			return !stored.contains(load.getIndex())
+					&& !(load.getType(cpgen).getSize() == 2 && stored.contains(load.getIndex() + 1));
+		}
+		return false;
+	}
+
+	/**
+	 * True for arithmetic, conversions and comparisons of primitives that can never throw.
+	 */
+	private static boolean isPureOperation(Instruction instruction)
+	{
+		if (instruction instanceof IDIV || instruction instanceof IREM || instruction instanceof LDIV || instruction instanceof LREM) {
+			return false;
+		}
+		return instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction
+				|| instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG;
+	}
+
+	/**
+	 * Returns the primitive type the instruction pushes if it is a literal, a load, or a pure operation, else null.
+	 */
+	private static Type pushedType(Instruction instruction, ConstantPoolGen cpgen)
+	{
+		if (instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+				|| instruction instanceof DCMPL || instruction instanceof DCMPG) {
+			return Type.INT;
+		}
+		if (instruction instanceof ConstantPushInstruction || instruction instanceof LDC || instruction instanceof LDC2_W
+				|| (instruction instanceof LoadInstruction && !(instruction instanceof ALOAD))
+				|| instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction) {
+			Type type = ((TypedInstruction) instruction).getType(cpgen);
+			return type instanceof BasicType ? type : null;
+		}
+		return null;
+	}
+}
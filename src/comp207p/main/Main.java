@@ -1,13 +1,32 @@
 package comp207p.main;
 
+import org.apache.bcel.classfile.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * COMP207p courswork 2
@@ -16,18 +35,105 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class Main extends SimpleFileVisitor<Path> {
 
-    @Option(name="-in",required=true, usage="Root directory of the input classfiles")
+    @Option(name="-in",required=true, usage="Root directory of the input classfiles, or a JAR file")
     private String inputRoot;
 
-    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored")
+    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored, or the JAR file to write")
     private String outputRoot;
 
+    @Option(name="-threads", usage="Number of worker threads used to optimise classes (default: 1)")
+    private int threads = 1;
+
+    @Option(name="-parallelMethods", usage="With more than one thread, optimise the methods of classes with at least this many methods in parallel (default: 64)")
+    private int parallelMethods = 64;
+
+    @Option(name="-cache", usage="Directory of the incremental optimisation cache (default: no cache)")
+    private String cacheDirectory = null;
+
+    @Option(name="-cacheSize", usage="Maximum size of the optimisation cache in MB (default: 256)")
+    private long cacheSizeMB = 256;
+
+    private OptimisationCache cache = null;
+
+    @Option(name="-report", usage="Write per-class, per-method and per-pass statistics to this JSON file (classes served from the cache are not listed)")
+    private String reportFile = null;
+
+    // JSON statistics of every class the optimiser ran on, see OptimisationStats.
+    private final List<String> classReports = Collections.synchronizedList(new ArrayList<>());
+
+    @Option(name="-passes", usage="Comma-separated optimisation passes to run on every method, in order (default: all of simpleFolding, constantVariableFolding, dynamicVariableFolding, algebraicSimplification, branchFolding, localValueNumbering, copyPropagation, loopInvariantCodeMotion, deadCodeElimination, localSlotAllocation)")
+    private String passes = "default";
+
+    @Option(name="-maxPassRuns", usage="Maximum number of times a pass runs on one method before it is given up (default: 16)")
+    private int maxPassRuns = PassManager.DEFAULT_MAX_RUNS;
+
+    @Option(name="-interprocedural", usage="Where the constant static final fields and methods substituted at their uses are found: none, class (the class itself) or program (also every other input class) (default: class)")
+    private String interprocedural = "class";
+
+    @Option(name="-shrink", usage="Also drop debug attributes (source file, line numbers, local variable names) from every class")
+    private boolean shrink = false;
+
+    @Option(name="-cp", usage="Directories and JARs, separated by the path separator, holding the classes the input refers to (the input itself and the JDK are always searched)")
+    private String classPath = "";
+
+    @Option(name="-v", usage="Log classes, methods and passes as they are optimised")
+    private boolean verbose = false;
+
+    @Option(name="-vv", usage="Also log every match, load and fold")
+    private boolean debug = false;
+
+    // Worker pool, only created when more than one thread is requested.
+    private ForkJoinPool pool = null;
+
+    // Every class found by the walk, in the order it was found.
+    private final List<ClassTask> tasks = new ArrayList<>();
+
+    // Classes that could not be optimised, by path (or entry name in JAR mode).
+    private final Map<String, Exception> failures = new TreeMap<>();
+    private int classCount = 0;
+
+    // "name: reason" of the optimised classes that kept their constant pool, see ConstantPoolCompactor.
+    private final Set<String> uncompacted = new ConcurrentSkipListSet<>();
+
+    // Optimiser used when running on the main thread only.
+    private Function<byte[], byte[]> optimiser = null;
+
+    // Each worker thread gets an optimiser loaded through its own class loader, see ClassOptimiser.
+    private final ThreadLocal<Function<byte[], byte[]>> isolatedOptimisers = ThreadLocal.withInitial(this::newIsolatedOptimiser);
+
+    // The same optimisers, as they optimise batches of the methods of one class.
+    private final ThreadLocal<BiFunction<byte[], int[], byte[]>> isolatedMethodOptimisers = ThreadLocal.withInitial(this::newIsolatedMethodOptimiser);
+
     private void parseArguments(String args[])
     {
         CmdLineParser parser = new CmdLineParser(this);
         parser.setUsageWidth(80);
         try{
             parser.parseArgument(args);
+            if (threads < 1) {
+                throw new CmdLineException(parser, "-threads must be at least 1");
+            }
+            if (parallelMethods < 1) {
+                throw new CmdLineException(parser, "-parallelMethods must be at least 1");
+            }
+            if (cacheSizeMB < 0) {
+                throw new CmdLineException(parser, "-cacheSize must not be negative");
+            }
+            if (maxPassRuns < 1) {
+                throw new CmdLineException(parser, "-maxPassRuns must be at least 1");
+            }
+            if (!Arrays.asList("none", "class", "program").contains(interprocedural)) {
+                throw new CmdLineException(parser, "-interprocedural must be none, class or program");
+            }
+            if (interprocedural.equals("program") && cacheDirectory != null) {
+                // A cached class would not be optimised again when a class it uses changes.
+                throw new CmdLineException(parser, "-interprocedural program cannot be used with -cache");
+            }
+            try {
+                PassManager.parse(passes, maxPassRuns);
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException(parser, e.getMessage());
+            }
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
             System.err.println("java BatchExperiment inputFolder outputFolder");
@@ -41,7 +147,194 @@ public class Main extends SimpleFileVisitor<Path> {
 	System.out.println("Running COMP207p courswork-2");
         Main main = new Main();
         main.parseArguments(args);
-        Files.walkFileTree(Paths.get(main.inputRoot), main);
+        main.run();
+    }
+
+    private void run() throws IOException {
+        long startTime = System.nanoTime();
+
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        } else {
+            optimiser = new ClassOptimiser(optimiserOptions(), reportSink(), uncompacted::add, null, null);
+        }
+        if (cacheDirectory != null) {
+            cache = new OptimisationCache(Paths.get(cacheDirectory), cacheSizeMB * 1024 * 1024, optimiserConfiguration(),
+                    ClassHierarchy.of(optimiserOptions().get(ClassOptimiser.CLASS_PATH)));
+        }
+
+        try {
+            if (Files.isRegularFile(Paths.get(inputRoot))) {
+                rewriteJar();
+            } else {
+                Files.walkFileTree(Paths.get(inputRoot), this);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                awaitPool();
+            }
+        }
+
+        for (ClassTask task : tasks) {
+            classCount++;
+            if (task.error != null) {
+                failures.put(task.relativePath.toString(), task.error);
+            }
+        }
+        if (cache != null) {
+            cache.evict();
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        if (reportFile != null) {
+            writeReport(elapsedNanos);
+        }
+        printSummary(elapsedNanos);
+    }
+
+    private void rewriteJar() throws IOException {
+        Path output = Paths.get(outputRoot).toAbsolutePath();
+        Files.createDirectories(output.getParent());
+
+        // Keep a few classes per thread in flight so the workers never wait on the writer.
+        JarRewriter rewriter = new JarRewriter(Paths.get(inputRoot), output, this::optimiser, pool, threads * 4);
+        rewriter.rewrite();
+        if (rewriter.isSigned()) {
+            System.err.println("Not optimising " + inputRoot + ": it is signed, and its signatures would no longer match (copied unchanged).");
+        }
+
+        classCount += rewriter.getClassCount();
+        failures.putAll(rewriter.getFailures());
+    }
+
+    /**
+     * Returns the optimiser to use on the current thread.
+     */
+    private Function<byte[], byte[]> optimiser() {
+        Function<byte[], byte[]> base = pool != null ? isolatedOptimisers.get() : optimiser;
+        return cache != null ? cache.wrap(base) : base;
+    }
+
+    /**
+     * Options for ClassOptimiser, as strings so they can cross into the isolated class loaders.
+     */
+    private Map<String, String> optimiserOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put(ClassOptimiser.LOG_LEVEL, Integer.toString(debug ? Log.DEBUG : verbose ? Log.VERBOSE : Log.QUIET));
+        options.put(ClassOptimiser.SHRINK, Boolean.toString(shrink));
+        options.put(ClassOptimiser.PASSES, passes);
+        options.put(ClassOptimiser.MAX_PASS_RUNS, Integer.toString(maxPassRuns));
+        options.put(ClassOptimiser.PARALLEL_METHODS, Integer.toString(parallelMethods));
+        options.put(ClassOptimiser.INTERPROCEDURAL, interprocedural);
+        options.put(ClassOptimiser.PROGRAM_PATH, inputRoot);
+        options.put(ClassOptimiser.CLASS_PATH, classPath.isEmpty() ? inputRoot : inputRoot + File.pathSeparator + classPath);
+        return options;
+    }
+
+    private Consumer<String> reportSink() {
+        return reportFile != null ? classReports::add : null;
+    }
+
+    /**
+     * Describes every option that changes the optimised output, for the cache key.
+     */
+    private String optimiserConfiguration() {
+        return "passes=" + String.join(",", passNames()) + ",maxPassRuns=" + maxPassRuns + ",interprocedural=" + interprocedural + (shrink ? ",shrink" : "") + (classPath.isEmpty() ? "" : ",cp=" + classPath);
+    }
+
+    /**
+     * The selected passes by name, so that "default" and the same list spelt out share cache entries.
+     */
+    private List<String> passNames() {
+        List<String> names = new ArrayList<>();
+        for (OptimisationPass pass : PassManager.parse(passes, maxPassRuns).getPasses()) {
+            names.add(pass.getName());
+        }
+        return names;
+    }
+
+    private void awaitPool() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reports failures sorted by path so the output does not depend on which worker finished first.
+     */
+    private void printSummary(long elapsedNanos) {
+        for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+            System.err.println("Failed to optimise " + failure.getKey() + " (copied unchanged): " + failure.getValue());
+        }
+
+        System.out.format("Optimised %d of %d classes using %d thread(s) in %d ms, %d failed.%n",
+                classCount - failures.size(), classCount, threads, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), failures.size());
+        if (!uncompacted.isEmpty()) {
+            System.out.format("Kept the constant pool of %d optimised classes as it was%s%n", uncompacted.size(),
+                    verbose || debug ? ":" : " (-v lists them).");
+            if (verbose || debug) {
+                for (String name : uncompacted) {
+                    System.out.println("  " + name);
+                }
+            }
+        }
+        if (cache != null) {
+            System.out.println(cache.summary());
+        }
+    }
+
+    /**
+     * Writes the run totals, the failures and the statistics of every class, sorted by class name so that
+     * reports of the same input can be diffed.
+     */
+    private void writeReport(long elapsedNanos) throws IOException {
+        List<String> results = new ArrayList<>(classReports);
+        Collections.sort(results);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"version\": ").append(OptimisationStats.quote(ConstantFolder.VERSION)).append(",\n");
+        sb.append("  \"configuration\": ").append(OptimisationStats.quote(optimiserConfiguration())).append(",\n");
+        sb.append("  \"threads\": ").append(threads).append(",\n");
+        sb.append("  \"timeNanos\": ").append(elapsedNanos).append(",\n");
+        sb.append("  \"classes\": ").append(classCount).append(",\n");
+        sb.append("  \"analysed\": ").append(results.size()).append(",\n");
+        sb.append("  \"failures\": [");
+        String separator = "\n    ";
+        for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+            sb.append(separator).append("{\"class\":").append(OptimisationStats.quote(failure.getKey()))
+                    .append(",\"error\":").append(OptimisationStats.quote(failure.getValue().toString())).append('}');
+            separator = ",\n    ";
+        }
+        sb.append(failures.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"uncompacted\": [");
+        separator = "\n    ";
+        for (String name : uncompacted) {
+            sb.append(separator).append(OptimisationStats.quote(name));
+            separator = ",\n    ";
+        }
+        sb.append(uncompacted.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"results\": [");
+        separator = "\n    ";
+        for (String result : results) {
+            sb.append(separator).append(result);
+            separator = ",\n    ";
+        }
+        sb.append(results.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+
+        Path report = Paths.get(reportFile).toAbsolutePath();
+        Files.createDirectories(report.getParent());
+        Files.write(report, sb.toString().getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -54,12 +347,90 @@ public class Main extends SimpleFileVisitor<Path> {
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        String fname = file.toString();
-        if(fname.endsWith(".class") && !fname.endsWith("Main.class") && !fname.endsWith("ConstantFolder.class")){
-            ConstantFolder cf = new ConstantFolder(file.toString());
+        if (file.toString().endsWith(".class")) {
             Path rel = Paths.get(inputRoot).relativize(file);
-            cf.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString());
+            ClassTask task = new ClassTask(file, rel, Paths.get(outputRoot, rel.toString()).toAbsolutePath());
+            tasks.add(task);
+            if (pool != null) {
+                pool.execute(task);
+            } else {
+                task.run();
+            }
         }
         return super.visitFile(file, attrs);
     }
+
+    /**
+     * Optimises one class file. Failures are recorded on the task instead of aborting the run,
+     * and the input is copied unchanged so the output tree stays complete.
+     */
+    private class ClassTask implements Runnable {
+        private final Path input;
+        private final Path relativePath;
+        private final Path output;
+        private volatile Exception error = null;
+
+        ClassTask(Path input, Path relativePath, Path output) {
+            this.input = input;
+            this.relativePath = relativePath;
+            this.output = output;
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] optimised = optimiser().apply(Files.readAllBytes(input));
+                Files.write(output, optimised);
+            } catch (Exception e) {
+                error = e;
+                try {
+                    Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException copyError) {
+                    e.addSuppressed(copyError);
+                }
+            }
+        }
+    }
+
+    // ===========================
+    // ==== WORKER ISOLATION =====
+    // ===========================
+
+    /**
+     * Optimises a batch of the methods of a class with the optimiser of the current worker, see ClassOptimiser.
+     */
+    private byte[] optimiseMethods(byte[] classBytes, int[] methods) {
+        return isolatedMethodOptimisers.get().apply(classBytes, methods);
+    }
+
+    // Locations of the optimiser classes and of BCEL, loaded afresh for every worker thread.
+    private static URL[] optimiserClassPath() {
+        Set<URL> urls = new LinkedHashSet<>();
+        urls.add(Main.class.getProtectionDomain().getCodeSource().getLocation());
+        urls.add(ClassParser.class.getProtectionDomain().getCodeSource().getLocation());
+        return urls.toArray(new URL[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Function<byte[], byte[]> newIsolatedOptimiser() {
+        try {
+            ClassLoader loader = new URLClassLoader(optimiserClassPath(), ClassLoader.getPlatformClassLoader());
+            return (Function<byte[], byte[]>) loader.loadClass(ClassOptimiser.class.getName())
+                    .getConstructor(Map.class, Consumer.class, Consumer.class, ForkJoinPool.class, BiFunction.class)
+                    .newInstance(optimiserOptions(), reportSink(), (Consumer<String>) uncompacted::add, pool,
+                            (BiFunction<byte[], int[], byte[]>) this::optimiseMethods);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load an isolated optimiser", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BiFunction<byte[], int[], byte[]> newIsolatedMethodOptimiser() {
+        Function<byte[], byte[]> optimiser = isolatedOptimisers.get();
+        try {
+            return (BiFunction<byte[], int[], byte[]>) optimiser.getClass().getMethod("methodOptimiser").invoke(optimiser);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not load an isolated optimiser", e);
+        }
+    }
 }
@@ -0,0 +1,295 @@
+package comp207p.main;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+/**
+ * Replaces calls to small methods of the class that cannot be overridden with the code of the method, so that the
+ * passes can fold constant arguments through it.
+ *
+ * A call is inlined when it is INVOKESTATIC of a static method, INVOKESPECIAL of a private method, or
+ * INVOKEVIRTUAL of a private or final method (or any method of a final class), declared by the class itself,
+ * whose code is at most MAX_CALLEE_SIZE bytes, with no exception handlers, subroutines or synchronisation, and
+ * that returns with nothing but its result on the stack. Only the calls in the method as it was are inlined, so
+ * a callee that calls itself is inlined once.
+ *
+ * The arguments are stored into locals above those of the caller, in the slots the callee expects them at
+ * offset by the caller's max locals, and every local of the inlined code is moved up the same way. Returns become
+ * jumps to the instruction after the call; the last one just falls through. A receiver that may be null is
+ * checked with getClass(), as javac does, so a null receiver still throws NullPointerException before the body
+ * runs. Every call site reuses the same slots, as an inlined body always runs to its end before another starts.
+ *
+ * Inlining stops once the code of the method has grown by MAX_GROWTH bytes.
+ */
+public class MethodInlining
+{
+	/** The name that inline() is reported under. */
+	public static final String PASS_NAME = "methodInlining";
+
+	// Largest callee inlined, in bytes of code; HotSpot's MaxInlineSize.
+	private static final int MAX_CALLEE_SIZE = 35;
+
+	// Most bytes of code that inlining adds to one method.
+	private static final int MAX_GROWTH = 325;
+
+	private final JavaClass clazz;
+
+	// Method name + signature to its instructions, or to null if it cannot be inlined.
+	private final Map<String, MethodGen> callees = new HashMap<>();
+
+	public MethodInlining(JavaClass clazz)
+	{
+		this.clazz = clazz;
+	}
+
+	/**
+	 * Inlines the calls to small methods in the method. Returns true if there was any.
+	 */
+	public boolean inline(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Method inlining ------------------------------");
+		}
+
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionList il = methodGen.getInstructionList();
+		methodGen.setMaxLocals();
+		int base = methodGen.getMaxLocals();
+		int maxLocals = base;
+		int growth = 0;
+		boolean changed = false;
+
+		for (InstructionHandle ih : il.getInstructionHandles()) {
+			if (!(ih.getInstruction() instanceof InvokeInstruction) || ih.getNext() == null) {
+				continue;
+			}
+			InvokeInstruction call = (InvokeInstruction) ih.getInstruction();
+			MethodGen callee = callee(call, cpgen);
+			if (callee == null || (callee.getName().equals(methodGen.getName()) && callee.getSignature().equals(methodGen.getSignature()))) {
+				continue;
+			}
+			InstructionList body = callee.getInstructionList();
+			if (growth + body.getByteCode().length > MAX_GROWTH) {
+				continue;
+			}
+
+			InstructionList replacement = new InstructionList();
+			storeArguments(replacement, callee, base, !callee.isStatic() && !isThis(methodGen, ih, callee), cpgen);
+			replacement.append(body(body, base, ih.getNext()));
+			growth += body.getByteCode().length;
+			maxLocals = Math.max(maxLocals, base + callee.getMaxLocals());
+
+			if (replacement.isEmpty()) {
+				CodeEditing.delete(methodGen, ih, ih);
+			} else {
+				CodeEditing.replace(methodGen, ih, replacement);
+			}
+			changed = true;
+			stats.folds++;
+			if (Log.debug()) {
+				Log.printf("[INLINING] Inlined %s%s.\n", callee.getName(), callee.getSignature());
+			}
+		}
+		methodGen.setMaxLocals(maxLocals);
+		return changed;
+	}
+
+	/**
+	 * Returns the method of the class that the call always runs, with its code ready to inline, or null if it
+	 * cannot be inlined.
+	 */
+	private MethodGen callee(InvokeInstruction call, ConstantPoolGen cpgen)
+	{
+		ReferenceType owner = call.getReferenceType(cpgen);
+		if (!(owner instanceof ObjectType) || !((ObjectType) owner).getClassName().equals(clazz.getClassName())) {
+			return null;
+		}
+		String key = call.getMethodName(cpgen) + call.getSignature(cpgen);
+		if (!callees.containsKey(key)) {
+			callees.put(key, inlinable(key, cpgen));
+		}
+		MethodGen callee = callees.get(key);
+		if (callee == null) {
+			return null;
+		}
+		boolean matches;
+		if (call instanceof INVOKESTATIC) {
+			matches = callee.isStatic();
+		} else if (call instanceof INVOKESPECIAL) {
+			matches = !callee.isStatic() && callee.isPrivate();
+		} else if (call instanceof INVOKEVIRTUAL) {
+			matches = !callee.isStatic() && (callee.isPrivate() || callee.isFinal() || clazz.isFinal());
+		} else {
+			matches = false;
+		}
+		return matches ? callee : null;
+	}
+
+	private MethodGen inlinable(String key, ConstantPoolGen cpgen)
+	{
+		for (Method method : clazz.getMethods()) {
+			if (!(method.getName() + method.getSignature()).equals(key)) {
+				continue;
+			}
+			if (method.getCode() == null || method.getCode().getCode().length > MAX_CALLEE_SIZE || method.isSynchronized()
+					|| method.getName().equals(Constants.CONSTRUCTOR_NAME) || method.getName().equals(Constants.STATIC_INITIALIZER_NAME)) {
+				return null;
+			}
+			MethodGen callee = new MethodGen(method, clazz.getClassName(), cpgen);
+			CodeEditing.repairInvokeDynamic(callee.getInstructionList());
+			if (callee.getExceptionHandlers().length > 0 || !returnsCleanly(callee.getInstructionList(), cpgen)) {
+				callee.getInstructionList().dispose();
+				return null;
+			}
+			return callee;
+		}
+		return null;
+	}
+
+	/**
+	 * True if every return leaves nothing on the stack but the result, and there are no subroutines. The rest of
+	 * the stack would stay behind on the caller's stack.
+	 */
+	private static boolean returnsCleanly(InstructionList il, ConstantPoolGen cpgen)
+	{
+		Map<InstructionHandle, Integer> depths = new HashMap<>();
+		Deque<InstructionHandle> worklist = new ArrayDeque<>();
+		depths.put(il.getStart(), 0);
+		worklist.add(il.getStart());
+		while (!worklist.isEmpty()) {
+			InstructionHandle ih = worklist.poll();
+			Instruction instruction = ih.getInstruction();
+			int depth = depths.get(ih);
+			if (instruction instanceof JsrInstruction || instruction instanceof RET) {
+				return false;
+			}
+			if (instruction instanceof ReturnInstruction) {
+				if (depth != instruction.consumeStack(cpgen)) {
+					return false;
+				}
+				continue;
+			}
+			int after = depth - instruction.consumeStack(cpgen) + instruction.produceStack(cpgen);
+			Deque<InstructionHandle> successors = new ArrayDeque<>();
+			if (!ControlFlowGraph.endsFlow(instruction) && ih.getNext() != null) {
+				successors.add(ih.getNext());
+			}
+			if (instruction instanceof BranchInstruction) {
+				successors.add(((BranchInstruction) instruction).getTarget());
+			}
+			if (instruction instanceof Select) {
+				for (InstructionHandle target : ((Select) instruction).getTargets()) {
+					successors.add(target);
+				}
+			}
+			for (InstructionHandle successor : successors) {
+				if (depths.putIfAbsent(successor, after) == null) {
+					worklist.add(successor);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * True if the receiver of the call is "this" of an instance method that never stores over it, so cannot be
+	 * null. Only arguments pushed by single instructions are looked through.
+	 */
+	private static boolean isThis(MethodGen methodGen, InstructionHandle call, MethodGen callee)
+	{
+		if (methodGen.isStatic()) {
+			return false;
+		}
+		InstructionHandle ih = call;
+		for (Type argument : callee.getArgumentTypes()) {
+			ih = ih.getPrev();
+			if (ih == null || CodeEditing.isJumpTarget(ih) || !pushesOneValue(ih.getInstruction())) {
+				return false;
+			}
+		}
+		ih = ih.getPrev();
+		if (ih == null || CodeEditing.isJumpTarget(ih) || !(ih.getInstruction() instanceof ALOAD)
+				|| ((ALOAD) ih.getInstruction()).getIndex() != 0) {
+			return false;
+		}
+		for (InstructionHandle store = methodGen.getInstructionList().getStart(); store != null; store = store.getNext()) {
+			if (store.getInstruction() instanceof ASTORE && ((ASTORE) store.getInstruction()).getIndex() == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean pushesOneValue(Instruction instruction)
+	{
+		return instruction instanceof LoadInstruction || instruction instanceof ConstantPushInstruction
+				|| instruction instanceof LDC || instruction instanceof LDC2_W;
+	}
+
+	/**
+	 * Stores the arguments on the stack into the callee's parameter slots, offset by base, last one first.
+	 */
+	private static void storeArguments(InstructionList il, MethodGen callee, int base, boolean checkReceiver, ConstantPoolGen cpgen)
+	{
+		Type[] arguments = callee.getArgumentTypes();
+		int[] slots = new int[arguments.length];
+		int slot = callee.isStatic() ? 0 : 1;
+		for (int i = 0; i < arguments.length; i++) {
+			slots[i] = slot;
+			slot += arguments[i].getSize();
+		}
+		for (int i = arguments.length - 1; i >= 0; i--) {
+			il.append(InstructionFactory.createStore(arguments[i], base + slots[i]));
+		}
+		if (!callee.isStatic()) {
+			il.append(new ASTORE(base));
+			if (checkReceiver) {
+				il.append(new ALOAD(base));
+				il.append(new INVOKEVIRTUAL(cpgen.addMethodref("java.lang.Object", "getClass", "()Ljava/lang/Class;")));
+				il.append(new POP());
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the callee's code with its locals moved up by base and its returns turned into jumps to
+	 * continuation.
+	 */
+	private static InstructionList body(InstructionList calleeCode, int base, InstructionHandle continuation)
+	{
+		InstructionList body = calleeCode.copy();
+		for (InstructionHandle ih = body.getStart(); ih != null; ) {
+			InstructionHandle next = ih.getNext();
+			Instruction instruction = ih.getInstruction();
+			// New instructions, as BCEL shares one instance of e.g. ALOAD_0 between all lists.
+			if (instruction instanceof IINC) {
+				IINC increment = (IINC) instruction;
+				ih.setInstruction(new IINC(increment.getIndex() + base, increment.getIncrement()));
+			} else if (instruction instanceof LoadInstruction) {
+				LoadInstruction load = (LoadInstruction) instruction;
+				ih.setInstruction(InstructionFactory.createLoad(load.getType(null), load.getIndex() + base));
+			} else if (instruction instanceof StoreInstruction) {
+				StoreInstruction store = (StoreInstruction) instruction;
+				ih.setInstruction(InstructionFactory.createStore(store.getType(null), store.getIndex() + base));
+			} else if (instruction instanceof ReturnInstruction) {
+				InstructionHandle jump = next == null ? continuation : body.insert(ih, new GOTO(continuation));
+				body.redirectBranches(ih, jump);
+				try {
+					body.delete(ih);
+				} catch (TargetLostException e) {
+					// Cannot happen: every branch was redirected above.
+					throw new IllegalStateException(e);
+				}
+			}
+			ih = next;
+		}
+		return body;
+	}
+}
@@ -0,0 +1,170 @@
+package comp207p.main;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * On-disk cache of optimised classes.
+ *
+ * Entries are keyed by a SHA-256 hash of the optimiser version, the pass configuration, the input class bytes and
+ * the superclasses of the classes it refers to (see ClassHierarchy.describeReferences()), which its stack map
+ * frames are computed from. So a changed optimiser, configuration or superclass never sees stale results, while
+ * classes added to or changed on the class path leave the entries of the classes that do not refer to them valid.
+ * A hit returns the stored bytes without optimising the class at all. An empty entry records that the optimiser left the class unchanged, and the input array is
+ * returned in that case, as ClassOptimiser does.
+ *
+ * The last-modified time of an entry is refreshed on every hit, and evict() removes the least recently used
+ * entries until the cache fits its size limit again.
+ */
+class OptimisationCache {
+
+    private static final String SUFFIX = ".class";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final byte[] keyPrefix;
+    private final ClassHierarchy hierarchy;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private int evicted = 0;
+
+    /**
+     * hierarchy must look in the same roots as the ClassHierarchy of the optimiser.
+     */
+    OptimisationCache(Path directory, long maxBytes, String configuration, ClassHierarchy hierarchy) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.keyPrefix = (ConstantFolder.VERSION + "\n" + configuration + "\n").getBytes(StandardCharsets.UTF_8);
+        this.hierarchy = hierarchy;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Wraps an optimiser so that it is only called on cache misses.
+     */
+    Function<byte[], byte[]> wrap(Function<byte[], byte[]> optimiser) {
+        return classBytes -> {
+            Path entry = directory.resolve(key(classBytes) + SUFFIX);
+
+            byte[] cached = read(entry);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.length == 0 ? classBytes : cached;
+            }
+
+            misses.incrementAndGet();
+            byte[] optimised = optimiser.apply(classBytes);
+            write(entry, optimised == classBytes ? new byte[0] : optimised);
+            return optimised;
+        };
+    }
+
+    /**
+     * Deletes least recently used entries until the cache is no larger than its limit.
+     */
+    void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                total += Files.size(entry);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        // Oldest first; ties broken by name so eviction does not depend on directory order.
+        entries.sort(Comparator.comparing((Path p) -> lastModified(p)).thenComparing(Path::toString));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long size = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                total -= size;
+                evicted++;
+            }
+        }
+    }
+
+    String summary() {
+        int h = hits.get();
+        int m = misses.get();
+        int percent = h + m == 0 ? 0 : (int) Math.round(100.0 * h / (h + m));
+        return String.format("Cache: %d hits, %d misses (%d%% hit rate), %d entries evicted.", h, m, percent, evicted);
+    }
+
+    private String key(byte[] classBytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(keyPrefix);
+        digest.update(classBytes);
+        digest.update(hierarchy.describeReferences(classBytes).getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] read(Path entry) {
+        try {
+            byte[] bytes = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytes;
+        } catch (IOException e) {
+            // Missing, or evicted by another run in the meantime.
+            return null;
+        }
+    }
+
+    /**
+     * Writes through a temporary file so concurrent workers and runs never see a partial entry.
+     */
+    private void write(Path entry, byte[] bytes) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // A cache that cannot be written only costs speed.
+            System.err.println("Could not write cache entry " + entry.getFileName() + ": " + e);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package comp207p.main;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.bcel.generic.MethodGen;
+
+/**
+ * One optimisation over the code of a method, as scheduled by PassManager.
+ *
+ * A pass names the passes it depends on: those whose changes can give it new work, e.g. constant variable
+ * folding replaces loads with literals, which simple folding can then fold. After a pass changes a method, the
+ * passes that depend on it run on the method again. A pass does not need to name itself; each run should go as
+ * far as it can by itself.
+ *
+ * Passes are shared by every method and, within one class loader, by every thread, so they must not keep state
+ * between runs.
+ */
+public abstract class OptimisationPass
+{
+	private final String name;
+	private final List<String> dependencies;
+
+	protected OptimisationPass(String name, String... dependencies)
+	{
+		this.name = name;
+		this.dependencies = Collections.unmodifiableList(Arrays.asList(dependencies));
+	}
+
+	/**
+	 * Returns the name used by -passes and in the report.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Returns the names of the passes whose changes can give this pass new work.
+	 */
+	public List<String> getDependencies()
+	{
+		return dependencies;
+	}
+
+	/**
+	 * Optimises the method, counting what it does in stats, and returns true if it changed the code.
+	 */
+	public abstract boolean run(MethodGen methodGen, OptimisationStats.PassStats stats);
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
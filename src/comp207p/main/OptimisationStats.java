@@ -0,0 +1,249 @@
+package comp207p.main;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.bcel.generic.ConstantPoolGen;
+
+/**
+ * Timings and counters of one ConstantFolder run: per class, per method and per pass.
+ *
+ * A pass that PassManager runs more than once on a method is listed once, with the totals of all its runs and
+ * the number of runs. What "iterations" counts depends on the pass:
+ *
+ *     simpleFolding            pattern matches examined
+ *     constantVariableFolding  block visits until the constant propagation fixpoint
+ *     dynamicVariableFolding   literal stores examined
+ *     branchFolding            block visits until the constant propagation fixpoint
+ *     algebraicSimplification  (not counted; each rewritten operator is a fold)
+ *     localValueNumbering      blocks visited; each reused computation is a fold
+ *     copyPropagation          copies examined; each load of a copy replaced is a replaced load
+ *     loopInvariantCodeMotion  loops examined; each hoisted expression is a fold
+ *     deadCodeElimination      (not counted)
+ *     localSlotAllocation      variables; each variable moved to another slot is a fold
+ *     methodInlining           (not counted; each inlined call is a fold, see MethodInlining)
+ *     interproceduralConstants (not counted; run before the passes, see ClassConstants)
+ *     peephole                 sweeps over the method; each rewrite is a fold (run after the passes)
+ *
+ * toJson() is the form that crosses into Main, see ClassOptimiser. MethodStats are serialisable instead, as
+ * they cross between the copies of the optimiser that work on one class, see ConstantFolder.
+ */
+public class OptimisationStats
+{
+	private final String className;
+	private final List<MethodStats> methods = new ArrayList<>();
+	private int bytesBefore = 0;
+	private int bytesAfter = 0;
+	private long nanos = 0;
+
+	public OptimisationStats(String className)
+	{
+		this.className = className;
+	}
+
+	public MethodStats addMethod(String name, int codeBytesBefore)
+	{
+		MethodStats method = new MethodStats(name, codeBytesBefore);
+		methods.add(method);
+		return method;
+	}
+
+	/**
+	 * Adds a method whose statistics were gathered apart, e.g. on another thread.
+	 */
+	void addMethod(MethodStats method)
+	{
+		methods.add(method);
+	}
+
+	/**
+	 * Records the size of the class file before and after optimisation and the total time spent on it.
+	 */
+	public void setClassFile(int bytesBefore, int bytesAfter, long nanos)
+	{
+		this.bytesBefore = bytesBefore;
+		this.bytesAfter = bytesAfter;
+		this.nanos = nanos;
+	}
+
+	public String getClassName()
+	{
+		return className;
+	}
+
+	public List<MethodStats> getMethods()
+	{
+		return methods;
+	}
+
+	public String toJson()
+	{
+		int folds = 0;
+		int loadsReplaced = 0;
+		int constantsAdded = 0;
+		int instructionsRemoved = 0;
+		for (MethodStats method : methods) {
+			for (PassStats pass : method.passes) {
+				folds += pass.folds;
+				loadsReplaced += pass.loadsReplaced;
+				constantsAdded += pass.constantsAdded;
+				instructionsRemoved += pass.instructionsRemoved;
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"class\":").append(quote(className));
+		sb.append(",\"timeNanos\":").append(nanos);
+		sb.append(",\"bytesBefore\":").append(bytesBefore);
+		sb.append(",\"bytesAfter\":").append(bytesAfter);
+		sb.append(",\"folds\":").append(folds);
+		sb.append(",\"loadsReplaced\":").append(loadsReplaced);
+		sb.append(",\"constantsAdded\":").append(constantsAdded);
+		sb.append(",\"instructionsRemoved\":").append(instructionsRemoved);
+		sb.append(",\"methods\":[");
+		for (int i = 0; i < methods.size(); i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			methods.get(i).appendJson(sb);
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Quotes a string as a JSON string literal.
+	 */
+	static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	public static class MethodStats implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final int codeBytesBefore;
+		private int codeBytesAfter;
+		private final List<PassStats> passes = new ArrayList<>();
+
+		MethodStats(String name, int codeBytesBefore)
+		{
+			this.name = name;
+			this.codeBytesBefore = codeBytesBefore;
+			this.codeBytesAfter = codeBytesBefore;
+		}
+
+		/**
+		 * Starts timing a run of a pass. Call PassStats.stop() when it returns.
+		 */
+		public PassStats startPass(String passName, ConstantPoolGen cpgen)
+		{
+			for (PassStats pass : passes) {
+				if (pass.name.equals(passName)) {
+					pass.start(cpgen);
+					return pass;
+				}
+			}
+			PassStats pass = new PassStats(passName);
+			passes.add(pass);
+			pass.start(cpgen);
+			return pass;
+		}
+
+		public void setCodeBytesAfter(int codeBytesAfter)
+		{
+			this.codeBytesAfter = codeBytesAfter;
+		}
+
+		public String getName()            { return name; }
+		public List<PassStats> getPasses() { return passes; }
+
+		private void appendJson(StringBuilder sb)
+		{
+			sb.append("{\"method\":").append(quote(name));
+			sb.append(",\"bytesBefore\":").append(codeBytesBefore);
+			sb.append(",\"bytesAfter\":").append(codeBytesAfter);
+			sb.append(",\"passes\":[");
+			for (int i = 0; i < passes.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				passes.get(i).appendJson(sb);
+			}
+			sb.append("]}");
+		}
+	}
+
+	public static class PassStats implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private transient long startNanos;
+		private transient int startPoolSize;
+		private long nanos = 0;
+		private int runs = 0;
+
+		// Counted by the passes themselves.
+		int iterations = 0;
+		int folds = 0;
+		int loadsReplaced = 0;
+		int constantsAdded = 0;
+		int instructionsRemoved = 0;
+
+		PassStats(String name)
+		{
+			this.name = name;
+		}
+
+		private void start(ConstantPoolGen cpgen)
+		{
+			runs++;
+			startPoolSize = cpgen.getSize();
+			startNanos = System.nanoTime();
+		}
+
+		public void stop(ConstantPoolGen cpgen)
+		{
+			nanos += System.nanoTime() - startNanos;
+			constantsAdded += cpgen.getSize() - startPoolSize;
+		}
+
+		public String getName()     { return name; }
+		public long getNanos()      { return nanos; }
+		public int getRuns()        { return runs; }
+		public int getIterations()  { return iterations; }
+		public int getFolds()       { return folds; }
+		public int getLoadsReplaced() { return loadsReplaced; }
+		public int getConstantsAdded() { return constantsAdded; }
+		public int getInstructionsRemoved() { return instructionsRemoved; }
+
+		private void appendJson(StringBuilder sb)
+		{
+			sb.append("{\"pass\":").append(quote(name));
+			sb.append(",\"timeNanos\":").append(nanos);
+			sb.append(",\"runs\":").append(runs);
+			sb.append(",\"iterations\":").append(iterations);
+			sb.append(",\"folds\":").append(folds);
+			sb.append(",\"loadsReplaced\":").append(loadsReplaced);
+			sb.append(",\"constantsAdded\":").append(constantsAdded);
+			sb.append(",\"instructionsRemoved\":").append(instructionsRemoved);
+			sb.append('}');
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package comp207p.main;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.generic.MethodGen;
+
+/**
+ * Runs a list of OptimisationPasses on each method until none of them finds anything more to do.
+ *
+ * Every pass runs once, in list order. Whenever a pass changes the method, the passes that depend on it are
+ * scheduled again, and the earliest scheduled pass in the list always runs next, so a change is followed up
+ * before later passes see the method. A pass that has run maxRuns times on a method is not run on it again, which
+ * bounds the work on methods where passes keep enabling each other.
+ *
+ * Passes are known by name. register() adds a pass that can then be selected like the built-in ones; the default
+ * list is every registered pass, in the order they were registered.
+ */
+public class PassManager
+{
+	public static final int DEFAULT_MAX_RUNS = 16;
+
+	private static final Map<String, OptimisationPass> REGISTERED = new LinkedHashMap<>();
+
+	static {
+		register(SimpleFolding.PASS);
+		register(ConstantVariableFolding.PASS);
+		register(DynamicVariableFolding.PASS);
+		register(AlgebraicSimplification.PASS);
+		register(BranchFolding.PASS);
+		register(LocalValueNumbering.PASS);
+		register(CopyPropagation.PASS);
+		register(LoopInvariantCodeMotion.PASS);
+		register(DeadCodeElimination.PASS);
+		register(LocalSlotAllocation.PASS);
+	}
+
+	private final List<OptimisationPass> passes;
+	private final int maxRuns;
+
+	// For each pass, the passes (by position in the list) to run again when it changes the method.
+	private final List<BitSet> dependents = new ArrayList<>();
+
+	public PassManager(List<OptimisationPass> passes, int maxRuns)
+	{
+		if (maxRuns < 1) {
+			throw new IllegalArgumentException("A pass must be allowed to run at least once");
+		}
+		this.passes = new ArrayList<>(passes);
+		this.maxRuns = maxRuns;
+		for (OptimisationPass pass : this.passes) {
+			BitSet dependent = new BitSet();
+			for (int i = 0; i < this.passes.size(); i++) {
+				if (this.passes.get(i).getDependencies().contains(pass.getName())) {
+					dependent.set(i);
+				}
+			}
+			dependents.add(dependent);
+		}
+	}
+
+	/**
+	 * Makes a pass selectable by its name. A pass registered under the name of another replaces it.
+	 */
+	public static synchronized void register(OptimisationPass pass)
+	{
+		REGISTERED.put(pass.getName(), pass);
+	}
+
+	/**
+	 * Returns the names of every registered pass, in the default order.
+	 */
+	public static synchronized List<String> getPassNames()
+	{
+		return new ArrayList<>(REGISTERED.keySet());
+	}
+
+	/**
+	 * Builds a manager from a comma separated list of pass names, or "default" for every registered pass.
+	 * Throws IllegalArgumentException for an unknown name.
+	 */
+	public static synchronized PassManager parse(String names, int maxRuns)
+	{
+		List<OptimisationPass> passes = new ArrayList<>();
+		if (names.trim().equals("default")) {
+			passes.addAll(REGISTERED.values());
+		} else {
+			for (String name : names.split(",")) {
+				name = name.trim();
+				if (name.isEmpty()) {
+					continue;
+				}
+				OptimisationPass pass = REGISTERED.get(name);
+				if (pass == null) {
+					throw new IllegalArgumentException("Unknown pass \"" + name + "\", expected one of " + REGISTERED.keySet());
+				}
+				passes.add(pass);
+			}
+		}
+		return new PassManager(passes, maxRuns);
+	}
+
+	public List<OptimisationPass> getPasses()
+	{
+		return Collections.unmodifiableList(passes);
+	}
+
+	/**
+	 * Runs the passes on the method until no pass is scheduled, recording each in methodStats. Returns true if any
+	 * pass changed the code.
+	 */
+	public boolean run(MethodGen methodGen, OptimisationStats.MethodStats methodStats)
+	{
+		BitSet scheduled = new BitSet();
+		scheduled.set(0, passes.size());
+		int[] runs = new int[passes.size()];
+		boolean changed = false;
+
+		for (int i = scheduled.nextSetBit(0); i >= 0; i = scheduled.nextSetBit(0)) {
+			scheduled.clear(i);
+			OptimisationPass pass = passes.get(i);
+			if (runs[i] == maxRuns) {
+				if (Log.verbose()) {
+					Log.println("* * " + pass.getName() + " has run " + maxRuns + " times, not running it again.");
+				}
+				continue;
+			}
+			runs[i]++;
+
+			OptimisationStats.PassStats stats = methodStats.startPass(pass.getName(), methodGen.getConstantPool());
+			boolean passChanged = pass.run(methodGen, stats);
+			stats.stop(methodGen.getConstantPool());
+
+			if (passChanged) {
+				changed = true;
+				scheduled.or(dependents.get(i));
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,389 @@
+package comp207p.main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantFloat;
+import org.apache.bcel.classfile.ConstantInteger;
+import org.apache.bcel.classfile.ConstantString;
+import org.apache.bcel.generic.*;
+
+/**
+ * Cleans up the short instruction sequences that the passes leave behind, as the last step on every method.
+ *
+ * Each entry of RULES looks at the instructions from one handle on and rewrites them if they match:
+ *
+ *     storeLoad       "xSTORE n; xLOAD n" with n dead after the load: deleted, the value stays on the stack
+ *     selfCopy        "xLOAD n; xSTORE n": deleted
+ *     pushPop         a load or literal followed by the POP (or POP2) of it: deleted
+ *     dupPop          "DUP; POP" and "DUP2; POP2": deleted
+ *     gotoNext        a GOTO to the instruction after it: deleted
+ *     jumpChain       a jump to a GOTO: jumps to where the GOTO (or a chain of them) goes instead
+ *     gotoReturn      a GOTO to a return: the return itself
+ *     branchOverGoto  "IFxx L; GOTO M; L:": the opposite IF jumping to M
+ *
+ * A rule never matches across a jump target in the middle of its sequence, so no other path sees a partial
+ * rewrite. Whether a local is dead is found by following the paths from the load, through exception handlers
+ * too, until every one stores to it again; a path that reads it, or more than MAX_VISITS instructions, counts
+ * as live. Methods that use JSR/RET subroutines keep their locals.
+ *
+ * After a rewrite, the rules are tried again from the instruction before it, so one rewrite can enable the next.
+ * Every rewrite is a fold, and iterations count the sweeps over the method.
+ */
+public class PeepholeOptimisation
+{
+	/** The name that optimise() is reported under. */
+	public static final String PASS_NAME = "peephole";
+
+	// Most sweeps over one method.
+	private static final int MAX_ROUNDS = 16;
+
+	// Most instructions visited to show that a local is dead.
+	private static final int MAX_VISITS = 2000;
+
+	/**
+	 * One entry of the catalogue: a sequence and what it becomes.
+	 */
+	private abstract static class Rule
+	{
+		final String name;
+
+		Rule(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Rewrites the sequence starting at ih if it matches. Only ih and the instructions after it are changed.
+		 */
+		abstract boolean apply(PeepholeOptimisation peephole, InstructionHandle ih);
+	}
+
+	private static final List<Rule> RULES = Arrays.asList(
+		new Rule("storeLoad")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				InstructionHandle next = ih.getNext();
+				if (!(ih.getInstruction() instanceof StoreInstruction) || next == null || CodeEditing.isJumpTarget(next)
+						|| !peephole.sameLocal(ih.getInstruction(), next.getInstruction(), LoadInstruction.class)) {
+					return false;
+				}
+				StoreInstruction store = (StoreInstruction) ih.getInstruction();
+				if (!peephole.isDeadAfter(next, store.getIndex(), store.getType(peephole.cpgen).getSize())) {
+					return false;
+				}
+				CodeEditing.delete(peephole.methodGen, ih, next);
+				return true;
+			}
+		},
+		new Rule("selfCopy")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				InstructionHandle next = ih.getNext();
+				if (!(ih.getInstruction() instanceof LoadInstruction) || next == null || CodeEditing.isJumpTarget(next)
+						|| !peephole.sameLocal(ih.getInstruction(), next.getInstruction(), StoreInstruction.class)) {
+					return false;
+				}
+				CodeEditing.delete(peephole.methodGen, ih, next);
+				return true;
+			}
+		},
+		new Rule("pushPop")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				InstructionHandle next = ih.getNext();
+				if (next == null || CodeEditing.isJumpTarget(next) || !peephole.isPurePush(ih.getInstruction())) {
+					return false;
+				}
+				int size = ih.getInstruction().produceStack(peephole.cpgen);
+				Instruction pop = next.getInstruction();
+				if (!(size == 1 && pop instanceof POP) && !(size == 2 && pop instanceof POP2)) {
+					return false;
+				}
+				CodeEditing.delete(peephole.methodGen, ih, next);
+				return true;
+			}
+		},
+		new Rule("dupPop")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				InstructionHandle next = ih.getNext();
+				if (next == null || CodeEditing.isJumpTarget(next)
+						|| !(ih.getInstruction() instanceof DUP && next.getInstruction() instanceof POP
+							|| ih.getInstruction() instanceof DUP2 && next.getInstruction() instanceof POP2)) {
+					return false;
+				}
+				CodeEditing.delete(peephole.methodGen, ih, next);
+				return true;
+			}
+		},
+		new Rule("gotoNext")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				if (!(ih.getInstruction() instanceof GotoInstruction) || ih.getNext() == null
+						|| ((GotoInstruction) ih.getInstruction()).getTarget() != ih.getNext()) {
+					return false;
+				}
+				CodeEditing.delete(peephole.methodGen, ih, ih);
+				return true;
+			}
+		},
+		new Rule("jumpChain")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				Instruction instruction = ih.getInstruction();
+				if (!(instruction instanceof BranchInstruction) || instruction instanceof JsrInstruction) {
+					return false;
+				}
+				BranchInstruction branch = (BranchInstruction) instruction;
+				boolean changed = false;
+				if (instruction instanceof Select) {
+					Select select = (Select) instruction;
+					InstructionHandle[] targets = select.getTargets();
+					for (int i = 0; i < targets.length; i++) {
+						InstructionHandle end = endOfChain(targets[i]);
+						if (end != targets[i]) {
+							select.setTarget(i, end);
+							changed = true;
+						}
+					}
+				}
+				InstructionHandle end = endOfChain(branch.getTarget());
+				if (end != branch.getTarget()) {
+					branch.setTarget(end);
+					changed = true;
+				}
+				return changed;
+			}
+		},
+		new Rule("gotoReturn")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				if (!(ih.getInstruction() instanceof GotoInstruction)
+						|| !(((GotoInstruction) ih.getInstruction()).getTarget().getInstruction() instanceof ReturnInstruction)) {
+					return false;
+				}
+				// Returns carry no operands, so the target's instance can be shared.
+				Instruction ret = ((GotoInstruction) ih.getInstruction()).getTarget().getInstruction();
+				CodeEditing.replace(peephole.methodGen, ih, new InstructionList(ret));
+				return true;
+			}
+		},
+		new Rule("branchOverGoto")
+		{
+			@Override
+			boolean apply(PeepholeOptimisation peephole, InstructionHandle ih)
+			{
+				InstructionHandle jump = ih.getNext();
+				if (!(ih.getInstruction() instanceof IfInstruction) || jump == null || CodeEditing.isJumpTarget(jump)
+						|| !(jump.getInstruction() instanceof GotoInstruction)
+						|| ((IfInstruction) ih.getInstruction()).getTarget() != jump.getNext()) {
+					return false;
+				}
+				InstructionHandle target = ((GotoInstruction) jump.getInstruction()).getTarget();
+				if (target == ih || target == jump) {
+					return false;
+				}
+				IfInstruction negated = ((IfInstruction) ih.getInstruction()).negate();
+				negated.setTarget(target);
+				CodeEditing.replace(peephole.methodGen, ih, jump, new InstructionList(negated));
+				return true;
+			}
+		}
+	);
+
+	private final MethodGen methodGen;
+	private final ConstantPoolGen cpgen;
+	private final InstructionList il;
+
+	private PeepholeOptimisation(MethodGen methodGen)
+	{
+		this.methodGen = methodGen;
+		this.cpgen = methodGen.getConstantPool();
+		this.il = methodGen.getInstructionList();
+	}
+
+	/**
+	 * Applies the rules to the method until none matches. Returns true if any did.
+	 */
+	public static boolean optimise(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Peephole optimisation ------------------------------");
+		}
+		if (methodGen.getInstructionList() == null) {
+			return false;
+		}
+		PeepholeOptimisation peephole = new PeepholeOptimisation(methodGen);
+		boolean changed = false;
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			stats.iterations++;
+			int rewrites = peephole.sweep();
+			if (rewrites == 0) {
+				break;
+			}
+			stats.folds += rewrites;
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Tries every rule on every instruction once and returns how many rewrites there were.
+	 */
+	private int sweep()
+	{
+		int rewrites = 0;
+		InstructionHandle ih = il.getStart();
+		// The handlers that cover an instruction are found by position.
+		il.setPositions();
+		while (ih != null) {
+			InstructionHandle prev = ih.getPrev();
+			Rule applied = null;
+			for (Rule rule : RULES) {
+				if (rule.apply(this, ih)) {
+					applied = rule;
+					break;
+				}
+			}
+			if (applied == null) {
+				ih = ih.getNext();
+				continue;
+			}
+			rewrites++;
+			il.setPositions();
+			if (Log.debug()) {
+				Log.printf("[PEEPHOLE] Applied %s.\n", applied.name);
+			}
+			// The rule left prev in place; the rewrite may let it match now.
+			ih = prev != null ? prev : il.getStart();
+		}
+		return rewrites;
+	}
+
+	/**
+	 * True if a is a load or store of the same local and type as b, which is of class kind.
+	 */
+	private boolean sameLocal(Instruction a, Instruction b, Class<? extends LocalVariableInstruction> kind)
+	{
+		if (!kind.isInstance(b)) {
+			return false;
+		}
+		LocalVariableInstruction first = (LocalVariableInstruction) a;
+		LocalVariableInstruction second = (LocalVariableInstruction) b;
+		return first.getIndex() == second.getIndex() && first.getType(cpgen).equals(second.getType(cpgen));
+	}
+
+	/**
+	 * True if the instruction pushes one value and does nothing else.
+	 */
+	private boolean isPurePush(Instruction instruction)
+	{
+		if (instruction instanceof ConstantPushInstruction || instruction instanceof LoadInstruction
+				|| instruction instanceof ACONST_NULL || instruction instanceof LDC2_W) {
+			return true;
+		}
+		if (instruction instanceof LDC) {
+			// Loading a class (or method handle) constant can fail to resolve; numbers and strings cannot.
+			Constant constant = cpgen.getConstant(((LDC) instruction).getIndex());
+			return constant instanceof ConstantInteger || constant instanceof ConstantFloat || constant instanceof ConstantString;
+		}
+		return false;
+	}
+
+	/**
+	 * True if no path from just after ih reads any of the size slots from index before storing to them all.
+	 */
+	private boolean isDeadAfter(InstructionHandle ih, int index, int size)
+	{
+		Set<InstructionHandle> visited = new HashSet<>();
+		Deque<InstructionHandle> worklist = new ArrayDeque<>();
+		addSuccessors(ih, worklist);
+		while (!worklist.isEmpty()) {
+			InstructionHandle next = worklist.pop();
+			if (!visited.add(next)) {
+				continue;
+			}
+			if (visited.size() > MAX_VISITS) {
+				return false;
+			}
+			Instruction instruction = next.getInstruction();
+			if (instruction instanceof JsrInstruction || instruction instanceof RET) {
+				return false;
+			}
+			for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+				if (ControlFlowGraph.covers(handler, next)) {
+					worklist.push(handler.getHandlerPC());
+				}
+			}
+			if (instruction instanceof LoadInstruction || instruction instanceof IINC) {
+				LocalVariableInstruction read = (LocalVariableInstruction) instruction;
+				int readSize = instruction instanceof IINC ? 1 : read.getType(cpgen).getSize();
+				if (read.getIndex() < index + size && index < read.getIndex() + readSize) {
+					return false;
+				}
+			}
+			if (instruction instanceof StoreInstruction) {
+				StoreInstruction store = (StoreInstruction) instruction;
+				if (store.getIndex() == index && store.getType(cpgen).getSize() >= size) {
+					continue;
+				}
+			}
+			addSuccessors(next, worklist);
+		}
+		return true;
+	}
+
+	private static void addSuccessors(InstructionHandle ih, Deque<InstructionHandle> worklist)
+	{
+		Instruction instruction = ih.getInstruction();
+		if (!ControlFlowGraph.endsFlow(instruction) && ih.getNext() != null) {
+			worklist.push(ih.getNext());
+		}
+		if (instruction instanceof BranchInstruction) {
+			worklist.push(((BranchInstruction) instruction).getTarget());
+		}
+		if (instruction instanceof Select) {
+			for (InstructionHandle target : ((Select) instruction).getTargets()) {
+				worklist.push(target);
+			}
+		}
+	}
+
+	/**
+	 * Returns where a jump to ih ends up after following the GOTOs from it, or ih if it is not a GOTO.
+	 */
+	private static InstructionHandle endOfChain(InstructionHandle ih)
+	{
+		Set<InstructionHandle> visited = new HashSet<>();
+		InstructionHandle end = ih;
+		while (end.getInstruction() instanceof GotoInstruction && visited.add(end)) {
+			InstructionHandle next = ((GotoInstruction) end.getInstruction()).getTarget();
+			if (visited.contains(next)) {
+				// A loop of GOTOs; leave it where it is.
+				return ih;
+			}
+			end = next;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,55 @@
+package comp207p.main;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.SyntheticRepository;
+
+/**
+ * The ClassConstants of the classes of a whole program, for interprocedural constant propagation across
+ * classes. Classes are loaded from the program path through a BCEL Repository and analysed the first time they
+ * are asked for; classes that are not found there, such as those of the JDK, are not known.
+ *
+ * Each class is analysed on its own, without looking at the classes it uses in turn. Not thread safe: every
+ * copy of the optimiser has its own.
+ */
+public class ProgramConstants implements Function<String, ClassConstants>
+{
+	private final SyntheticRepository repository;
+
+	private final PassManager passManager;
+
+	// Class name to constants, or to null if the class is not in the program.
+	private final Map<String, ClassConstants> classes = new HashMap<>();
+
+	/**
+	 * programPath lists directories and JAR files, separated by File.pathSeparator.
+	 */
+	public ProgramConstants(String programPath, PassManager passManager)
+	{
+		this.repository = SyntheticRepository.getInstance(new ClassPath(programPath));
+		this.passManager = passManager;
+	}
+
+	@Override
+	public ClassConstants apply(String className)
+	{
+		if (classes.containsKey(className)) {
+			return classes.get(className);
+		}
+		ClassConstants constants = null;
+		try {
+			JavaClass clazz = repository.loadClass(className);
+			constants = ClassConstants.analyse(clazz, passManager, null);
+		} catch (ClassNotFoundException e) {
+			if (Log.debug()) {
+				Log.println("[INTERPROCEDURAL] " + className + " is not part of the program.");
+			}
+		}
+		classes.put(className, constants);
+		return constants;
+	}
+}
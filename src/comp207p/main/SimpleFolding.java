@@ -0,0 +1,123 @@
+package comp207p.main;
+
+import java.util.Arrays;
+
+import org.apache.bcel.generic.*;
+
+/**
+ * Folds arithmetic, bitwise, shift and conversion instructions on literal operands into a single literal.
+ * Chains such as "iconst_5; i2l; lneg" fold one instruction at a time. Instructions that would throw (integral
+ * division by zero) are left alone, and so are sequences that a jump enters after their first instruction.
+ *
+ * A single scan: after each fold, matching resumes just far enough back to catch any new match that the folded
+ * constant is now part of. Iterations count the pattern matches examined.
+ */
+public class SimpleFolding
+{
+	// ConstantPushInstruction: BIPUSH, SIPUSH, ICONST, etc.
+	// ConversionInstruction: I2D, D2F, etc.
+	// An operator with one or two literals before it; which of them are its operands depends on the operator.
+	private static final InstructionPattern SIMPLE_FOLDING_PATTERN = InstructionPattern.compile("(LDC|LDC2_W|ConstantPushInstruction) (LDC|LDC2_W|ConstantPushInstruction)? (ArithmeticInstruction|ConversionInstruction)");
+
+	// Literals come from the loads the variable folding passes replace and from the rewrites of the others.
+	public static final OptimisationPass PASS = new OptimisationPass("simpleFolding",
+			"constantVariableFolding", "dynamicVariableFolding", "algebraicSimplification", "branchFolding")
+	{
+		@Override
+		public boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+		{
+			return SimpleFolding.run(methodGen, stats);
+		}
+	};
+
+	private SimpleFolding()
+	{
+	}
+
+	/**
+	 * Folds every literal operation in the method and returns true if there was any.
+	 */
+	public static boolean run(MethodGen methodGen, OptimisationStats.PassStats stats)
+	{
+		if (Log.verbose()) {
+			Log.println("* * Optimization 01: Simple Folding --------------");
+		}
+
+		// Info: InstructionHandle is a wrapper for actual Instructions
+		ConstantPoolGen cpgen = methodGen.getConstantPool();
+		InstructionList il = methodGen.getInstructionList();
+		int folds = 0;
+		InstructionHandle searchFrom = il.getStart();
+		while (searchFrom != null) {
+			InstructionHandle[] match = SIMPLE_FOLDING_PATTERN.match(searchFrom);
+			if (match == null) {
+				searchFrom = searchFrom.getNext();
+				continue;
+			}
+			searchFrom = match[0].getNext();
+			stats.iterations++;
+
+			if (Log.debug()) {
+				Log.println("Instruction len: " + match.length);
+				for (InstructionHandle ih : match) {
+					Log.println("Instruction: " + ih.getInstruction().getClass().getSimpleName());
+				}
+			}
+
+			// The operands are the literals right before the operator.
+			InstructionHandle operator = match[match.length - 1];
+			int operandCount = operator.getInstruction() instanceof ArithmeticInstruction
+					&& !ConstantEvaluator.isUnary((ArithmeticInstruction) operator.getInstruction()) ? 2 : 1;
+			if (operandCount > match.length - 1) {
+				// e.g. "iload_1; iconst_2; iadd": only the right operand is a literal.
+				continue;
+			}
+			int first = match.length - 1 - operandCount;
+
+			Number[] operands = new Number[operandCount];
+			boolean foldable = true;
+			for (int i = 0; i < operandCount; i++) {
+				operands[i] = ConstantEvaluator.literalValue(match[first + i].getInstruction(), cpgen);
+				foldable &= operands[i] != null;
+			}
+			for (int i = first + 1; i < match.length; i++) {
+				// Control arriving here would bring other operands.
+				foldable &= !CodeEditing.isJumpTarget(match[i]);
+			}
+
+			Number foldedValue = foldable ? evaluate(operator.getInstruction(), operands) : null;
+			if (foldedValue == null) {
+				if (Log.debug()) {
+					Log.println("Not folded: " + operator.getInstruction().getName() + " on " + Arrays.toString(operands));
+				}
+				continue;
+			}
+
+			if (Log.debug()) {
+				Log.println("Folded " + operator.getInstruction().getName() + " on " + Arrays.toString(operands) + " to " + foldedValue + " (" + foldedValue.getClass().getSimpleName() + ")");
+			}
+
+			InstructionHandle instructionAddedHandle = CodeEditing.replace(methodGen, match[first], operator, new InstructionList(ConstantEncoding.push(cpgen, foldedValue)));
+			searchFrom = InstructionPattern.rewind(instructionAddedHandle, SIMPLE_FOLDING_PATTERN.maxLength() - 1);
+			folds++;
+		}
+		stats.folds += folds;
+		return folds > 0;
+	}
+
+	/**
+	 * Evaluates an arithmetic or conversion instruction on its operands, bottom of the stack first.
+	 * Returns null if the instruction would throw.
+	 */
+	private static Number evaluate(Instruction operator, Number[] operands)
+	{
+		if (operator instanceof ConversionInstruction) {
+			return ConstantEvaluator.convert((ConversionInstruction) operator, operands[0]);
+		}
+		ArithmeticInstruction arithmetic = (ArithmeticInstruction) operator;
+		if (ConstantEvaluator.isUnary(arithmetic)) {
+			return ConstantEvaluator.negate(arithmetic, operands[0]);
+		}
+		return ConstantEvaluator.evaluate(arithmetic, operands[0], operands[1]);
+	}
+}
@@ -0,0 +1,797 @@
+package comp207p.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantClass;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.StackMap;
+import org.apache.bcel.classfile.StackMapTable;
+import org.apache.bcel.classfile.Unknown;
+import org.apache.bcel.generic.*;
+
+/**
+ * Computes the StackMapTable of a method, so that optimised classes keep their class file version and are checked
+ * by the type-checking verifier (class files from version 50 on).
+ *
+ * The types of the locals and of the stack are inferred for every instruction by a data flow analysis from the
+ * method entry, the way the verifier itself infers them for older class files. Where control flow joins, two
+ * reference types merge into the most specific class they both extend, which the ClassHierarchy looks up;
+ * interfaces merge into java/lang/Object, as the verifier does not check them. A frame is written at every jump
+ * target and handler, the only instructions that need one once no code is unreachable.
+ *
+ * The analysis works on words: a long or double takes two entries, the second of them TOP, on the stack as in the
+ * locals. That way POP2, DUP2 and the other stack instructions just move words around.
+ *
+ * A method that cannot be described throws UnsupportedCodeException: one with unreachable code or JSR/RET
+ * subroutines, one whose stack differs in height where control flow joins, or one that needs a class the
+ * ClassHierarchy cannot find.
+ */
+public final class StackMapGenerator
+{
+	/**
+	 * Thrown when no StackMapTable can be computed for a method; the method is then best left as it was.
+	 */
+	public static class UnsupportedCodeException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedCodeException(String message)
+		{
+			super(message);
+		}
+	}
+
+	private static final String OBJECT = "java/lang/Object";
+
+	private final MethodGen methodGen;
+	private final ConstantPoolGen cpgen;
+	private final ClassHierarchy hierarchy;
+
+	private final InstructionHandle[] handles;
+	private final Map<InstructionHandle, Integer> indexes = new HashMap<>();
+	private final Frame[] frames;
+
+	// Instructions whose frame changed since they were last analysed.
+	private final Deque<Integer> worklist = new ArrayDeque<>();
+	private final BitSet queued = new BitSet();
+
+	private StackMapGenerator(MethodGen methodGen, ClassHierarchy hierarchy)
+	{
+		this.methodGen = methodGen;
+		this.cpgen = methodGen.getConstantPool();
+		this.hierarchy = hierarchy;
+		this.handles = methodGen.getInstructionList().getInstructionHandles();
+		for (int i = 0; i < handles.length; i++) {
+			indexes.put(handles[i], i);
+		}
+		this.frames = new Frame[handles.length];
+	}
+
+	/**
+	 * Replaces the StackMapTable of the method with one for its current code. Class files before version 50 have
+	 * none, and only lose a stale one. Positions and max locals must be up to date.
+	 */
+	public static void regenerate(MethodGen methodGen, int majorVersion, ClassHierarchy hierarchy)
+	{
+		for (Attribute attribute : methodGen.getCodeAttributes()) {
+			if (attribute instanceof StackMapTable || attribute instanceof StackMap || isStackMapTable(attribute, methodGen.getConstantPool())) {
+				methodGen.removeCodeAttribute(attribute);
+			}
+		}
+		if (majorVersion < 50 || methodGen.getInstructionList() == null) {
+			return;
+		}
+
+		byte[] table = new StackMapGenerator(methodGen, hierarchy).generate();
+		if (table != null) {
+			ConstantPoolGen cpgen = methodGen.getConstantPool();
+			methodGen.addCodeAttribute(new Unknown(cpgen.addUtf8("StackMapTable"), table.length, table, cpgen.getConstantPool()));
+		}
+	}
+
+	private static boolean isStackMapTable(Attribute attribute, ConstantPoolGen cpgen)
+	{
+		Constant name = cpgen.getConstant(attribute.getNameIndex());
+		return name instanceof ConstantUtf8 && "StackMapTable".equals(((ConstantUtf8) name).getBytes());
+	}
+
+	/**
+	 * Returns the body of the StackMapTable attribute, or null if the method needs no frames.
+	 */
+	private byte[] generate()
+	{
+		analyse();
+
+		BitSet needsFrame = new BitSet(handles.length);
+		for (InstructionHandle ih : handles) {
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof Select) {
+				for (InstructionHandle target : ((Select) instruction).getTargets()) {
+					needsFrame.set(indexes.get(target));
+				}
+			}
+			if (instruction instanceof BranchInstruction) {
+				needsFrame.set(indexes.get(((BranchInstruction) instruction).getTarget()));
+			}
+		}
+		for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+			needsFrame.set(indexes.get(handler.getHandlerPC()));
+		}
+		if (needsFrame.isEmpty()) {
+			return null;
+		}
+		return encode(needsFrame);
+	}
+
+	// ===========================
+	// ===== TYPE INFERENCE ======
+	// ===========================
+
+	private void analyse()
+	{
+		frames[0] = entryFrame();
+		worklist.add(0);
+		queued.set(0);
+
+		CodeExceptionGen[] handlers = methodGen.getExceptionHandlers();
+		while (!worklist.isEmpty()) {
+			int index = worklist.poll();
+			queued.clear(index);
+			InstructionHandle ih = handles[index];
+			Frame frame = frames[index].copy();
+
+			// Any instruction in a protected range may throw before it changes anything.
+			for (CodeExceptionGen handler : handlers) {
+				if (ControlFlowGraph.covers(handler, ih)) {
+					ObjectType catchType = handler.getCatchType();
+					Frame handlerFrame = new Frame(frame.locals, new ArrayList<Value>());
+					handlerFrame.stack.add(Value.object(catchType == null ? "java/lang/Throwable" : internalName(catchType)));
+					flowTo(handler.getHandlerPC(), handlerFrame);
+				}
+			}
+
+			execute(ih, frame);
+
+			Instruction instruction = ih.getInstruction();
+			if (instruction instanceof Select) {
+				for (InstructionHandle target : ((Select) instruction).getTargets()) {
+					flowTo(target, frame);
+				}
+			}
+			if (instruction instanceof BranchInstruction) {
+				flowTo(((BranchInstruction) instruction).getTarget(), frame);
+			}
+			if (!ControlFlowGraph.endsFlow(instruction)) {
+				if (index + 1 == handles.length) {
+					throw new UnsupportedCodeException("Control falls off the end of the code");
+				}
+				flowTo(handles[index + 1], frame);
+			}
+		}
+
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i] == null) {
+				throw new UnsupportedCodeException("Unreachable code at " + handles[i].getPosition());
+			}
+		}
+	}
+
+	private void flowTo(InstructionHandle target, Frame frame)
+	{
+		int index = indexes.get(target);
+		if (frames[index] == null) {
+			frames[index] = frame.copy();
+		} else if (!frames[index].merge(frame)) {
+			return;
+		}
+		if (!queued.get(index)) {
+			queued.set(index);
+			worklist.add(index);
+		}
+	}
+
+	private Frame entryFrame()
+	{
+		Value[] locals = new Value[methodGen.getMaxLocals()];
+		Arrays.fill(locals, Value.TOP);
+		int slot = 0;
+		if (!methodGen.isStatic()) {
+			boolean uninitialised = methodGen.getName().equals(Constants.CONSTRUCTOR_NAME) && !methodGen.getClassName().equals("java.lang.Object");
+			locals[slot++] = uninitialised ? Value.UNINITIALIZED_THIS : Value.object(methodGen.getClassName().replace('.', '/'));
+		}
+		for (Type argument : methodGen.getArgumentTypes()) {
+			slot = store(locals, slot, Value.of(argument));
+		}
+		return new Frame(locals, new ArrayList<Value>());
+	}
+
+	/**
+	 * Applies the effect of one instruction to frame.
+	 */
+	private void execute(InstructionHandle ih, Frame frame)
+	{
+		Instruction instruction = ih.getInstruction();
+		List<Value> stack = frame.stack;
+
+		if (instruction instanceof LoadInstruction) {
+			int index = ((LoadInstruction) instruction).getIndex();
+			frame.push(frame.locals[index]);
+			return;
+		}
+		if (instruction instanceof StoreInstruction) {
+			int index = ((StoreInstruction) instruction).getIndex();
+			Value value = frame.pop(((StoreInstruction) instruction).getType(cpgen).getSize());
+			store(frame.locals, index, value);
+			return;
+		}
+		if (instruction instanceof JsrInstruction || instruction instanceof RET) {
+			throw new UnsupportedCodeException("JSR/RET subroutines have no stack map frames");
+		}
+
+		switch (instruction.getOpcode()) {
+			case Constants.NOP:
+			case Constants.IINC:
+			case Constants.GOTO:
+			case Constants.GOTO_W:
+			case Constants.RETURN:
+				return;
+			case Constants.ATHROW:
+				frame.pop(1);
+				return;
+
+			case Constants.ACONST_NULL:
+				frame.push(Value.NULL);
+				return;
+
+			case Constants.LDC:
+			case Constants.LDC_W:
+			case Constants.LDC2_W:
+				frame.push(constantType(((CPInstruction) instruction).getIndex()));
+				return;
+
+			case Constants.IALOAD: case Constants.BALOAD: case Constants.CALOAD: case Constants.SALOAD:
+				frame.pop(2);
+				frame.push(Value.INTEGER);
+				return;
+			case Constants.LALOAD:
+				frame.pop(2);
+				frame.push(Value.LONG);
+				return;
+			case Constants.FALOAD:
+				frame.pop(2);
+				frame.push(Value.FLOAT);
+				return;
+			case Constants.DALOAD:
+				frame.pop(2);
+				frame.push(Value.DOUBLE);
+				return;
+			case Constants.AALOAD: {
+				frame.pop(1);
+				frame.push(componentType(frame.pop(1)));
+				return;
+			}
+
+			case Constants.POP:
+				frame.pop(1);
+				return;
+			case Constants.POP2:
+				frame.pop(2);
+				return;
+			case Constants.DUP:
+				duplicate(stack, 1, 0);
+				return;
+			case Constants.DUP_X1:
+				duplicate(stack, 1, 1);
+				return;
+			case Constants.DUP_X2:
+				duplicate(stack, 1, 2);
+				return;
+			case Constants.DUP2:
+				duplicate(stack, 2, 0);
+				return;
+			case Constants.DUP2_X1:
+				duplicate(stack, 2, 1);
+				return;
+			case Constants.DUP2_X2:
+				duplicate(stack, 2, 2);
+				return;
+			case Constants.SWAP: {
+				Value top = stack.remove(stack.size() - 1);
+				stack.add(stack.size() - 1, top);
+				return;
+			}
+
+			case Constants.LCMP: case Constants.FCMPL: case Constants.FCMPG: case Constants.DCMPL: case Constants.DCMPG:
+			case Constants.ARRAYLENGTH:
+			case Constants.INSTANCEOF:
+				frame.pop(instruction.consumeStack(cpgen));
+				frame.push(Value.INTEGER);
+				return;
+
+			case Constants.NEW:
+				frame.push(Value.uninitialized(ih));
+				return;
+			case Constants.NEWARRAY:
+				frame.pop(1);
+				frame.push(Value.object(((NEWARRAY) instruction).getType().getSignature()));
+				return;
+			case Constants.ANEWARRAY: {
+				frame.pop(1);
+				String component = classConstant(((CPInstruction) instruction).getIndex());
+				frame.push(Value.object("[" + (component.startsWith("[") ? component : "L" + component + ";")));
+				return;
+			}
+			case Constants.MULTIANEWARRAY:
+				frame.pop(((MULTIANEWARRAY) instruction).getDimensions());
+				frame.push(Value.object(classConstant(((CPInstruction) instruction).getIndex())));
+				return;
+			case Constants.CHECKCAST:
+				frame.pop(1);
+				frame.push(Value.object(classConstant(((CPInstruction) instruction).getIndex())));
+				return;
+
+			case Constants.INVOKESPECIAL:
+				if (((InvokeInstruction) instruction).getMethodName(cpgen).equals(Constants.CONSTRUCTOR_NAME)) {
+					invokeConstructor((INVOKESPECIAL) instruction, frame);
+					return;
+				}
+				break;
+
+			default:
+				break;
+		}
+
+		// Everything else pops its operands and pushes at most one value of the type it declares.
+		frame.pop(instruction.consumeStack(cpgen));
+		if (instruction.produceStack(cpgen) > 0) {
+			Type type = ((TypedInstruction) instruction).getType(cpgen);
+			if (instruction instanceof InvokeInstruction) {
+				type = ((InvokeInstruction) instruction).getReturnType(cpgen);
+			}
+			frame.push(Value.of(type));
+		}
+	}
+
+	/**
+	 * Pops the arguments and the object of a constructor call, and marks every copy of that object initialised.
+	 */
+	private void invokeConstructor(INVOKESPECIAL invoke, Frame frame)
+	{
+		frame.pop(invoke.consumeStack(cpgen) - 1);
+		Value object = frame.pop(1);
+		Value initialised;
+		if (object == Value.UNINITIALIZED_THIS) {
+			initialised = Value.object(methodGen.getClassName().replace('.', '/'));
+		} else if (object.tag == Value.ITEM_UNINITIALIZED) {
+			initialised = Value.object(classConstant(((NEW) object.site.getInstruction()).getIndex()));
+		} else {
+			throw new UnsupportedCodeException("Constructor called on an initialised object");
+		}
+		for (int i = 0; i < frame.locals.length; i++) {
+			if (frame.locals[i].equals(object)) {
+				frame.locals[i] = initialised;
+			}
+		}
+		for (int i = 0; i < frame.stack.size(); i++) {
+			if (frame.stack.get(i).equals(object)) {
+				frame.stack.set(i, initialised);
+			}
+		}
+	}
+
+	/**
+	 * Copies the top words words of the stack below the depth words under them, as DUP, DUP_X1, ... DUP2_X2 do.
+	 */
+	private static void duplicate(List<Value> stack, int words, int depth)
+	{
+		int top = stack.size();
+		if (top < words + depth) {
+			throw new UnsupportedCodeException("Stack underflow");
+		}
+		List<Value> copied = new ArrayList<>(stack.subList(top - words, top));
+		stack.addAll(top - words - depth, copied);
+	}
+
+	/**
+	 * Stores value in locals[index], and TOP in the word after it if it is a long or double. Returns the index
+	 * after the value.
+	 */
+	private static int store(Value[] locals, int index, Value value)
+	{
+		// Overwriting the second word of a long or double leaves the first one meaningless.
+		if (index > 0 && locals[index - 1].isWide()) {
+			locals[index - 1] = Value.TOP;
+		}
+		locals[index] = value;
+		if (value.isWide()) {
+			locals[index + 1] = Value.TOP;
+			return index + 2;
+		}
+		return index + 1;
+	}
+
+	private Value componentType(Value array)
+	{
+		if (array == Value.NULL) {
+			// aaload on null throws; the verifier lets the null through.
+			return Value.NULL;
+		}
+		if (array.tag != Value.ITEM_OBJECT || !array.name.startsWith("[")) {
+			throw new UnsupportedCodeException("aaload on " + array);
+		}
+		String component = array.name.substring(1);
+		return Value.object(component.startsWith("L") ? component.substring(1, component.length() - 1) : component);
+	}
+
+	private Value constantType(int index)
+	{
+		switch (cpgen.getConstant(index).getTag()) {
+			case Constants.CONSTANT_Integer: return Value.INTEGER;
+			case Constants.CONSTANT_Float:   return Value.FLOAT;
+			case Constants.CONSTANT_Long:    return Value.LONG;
+			case Constants.CONSTANT_Double:  return Value.DOUBLE;
+			case Constants.CONSTANT_String:  return Value.object("java/lang/String");
+			case Constants.CONSTANT_Class:   return Value.object("java/lang/Class");
+			case Constants.CONSTANT_MethodType:   return Value.object("java/lang/invoke/MethodType");
+			case Constants.CONSTANT_MethodHandle: return Value.object("java/lang/invoke/MethodHandle");
+			default:
+				throw new UnsupportedCodeException("ldc of constant " + index);
+		}
+	}
+
+	private String classConstant(int index)
+	{
+		ConstantClass constant = (ConstantClass) cpgen.getConstant(index);
+		return ((ConstantUtf8) cpgen.getConstant(constant.getNameIndex())).getBytes();
+	}
+
+	private static String internalName(ObjectType type)
+	{
+		return type.getClassName().replace('.', '/');
+	}
+
+	/**
+	 * Returns the type a local or stack entry that is a or b is known to have, or TOP if they have nothing in
+	 * common.
+	 */
+	private Value merge(Value a, Value b)
+	{
+		if (a.equals(b)) {
+			return a;
+		}
+		if (a == Value.NULL && b.isReference()) {
+			return b;
+		}
+		if (b == Value.NULL && a.isReference()) {
+			return a;
+		}
+		if (a.tag == Value.ITEM_OBJECT && b.tag == Value.ITEM_OBJECT) {
+			return Value.object(commonSupertype(a.name, b.name));
+		}
+		return Value.TOP;
+	}
+
+	/**
+	 * Merges two class names or array descriptors. Arrays of references merge component by component; any other
+	 * two arrays, or an array and a class, merge into java/lang/Object.
+	 */
+	private String commonSupertype(String a, String b)
+	{
+		boolean aArray = a.startsWith("[");
+		boolean bArray = b.startsWith("[");
+		if (aArray && bArray) {
+			String aComponent = a.substring(1);
+			String bComponent = b.substring(1);
+			if (isReferenceDescriptor(aComponent) && isReferenceDescriptor(bComponent)) {
+				String component = commonSupertype(className(aComponent), className(bComponent));
+				return "[" + (component.startsWith("[") ? component : "L" + component + ";");
+			}
+			return OBJECT;
+		}
+		if (aArray || bArray) {
+			return OBJECT;
+		}
+		String common = hierarchy.commonSuperclass(a, b);
+		if (common == null) {
+			throw new UnsupportedCodeException("Cannot find the common superclass of " + a + " and " + b);
+		}
+		return common;
+	}
+
+	private static boolean isReferenceDescriptor(String descriptor)
+	{
+		return descriptor.startsWith("L") || descriptor.startsWith("[");
+	}
+
+	private static String className(String descriptor)
+	{
+		return descriptor.startsWith("L") ? descriptor.substring(1, descriptor.length() - 1) : descriptor;
+	}
+
+	// ===========================
+	// ======== ENCODING =========
+	// ===========================
+
+	/**
+	 * Writes the frames at the marked instructions in the shortest of the StackMapTable forms.
+	 */
+	private byte[] encode(BitSet needsFrame)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeShort(needsFrame.cardinality());
+			List<Value> previousLocals = frames[0].verificationLocals();
+			int previousOffset = -1;
+			for (int i = needsFrame.nextSetBit(0); i >= 0; i = needsFrame.nextSetBit(i + 1)) {
+				List<Value> locals = frames[i].verificationLocals();
+				List<Value> stack = frames[i].verificationStack();
+				int offset = handles[i].getPosition();
+				int delta = offset - previousOffset - 1;
+				int extra = locals.size() - previousLocals.size();
+
+				if (stack.isEmpty() && locals.equals(previousLocals)) {
+					if (delta < 64) {
+						out.writeByte(delta);
+					} else {
+						out.writeByte(251);
+						out.writeShort(delta);
+					}
+				} else if (stack.size() == 1 && locals.equals(previousLocals)) {
+					if (delta < 64) {
+						out.writeByte(64 + delta);
+					} else {
+						out.writeByte(247);
+						out.writeShort(delta);
+					}
+					writeType(out, stack.get(0));
+				} else if (stack.isEmpty() && extra < 0 && extra >= -3 && previousLocals.subList(0, locals.size()).equals(locals)) {
+					out.writeByte(251 + extra);
+					out.writeShort(delta);
+				} else if (stack.isEmpty() && extra > 0 && extra <= 3 && locals.subList(0, previousLocals.size()).equals(previousLocals)) {
+					out.writeByte(251 + extra);
+					out.writeShort(delta);
+					for (Value local : locals.subList(previousLocals.size(), locals.size())) {
+						writeType(out, local);
+					}
+				} else {
+					out.writeByte(255);
+					out.writeShort(delta);
+					out.writeShort(locals.size());
+					for (Value local : locals) {
+						writeType(out, local);
+					}
+					out.writeShort(stack.size());
+					for (Value value : stack) {
+						writeType(out, value);
+					}
+				}
+				previousLocals = locals;
+				previousOffset = offset;
+			}
+		} catch (IOException e) {
+			// Only written to memory.
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void writeType(DataOutputStream out, Value value) throws IOException
+	{
+		out.writeByte(value.tag);
+		if (value.tag == Value.ITEM_OBJECT) {
+			out.writeShort(cpgen.addClass(value.name));
+		} else if (value.tag == Value.ITEM_UNINITIALIZED) {
+			out.writeShort(value.site.getPosition());
+		}
+	}
+
+	// ===========================
+	// ========= FRAMES ==========
+	// ===========================
+
+	/**
+	 * A verification type, tagged as in the StackMapTable. name is the internal class name or array descriptor of
+	 * an object, and site the NEW that created an uninitialized one.
+	 */
+	private static final class Value
+	{
+		static final int ITEM_TOP = 0, ITEM_INTEGER = 1, ITEM_FLOAT = 2, ITEM_DOUBLE = 3, ITEM_LONG = 4,
+				ITEM_NULL = 5, ITEM_UNINITIALIZED_THIS = 6, ITEM_OBJECT = 7, ITEM_UNINITIALIZED = 8;
+
+		static final Value TOP = new Value(ITEM_TOP, null, null);
+		static final Value INTEGER = new Value(ITEM_INTEGER, null, null);
+		static final Value FLOAT = new Value(ITEM_FLOAT, null, null);
+		static final Value DOUBLE = new Value(ITEM_DOUBLE, null, null);
+		static final Value LONG = new Value(ITEM_LONG, null, null);
+		static final Value NULL = new Value(ITEM_NULL, null, null);
+		static final Value UNINITIALIZED_THIS = new Value(ITEM_UNINITIALIZED_THIS, null, null);
+
+		final int tag;
+		final String name;
+		final InstructionHandle site;
+
+		private Value(int tag, String name, InstructionHandle site)
+		{
+			this.tag = tag;
+			this.name = name;
+			this.site = site;
+		}
+
+		static Value object(String name)
+		{
+			return new Value(ITEM_OBJECT, name, null);
+		}
+
+		static Value uninitialized(InstructionHandle site)
+		{
+			return new Value(ITEM_UNINITIALIZED, null, site);
+		}
+
+		static Value of(Type type)
+		{
+			switch (type.getType()) {
+				case Constants.T_BOOLEAN: case Constants.T_BYTE: case Constants.T_CHAR: case Constants.T_SHORT: case Constants.T_INT:
+					return INTEGER;
+				case Constants.T_LONG:
+					return LONG;
+				case Constants.T_FLOAT:
+					return FLOAT;
+				case Constants.T_DOUBLE:
+					return DOUBLE;
+				case Constants.T_ARRAY:
+					return object(type.getSignature());
+				case Constants.T_OBJECT:
+					return object(internalName((ObjectType) type));
+				default:
+					throw new UnsupportedCodeException("No verification type for " + type);
+			}
+		}
+
+		boolean isWide()
+		{
+			return tag == ITEM_LONG || tag == ITEM_DOUBLE;
+		}
+
+		boolean isReference()
+		{
+			return tag == ITEM_NULL || tag == ITEM_OBJECT || tag == ITEM_UNINITIALIZED_THIS || tag == ITEM_UNINITIALIZED;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Value)) {
+				return false;
+			}
+			Value value = (Value) other;
+			return tag == value.tag && site == value.site && (name == null ? value.name == null : name.equals(value.name));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return tag * 31 + (name == null ? 0 : name.hashCode());
+		}
+
+		@Override
+		public String toString()
+		{
+			return name != null ? name : (site != null ? "uninitialized " + site.getPosition() : "item " + tag);
+		}
+	}
+
+	/**
+	 * The locals and the stack before an instruction, a word per entry.
+	 */
+	private final class Frame
+	{
+		final Value[] locals;
+		final List<Value> stack;
+
+		Frame(Value[] locals, List<Value> stack)
+		{
+			this.locals = locals.clone();
+			this.stack = stack;
+		}
+
+		Frame copy()
+		{
+			return new Frame(locals, new ArrayList<>(stack));
+		}
+
+		void push(Value value)
+		{
+			stack.add(value);
+			if (value.isWide()) {
+				stack.add(Value.TOP);
+			}
+		}
+
+		/**
+		 * Pops words words and returns the value that started at the lowest of them.
+		 */
+		Value pop(int words)
+		{
+			if (stack.size() < words) {
+				throw new UnsupportedCodeException("Stack underflow");
+			}
+			Value value = null;
+			for (int i = 0; i < words; i++) {
+				value = stack.remove(stack.size() - 1);
+			}
+			return value;
+		}
+
+		/**
+		 * Merges other into this frame and returns true if this frame changed.
+		 */
+		boolean merge(Frame other)
+		{
+			if (stack.size() != other.stack.size()) {
+				throw new UnsupportedCodeException("Stack heights differ where control flow joins");
+			}
+			boolean changed = false;
+			for (int i = 0; i < locals.length; i++) {
+				Value merged = StackMapGenerator.this.merge(locals[i], other.locals[i]);
+				if (!merged.equals(locals[i])) {
+					locals[i] = merged;
+					changed = true;
+				}
+			}
+			for (int i = 0; i < stack.size(); i++) {
+				Value merged = StackMapGenerator.this.merge(stack.get(i), other.stack.get(i));
+				if (merged == Value.TOP && stack.get(i) != Value.TOP) {
+					throw new UnsupportedCodeException("Stack types differ where control flow joins");
+				}
+				if (!merged.equals(stack.get(i))) {
+					stack.set(i, merged);
+					changed = true;
+				}
+			}
+			return changed;
+		}
+
+		List<Value> verificationLocals()
+		{
+			List<Value> result = verificationTypes(Arrays.asList(locals));
+			while (!result.isEmpty() && result.get(result.size() - 1) == Value.TOP) {
+				result.remove(result.size() - 1);
+			}
+			return result;
+		}
+
+		List<Value> verificationStack()
+		{
+			return verificationTypes(stack);
+		}
+
+		/**
+		 * Leaves out the second word of every long and double, which the StackMapTable does not list.
+		 */
+		private List<Value> verificationTypes(List<Value> words)
+		{
+			List<Value> result = new ArrayList<>();
+			for (int i = 0; i < words.size(); i++) {
+				result.add(words.get(i));
+				if (words.get(i).isWide()) {
+					i++;
+				}
+			}
+			return result;
+		}
+	}
+}
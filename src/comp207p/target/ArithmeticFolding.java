@@ -0,0 +1,96 @@
+package comp207p.target;
+
+public class ArithmeticFolding
+{
+    public int intRemainder(){
+        int a = -17;
+        int b = 5;
+        return a % b;
+    }
+
+    public long longRemainder(){
+        long a = 17L;
+        long b = -5L;
+        return a % b;
+    }
+
+    public double doubleRemainder(){
+        double x = 5.5;
+        double y = -2.0;
+        return x % y;
+    }
+
+    public float floatRemainderByZero(){
+        float x = 1.0f;
+        float zero = 0.0f;
+        return x % zero;
+    }
+
+    public int negateMinValue(){
+        int min = Integer.MIN_VALUE;
+        return -min;
+    }
+
+    public double negativeZero(){
+        double zero = 0.0;
+        // Only -0.0 turns 1.0 into -Infinity.
+        return 1.0 / -zero;
+    }
+
+    public int shifts(){
+        int one = 1;
+        int distance = 33;
+        int negative = -16;
+        return (one << distance) + (negative >> 2) * 100 + (negative >>> 28) * 10000;
+    }
+
+    public long longShift(){
+        long one = 1L;
+        int distance = 65;
+        return one << distance;
+    }
+
+    public int bitwise(){
+        int a = 0xF0;
+        int b = 0x3C;
+        int c = 0x0F;
+        return (a & b) | (c ^ a);
+    }
+
+    public long longBitwise(){
+        long a = 0xFF00FF00FF00L;
+        long b = 0x0FF00FF00FF0L;
+        return (a & b) ^ (a | b);
+    }
+
+    public int narrowing(){
+        int big = 300;
+        int minusOne = -1;
+        int large = 70000;
+        return (byte) big + (char) minusOne + (short) large;
+    }
+
+    public long floatingToIntegral(){
+        double huge = 1e20;
+        double nan = 0.0 / 0.0;
+        float f = 3.9f;
+        return (int) huge + (long) nan + (int) -f;
+    }
+
+    public long unaryChain(){
+        int i = 5;
+        return -(long) -i;
+    }
+
+    public int divideByZero(){
+        int a = 1;
+        int zero = 0;
+        return a / zero;
+    }
+
+    public long remainderByZero(){
+        long a = 1L;
+        long zero = 0L;
+        return a % zero;
+    }
+}
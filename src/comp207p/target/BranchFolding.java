@@ -0,0 +1,53 @@
+package comp207p.target;
+
+public class BranchFolding
+{
+    public int intBranch(){
+        int a = 7;
+        int b = 9;
+        if (a * 2 > b) {
+            return 1;
+        }
+        return 2;
+    }
+
+    public boolean longCompare(){
+        long x = 10000000000L;
+        long y = 10000000001L;
+        return x >= y;
+    }
+
+    public boolean nanCompare(){
+        double zero = 0.0;
+        double nan = zero / zero;
+        // Every ordered comparison with NaN is false.
+        return nan < 1.0 || nan > 1.0 || nan == nan;
+    }
+
+    public boolean floatCompare(){
+        float f = 1.5f;
+        return f * 2 == 3.0f;
+    }
+
+    public String constantSwitch(){
+        int day = 3;
+        switch (day) {
+            case 1: return "Mon";
+            case 2: return "Tue";
+            case 3: return "Wed";
+            default: return "?";
+        }
+    }
+
+    public int branchInTry(String s){
+        int limit = 5;
+        try {
+            if (limit < 3) {
+                return -1;
+            }
+            return Integer.parseInt(s) + limit;
+        } catch (NumberFormatException e) {
+            return limit;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package comp207p.target;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+public class CompactConstants
+{
+    @Target(ElementType.TYPE_USE)
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Positive {
+    }
+
+    public record Range(@Positive int low, int high) {
+        public int width(){
+            int offset = 0;
+            return high - low + offset;
+        }
+    }
+
+    // Enough distinct int constants that whatever the optimiser adds to the pool gets an index above 255.
+    private static final int[] LARGE = {
+            100000, 100007, 100014, 100021, 100028, 100035, 100042, 100049, 100056, 100063,
+            100070, 100077, 100084, 100091, 100098, 100105, 100112, 100119, 100126, 100133,
+            100140, 100147, 100154, 100161, 100168, 100175, 100182, 100189, 100196, 100203,
+            100210, 100217, 100224, 100231, 100238, 100245, 100252, 100259, 100266, 100273,
+            100280, 100287, 100294, 100301, 100308, 100315, 100322, 100329, 100336, 100343,
+            100350, 100357, 100364, 100371, 100378, 100385, 100392, 100399, 100406, 100413,
+            100420, 100427, 100434, 100441, 100448, 100455, 100462, 100469, 100476, 100483,
+            100490, 100497, 100504, 100511, 100518, 100525, 100532, 100539, 100546, 100553,
+            100560, 100567, 100574, 100581, 100588, 100595, 100602, 100609, 100616, 100623,
+            100630, 100637, 100644, 100651, 100658, 100665, 100672, 100679, 100686, 100693,
+            100700, 100707, 100714, 100721, 100728, 100735, 100742, 100749, 100756, 100763,
+            100770, 100777, 100784, 100791, 100798, 100805, 100812, 100819, 100826, 100833,
+            100840, 100847, 100854, 100861, 100868, 100875, 100882, 100889, 100896, 100903,
+            100910, 100917, 100924, 100931, 100938, 100945, 100952, 100959, 100966, 100973,
+            100980, 100987, 100994, 101001, 101008, 101015, 101022, 101029, 101036, 101043,
+            101050, 101057, 101064, 101071, 101078, 101085, 101092, 101099, 101106, 101113,
+            101120, 101127, 101134, 101141, 101148, 101155, 101162, 101169, 101176, 101183,
+            101190, 101197, 101204, 101211, 101218, 101225, 101232, 101239, 101246, 101253,
+            101260, 101267, 101274, 101281, 101288, 101295, 101302, 101309, 101316, 101323,
+            101330, 101337, 101344, 101351, 101358, 101365, 101372, 101379, 101386, 101393,
+            101400, 101407, 101414, 101421, 101428, 101435, 101442, 101449, 101456, 101463,
+            101470, 101477, 101484, 101491, 101498, 101505, 101512, 101519, 101526, 101533,
+            101540, 101547, 101554, 101561, 101568, 101575, 101582, 101589, 101596, 101603,
+            101610, 101617, 101624, 101631, 101638, 101645, 101652, 101659, 101666, 101673,
+            101680, 101687, 101694, 101701, 101708, 101715, 101722, 101729, 101736, 101743,
+            101750, 101757, 101764, 101771, 101778, 101785, 101792, 101799, 101806, 101813
+    };
+
+    public int smallInts(){
+        int a = 3;
+        int b = 40;
+        int c = 1000;
+        return a * b + c;
+    }
+
+    public long longs(){
+        long a = 3L;
+        long b = 2L;
+        return a - b;
+    }
+
+    public float negativeZeroFloat(){
+        float zero = 0.0f;
+        float negativeZero = -zero;
+        return negativeZero;
+    }
+
+    public double negativeZeroDouble(){
+        double zero = 0.0;
+        double negativeZero = -zero;
+        return negativeZero;
+    }
+
+    public int largePool(){
+        int a = 70000;
+        int b = 3;
+        return a * b + LARGE[259];
+    }
+
+    public float largePoolFloat(){
+        float a = 1.25f;
+        float b = 3.0f;
+        return a * b;
+    }
+
+    public @Positive int annotatedType(){
+        @Positive int a = 6;
+        int b = 7;
+        return a * b;
+    }
+
+    public int record(){
+        int low = 2;
+        return new Range(low, low + 3).width();
+    }
+}
@@ -0,0 +1,57 @@
+package comp207p.target;
+
+public class CopyPropagation {
+    public int copy(int a) {
+        int b = a;
+        int c = b + 1;
+        return b * c;
+    }
+
+    public int sourceChanged(int a) {
+        int b = a;
+        a = a + 10;
+        return a + b;
+    }
+
+    public int loop(int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            int previous = total;
+            total = i;
+            total += previous;
+        }
+        return total;
+    }
+
+    public long wide(long a, double d) {
+        long b = a;
+        double e = d;
+        return b * 2 + (long) (e * b);
+    }
+
+    public int scopes(int n) {
+        int first;
+        {
+            long big = n * 1000000000L;
+            first = (int) (big % 7);
+        }
+        int second;
+        {
+            int x = n + 1;
+            int y = x * 2;
+            second = y;
+        }
+        return first + second;
+    }
+
+    public int handler(int a) {
+        int b = a;
+        int c;
+        try {
+            c = 10 / (b - 3);
+        } catch (ArithmeticException e) {
+            c = b + 100;
+        }
+        return c;
+    }
+}
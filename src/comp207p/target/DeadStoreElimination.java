@@ -0,0 +1,44 @@
+package comp207p.target;
+
+public class DeadStoreElimination
+{
+    // The sum is never read.
+    public long unusedSum(){
+        long x = 4835783423L;
+        long y = 400000;
+        long z = x + y;
+        return x - y;
+    }
+
+    // The first value is overwritten before it is read.
+    public int overwritten(int a){
+        int b = a * 7;
+        b = a + 1;
+        return b;
+    }
+
+    // Stores inside a protected range; the handler reads one of them.
+    public int storesInTry(String s){
+        int parsed = -1;
+        int unused = 5;
+        try {
+            unused = 6;
+            parsed = Integer.parseInt(s);
+            unused = parsed * 2;
+        } catch (NumberFormatException e) {
+            return parsed;
+        }
+        return parsed + 1;
+    }
+
+    // A counter that is incremented but never read.
+    public int unusedCounter(){
+        int count = 0;
+        int total = 0;
+        for (int i = 0; i < 5; i++) {
+            count++;
+            total += i;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,38 @@
+package comp207p.target;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DebugInfo {
+    public int foldedLocals() {
+        int a = 534245;
+        int b = a - 1234;
+        return (120298345 - a) * 38 / b;
+    }
+
+    public long foldedWide() {
+        long a = 4835783423L;
+        double b = 0.67;
+        return (long) (a * b);
+    }
+
+    public int deadStore(int x) {
+        int unused = x * 3;
+        int y = x + 1;
+        return y * 2;
+    }
+
+    public int deadLastLocal(int x) {
+        int y = x + 1;
+        int unused = x * 3;
+        return y * 2;
+    }
+
+    public int genericLocal() {
+        List<String[]> names = new ArrayList<>();
+        int a = 6;
+        int count = a * 7;
+        names.add(new String[] {"x" + count});
+        return names.size() + count;
+    }
+}
@@ -35,4 +35,9 @@ public class DynamicVariableFolding {
         b = a + 2;
         return a * b;
     }
-}
\ No newline at end of file
+
+    public int methodFive(boolean flag){
+        int a = flag ? 7 : 3;
+        return a * 2;
+    }
+}
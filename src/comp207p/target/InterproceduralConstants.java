@@ -0,0 +1,63 @@
+package comp207p.target;
+
+public class InterproceduralConstants {
+    private static final int WIDTH;
+    private static final long SEED;
+    private static final double SCALE;
+    private static final int EARLY;
+    private static final int LATE = 5;
+    private static final int LATER;
+
+    static {
+        WIDTH = 12;
+        SEED = 3L * 7;
+        SCALE = scale();
+        EARLY = late();
+        LATER = WIDTH + 1;
+    }
+
+    private static double scale() {
+        return 2.5;
+    }
+
+    private static int late() {
+        return LATER;
+    }
+
+    private int offset() {
+        return 4;
+    }
+
+    private static int logged() {
+        System.out.println("logged");
+        return 9;
+    }
+
+    public int area() {
+        return WIDTH * WIDTH;
+    }
+
+    public long seed() {
+        return SEED << 1;
+    }
+
+    public double scaled(int x) {
+        return x * SCALE;
+    }
+
+    public int offsetTwice() {
+        return offset() + offset();
+    }
+
+    public int loggedPlusOne() {
+        return logged() + 1;
+    }
+
+    public int early() {
+        return EARLY + LATE;
+    }
+
+    public int later() {
+        return late();
+    }
+}
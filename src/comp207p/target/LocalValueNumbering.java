@@ -0,0 +1,41 @@
+package comp207p.target;
+
+public class LocalValueNumbering {
+    public int square(int a, int b) {
+        return (a + b) * (a + b);
+    }
+
+    public int twice(int a, int b, int c) {
+        int x = a * b + c;
+        int y = a * b + c;
+        int z = a * b + c;
+        return x + y * z;
+    }
+
+    public int afterStore(int a, int b) {
+        int x = a * b;
+        a++;
+        int y = a * b;
+        return x + y;
+    }
+
+    public long wide(long a, long b) {
+        long x = (a << 3) - b;
+        long y = (a << 3) - b;
+        long z = (a << 3) - b;
+        return x * y + z;
+    }
+
+    public double mixed(double a, int b) {
+        double x = a * b + 1.5;
+        double y = a * b + 1.5;
+        return x / y;
+    }
+
+    public int division(int a, int b) {
+        int x = a / b + 1;
+        int y = a / b + 1;
+        int z = a / b + 1;
+        return x + y + z;
+    }
+}
@@ -0,0 +1,58 @@
+package comp207p.target;
+
+public class LoopInvariantCodeMotion {
+    public int sumOfProducts(int a, int b, int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += a * b + i;
+        }
+        return total;
+    }
+
+    public long nested(int a, long b, int n) {
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                total += (a + 1) * b + j;
+            }
+        }
+        return total;
+    }
+
+    public double scaled(double x, double y, int n) {
+        double total = 0;
+        int i = 0;
+        while (i < n) {
+            total += x / y;
+            i++;
+        }
+        return total;
+    }
+
+    public int changing(int a, int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += a * 2;
+            a++;
+        }
+        return total;
+    }
+
+    public int divideInEmptyLoop(int a, int b, int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += a / b;
+        }
+        return total;
+    }
+
+    public int doWhile(int a, int b, int n) {
+        int total = 0;
+        int i = 0;
+        do {
+            total += (a - b) * 3;
+            i++;
+        } while (i < n);
+        return total;
+    }
+}
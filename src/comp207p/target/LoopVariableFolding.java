@@ -0,0 +1,45 @@
+package comp207p.target;
+
+public class LoopVariableFolding
+{
+    // Stored before the loop and never reassigned: can be folded inside it.
+    public int constantUsedInLoop(){
+        int step = 3;
+        int total = 0;
+        for (int i = 0; i < 10; i++) {
+            total += step * 2;
+        }
+        return total;
+    }
+
+    // A do-while loop is closed by a conditional jump, not a goto.
+    public int reassignedInDoWhile(){
+        int k = 1;
+        int sum = 0;
+        do {
+            sum += k;
+            k = k + 1;
+        } while (k < 5);
+        return sum;
+    }
+
+    // The reassignment on one branch reaches the use after the join.
+    public int reassignedOnOneBranch(boolean flag){
+        int x = 10;
+        if (flag) {
+            x = 20;
+        }
+        return x + 1;
+    }
+
+    // Incremented by IINC in the loop body.
+    public long incrementedInLoop(){
+        int counter = 100;
+        long product = 1;
+        while (counter < 104) {
+            product *= counter;
+            counter++;
+        }
+        return product + counter;
+    }
+}
@@ -0,0 +1,75 @@
+package comp207p.target;
+
+public class MethodInlining {
+    private int factor = 3;
+
+    private static int square(int x) {
+        return x * x;
+    }
+
+    private static int abs(int x) {
+        if (x < 0) {
+            return -x;
+        }
+        return x;
+    }
+
+    private static long add(long a, long b) {
+        return a + b;
+    }
+
+    private int scaled(int x) {
+        return x * factor;
+    }
+
+    public final int offset(int x) {
+        int y = x + 1;
+        return y * 2;
+    }
+
+    private void bump() {
+        factor++;
+    }
+
+    public int squareOfConstant() {
+        return square(7) + 1;
+    }
+
+    public int absolute(int x) {
+        return abs(x) + abs(-4);
+    }
+
+    public long sum() {
+        return add(40L, 2L);
+    }
+
+    public int scaledTwice(int x) {
+        return scaled(x) + scaled(1);
+    }
+
+    public int offsetOf(MethodInlining other) {
+        return other.offset(4);
+    }
+
+    public int bumped() {
+        bump();
+        bump();
+        return factor;
+    }
+
+    public int inLoop(int n) {
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            total += square(i);
+        }
+        return total;
+    }
+
+    public int caught(int x) {
+        try {
+            return 10 / abs(x);
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+}
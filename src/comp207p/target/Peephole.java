@@ -0,0 +1,65 @@
+package comp207p.target;
+
+public class Peephole {
+    public int storeLoad(int a, int b) {
+        int product = a * b;
+        return product;
+    }
+
+    public int selfCopy(int a, int b) {
+        int result = a;
+        result = result * b;
+        return result;
+    }
+
+    public int pushPop(int a) {
+        int unused = a;
+        unused = 7;
+        return a + 1;
+    }
+
+    public int dupPop(int a) {
+        int b;
+        int c = b = a * 2;
+        return c;
+    }
+
+    public int gotoNext(int a) {
+        boolean flag = true;
+        int result;
+        if (flag) {
+            result = a + 1;
+        } else {
+            result = a - 1;
+        }
+        return result;
+    }
+
+    public int jumpChain(int a, int b) {
+        int result = 0;
+        while (a > 0) {
+            a--;
+            if (b > a) {
+                result += b;
+            } else {
+                int unused = a * 7;
+            }
+        }
+        return result;
+    }
+
+    public int gotoReturn(int a) {
+        return a > 10 ? a - 10 : a + 10;
+    }
+
+    public int branchOverGoto(int a) {
+        int result = 0;
+        for (int i = 0; i < a; i++) {
+            if (i % 3 == 0) {
+                continue;
+            }
+            result += i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,77 @@
+package comp207p.target;
+
+import java.util.function.IntSupplier;
+
+public class StackMapFrames
+{
+    private final String size;
+
+    public StackMapFrames(){
+        this(10);
+    }
+
+    public StackMapFrames(int n){
+        // "this" is still uninitialised on the stack where the two arms join; n * 1 gives the optimiser some work.
+        this(n * 1 > 6 ? "big" : "small", n);
+    }
+
+    private StackMapFrames(String size, int n){
+        int a = 2;
+        int b = 3;
+        this.size = size + (a * b);
+    }
+
+    public String size(){
+        return size;
+    }
+
+    public int mergeReferences(boolean integer){
+        int a = 20;
+        int b = 2;
+        Number n = integer ? (Number) Integer.valueOf(a * b) : (Number) Long.valueOf(a + b);
+        return n.intValue();
+    }
+
+    public int lambda(boolean call){
+        int a = 3;
+        int b = 4;
+        IntSupplier supplier = () -> 40 + 2;
+        return call ? supplier.getAsInt() : a * b;
+    }
+
+    public int caught(){
+        int a = 2;
+        int b = 1;
+        try {
+            int[] array = new int[a + b];
+            return array[a * 4];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return a * 21;
+        }
+    }
+
+    public double wideLocals(){
+        long l = 1L;
+        double d = 0.5;
+        int c = 3;
+        for (int i = 0; i < c * 2; i++) {
+            l = l * 2;
+            d = d + l;
+        }
+        return d;
+    }
+
+    public String uninitialisedNew(boolean x){
+        int a = 6;
+        int b = 7;
+        // The StringBuilder is still uninitialised on the stack where the two arms join.
+        return new StringBuilder(x ? "x" : "y").append(a * b).toString();
+    }
+
+    public Object[] arrays(boolean strings){
+        int a = 1;
+        int b = 1;
+        Object[] array = strings ? new String[a + b] : new Integer[a + b];
+        return array;
+    }
+}
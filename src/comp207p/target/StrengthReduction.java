@@ -0,0 +1,58 @@
+package comp207p.target;
+
+public class StrengthReduction
+{
+    public int multiplyByEight(int x){
+        return x * 8;
+    }
+
+    public long constantOnTheLeft(long x){
+        return 16L * x;
+    }
+
+    public int identities(int x){
+        return ((x + 0) * 1 - 0) / 1 | 0;
+    }
+
+    public long annihilators(long x){
+        return x * 0L + (x & 0L) + x % 1L;
+    }
+
+    public int negation(int x){
+        return x * -1 + x / -1;
+    }
+
+    public int lengthDivided(int[] values){
+        return values.length / 4 + values.length % 8;
+    }
+
+    public int signedDivided(int x){
+        // x may be negative, so this must stay a division.
+        return x / 4 + x % 8;
+    }
+
+    public long selfOperands(long x){
+        return (x ^ x) + (x - x) + (x & x);
+    }
+
+    public double timesOne(double x){
+        return x * 1.0;
+    }
+
+    public double plusZero(double x){
+        // Not x: -0.0 + 0.0 is 0.0.
+        return x + 0.0;
+    }
+
+    public float plusNegativeZero(float x){
+        return x + -0.0f;
+    }
+
+    public double divideByFour(double x){
+        return x / 4.0;
+    }
+
+    public float divideByNegativeOne(float x){
+        return x / -1.0f;
+    }
+}
@@ -0,0 +1,142 @@
+package comp207p.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test dead store and unreachable code elimination on the code it rewrites
+ */
+
+public class DeadCodeEliminationTest
+{
+    private OptimisationStats.PassStats stats = new OptimisationStats.PassStats(DeadCodeElimination.PASS.getName());
+
+    @BeforeClass
+    public static void compareInstructionsByIdentity() throws ClassNotFoundException
+    {
+        // The optimiser always runs with the instruction comparator that ConstantFolder sets up.
+        Class.forName(ConstantFolder.class.getName());
+    }
+
+    @Test
+    public void testUnreachableBlock()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+        il.append(new ICONST(1));
+        il.append(new IRETURN());
+
+        assertTrue(run(il));
+        assertEquals("iload_0 ireturn", code(il));
+        assertEquals(2, stats.instructionsRemoved);
+    }
+
+    @Test
+    public void testDeadStoreAndItsComputation()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ICONST(2));
+        il.append(new IMUL());
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(run(il));
+        assertEquals("iload_0 ireturn", code(il));
+    }
+
+    @Test
+    public void testDeadIinc()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new IINC(1, 1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(run(il));
+        assertEquals("iload_0 ireturn", code(il));
+    }
+
+    @Test
+    public void testDivisionKept()
+    {
+        // The division may throw, so only the store goes.
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ILOAD(1));
+        il.append(new IDIV());
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(run(il));
+        assertEquals("iload_0 iload_1 idiv pop iload_0 ireturn", code(il));
+    }
+
+    @Test
+    public void testLiveStoreKept()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        assertFalse(run(il));
+        assertEquals("iload_0 istore_1 iload_1 ireturn", code(il));
+    }
+
+    @Test
+    public void testStoreReadByHandlerKept()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(5));
+        InstructionHandle start = il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new ILOAD(0));
+        InstructionHandle end = il.append(new IDIV());
+        il.append(new IRETURN());
+        InstructionHandle handler = il.append(new POP());
+        il.append(new ILOAD(1));
+        il.append(new IRETURN());
+        MethodGen methodGen = method(il);
+        methodGen.addExceptionHandler(start, end, handler, new ObjectType("java.lang.ArithmeticException"));
+
+        assertFalse(DeadCodeElimination.PASS.run(methodGen, stats));
+        assertEquals("iconst_5 istore_1 iload_0 iload_0 idiv ireturn pop iload_1 ireturn", code(il));
+    }
+
+    private boolean run(InstructionList il)
+    {
+        return DeadCodeElimination.PASS.run(method(il), stats);
+    }
+
+    /**
+     * Makes il the code of "static int m(int, int)".
+     */
+    private static MethodGen method(InstructionList il)
+    {
+        return new MethodGen(Constants.ACC_STATIC, Type.INT, new Type[] { Type.INT, Type.INT }, null, "m", "Test", il,
+                new ConstantPoolGen());
+    }
+
+    private static String code(InstructionList il)
+    {
+        List<String> opcodes = new ArrayList<>();
+        for (InstructionHandle ih : il.getInstructionHandles()) {
+            opcodes.add(ih.getInstruction().getName());
+        }
+        return String.join(" ", opcodes);
+    }
+}
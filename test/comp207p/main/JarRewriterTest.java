@@ -0,0 +1,87 @@
+package comp207p.main;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test rewriting JAR archives
+ */
+
+public class JarRewriterTest
+{
+    private static final byte[] CLASS = "not really a class".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESOURCE = "a resource".getBytes(StandardCharsets.UTF_8);
+
+    // Stands in for the optimiser: every class comes back changed.
+    private static final Function<byte[], byte[]> UPPER_CASE =
+            bytes -> new String(bytes, StandardCharsets.UTF_8).toUpperCase().getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRewrite() throws IOException
+    {
+        Path input = writeJar(folder.getRoot().toPath().resolve("in.jar"));
+        Path output = folder.getRoot().toPath().resolve("out.jar");
+        JarRewriter rewriter = new JarRewriter(input, output, () -> UPPER_CASE, null, 1);
+        rewriter.rewrite();
+
+        assertEquals(1, rewriter.getClassCount());
+        assertArrayEquals(UPPER_CASE.apply(CLASS), read(output, "a/A.class"));
+        assertArrayEquals(RESOURCE, read(output, "a/resource.txt"));
+        assertArrayEquals(CLASS, read(input, "a/A.class"));
+    }
+
+    @Test
+    public void testRewriteInPlace() throws IOException
+    {
+        Path jar = writeJar(folder.getRoot().toPath().resolve("same.jar"));
+        JarRewriter rewriter = new JarRewriter(jar, jar, () -> UPPER_CASE, null, 1);
+        rewriter.rewrite();
+
+        assertEquals(1, rewriter.getClassCount());
+        assertArrayEquals(UPPER_CASE.apply(CLASS), read(jar, "a/A.class"));
+        assertArrayEquals(RESOURCE, read(jar, "a/resource.txt"));
+        assertFalse(Files.exists(jar.resolveSibling("same.jar.tmp")));
+    }
+
+    private static Path writeJar(Path jar) throws IOException
+    {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            write(out, "a/A.class", CLASS);
+            write(out, "a/resource.txt", RESOURCE);
+        }
+        return jar;
+    }
+
+    private static void write(ZipOutputStream out, String name, byte[] bytes) throws IOException
+    {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static byte[] read(Path jar, String name) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(jar.toFile());
+             InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package comp207p.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test which calls are inlined, on a class built for the purpose
+ */
+
+public class MethodInliningTest
+{
+    private OptimisationStats.PassStats stats = new OptimisationStats.PassStats(MethodInlining.PASS_NAME);
+    private ClassGen classGen;
+    private ConstantPoolGen cpgen;
+    private InstructionFactory factory;
+
+    @BeforeClass
+    public static void compareInstructionsByIdentity() throws ClassNotFoundException
+    {
+        // The optimiser always runs with the instruction comparator that ConstantFolder sets up.
+        Class.forName(ConstantFolder.class.getName());
+    }
+
+    @Before
+    public void setUp()
+    {
+        classGen = new ClassGen("Test", "java.lang.Object", "Test.java", Constants.ACC_PUBLIC, null);
+        cpgen = classGen.getConstantPool();
+        factory = new InstructionFactory(classGen, cpgen);
+
+        // static int twice(int a) { return a * 2; }
+        InstructionList twice = new InstructionList();
+        twice.append(new ILOAD(0));
+        twice.append(new ICONST(2));
+        twice.append(new IMUL());
+        twice.append(new IRETURN());
+        addMethod(Constants.ACC_STATIC, "twice", twice);
+
+        // int overridable(int a) { return a * 2; }
+        InstructionList overridable = new InstructionList();
+        overridable.append(new ILOAD(1));
+        overridable.append(new ICONST(2));
+        overridable.append(new IMUL());
+        overridable.append(new IRETURN());
+        addMethod(Constants.ACC_PUBLIC, "overridable", overridable);
+
+        // private int halve(int a) { return a / 2; }
+        InstructionList halve = new InstructionList();
+        halve.append(new ILOAD(1));
+        halve.append(new ICONST(2));
+        halve.append(new IDIV());
+        halve.append(new IRETURN());
+        addMethod(Constants.ACC_PRIVATE, "halve", halve);
+
+        // static int large(int a), with 38 bytes of code.
+        InstructionList large = new InstructionList();
+        for (int i = 0; i < 12; i++) {
+            large.append(new IINC(0, 1));
+        }
+        large.append(new ILOAD(0));
+        large.append(new IRETURN());
+        addMethod(Constants.ACC_STATIC, "large", large);
+    }
+
+    @Test
+    public void testStatic()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(factory.createInvoke("Test", "twice", Type.INT, new Type[] { Type.INT }, Constants.INVOKESTATIC));
+        il.append(new IRETURN());
+
+        assertTrue(inline(il));
+        assertEquals("iload_1 istore_2 iload_2 iconst_2 imul ireturn", code(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testPrivate()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ALOAD(0));
+        il.append(new ILOAD(1));
+        il.append(factory.createInvoke("Test", "halve", Type.INT, new Type[] { Type.INT }, Constants.INVOKESPECIAL));
+        il.append(new IRETURN());
+
+        assertTrue(inline(il));
+        assertEquals("aload_0 iload_1 istore_3 astore_2 iload_3 iconst_2 idiv ireturn", code(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testOverridableNotInlined()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ALOAD(0));
+        il.append(new ILOAD(1));
+        il.append(factory.createInvoke("Test", "overridable", Type.INT, new Type[] { Type.INT }, Constants.INVOKEVIRTUAL));
+        il.append(new IRETURN());
+
+        assertFalse(inline(il));
+        assertEquals("aload_0 iload_1 invokevirtual ireturn", code(il));
+    }
+
+    @Test
+    public void testLargeNotInlined()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(factory.createInvoke("Test", "large", Type.INT, new Type[] { Type.INT }, Constants.INVOKESTATIC));
+        il.append(new IRETURN());
+
+        assertFalse(inline(il));
+        assertEquals("iload_1 invokestatic ireturn", code(il));
+    }
+
+    @Test
+    public void testOtherClassNotInlined()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(1));
+        il.append(factory.createInvoke("java.lang.Math", "abs", Type.INT, new Type[] { Type.INT }, Constants.INVOKESTATIC));
+        il.append(new IRETURN());
+
+        assertFalse(inline(il));
+        assertEquals("iload_1 invokestatic ireturn", code(il));
+    }
+
+    /**
+     * Inlines the calls in il as the code of "int m(int)" of the class.
+     */
+    private boolean inline(InstructionList il)
+    {
+        MethodGen methodGen = new MethodGen(Constants.ACC_PUBLIC, Type.INT, new Type[] { Type.INT }, null, "m", "Test", il, cpgen);
+        return new MethodInlining(classGen.getJavaClass()).inline(methodGen, stats);
+    }
+
+    private void addMethod(int access, String name, InstructionList il)
+    {
+        MethodGen methodGen = new MethodGen(access, Type.INT, new Type[] { Type.INT }, null, name, "Test", il, cpgen);
+        methodGen.setMaxStack();
+        methodGen.setMaxLocals();
+        classGen.addMethod(methodGen.getMethod());
+    }
+
+    private static String code(InstructionList il)
+    {
+        List<String> opcodes = new ArrayList<>();
+        for (InstructionHandle ih : il.getInstructionHandles()) {
+            opcodes.add(ih.getInstruction().getName());
+        }
+        return String.join(" ", opcodes);
+    }
+}
@@ -0,0 +1,97 @@
+package comp207p.main;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test which changes to the class path keep cache entries valid
+ */
+
+public class OptimisationCacheTest
+{
+    // The class that is optimised, and a class it refers to.
+    private static final String CLASS = "comp207p/main/JarRewriter";
+    private static final String REFERENCED = "comp207p/main/JarRewriter$Entry";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path classPath;
+    private byte[] classBytes;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    // Stands in for the optimiser, counting the classes it is called on.
+    private final Function<byte[], byte[]> optimiser = bytes -> {
+        runs.incrementAndGet();
+        return bytes.clone();
+    };
+
+    @Before
+    public void setUp() throws IOException
+    {
+        classPath = folder.newFolder("classes").toPath();
+        classBytes = systemClass(CLASS);
+    }
+
+    @Test
+    public void testUnchangedClassPath() throws IOException
+    {
+        optimise();
+        optimise();
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testUnrelatedClassAdded() throws IOException
+    {
+        optimise();
+        addClass("other/NewHelper", systemClass("java/lang/String"));
+        assertArrayEquals(classBytes, optimise());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testReferencedClassChanged() throws IOException
+    {
+        optimise();
+        // The referenced class now extends java/util/AbstractList rather than java/lang/Object.
+        addClass(REFERENCED, systemClass("java/util/ArrayList"));
+        optimise();
+        assertEquals(2, runs.get());
+    }
+
+    // Optimises the class through a new cache over the same directory, as a later run would.
+    private byte[] optimise() throws IOException
+    {
+        ClassHierarchy hierarchy = new ClassHierarchy(Collections.singletonList(classPath));
+        OptimisationCache cache = new OptimisationCache(folder.getRoot().toPath().resolve("cache"), Long.MAX_VALUE, "test", hierarchy);
+        return cache.wrap(optimiser).apply(classBytes);
+    }
+
+    private void addClass(String name, byte[] bytes) throws IOException
+    {
+        Path file = classPath.resolve(name + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+    }
+
+    private static byte[] systemClass(String name) throws IOException
+    {
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package comp207p.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test every rule of the peephole catalogue on the instruction sequence it rewrites
+ */
+
+public class PeepholeOptimisationTest
+{
+    private OptimisationStats.PassStats stats = new OptimisationStats.PassStats(PeepholeOptimisation.PASS_NAME);
+
+    @BeforeClass
+    public static void compareInstructionsByIdentity() throws ClassNotFoundException
+    {
+        // The optimiser always runs with the instruction comparator that ConstantFolder sets up.
+        Class.forName(ConstantFolder.class.getName());
+    }
+
+    @Test
+    public void testStoreLoad()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ILOAD(1));
+        il.append(new IMUL());
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(new IRETURN());
+
+        assertEquals("iload_0 iload_1 imul ireturn", optimise(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testStoreLoadOfLiveLocal()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(new ILOAD(2));
+        il.append(new IADD());
+        il.append(new IRETURN());
+
+        assertEquals("iload_0 istore_2 iload_2 iload_2 iadd ireturn", optimise(il));
+        assertEquals(0, stats.folds);
+    }
+
+    @Test
+    public void testSelfCopy()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(0));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertEquals("iload_0 ireturn", optimise(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testPushPop()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new POP());
+        il.append(new ICONST(5));
+        il.append(new POP());
+        il.append(new LCONST(1));
+        il.append(new POP2());
+        il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        assertEquals("iload_1 ireturn", optimise(il));
+        assertEquals(3, stats.folds);
+    }
+
+    @Test
+    public void testDupPop()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new DUP());
+        il.append(new POP());
+        il.append(new IRETURN());
+
+        assertEquals("iload_0 ireturn", optimise(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testGotoNext()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        BranchHandle jump = il.append(new GOTO(null));
+        jump.setTarget(il.append(new IRETURN()));
+
+        assertEquals("iload_0 ireturn", optimise(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testJumpChain()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        BranchHandle branch = il.append(new IFEQ(null));
+        il.append(new ICONST(1));
+        il.append(new IRETURN());
+        BranchHandle chain = il.append(new GOTO(null));
+        il.append(new ICONST(2));
+        il.append(new IRETURN());
+        InstructionHandle end = il.append(new ICONST(3));
+        il.append(new IRETURN());
+        branch.setTarget(chain);
+        chain.setTarget(end);
+
+        assertEquals("iload_0 ifeq iconst_1 ireturn goto iconst_2 ireturn iconst_3 ireturn", optimise(il));
+        assertSame(end, branch.getTarget());
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testGotoReturn()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        BranchHandle branch = il.append(new IFEQ(null));
+        il.append(new ICONST(1));
+        BranchHandle jump = il.append(new GOTO(null));
+        branch.setTarget(il.append(new ICONST(2)));
+        jump.setTarget(il.append(new IRETURN()));
+
+        assertEquals("iload_0 ifeq iconst_1 ireturn iconst_2 ireturn", optimise(il));
+        assertEquals(1, stats.folds);
+    }
+
+    @Test
+    public void testBranchOverGoto()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        BranchHandle branch = il.append(new IFEQ(null));
+        BranchHandle jump = il.append(new GOTO(null));
+        branch.setTarget(il.append(new ICONST(1)));
+        il.append(new IRETURN());
+        InstructionHandle target = il.append(new ICONST(2));
+        il.append(new IRETURN());
+        jump.setTarget(target);
+
+        assertEquals("iload_0 ifne iconst_1 ireturn iconst_2 ireturn", optimise(il));
+        InstructionHandle negated = il.getStart().getNext();
+        assertSame(target, ((IFNE) negated.getInstruction()).getTarget());
+        assertEquals(1, stats.folds);
+    }
+
+    /**
+     * Runs the peephole stage on il as the code of "static int m(int, int)", and returns its opcodes.
+     */
+    private String optimise(InstructionList il)
+    {
+        MethodGen methodGen = new MethodGen(Constants.ACC_STATIC, Type.INT, new Type[] { Type.INT, Type.INT }, null,
+                "m", "Test", il, new ConstantPoolGen());
+        PeepholeOptimisation.optimise(methodGen, stats);
+
+        List<String> opcodes = new ArrayList<>();
+        for (InstructionHandle ih : methodGen.getInstructionList().getInstructionHandles()) {
+            opcodes.add(ih.getInstruction().getName());
+        }
+        return String.join(" ", opcodes);
+    }
+}
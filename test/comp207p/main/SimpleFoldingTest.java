@@ -0,0 +1,134 @@
+package comp207p.main;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that literal arithmetic, shifts and conversions fold to exactly what the JVM computes
+ */
+
+public class SimpleFoldingTest
+{
+    private OptimisationStats.PassStats stats = new OptimisationStats.PassStats(SimpleFolding.PASS.getName());
+    private ConstantPoolGen cpgen = new ConstantPoolGen();
+
+    @BeforeClass
+    public static void compareInstructionsByIdentity() throws ClassNotFoundException
+    {
+        // The optimiser always runs with the instruction comparator that ConstantFolder sets up.
+        Class.forName(ConstantFolder.class.getName());
+    }
+
+    @Test
+    public void testIntRemainder()
+    {
+        assertEquals("bipush -2", fold(Type.INT, new BIPUSH((byte) -7), new ICONST(5), new IREM()));
+    }
+
+    @Test
+    public void testNegateMinValue()
+    {
+        assertEquals("ldc -2147483648", fold(Type.INT, new LDC(cpgen.addInteger(Integer.MIN_VALUE)), new INEG()));
+    }
+
+    @Test
+    public void testLongShiftDistanceMasked()
+    {
+        assertEquals("ldc2_w 2", fold(Type.LONG, new LCONST(1), new BIPUSH((byte) 65), new LSHL()));
+    }
+
+    @Test
+    public void testUnsignedShift()
+    {
+        assertEquals("ldc 2147483647", fold(Type.INT, new ICONST(-1), new ICONST(1), new IUSHR()));
+    }
+
+    @Test
+    public void testBitwise()
+    {
+        assertEquals("bipush 10", fold(Type.INT, new BIPUSH((byte) 12), new BIPUSH((byte) 6), new IXOR()));
+    }
+
+    @Test
+    public void testConversionSaturates()
+    {
+        assertEquals("ldc 2147483647", fold(Type.INT, new LDC2_W(cpgen.addDouble(1e20)), new D2I()));
+    }
+
+    @Test
+    public void testNaNConvertsToZero()
+    {
+        assertEquals("iconst_0 0", fold(Type.INT, new LDC2_W(cpgen.addDouble(Double.NaN)), new D2I()));
+    }
+
+    @Test
+    public void testUnaryChain()
+    {
+        assertEquals("ldc2_w -5", fold(Type.LONG, new ICONST(5), new I2L(), new LNEG()));
+    }
+
+    @Test
+    public void testFloatRemainderByZero()
+    {
+        assertEquals("ldc NaN", fold(Type.FLOAT, new FCONST(1), new FCONST(0), new FREM()));
+    }
+
+    @Test
+    public void testIntDivisionByZeroKept()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(1));
+        il.append(new ICONST(0));
+        il.append(new IDIV());
+        il.append(new IRETURN());
+
+        assertFalse(SimpleFolding.run(method(Type.INT, il), stats));
+        assertEquals("iconst_1 1 iconst_0 0 idiv ireturn", code(il));
+    }
+
+    /**
+     * Folds the instructions as the code of a method returning returnType, and returns what is left of them.
+     */
+    private String fold(Type returnType, Instruction... instructions)
+    {
+        InstructionList il = new InstructionList();
+        for (Instruction instruction : instructions) {
+            il.append(instruction);
+        }
+        il.append(InstructionFactory.createReturn(returnType));
+
+        assertTrue(SimpleFolding.run(method(returnType, il), stats));
+        String code = code(il);
+        return code.substring(0, code.lastIndexOf(' '));
+    }
+
+    private MethodGen method(Type returnType, InstructionList il)
+    {
+        return new MethodGen(Constants.ACC_STATIC, returnType, Type.NO_ARGS, null, "m", "Test", il, cpgen);
+    }
+
+    /**
+     * Lists the opcodes, each literal followed by the number it pushes.
+     */
+    private String code(InstructionList il)
+    {
+        List<String> code = new ArrayList<>();
+        for (InstructionHandle ih : il.getInstructionHandles()) {
+            code.add(ih.getInstruction().getName());
+            Number value = ConstantEvaluator.literalValue(ih.getInstruction(), cpgen);
+            if (value != null) {
+                code.add(value.toString());
+            }
+        }
+        return String.join(" ", code);
+    }
+}
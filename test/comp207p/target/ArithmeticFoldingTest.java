@@ -0,0 +1,88 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of remainders, negation, shifts, bitwise operators and conversions
+ */
+public class ArithmeticFoldingTest {
+
+    ArithmeticFolding af = new ArithmeticFolding();
+
+    @Test
+    public void testIntRemainder(){
+        assertEquals(-2, af.intRemainder());
+    }
+
+    @Test
+    public void testLongRemainder(){
+        assertEquals(2L, af.longRemainder());
+    }
+
+    @Test
+    public void testDoubleRemainder(){
+        assertEquals(1.5, af.doubleRemainder(), 0.0);
+    }
+
+    @Test
+    public void testFloatRemainderByZero(){
+        assertEquals(Float.NaN, af.floatRemainderByZero(), 0.0f);
+    }
+
+    @Test
+    public void testNegateMinValue(){
+        assertEquals(Integer.MIN_VALUE, af.negateMinValue());
+    }
+
+    @Test
+    public void testNegativeZero(){
+        assertEquals(Double.NEGATIVE_INFINITY, af.negativeZero(), 0.0);
+    }
+
+    @Test
+    public void testShifts(){
+        assertEquals(2 - 400 + 150000, af.shifts());
+    }
+
+    @Test
+    public void testLongShift(){
+        assertEquals(2L, af.longShift());
+    }
+
+    @Test
+    public void testBitwise(){
+        assertEquals(0x30 | 0xFF, af.bitwise());
+    }
+
+    @Test
+    public void testLongBitwise(){
+        assertEquals(0xF0F0F0F0F0F0L, af.longBitwise());
+    }
+
+    @Test
+    public void testNarrowing(){
+        assertEquals(44 + 65535 + 4464, af.narrowing());
+    }
+
+    @Test
+    public void testFloatingToIntegral(){
+        assertEquals((long) Integer.MAX_VALUE - 3, af.floatingToIntegral());
+    }
+
+    @Test
+    public void testUnaryChain(){
+        assertEquals(5L, af.unaryChain());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivideByZero(){
+        af.divideByZero();
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testRemainderByZero(){
+        af.remainderByZero();
+    }
+}
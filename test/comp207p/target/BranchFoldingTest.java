@@ -0,0 +1,44 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of comparisons and conditional jumps on constants
+ */
+public class BranchFoldingTest {
+
+    BranchFolding bf = new BranchFolding();
+
+    @Test
+    public void testIntBranch(){
+        assertEquals(1, bf.intBranch());
+    }
+
+    @Test
+    public void testLongCompare(){
+        assertEquals(false, bf.longCompare());
+    }
+
+    @Test
+    public void testNanCompare(){
+        assertEquals(false, bf.nanCompare());
+    }
+
+    @Test
+    public void testFloatCompare(){
+        assertEquals(true, bf.floatCompare());
+    }
+
+    @Test
+    public void testConstantSwitch(){
+        assertEquals("Wed", bf.constantSwitch());
+    }
+
+    @Test
+    public void testBranchInTry(){
+        assertEquals(47, bf.branchInTry("42"));
+        assertEquals(5, bf.branchInTry("x"));
+    }
+}
@@ -0,0 +1,58 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that folded constants keep their exact values whichever instruction pushes them
+ */
+public class CompactConstantsTest {
+
+    CompactConstants cc = new CompactConstants();
+
+    @Test
+    public void testSmallInts(){
+        assertEquals(1120, cc.smallInts());
+    }
+
+    @Test
+    public void testLongs(){
+        assertEquals(1L, cc.longs());
+    }
+
+    @Test
+    public void testNegativeZeroFloat(){
+        assertEquals(Float.floatToRawIntBits(-0.0f), Float.floatToRawIntBits(cc.negativeZeroFloat()));
+    }
+
+    @Test
+    public void testNegativeZeroDouble(){
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(cc.negativeZeroDouble()));
+    }
+
+    @Test
+    public void testLargePool(){
+        assertEquals(210000 + 101813, cc.largePool());
+    }
+
+    @Test
+    public void testLargePoolFloat(){
+        assertEquals(3.75f, cc.largePoolFloat(), 0.0f);
+    }
+
+    @Test
+    public void testAnnotatedType() throws NoSuchMethodException {
+        assertEquals(42, cc.annotatedType());
+        assertTrue(CompactConstants.class.getMethod("annotatedType").getAnnotatedReturnType()
+                .isAnnotationPresent(CompactConstants.Positive.class));
+    }
+
+    @Test
+    public void testRecord(){
+        assertEquals(3, cc.record());
+        assertTrue(CompactConstants.Range.class.getRecordComponents()[0].getAnnotatedType()
+                .isAnnotationPresent(CompactConstants.Positive.class));
+    }
+}
@@ -0,0 +1,51 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test copy propagation and local slot allocation
+ */
+
+public class CopyPropagationTest
+{
+    CopyPropagation cp = new CopyPropagation();
+
+    @Test
+    public void testCopy()
+    {
+        assertEquals(12, cp.copy(3));
+    }
+
+    @Test
+    public void testSourceChanged()
+    {
+        assertEquals(16, cp.sourceChanged(3));
+    }
+
+    @Test
+    public void testLoop()
+    {
+        assertEquals(10, cp.loop(5));
+    }
+
+    @Test
+    public void testWide()
+    {
+        assertEquals(10L, cp.wide(3L, 1.5));
+    }
+
+    @Test
+    public void testScopes()
+    {
+        assertEquals(12, cp.scopes(3));
+    }
+
+    @Test
+    public void testHandler()
+    {
+        assertEquals(103, cp.handler(3));
+        assertEquals(5, cp.handler(5));
+    }
+}
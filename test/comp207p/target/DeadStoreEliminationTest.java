@@ -0,0 +1,34 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test removal of stores that are never read
+ */
+public class DeadStoreEliminationTest {
+
+    DeadStoreElimination dse = new DeadStoreElimination();
+
+    @Test
+    public void testUnusedSum(){
+        assertEquals(4835383423L, dse.unusedSum());
+    }
+
+    @Test
+    public void testOverwritten(){
+        assertEquals(6, dse.overwritten(5));
+    }
+
+    @Test
+    public void testStoresInTry(){
+        assertEquals(43, dse.storesInTry("42"));
+        assertEquals(-1, dse.storesInTry("forty-two"));
+    }
+
+    @Test
+    public void testUnusedCounter(){
+        assertEquals(10, dse.unusedCounter());
+    }
+}
@@ -0,0 +1,44 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test optimising classes compiled with local variable tables
+ */
+
+public class DebugInfoTest
+{
+    DebugInfo debugInfo = new DebugInfo();
+
+    @Test
+    public void testFoldedLocals()
+    {
+        assertEquals(480, debugInfo.foldedLocals());
+    }
+
+    @Test
+    public void testFoldedWide()
+    {
+        assertEquals(3239974893L, debugInfo.foldedWide());
+    }
+
+    @Test
+    public void testDeadStore()
+    {
+        assertEquals(8, debugInfo.deadStore(3));
+    }
+
+    @Test
+    public void testDeadLastLocal()
+    {
+        assertEquals(8, debugInfo.deadLastLocal(3));
+    }
+
+    @Test
+    public void testGenericLocal()
+    {
+        assertEquals(43, debugInfo.genericLocal());
+    }
+}
@@ -60,5 +60,11 @@ public class DynamicVariableFoldingTest
         assertEquals(24, dvf.methodFour());
     }
 
+    @Test
+    public void testMethodFive(){
+        assertEquals(14, dvf.methodFive(true));
+        assertEquals(6, dvf.methodFive(false));
+    }
+
 
 }
\ No newline at end of file
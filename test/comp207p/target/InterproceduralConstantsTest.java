@@ -0,0 +1,76 @@
+package comp207p.target;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test interprocedural constant propagation
+ */
+
+public class InterproceduralConstantsTest
+{
+    InterproceduralConstants ic = new InterproceduralConstants();
+    private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+
+    @Before
+    public void setUpStreams()
+    {
+        System.setOut(new PrintStream(outContent));
+    }
+
+    @After
+    public void cleanUpStreams()
+    {
+        System.setOut(null);
+    }
+
+    @Test
+    public void testArea()
+    {
+        assertEquals(144, ic.area());
+    }
+
+    @Test
+    public void testSeed()
+    {
+        assertEquals(42L, ic.seed());
+    }
+
+    @Test
+    public void testScaled()
+    {
+        assertEquals(10.0, ic.scaled(4), 0.0);
+    }
+
+    @Test
+    public void testOffsetTwice()
+    {
+        assertEquals(8, ic.offsetTwice());
+    }
+
+    @Test
+    public void testLoggedPlusOne()
+    {
+        assertEquals(10, ic.loggedPlusOne());
+        assertEquals("logged" + System.lineSeparator(), outContent.toString());
+    }
+
+    @Test
+    public void testEarly()
+    {
+        // late() runs before the static block has assigned LATER.
+        assertEquals(5, ic.early());
+    }
+
+    @Test
+    public void testLater()
+    {
+        assertEquals(13, ic.later());
+    }
+}
@@ -0,0 +1,56 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test local value numbering
+ */
+
+public class LocalValueNumberingTest
+{
+    LocalValueNumbering lvn = new LocalValueNumbering();
+
+    @Test
+    public void testSquare()
+    {
+        assertEquals(49, lvn.square(3, 4));
+    }
+
+    @Test
+    public void testTwice()
+    {
+        assertEquals(210, lvn.twice(3, 4, 2));
+    }
+
+    @Test
+    public void testAfterStore()
+    {
+        assertEquals(28, lvn.afterStore(3, 4));
+    }
+
+    @Test
+    public void testWide()
+    {
+        assertEquals(2652L, lvn.wide(7L, 5L));
+    }
+
+    @Test
+    public void testMixed()
+    {
+        assertEquals(1.0, lvn.mixed(2.5, 4), 0.0);
+    }
+
+    @Test
+    public void testDivision()
+    {
+        assertEquals(12, lvn.division(9, 3));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero()
+    {
+        lvn.division(9, 0);
+    }
+}
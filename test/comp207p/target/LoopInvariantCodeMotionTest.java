@@ -0,0 +1,53 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test loop-invariant code motion
+ */
+
+public class LoopInvariantCodeMotionTest
+{
+    LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion();
+
+    @Test
+    public void testSumOfProducts()
+    {
+        assertEquals(70, licm.sumOfProducts(3, 4, 5));
+        assertEquals(0, licm.sumOfProducts(3, 4, 0));
+    }
+
+    @Test
+    public void testNested()
+    {
+        assertEquals(90L, licm.nested(2, 3L, 3));
+    }
+
+    @Test
+    public void testScaled()
+    {
+        assertEquals(7.5, licm.scaled(5.0, 2.0, 3), 0.0);
+    }
+
+    @Test
+    public void testChanging()
+    {
+        assertEquals(24, licm.changing(3, 3));
+    }
+
+    @Test
+    public void testDivideInEmptyLoop()
+    {
+        assertEquals(0, licm.divideInEmptyLoop(1, 0, 0));
+        assertEquals(6, licm.divideInEmptyLoop(6, 2, 2));
+    }
+
+    @Test
+    public void testDoWhile()
+    {
+        assertEquals(18, licm.doWhile(5, 2, 2));
+        assertEquals(9, licm.doWhile(5, 2, 0));
+    }
+}
@@ -0,0 +1,34 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test folding of variables used in and around loops
+ */
+public class LoopVariableFoldingTest {
+
+    LoopVariableFolding lvf = new LoopVariableFolding();
+
+    @Test
+    public void testConstantUsedInLoop(){
+        assertEquals(60, lvf.constantUsedInLoop());
+    }
+
+    @Test
+    public void testReassignedInDoWhile(){
+        assertEquals(10, lvf.reassignedInDoWhile());
+    }
+
+    @Test
+    public void testReassignedOnOneBranch(){
+        assertEquals(21, lvf.reassignedOnOneBranch(true));
+        assertEquals(11, lvf.reassignedOnOneBranch(false));
+    }
+
+    @Test
+    public void testIncrementedInLoop(){
+        assertEquals(100L * 101 * 102 * 103 + 104, lvf.incrementedInLoop());
+    }
+}
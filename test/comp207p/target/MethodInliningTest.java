@@ -0,0 +1,70 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test method inlining
+ */
+
+public class MethodInliningTest
+{
+    MethodInlining mi = new MethodInlining();
+
+    @Test
+    public void testSquareOfConstant()
+    {
+        assertEquals(50, mi.squareOfConstant());
+    }
+
+    @Test
+    public void testAbsolute()
+    {
+        assertEquals(9, mi.absolute(-5));
+        assertEquals(9, mi.absolute(5));
+    }
+
+    @Test
+    public void testSum()
+    {
+        assertEquals(42L, mi.sum());
+    }
+
+    @Test
+    public void testScaledTwice()
+    {
+        assertEquals(15, mi.scaledTwice(4));
+    }
+
+    @Test
+    public void testOffsetOf()
+    {
+        assertEquals(10, mi.offsetOf(new MethodInlining()));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOffsetOfNull()
+    {
+        mi.offsetOf(null);
+    }
+
+    @Test
+    public void testBumped()
+    {
+        assertEquals(5, mi.bumped());
+    }
+
+    @Test
+    public void testInLoop()
+    {
+        assertEquals(30, mi.inLoop(5));
+    }
+
+    @Test
+    public void testCaught()
+    {
+        assertEquals(2, mi.caught(-5));
+        assertEquals(-1, mi.caught(0));
+    }
+}
@@ -0,0 +1,63 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test peephole optimisation
+ */
+
+public class PeepholeTest
+{
+    Peephole peephole = new Peephole();
+
+    @Test
+    public void testStoreLoad()
+    {
+        assertEquals(12, peephole.storeLoad(3, 4));
+    }
+
+    @Test
+    public void testSelfCopy()
+    {
+        assertEquals(12, peephole.selfCopy(3, 4));
+    }
+
+    @Test
+    public void testPushPop()
+    {
+        assertEquals(4, peephole.pushPop(3));
+    }
+
+    @Test
+    public void testDupPop()
+    {
+        assertEquals(6, peephole.dupPop(3));
+    }
+
+    @Test
+    public void testGotoNext()
+    {
+        assertEquals(4, peephole.gotoNext(3));
+    }
+
+    @Test
+    public void testJumpChain()
+    {
+        assertEquals(4, peephole.jumpChain(4, 2));
+    }
+
+    @Test
+    public void testGotoReturn()
+    {
+        assertEquals(2, peephole.gotoReturn(12));
+        assertEquals(13, peephole.gotoReturn(3));
+    }
+
+    @Test
+    public void testBranchOverGoto()
+    {
+        assertEquals(27, peephole.branchOverGoto(10));
+    }
+}
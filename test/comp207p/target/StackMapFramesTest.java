@@ -0,0 +1,54 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that optimised methods with control flow still pass the type-checking verifier
+ */
+public class StackMapFramesTest {
+
+    StackMapFrames smf = new StackMapFrames();
+
+    @Test
+    public void testUninitialisedThis(){
+        assertEquals("big6", smf.size());
+        assertEquals("small6", new StackMapFrames(3).size());
+    }
+
+    @Test
+    public void testMergeReferences(){
+        assertEquals(40, smf.mergeReferences(true));
+        assertEquals(22, smf.mergeReferences(false));
+    }
+
+    @Test
+    public void testLambda(){
+        assertEquals(42, smf.lambda(true));
+        assertEquals(12, smf.lambda(false));
+    }
+
+    @Test
+    public void testCaught(){
+        assertEquals(42, smf.caught());
+    }
+
+    @Test
+    public void testWideLocals(){
+        assertEquals(126.5, smf.wideLocals(), 0.0);
+    }
+
+    @Test
+    public void testUninitialisedNew(){
+        assertEquals("x42", smf.uninitialisedNew(true));
+        assertEquals("y42", smf.uninitialisedNew(false));
+    }
+
+    @Test
+    public void testArrays(){
+        assertTrue(smf.arrays(true) instanceof String[]);
+        assertEquals(2, smf.arrays(false).length);
+    }
+}
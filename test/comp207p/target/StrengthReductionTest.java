@@ -0,0 +1,83 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test algebraic simplification and strength reduction of arithmetic with one constant operand
+ */
+public class StrengthReductionTest {
+
+    StrengthReduction sr = new StrengthReduction();
+
+    @Test
+    public void testMultiplyByEight(){
+        assertEquals(-24, sr.multiplyByEight(-3));
+        assertEquals(Integer.MAX_VALUE * 8, sr.multiplyByEight(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConstantOnTheLeft(){
+        assertEquals(-48L, sr.constantOnTheLeft(-3L));
+    }
+
+    @Test
+    public void testIdentities(){
+        assertEquals(-7, sr.identities(-7));
+    }
+
+    @Test
+    public void testAnnihilators(){
+        assertEquals(0L, sr.annihilators(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testNegation(){
+        assertEquals(-10, sr.negation(5));
+        assertEquals(0, sr.negation(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void testLengthDivided(){
+        assertEquals(2 + 3, sr.lengthDivided(new int[11]));
+    }
+
+    @Test
+    public void testSignedDivided(){
+        assertEquals(-1 - 7, sr.signedDivided(-7));
+    }
+
+    @Test
+    public void testSelfOperands(){
+        assertEquals(-5L, sr.selfOperands(-5L));
+    }
+
+    @Test
+    public void testTimesOne(){
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(sr.timesOne(-0.0)));
+        assertEquals(Double.NaN, sr.timesOne(Double.NaN), 0.0);
+    }
+
+    @Test
+    public void testPlusZero(){
+        assertEquals(Double.doubleToRawLongBits(0.0), Double.doubleToRawLongBits(sr.plusZero(-0.0)));
+    }
+
+    @Test
+    public void testPlusNegativeZero(){
+        assertEquals(Float.floatToRawIntBits(-0.0f), Float.floatToRawIntBits(sr.plusNegativeZero(-0.0f)));
+    }
+
+    @Test
+    public void testDivideByFour(){
+        assertEquals(0.25, sr.divideByFour(1.0), 0.0);
+        assertEquals(Double.MIN_VALUE / 4.0, sr.divideByFour(Double.MIN_VALUE), 0.0);
+        assertEquals(Double.NEGATIVE_INFINITY, sr.divideByFour(Double.NEGATIVE_INFINITY), 0.0);
+    }
+
+    @Test
+    public void testDivideByNegativeOne(){
+        assertEquals(Float.floatToRawIntBits(0.0f), Float.floatToRawIntBits(sr.divideByNegativeOne(-0.0f)));
+    }
+}